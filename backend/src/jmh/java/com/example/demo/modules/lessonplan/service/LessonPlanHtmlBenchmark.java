@@ -0,0 +1,56 @@
+package com.example.demo.modules.lessonplan.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规整一份模型生成的教案表格：单次扫描（{@link LessonPlanHtml}）对比原先的正则实现（{@link LegacyLessonPlanHtml}）。
+ * 输入是带代码块包裹、前后有说明文字、每行若干 th/td 的表格，rows 控制大小（200 行约 50 KB）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LessonPlanHtmlBenchmark {
+
+    @Param({"20", "200", "800"})
+    public int rows;
+
+    private String raw;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("```html\n以下是教案：\n<table class=\"plan\">\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append("<tr><th>环节").append(i).append("</th>")
+                    .append("<td colspan=\"2\">教师活动：提出问题，引导学生观察分数的意义。</td>")
+                    .append("<td style=\"width:30%\">学生活动：小组讨论并汇报。</td></tr>\n");
+        }
+        sb.append("</table>\n以上教案可根据学情调整。\n```");
+        raw = sb.toString();
+    }
+
+    @Benchmark
+    public Object singlePass() {
+        LessonPlanHtml.Normalized normalized = LessonPlanHtml.normalize(raw);
+        return normalized.table;
+    }
+
+    @Benchmark
+    public Object legacyRegex() {
+        return LegacyLessonPlanHtml.extractStyledTable(raw);
+    }
+}
@@ -26,14 +26,19 @@ public class DemoApplication {
         SpringApplication.run(DemoApplication.class, args);
     }
 
+    /**
+     * 补上 last_modified 列，并把旧数据里为空的填成 0：课件列表按 (last_modified, id) 键集分页，
+     * 空值既进不了游标比较（NULL 比较恒为假），也会让游标写成 0:id 后漏掉后面的空值行。
+     */
     @Bean
     public CommandLineRunner ensureLessonLastModifiedColumn(DataSource dataSource) {
         return args -> {
             try (Connection conn = dataSource.getConnection()) {
-                if (!columnExists(conn, "t_lesson", "last_modified")) {
-                    try (Statement st = conn.createStatement()) {
+                try (Statement st = conn.createStatement()) {
+                    if (!columnExists(conn, "t_lesson", "last_modified")) {
                         st.execute("ALTER TABLE t_lesson ADD COLUMN last_modified BIGINT");
                     }
+                    st.executeUpdate("UPDATE t_lesson SET last_modified = 0 WHERE last_modified IS NULL");
                 }
             }
         };
@@ -0,0 +1,24 @@
+package com.example.demo.modules.common.admission;
+
+/**
+ * 模型调用被准入控制拒绝（排队已满或等待超过期限），对外表现为 429 + Retry-After。
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final String model;
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String model, String reason, long retryAfterSeconds) {
+        super("模型 " + model + " 当前繁忙：" + reason);
+        this.model = model;
+        this.retryAfterSeconds = Math.max(1L, retryAfterSeconds);
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
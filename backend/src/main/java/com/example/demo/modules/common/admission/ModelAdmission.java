@@ -0,0 +1,398 @@
+package com.example.demo.modules.common.admission;
+
+import com.example.demo.modules.common.routing.ConfiguredModels;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按模型的准入控制：
+ * - 令牌桶限速（每秒速率 + 突发容量），按预约顺序放行；
+ * - 并发数上限，满了进入先来先服务的等待队列；
+ * - 等待队列有长度上限和等待期限，超出立即拒绝（429 + Retry-After），不把压力传给上游；
+ * - 不能阻塞调用线程的场合（如流式请求的 Servlet 线程）用 {@link #acquireAsync}，与阻塞调用排同一个队，
+ *   许可由释放者或定时器交付，排队期间不占线程。
+ *
+ * 配置（未配置的模型使用 default，且共用同一个 default gate，见 {@link ConfiguredModels}）：
+ * ai.admission.model.&lt;模型ID&gt;.maxConcurrent / ratePerSecond / burst / maxQueue / maxWaitMs
+ */
+@Component
+public class ModelAdmission {
+
+    private final Environment env;
+    private final ConfiguredModels configuredModels;
+    private final ConcurrentHashMap<String, ModelGate> gates = new ConcurrentHashMap<>();
+
+    /**
+     * 排队期限与令牌桶等待的定时器；到点的回调只做转交许可，不执行调用
+     */
+    private final ScheduledThreadPoolExecutor timer;
+
+    public ModelAdmission(Environment env, ConfiguredModels configuredModels) {
+        this.env = env;
+        this.configuredModels = configuredModels;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "model-admission-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * 获取调用许可；用完必须 close（建议 try-with-resources）。
+     *
+     * @throws AdmissionRejectedException 排队已满或在等待期限内拿不到许可
+     */
+    public Permit acquire(String model) {
+        String key = keyOf(model);
+        return gates.computeIfAbsent(key, this::createGate).acquire();
+    }
+
+    /**
+     * 非阻塞地获取调用许可：与 {@link #acquire} 排同一个队、遵守同样的期限，许可到手时完成返回的 future。
+     * 排队已满、等待超时或超出速率限制时以 {@link AdmissionRejectedException} 异常完成。
+     * 取消返回的 future 即撤出排队；取消时许可恰好已交付的，由 gate 自行归还。
+     */
+    public CompletableFuture<Permit> acquireAsync(String model) {
+        String key = keyOf(model);
+        return gates.computeIfAbsent(key, this::createGate).acquireAsync();
+    }
+
+    /**
+     * 该模型允许的最大并发调用数（批量任务据此限制自身并发，避免自己把排队名额占满）。
+     */
+    public int maxConcurrent(String model) {
+        String key = keyOf(model);
+        return gates.computeIfAbsent(key, this::createGate).maxConcurrent;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Map.Entry<String, ModelGate> e : gates.entrySet()) {
+            m.put(e.getKey(), e.getValue().stats());
+        }
+        return m;
+    }
+
+    /**
+     * 未配置的模型（含客户端随意传入的 model）共用 default gate，gate 数量不随请求增长。
+     */
+    private String keyOf(String model) {
+        return configuredModels.contains(model) ? model.trim() : "default";
+    }
+
+    private ModelGate createGate(String model) {
+        return new ModelGate(model,
+                setting(model, "maxConcurrent", 20),
+                settingDouble(model, "ratePerSecond", 5.0),
+                setting(model, "burst", 10),
+                setting(model, "maxQueue", 50),
+                setting(model, "maxWaitMs", 10000),
+                timer);
+    }
+
+    private int setting(String model, String name, int fallback) {
+        Integer def = env.getProperty("ai.admission.default." + name, Integer.class, fallback);
+        return env.getProperty("ai.admission.model." + model + "." + name, Integer.class, def);
+    }
+
+    private double settingDouble(String model, String name, double fallback) {
+        Double def = env.getProperty("ai.admission.default." + name, Double.class, fallback);
+        return env.getProperty("ai.admission.model." + model + "." + name, Double.class, def);
+    }
+
+    /**
+     * 一次调用许可：释放并发名额。重复 close 无副作用。
+     */
+    public static final class Permit implements AutoCloseable {
+
+        private final ModelGate gate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ModelGate gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                gate.release();
+            }
+        }
+    }
+
+    private static final class ModelGate {
+
+        private final String model;
+        private final int maxConcurrent;
+        private final int maxQueue;
+        private final long maxWaitMs;
+        private final TokenBucket bucket;
+        private final ScheduledExecutorService timer;
+
+        /**
+         * active 与 queue 都由 gate 自身的锁保护；许可释放时直接转交给队首，不经过空闲状态，保证先来先服务
+         */
+        private int active;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejectedQueueFull = new AtomicLong();
+        private final AtomicLong rejectedTimeout = new AtomicLong();
+        private final AtomicLong totalWaitMs = new AtomicLong();
+
+        ModelGate(String model, int maxConcurrent, double ratePerSecond, int burst, int maxQueue, long maxWaitMs,
+                  ScheduledExecutorService timer) {
+            this.model = model;
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.maxQueue = Math.max(0, maxQueue);
+            this.maxWaitMs = Math.max(0L, maxWaitMs);
+            this.bucket = new TokenBucket(ratePerSecond, burst);
+            this.timer = timer;
+        }
+
+        Permit acquire() {
+            CompletableFuture<Permit> pending = acquireAsync();
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // 取消失败说明许可已经到手，直接归还
+                if (!pending.cancel(false)) {
+                    pending.thenAccept(Permit::close);
+                }
+                throw new AdmissionRejectedException(model, "等待被中断", retryAfterSeconds());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof AdmissionRejectedException) {
+                    throw (AdmissionRejectedException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        CompletableFuture<Permit> acquireAsync() {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            Waiter waiter;
+            synchronized (this) {
+                // 有人在排队时不插队
+                if (queue.isEmpty() && active < maxConcurrent) {
+                    active++;
+                    waiter = null;
+                } else if (queue.size() >= maxQueue) {
+                    rejectedQueueFull.incrementAndGet();
+                    return failed(new AdmissionRejectedException(model, "排队已满", retryAfterSeconds()));
+                } else {
+                    waiter = new Waiter(start, deadline);
+                    queue.addLast(waiter);
+                }
+            }
+            if (waiter == null) {
+                return reserveToken(start, deadline);
+            }
+            waiter.timeout = timer.schedule(() -> expire(waiter), deadline - start, TimeUnit.NANOSECONDS);
+            // 调用方取消（客户端断开 / 线程被中断）时撤出队列
+            waiter.result.whenComplete((p, e) -> {
+                if (waiter.result.isCancelled()) {
+                    withdraw(waiter);
+                }
+            });
+            return waiter.result;
+        }
+
+        /**
+         * 已占到并发名额后向令牌桶预约；需要等待时由定时器到点放行，不占用调用线程。
+         */
+        private CompletableFuture<Permit> reserveToken(long start, long deadline) {
+            long waitNanos = bucket.reserve();
+            if (waitNanos <= 0) {
+                return CompletableFuture.completedFuture(admit(start));
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                bucket.refund();
+                release();
+                rejectedTimeout.incrementAndGet();
+                return failed(new AdmissionRejectedException(model, "超出速率限制", Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1)));
+            }
+            CompletableFuture<Permit> ready = new CompletableFuture<>();
+            timer.schedule(() -> {
+                if (ready.isDone()) {
+                    // 等令牌期间被取消
+                    bucket.refund();
+                    release();
+                    return;
+                }
+                Permit permit = admit(start);
+                if (!ready.complete(permit)) {
+                    permit.close();
+                }
+            }, waitNanos, TimeUnit.NANOSECONDS);
+            return ready;
+        }
+
+        private Permit admit(long start) {
+            admitted.incrementAndGet();
+            totalWaitMs.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return new Permit(this);
+        }
+
+        /**
+         * 归还并发名额：有人排队时直接转交给队首。
+         */
+        void release() {
+            Waiter next;
+            synchronized (this) {
+                do {
+                    next = queue.pollFirst();
+                } while (next != null && next.result.isDone());
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            Waiter granted = next;
+            ScheduledFuture<?> timeout = granted.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            reserveToken(granted.start, granted.deadline).whenComplete((permit, e) -> {
+                if (e != null) {
+                    granted.result.completeExceptionally(e);
+                } else if (!granted.result.complete(permit)) {
+                    permit.close();
+                }
+            });
+        }
+
+        private void expire(Waiter waiter) {
+            synchronized (this) {
+                if (!queue.remove(waiter)) {
+                    return;
+                }
+            }
+            rejectedTimeout.incrementAndGet();
+            waiter.result.completeExceptionally(new AdmissionRejectedException(model, "等待超时", retryAfterSeconds()));
+        }
+
+        private void withdraw(Waiter waiter) {
+            synchronized (this) {
+                queue.remove(waiter);
+            }
+            ScheduledFuture<?> timeout = waiter.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        private synchronized int waiting() {
+            return queue.size();
+        }
+
+        private synchronized int active() {
+            return active;
+        }
+
+        private long retryAfterSeconds() {
+            // 粗略估计：队列前面的请求按当前速率放行所需时间，至少 1 秒
+            double rate = bucket.ratePerSecond;
+            if (rate <= 0) {
+                return 1L;
+            }
+            return Math.max(1L, (long) Math.ceil((waiting() + 1) / rate));
+        }
+
+        private static CompletableFuture<Permit> failed(AdmissionRejectedException e) {
+            CompletableFuture<Permit> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            long ok = admitted.get();
+            m.put("maxConcurrent", maxConcurrent);
+            m.put("active", active());
+            m.put("waiting", waiting());
+            m.put("maxQueue", maxQueue);
+            m.put("ratePerSecond", bucket.ratePerSecond);
+            m.put("admitted", ok);
+            m.put("rejectedQueueFull", rejectedQueueFull.get());
+            m.put("rejectedTimeout", rejectedTimeout.get());
+            m.put("avgWaitMs", ok == 0 ? 0 : totalWaitMs.get() / ok);
+            return m;
+        }
+    }
+
+    /**
+     * 一个排队者：拿到并发名额且令牌到位后完成 result。
+     */
+    private static final class Waiter {
+
+        final long start;
+        final long deadline;
+        final CompletableFuture<Permit> result = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+
+        Waiter(long start, long deadline) {
+            this.start = start;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * 预约式令牌桶：令牌不足时允许“透支”，返回需要等待的时长，后来者依次顺延，从而保持先来先服务。
+     */
+    private static final class TokenBucket {
+
+        private final double ratePerSecond;
+        private final double capacity;
+        private double tokens;
+        private long lastNanos;
+
+        TokenBucket(double ratePerSecond, int burst) {
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = Math.max(1, burst);
+            this.tokens = this.capacity;
+            this.lastNanos = System.nanoTime();
+        }
+
+        synchronized long reserve() {
+            if (ratePerSecond <= 0) {
+                return 0L;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastNanos) * ratePerSecond / 1_000_000_000d);
+            lastNanos = now;
+            tokens -= 1;
+            if (tokens >= 0) {
+                return 0L;
+            }
+            return (long) (-tokens / ratePerSecond * 1_000_000_000d);
+        }
+
+        synchronized void refund() {
+            if (ratePerSecond > 0) {
+                tokens = Math.min(capacity, tokens + 1);
+            }
+        }
+    }
+}
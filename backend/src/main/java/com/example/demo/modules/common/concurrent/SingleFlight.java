@@ -0,0 +1,71 @@
+package com.example.demo.modules.common.concurrent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 相同 key 的并发调用只执行一次：第一个调用者真正执行，其余调用者等待并共享同一结果（或同一异常）。
+ * 执行结束后立即移除，不做缓存。
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    public V execute(K key, Callable<V> work) throws Exception {
+        if (key == null) {
+            return work.call();
+        }
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inflight.putIfAbsent(key, mine);
+        if (existing != null) {
+            joined.incrementAndGet();
+            return await(existing);
+        }
+
+        leaders.incrementAndGet();
+        try {
+            V value = work.call();
+            mine.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    public int inflightCount() {
+        return inflight.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inflight", inflight.size());
+        m.put("leaders", leaders.get());
+        m.put("joined", joined.get());
+        return m;
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.demo.modules.common.controller;
+
+import com.example.demo.modules.common.metrics.AiCallMetrics;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 内部运维接口：Prometheus 文本格式的上游 AI 调用指标。
+ */
+@RestController
+@RequestMapping("/api/internal")
+public class MetricsController {
+
+    private static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain;version=0.0.4;charset=utf-8");
+
+    private final AiCallMetrics aiCallMetrics;
+
+    public MetricsController(AiCallMetrics aiCallMetrics) {
+        this.aiCallMetrics = aiCallMetrics;
+    }
+
+    @GetMapping("/metrics")
+    public ResponseEntity<String> metrics() {
+        return ResponseEntity.ok().contentType(PROMETHEUS_TEXT).body(aiCallMetrics.scrape());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.modules.common.controller;
+
+import com.example.demo.modules.common.admission.ModelAdmission;
+import com.example.demo.modules.common.resilience.CircuitBreakers;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内部运维接口：查看上游连接池的使用情况（租用/空闲/排队）、各模型的准入状态以及各上游的熔断状态。
+ */
+@RestController
+@RequestMapping("/api/internal/upstream")
+public class UpstreamStatusController {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final ModelAdmission admission;
+    private final CircuitBreakers circuitBreakers;
+
+    public UpstreamStatusController(PoolingHttpClientConnectionManager connectionManager, ModelAdmission admission,
+                                    CircuitBreakers circuitBreakers) {
+        this.connectionManager = connectionManager;
+        this.admission = admission;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    @GetMapping("/pool")
+    public ResponseEntity<Map<String, Object>> pool() {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("total", toMap(connectionManager.getTotalStats()));
+
+        List<Map<String, Object>> routes = new ArrayList<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            Map<String, Object> item = toMap(connectionManager.getStats(route));
+            item.put("host", route.getTargetHost().toHostString());
+            routes.add(item);
+        }
+        resp.put("routes", routes);
+        return ResponseEntity.ok(resp);
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<Map<String, Object>> admission() {
+        return ResponseEntity.ok(admission.stats());
+    }
+
+    @GetMapping("/breakers")
+    public ResponseEntity<Map<String, Object>> breakers() {
+        return ResponseEntity.ok(circuitBreakers.snapshot());
+    }
+
+    private static Map<String, Object> toMap(PoolStats stats) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("leased", stats.getLeased());
+        m.put("available", stats.getAvailable());
+        m.put("pending", stats.getPending());
+        m.put("max", stats.getMax());
+        return m;
+    }
+}
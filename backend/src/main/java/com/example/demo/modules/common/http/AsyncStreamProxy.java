@@ -0,0 +1,212 @@
+package com.example.demo.modules.common.http;
+
+import com.example.demo.modules.common.admission.AdmissionRejectedException;
+import com.example.demo.modules.common.resilience.CircuitOpenException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 非阻塞 SSE 代理：开启 Servlet 异步模式后立即释放请求线程（排队等准入许可时也不占线程），
+ * 上游响应通过 {@link StreamBroadcast} / {@link SseStreamRelay} 边到边写给客户端。
+ *
+ * 传入 coalesceKey 时，相同 key 的并发流只请求一次上游：后加入者回放已收到的前缀，再跟随实时数据。
+ */
+@Component
+public class AsyncStreamProxy {
+
+    private final CloseableHttpAsyncClient asyncClient;
+    private final RequestConfig streamRequestConfig;
+    private final ConcurrentHashMap<String, StreamBroadcast> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${upstream.stream.maxBufferedBytes:65536}")
+    private int maxBufferedBytes;
+
+    @Value("${upstream.stream.maxReplayBytes:1048576}")
+    private long maxReplayBytes;
+
+    @Value("${upstream.stream.timeoutMs:600000}")
+    private long streamTimeoutMs;
+
+    public AsyncStreamProxy(@Qualifier("upstreamAsyncClient") CloseableHttpAsyncClient asyncClient,
+                            @Qualifier("arkStreamRequestConfig") RequestConfig streamRequestConfig) {
+        this.asyncClient = asyncClient;
+        this.streamRequestConfig = streamRequestConfig;
+    }
+
+    /**
+     * 以 POST JSON 的方式打开上游流，并把响应转发给当前请求。调用后控制器直接返回即可。
+     *
+     * @param coalesceKey 为 null 时不合并
+     * @param admit       只有真正发起上游请求时才调用（加入已有流不占许可），返回排队中的许可；排队期间不占线程，
+     *                    客户端全部离开时取消该 future。直接抛出或以 {@link AdmissionRejectedException} 完成时回复 429，
+     *                    抛出 {@link CircuitOpenException} 时回复 503
+     * @param onStart     拿到许可后调用，返回的观察者跟随上游的生命周期并负责归还许可；抛出 {@link CircuitOpenException}
+     *                    时归还许可并回复 503
+     */
+    public <P extends AutoCloseable> SseStreamRelay proxy(HttpServletRequest request, String url, String bearerToken, byte[] jsonBody,
+                                                          String coalesceKey, Supplier<CompletableFuture<P>> admit,
+                                                          Function<? super P, ? extends UpstreamObserver> onStart) throws IOException {
+        return proxy(request, url, bearerToken, jsonBody, coalesceKey, admit, onStart, null);
+    }
+
+    /**
+     * 同上，并用 transformer 改写上游的 2xx 响应体（合并的流共享同一个 transformer 的输出）。
+     */
+    public <P extends AutoCloseable> SseStreamRelay proxy(HttpServletRequest request, String url, String bearerToken, byte[] jsonBody,
+                                                          String coalesceKey, Supplier<CompletableFuture<P>> admit,
+                                                          Function<? super P, ? extends UpstreamObserver> onStart,
+                                                          StreamTransformer transformer) throws IOException {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(streamTimeoutMs);
+        SseStreamRelay relay = new SseStreamRelay(asyncContext, maxBufferedBytes);
+
+        if (coalesceKey == null) {
+            StreamBroadcast single = new StreamBroadcast(0, () -> { });
+            single.transform(transformer);
+            single.lead(relay);
+            start(single, url, bearerToken, jsonBody, admit, onStart);
+            return relay;
+        }
+
+        while (true) {
+            StreamBroadcast existing = inflight.get(coalesceKey);
+            if (existing != null) {
+                if (existing.join(relay)) {
+                    joined.incrementAndGet();
+                    return relay;
+                }
+                inflight.remove(coalesceKey, existing);
+                continue;
+            }
+            StreamBroadcast[] holder = new StreamBroadcast[1];
+            StreamBroadcast created = new StreamBroadcast(maxReplayBytes, () -> inflight.remove(coalesceKey, holder[0]));
+            holder[0] = created;
+            created.transform(transformer);
+            created.lead(relay);
+            if (inflight.putIfAbsent(coalesceKey, created) == null) {
+                start(created, url, bearerToken, jsonBody, admit, onStart);
+                return relay;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inflight", inflight.size());
+        m.put("leaders", leaders.get());
+        m.put("joined", joined.get());
+        return m;
+    }
+
+    private <P extends AutoCloseable> void start(StreamBroadcast broadcast, String url, String bearerToken, byte[] jsonBody,
+                                                 Supplier<CompletableFuture<P>> admit,
+                                                 Function<? super P, ? extends UpstreamObserver> onStart) {
+        CompletableFuture<P> admitted;
+        try {
+            admitted = admit.get();
+        } catch (RuntimeException e) {
+            reject(broadcast, e);
+            return;
+        }
+        // 排队期间客户端全部离开时取消排队
+        broadcast.attach(admitted);
+        admitted.whenComplete((permit, error) -> {
+            if (error != null) {
+                if (!admitted.isCancelled()) {
+                    reject(broadcast, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+                return;
+            }
+            launch(broadcast, url, bearerToken, jsonBody, permit, onStart);
+        });
+    }
+
+    /**
+     * 拿到许可后发起上游请求；许可到达时已没有客户端的，直接归还。运行在释放许可的线程或准入定时器上，不阻塞。
+     */
+    private <P extends AutoCloseable> void launch(StreamBroadcast broadcast, String url, String bearerToken, byte[] jsonBody,
+                                                  P permit, Function<? super P, ? extends UpstreamObserver> onStart) {
+        if (broadcast.isAbandoned()) {
+            closeQuietly(permit);
+            return;
+        }
+        try {
+            broadcast.observe(onStart.apply(permit));
+        } catch (RuntimeException e) {
+            closeQuietly(permit);
+            reject(broadcast, e);
+            return;
+        }
+        leaders.incrementAndGet();
+
+        HttpPost post = new HttpPost(url);
+        post.setConfig(streamRequestConfig);
+        post.setHeader("Authorization", "Bearer " + bearerToken);
+        post.setHeader("Accept", "text/event-stream");
+        post.setEntity(new ByteArrayEntity(jsonBody, ContentType.APPLICATION_JSON));
+
+        HttpClientContext context = HttpClientContext.create();
+        Future<Void> future = asyncClient.execute(HttpAsyncMethods.create(post), broadcast.newConsumer(context), context,
+                broadcast.newCallback());
+        broadcast.attach(future);
+    }
+
+    private void reject(StreamBroadcast broadcast, Throwable e) {
+        if (e instanceof AdmissionRejectedException) {
+            AdmissionRejectedException r = (AdmissionRejectedException) e;
+            rejectBeforeStart(broadcast, 429, r.getMessage(), "model", r.getModel(), r.getRetryAfterSeconds());
+        } else if (e instanceof CircuitOpenException) {
+            CircuitOpenException c = (CircuitOpenException) e;
+            rejectBeforeStart(broadcast, 503, c.getMessage(), "upstream", c.getUpstream(), c.getRetryAfterSeconds());
+        } else {
+            broadcast.abortBeforeStart(502, null, "{\"message\":\"Stream proxy error\"}");
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable permit) {
+        try {
+            permit.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    private void rejectBeforeStart(StreamBroadcast broadcast, int status, String message,
+                                   String subjectKey, String subject, long retryAfterSeconds) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("message", message);
+        body.put(subjectKey, subject);
+        body.put("retryAfterSeconds", retryAfterSeconds);
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(body);
+        } catch (Exception ex) {
+            json = "{\"message\":\"busy\"}";
+        }
+        broadcast.abortBeforeStart(status, String.valueOf(retryAfterSeconds), json);
+    }
+}
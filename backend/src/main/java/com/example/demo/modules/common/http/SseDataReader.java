@@ -0,0 +1,56 @@
+package com.example.demo.modules.common.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 增量解析 SSE：按任意边界喂入原始字节，每凑齐一行 "data: ..." 就回调一次（跳过空数据与 [DONE]）。
+ * 只缓存当前未完成的一行，不保留整段响应。非线程安全，一个流一个实例。
+ */
+public final class SseDataReader {
+
+    public interface DataHandler {
+        void onData(String data);
+    }
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+    private final DataHandler handler;
+
+    public SseDataReader(DataHandler handler) {
+        this.handler = handler;
+    }
+
+    public void feed(byte[] chunk) {
+        int start = 0;
+        for (int i = 0; i < chunk.length; i++) {
+            if (chunk[i] == '\n') {
+                line.write(chunk, start, i - start);
+                emitLine();
+                start = i + 1;
+            }
+        }
+        line.write(chunk, start, chunk.length - start);
+    }
+
+    /**
+     * 流结束时处理最后一行没有换行结尾的数据。
+     */
+    public void flush() {
+        if (line.size() > 0) {
+            emitLine();
+        }
+    }
+
+    private void emitLine() {
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+        line.reset();
+        if (!s.startsWith("data:")) {
+            return;
+        }
+        String data = s.substring("data:".length()).trim();
+        if (data.isEmpty() || "[DONE]".equals(data)) {
+            return;
+        }
+        handler.onData(data);
+    }
+}
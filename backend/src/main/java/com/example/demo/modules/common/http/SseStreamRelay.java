@@ -0,0 +1,278 @@
+package com.example.demo.modules.common.http;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * 单个客户端的非阻塞写出端：
+ * - 数据由 {@link StreamBroadcast} 推入（运行在 HttpAsyncClient 的 IO 线程上），原样写给浏览器，不占用 Tomcat 工作线程。
+ * - 有界缓冲区：积压超过高水位即“饱和”，由上游暂停读取；降到低水位后通知上游恢复。
+ * - 浏览器断开 / 写出错 / 超时都会通知上游，最后一个订阅者离开时上游请求被取消。
+ *
+ * 状态都在 this 上同步；对 {@link Listener} 的回调一律在锁外进行，避免与 StreamBroadcast 的锁交叉。
+ */
+public class SseStreamRelay implements WriteListener, AsyncListener {
+
+    /**
+     * 上游一侧关心的事件。
+     */
+    interface Listener {
+        void onDrained(SseStreamRelay relay);
+
+        void onClosed(SseStreamRelay relay);
+    }
+
+    private final AsyncContext asyncContext;
+    private final HttpServletResponse response;
+    private final ServletOutputStream out;
+    private final int highWatermark;
+    private final int lowWatermark;
+
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean headReady;
+    private boolean writeBlocked;
+    private boolean ended;
+    private boolean saturated;
+    private boolean closed;
+    private Listener listener;
+
+    private boolean drainedSignal;
+    private boolean closedSignal;
+
+    SseStreamRelay(AsyncContext asyncContext, int maxBufferedBytes) throws IOException {
+        this.asyncContext = asyncContext;
+        this.response = (HttpServletResponse) asyncContext.getResponse();
+        this.highWatermark = Math.max(1024, maxBufferedBytes);
+        this.lowWatermark = this.highWatermark / 2;
+        asyncContext.addListener(this);
+        this.out = response.getOutputStream();
+        this.out.setWriteListener(this);
+    }
+
+    synchronized void bind(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    // ---------------- 上游推入 ----------------
+
+    void head(int status, String contentType) {
+        synchronized (this) {
+            if (closed || headReady) {
+                return;
+            }
+            response.setStatus(status);
+            if (status >= 200 && status < 300) {
+                response.setContentType("text/event-stream;charset=UTF-8");
+                response.setHeader("Cache-Control", "no-cache");
+                response.setHeader("X-Accel-Buffering", "no");
+            } else {
+                response.setContentType(contentType == null ? "application/json;charset=UTF-8" : contentType);
+            }
+            headReady = true;
+            drain();
+        }
+        fireSignals();
+    }
+
+    /**
+     * @return true 表示本客户端缓冲已饱和，上游应暂停读取
+     */
+    boolean offer(byte[] chunk) {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            pending.addLast(chunk);
+            pendingBytes += chunk.length;
+            drain();
+            if (!closed && pendingBytes > highWatermark) {
+                saturated = true;
+            }
+            full = saturated;
+        }
+        fireSignals();
+        return full;
+    }
+
+    void end() {
+        synchronized (this) {
+            ended = true;
+            drain();
+        }
+        fireSignals();
+    }
+
+    /**
+     * 直接以给定状态码结束（如准入拒绝的 429），不经过上游。
+     */
+    void reject(int status, String retryAfterSeconds, String jsonBody) {
+        synchronized (this) {
+            if (!closed && !headReady) {
+                response.setStatus(status);
+                response.setContentType("application/json;charset=UTF-8");
+                if (retryAfterSeconds != null) {
+                    response.setHeader("Retry-After", retryAfterSeconds);
+                }
+                byte[] body = jsonBody.getBytes(StandardCharsets.UTF_8);
+                pending.addLast(body);
+                pendingBytes += body.length;
+                headReady = true;
+            }
+            ended = true;
+            drain();
+        }
+        fireSignals();
+    }
+
+    void fail(Exception ex) {
+        synchronized (this) {
+            ended = true;
+            if (!closed && !headReady) {
+                response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+                response.setContentType("text/plain;charset=UTF-8");
+                byte[] msg = ("Stream proxy error: " + ex.getMessage()).getBytes(StandardCharsets.UTF_8);
+                pending.addLast(msg);
+                pendingBytes += msg.length;
+                headReady = true;
+            }
+            drain();
+        }
+        fireSignals();
+    }
+
+    // ---------------- 客户端写出 ----------------
+
+    private void drain() {
+        if (closed || !headReady || writeBlocked) {
+            return;
+        }
+        try {
+            while (!pending.isEmpty()) {
+                if (!out.isReady()) {
+                    writeBlocked = true;
+                    return;
+                }
+                byte[] chunk = pending.pollFirst();
+                pendingBytes -= chunk.length;
+                out.write(chunk);
+            }
+            if (!out.isReady()) {
+                writeBlocked = true;
+                return;
+            }
+            out.flush();
+            if (saturated && pendingBytes <= lowWatermark) {
+                saturated = false;
+                drainedSignal = true;
+            }
+            if (ended && pending.isEmpty()) {
+                close();
+            }
+        } catch (IOException ex) {
+            close();
+        }
+    }
+
+    private void close() {
+        pending.clear();
+        pendingBytes = 0;
+        saturated = false;
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closedSignal = true;
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    private void fireSignals() {
+        boolean drainedNow;
+        boolean closedNow;
+        Listener l;
+        synchronized (this) {
+            drainedNow = drainedSignal;
+            closedNow = closedSignal;
+            drainedSignal = false;
+            closedSignal = false;
+            l = listener;
+        }
+        if (l == null) {
+            return;
+        }
+        if (closedNow) {
+            l.onClosed(this);
+        } else if (drainedNow) {
+            l.onDrained(this);
+        }
+    }
+
+    @Override
+    public void onWritePossible() {
+        synchronized (this) {
+            writeBlocked = false;
+            drain();
+        }
+        fireSignals();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            close();
+        }
+        fireSignals();
+    }
+
+    // ---------------- AsyncListener ----------------
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                closedSignal = true;
+            }
+        }
+        fireSignals();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        synchronized (this) {
+            close();
+        }
+        fireSignals();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        synchronized (this) {
+            close();
+        }
+        fireSignals();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.demo.modules.common.http;
+
+import com.example.demo.modules.common.metrics.TimedNHttpClientConnectionManager;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * 一个上游流 + 多个订阅者（{@link SseStreamRelay}）。
+ * - 合并模式下保留已收到的前缀（有上限），后加入的订阅者先回放前缀，再跟随实时数据。
+ * - 任一订阅者缓冲饱和时暂停读取上游，全部回落到低水位后恢复，保证每个客户端的缓冲有界。
+ * - 最后一个订阅者离开时取消上游请求（观察者要求读完上游时除外）；还在排队等许可时则取消排队。
+ * - 可选的 {@link StreamTransformer} 改写 2xx 响应体，回放与转发的都是改写后的字节；
+ *   它的收尾异步完成时，订阅者在收尾写出后才结束。
+ *
+ * 锁顺序固定为 StreamBroadcast -> SseStreamRelay；relay 的回调总在它自己的锁外发生。
+ */
+class StreamBroadcast implements SseStreamRelay.Listener {
+
+    private final long maxReplayBytes;
+    private final Runnable onUnjoinable;
+
+    private final List<SseStreamRelay> subscribers = new ArrayList<>();
+    private final List<byte[]> replay = new ArrayList<>();
+    private long replayBytes;
+    private boolean joinable;
+
+    private int status;
+    private String contentType;
+    private boolean headReceived;
+    private boolean done;
+    private Exception failure;
+    private boolean paused;
+    private IOControl upstreamControl;
+    private Future<?> upstreamFuture;
+    private UpstreamObserver observer;
+    private StreamTransformer transformer;
+    private boolean firstByteSeen;
+
+    /**
+     * @param maxReplayBytes 为 0 表示不合并（不保留前缀，也不接受后加入者）
+     * @param onUnjoinable   不再接受新订阅者时回调（用于从进行中表里移除）
+     */
+    StreamBroadcast(long maxReplayBytes, Runnable onUnjoinable) {
+        this.maxReplayBytes = maxReplayBytes;
+        this.onUnjoinable = onUnjoinable;
+        this.joinable = maxReplayBytes > 0;
+    }
+
+    /**
+     * 第一个订阅者（发起者）。
+     */
+    synchronized void lead(SseStreamRelay relay) {
+        relay.bind(this);
+        subscribers.add(relay);
+    }
+
+    /**
+     * 加入进行中的流：回放已保留的前缀后跟随实时数据。
+     *
+     * @return false 表示该流已不可加入，调用方应自行发起新的上游请求
+     */
+    synchronized boolean join(SseStreamRelay relay) {
+        if (!joinable || subscribers.isEmpty()) {
+            return false;
+        }
+        relay.bind(this);
+        subscribers.add(relay);
+        if (headReceived) {
+            relay.head(status, contentType);
+        }
+        for (byte[] chunk : replay) {
+            relay.offer(chunk);
+        }
+        if (relay.isSaturated()) {
+            pauseUpstream();
+        }
+        if (done) {
+            if (failure != null) {
+                relay.fail(failure);
+            } else {
+                relay.end();
+            }
+        }
+        return true;
+    }
+
+    synchronized void observe(UpstreamObserver observer) {
+        this.observer = observer;
+    }
+
+    synchronized void transform(StreamTransformer transformer) {
+        this.transformer = transformer;
+    }
+
+    /**
+     * 上游未能发起（如准入被拒）：让当前订阅者以给定响应结束。
+     */
+    synchronized void abortBeforeStart(int status, String retryAfterSeconds, String jsonBody) {
+        done = true;
+        makeUnjoinable();
+        for (SseStreamRelay relay : new ArrayList<>(subscribers)) {
+            relay.reject(status, retryAfterSeconds, jsonBody);
+        }
+    }
+
+    /**
+     * 还在排队等许可时所有订阅者都已离开：此时还没有观察者，不必再发起上游请求。
+     */
+    synchronized boolean isAbandoned() {
+        return subscribers.isEmpty() && observer == null;
+    }
+
+    /**
+     * 记下可取消的进行中工作：先是排队中的准入许可，发起后换成上游请求。
+     */
+    synchronized void attach(Future<?> upstreamFuture) {
+        this.upstreamFuture = upstreamFuture;
+        if (subscribers.isEmpty() && !done && (observer == null || !observer.outlivesClients())) {
+            upstreamFuture.cancel(true);
+        }
+    }
+
+    /**
+     * @param context 本次上游请求的上下文，连接池在其中记下新建连接的耗时
+     */
+    UpstreamConsumer newConsumer(HttpContext context) {
+        return new UpstreamConsumer(context);
+    }
+
+    UpstreamCallback newCallback() {
+        return new UpstreamCallback();
+    }
+
+    // ---------------- 上游事件 ----------------
+
+    private synchronized void onHead(int status, String contentType, long connectNanos) {
+        if (connectNanos > 0 && observer != null) {
+            observer.onConnect(connectNanos);
+        }
+        this.status = status;
+        this.contentType = contentType;
+        this.headReceived = true;
+        if (status < 200 || status >= 300) {
+            makeUnjoinable();
+        }
+        for (SseStreamRelay relay : new ArrayList<>(subscribers)) {
+            relay.head(status, contentType);
+        }
+    }
+
+    /**
+     * @return false 表示已暂停读取上游
+     */
+    private synchronized boolean onChunk(byte[] chunk, IOControl ioctrl) {
+        upstreamControl = ioctrl;
+        if (!firstByteSeen) {
+            firstByteSeen = true;
+            if (observer != null) {
+                observer.onFirstByte();
+            }
+        }
+        if (observer != null) {
+            observer.onChunk(chunk);
+        }
+        if (transformer != null && status >= 200 && status < 300) {
+            chunk = transformer.onChunk(chunk);
+            if (chunk.length == 0) {
+                return true;
+            }
+        }
+        return publish(chunk);
+    }
+
+    /**
+     * @return false 表示有订阅者缓冲饱和，已暂停读取上游
+     */
+    private boolean publish(byte[] chunk) {
+        if (joinable) {
+            replay.add(chunk);
+            replayBytes += chunk.length;
+            if (replayBytes > maxReplayBytes) {
+                makeUnjoinable();
+            }
+        }
+        boolean anySaturated = false;
+        for (SseStreamRelay relay : new ArrayList<>(subscribers)) {
+            if (relay.offer(chunk)) {
+                anySaturated = true;
+            }
+        }
+        if (anySaturated) {
+            pauseUpstream();
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void onEnd(Exception ex, boolean cancelled) {
+        done = true;
+        failure = ex;
+        makeUnjoinable();
+        if (observer != null) {
+            UpstreamObserver o = observer;
+            observer = null;
+            o.onFinish(headReceived ? status : 0, ex);
+        }
+        if (transformer != null && headReceived && status >= 200 && status < 300) {
+            StreamTransformer t = transformer;
+            transformer = null;
+            // 收尾可能在别的线程上完成，那时再写出结尾并结束订阅者
+            t.onEnd(cancelled ? new CancellationException("upstream cancelled") : ex)
+                    .whenComplete((tail, error) -> finish(ex, tail));
+            return;
+        }
+        finish(ex, null);
+    }
+
+    private synchronized void finish(Exception ex, byte[] tail) {
+        if (tail != null && tail.length > 0) {
+            publish(tail);
+        }
+        for (SseStreamRelay relay : new ArrayList<>(subscribers)) {
+            if (ex != null) {
+                relay.fail(ex);
+            } else {
+                relay.end();
+            }
+        }
+    }
+
+    private void pauseUpstream() {
+        if (!paused && upstreamControl != null) {
+            paused = true;
+            upstreamControl.suspendInput();
+        }
+    }
+
+    private void makeUnjoinable() {
+        if (joinable) {
+            joinable = false;
+            replay.clear();
+            replayBytes = 0;
+            onUnjoinable.run();
+        }
+    }
+
+    // ---------------- 订阅者事件 ----------------
+
+    @Override
+    public synchronized void onDrained(SseStreamRelay relay) {
+        if (!paused) {
+            return;
+        }
+        for (SseStreamRelay r : subscribers) {
+            if (r.isSaturated()) {
+                return;
+            }
+        }
+        paused = false;
+        upstreamControl.requestInput();
+    }
+
+    @Override
+    public synchronized void onClosed(SseStreamRelay relay) {
+        subscribers.remove(relay);
+        if (!subscribers.isEmpty()) {
+            onDrained(relay);
+            return;
+        }
+        if (!done) {
+            makeUnjoinable();
+            if (observer != null && observer.outlivesClients()) {
+                // 没有客户端了，不再有反压来源，恢复读取直到上游结束
+                if (paused && upstreamControl != null) {
+                    paused = false;
+                    upstreamControl.requestInput();
+                }
+                return;
+            }
+            if (upstreamFuture != null) {
+                upstreamFuture.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 上游响应消费者：运行在 HttpAsyncClient 的 IO reactor 线程上。
+     */
+    final class UpstreamConsumer extends AbstractAsyncResponseConsumer<Void> {
+
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        private final HttpContext context;
+
+        UpstreamConsumer(HttpContext context) {
+            this.context = context;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse upstream) {
+            HttpEntity entity = upstream.getEntity();
+            String type = entity == null || entity.getContentType() == null ? null : entity.getContentType().getValue();
+            onHead(upstream.getStatusLine().getStatusCode(), type, TimedNHttpClientConnectionManager.connectNanos(context));
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            int n;
+            while ((n = decoder.read(buf)) > 0) {
+                buf.flip();
+                byte[] chunk = new byte[n];
+                buf.get(chunk);
+                buf.clear();
+                if (!onChunk(chunk, ioctrl)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected Void buildResult(HttpContext context) {
+            return null;
+        }
+
+        @Override
+        protected void releaseResources() {
+        }
+    }
+
+    /**
+     * 上游请求结束（正常完成 / 失败 / 被取消）的回调。
+     */
+    final class UpstreamCallback implements FutureCallback<Void> {
+
+        @Override
+        public void completed(Void result) {
+            onEnd(null, false);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            onEnd(ex, false);
+        }
+
+        @Override
+        public void cancelled() {
+            onEnd(null, true);
+        }
+    }
+}
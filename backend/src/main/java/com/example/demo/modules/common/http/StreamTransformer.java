@@ -0,0 +1,23 @@
+package com.example.demo.modules.common.http;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 改写上游 2xx 流再写给客户端（运行在 HttpAsyncClient 的 IO 线程上，不要做耗时操作）。
+ * 非 2xx 响应原样透传，不经过改写。一个上游流一个实例。
+ */
+public interface StreamTransformer {
+
+    /**
+     * 一段原始上游字节 → 写给客户端的字节；返回空数组表示暂不输出。
+     */
+    byte[] onChunk(byte[] chunk);
+
+    /**
+     * 上游结束时最后要写出的字节（如结束事件）。写库等耗时的收尾交给自己的线程池，完成后再 complete；
+     * 在此之前客户端的响应保持打开，IO 线程和广播锁都不会被占着。
+     *
+     * @param failure 失败原因，被取消时为 {@link java.util.concurrent.CancellationException}，正常结束时为 null
+     */
+    CompletionStage<byte[]> onEnd(Exception failure);
+}
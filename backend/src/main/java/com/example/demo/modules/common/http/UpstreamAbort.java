@@ -0,0 +1,85 @@
+package com.example.demo.modules.common.http;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可中止的上游调用范围：范围绑定在发起调用的线程上，期间通过共享 RestTemplate 发出的请求都登记在这里。
+ * abort 时直接中止这些请求（关闭连接），阻塞在 socket 读上的线程立即抛错返回；只中断线程对阻塞读无效，
+ * 输掉的对冲请求会一直占着准入名额和连接池连接，直到上游返回或读超时。
+ * abort 之后才登记的请求一发出就被中止。
+ */
+public final class UpstreamAbort {
+
+    private static final ThreadLocal<UpstreamAbort> CURRENT = new ThreadLocal<>();
+
+    private final List<HttpUriRequest> requests = new ArrayList<>();
+    private boolean aborted;
+
+    /**
+     * 在当前线程上执行 work，期间发出的上游请求都归这个范围管。
+     */
+    public <T> T run(Attempt<T> work) throws Exception {
+        UpstreamAbort outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.call();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+            synchronized (this) {
+                requests.clear();
+            }
+        }
+    }
+
+    public void abort() {
+        List<HttpUriRequest> toAbort;
+        synchronized (this) {
+            aborted = true;
+            toAbort = new ArrayList<>(requests);
+            requests.clear();
+        }
+        for (HttpUriRequest request : toAbort) {
+            request.abort();
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * 当前线程所在的范围已被中止（调用失败是因为被取消，而不是上游出错）。
+     */
+    public static boolean currentAborted() {
+        UpstreamAbort scope = CURRENT.get();
+        return scope != null && scope.isAborted();
+    }
+
+    /**
+     * 由请求工厂在请求发出前调用；当前线程不在任何范围里时什么都不做。
+     */
+    static void register(HttpUriRequest request) {
+        UpstreamAbort scope = CURRENT.get();
+        if (scope == null) {
+            return;
+        }
+        synchronized (scope) {
+            if (!scope.aborted) {
+                scope.requests.add(request);
+                return;
+            }
+        }
+        request.abort();
+    }
+
+    public interface Attempt<T> {
+        T call() throws Exception;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.demo.modules.common.http;
+
+import com.example.demo.modules.common.metrics.TimedConnectionSocketFactory;
+import com.example.demo.modules.common.metrics.TimedLayeredConnectionSocketFactory;
+import com.example.demo.modules.common.metrics.TimedNHttpClientConnectionManager;
+import com.example.demo.modules.common.metrics.UpstreamTimingInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游 HTTP 客户端统一配置：
+ * - 所有模块共用一个连接池（keep-alive + 每个 host 的连接上限），避免每次调用都重新握手 TLS。
+ * - 每个上游（Ark / Python 资源服务）各自一个 RestTemplate，连接/读取超时分别可配。
+ * - 流式接口使用独立的非阻塞客户端 upstreamAsyncClient（少量 IO 线程承载大量并发流），
+ *   并通过 {@link #arkStreamRequestConfig()} 控制超时。
+ */
+@Configuration
+public class UpstreamHttpConfig {
+
+    @Value("${upstream.pool.maxTotal:200}")
+    private int maxTotal;
+
+    @Value("${upstream.pool.maxPerRoute:100}")
+    private int maxPerRoute;
+
+    @Value("${upstream.pool.keepAliveMs:60000}")
+    private long keepAliveMs;
+
+    @Value("${upstream.pool.validateAfterInactivityMs:2000}")
+    private int validateAfterInactivityMs;
+
+    @Value("${upstream.pool.acquireTimeoutMs:5000}")
+    private int acquireTimeoutMs;
+
+    @Value("${upstream.ark.connectTimeoutMs:5000}")
+    private int arkConnectTimeoutMs;
+
+    @Value("${upstream.ark.readTimeoutMs:180000}")
+    private int arkReadTimeoutMs;
+
+    @Value("${upstream.ark.streamReadTimeoutMs:120000}")
+    private int arkStreamReadTimeoutMs;
+
+    @Value("${upstream.stream.maxConnections:2000}")
+    private int streamMaxConnections;
+
+    @Value("${upstream.stream.ioThreads:0}")
+    private int streamIoThreads;
+
+    /**
+     * 流式连接的 socket 接收缓冲；0 为系统默认（会自动增长到数 MB，暂停读取时这些都积压在内核里）
+     */
+    @Value("${upstream.stream.rcvBufBytes:0}")
+    private int streamRcvBufBytes;
+
+    @Value("${upstream.python.connectTimeoutMs:3000}")
+    private int pythonConnectTimeoutMs;
+
+    @Value("${python.service.timeout:30000}")
+    private int pythonReadTimeoutMs;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager() {
+        // socket 工厂套一层计时，新建连接的耗时计入 AI 调用指标
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", new TimedConnectionSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+                        .register("https", new TimedLayeredConnectionSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))
+                        .build(),
+                null, null, null, keepAliveMs, TimeUnit.MILLISECONDS);
+        cm.setMaxTotal(maxTotal);
+        cm.setDefaultMaxPerRoute(maxPerRoute);
+        cm.setValidateAfterInactivity(validateAfterInactivityMs);
+        return cm;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient upstreamHttpClient(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverHint = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverHint > 0 ? Math.min(serverHint, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient upstreamAsyncClient() throws IOReactorException {
+        int ioThreads = streamIoThreads > 0 ? streamIoThreads : Runtime.getRuntime().availableProcessors();
+        PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .setSoKeepAlive(true)
+                        .setTcpNoDelay(true)
+                        .setRcvBufSize(Math.max(0, streamRcvBufBytes))
+                        .build()));
+        cm.setMaxTotal(streamMaxConnections);
+        cm.setDefaultMaxPerRoute(streamMaxConnections);
+        // 连接池套一层计时，流式调用新建连接的耗时同样计入 AI 调用指标
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(new TimedNHttpClientConnectionManager(cm))
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverHint = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverHint > 0 ? Math.min(serverHint, keepAliveMs) : keepAliveMs;
+                })
+                .disableCookieManagement()
+                .build();
+        client.start();
+        return client;
+    }
+
+    @Bean
+    public RestTemplate arkRestTemplate(@Qualifier("upstreamHttpClient") CloseableHttpClient upstreamHttpClient) {
+        RestTemplate restTemplate = new RestTemplate(requestFactory(upstreamHttpClient, arkConnectTimeoutMs, arkReadTimeoutMs));
+        restTemplate.getInterceptors().add(new UpstreamTimingInterceptor());
+        return restTemplate;
+    }
+
+    @Bean
+    public RestTemplate pythonRestTemplate(@Qualifier("upstreamHttpClient") CloseableHttpClient upstreamHttpClient) {
+        return new RestTemplate(requestFactory(upstreamHttpClient, pythonConnectTimeoutMs, pythonReadTimeoutMs));
+    }
+
+    /**
+     * SSE 流式请求的超时配置：读超时是两次数据到达之间的最大间隔，而不是整个流的总时长。
+     */
+    @Bean
+    public RequestConfig arkStreamRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(acquireTimeoutMs)
+                .setConnectTimeout(arkConnectTimeoutMs)
+                .setSocketTimeout(arkStreamReadTimeoutMs)
+                .build();
+    }
+
+    private HttpComponentsClientHttpRequestFactory requestFactory(CloseableHttpClient client, int connectTimeoutMs, int readTimeoutMs) {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(client) {
+            @Override
+            protected void postProcessHttpRequest(HttpUriRequest request) {
+                // 登记到当前线程的可中止范围（路由层取消对冲/故障切换的尝试时用）
+                UpstreamAbort.register(request);
+            }
+        };
+        factory.setConnectionRequestTimeout(acquireTimeoutMs);
+        factory.setConnectTimeout(connectTimeoutMs);
+        factory.setReadTimeout(readTimeoutMs);
+        return factory;
+    }
+}
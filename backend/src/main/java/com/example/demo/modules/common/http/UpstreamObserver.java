@@ -0,0 +1,43 @@
+package com.example.demo.modules.common.http;
+
+/**
+ * 上游流的生命周期回调（运行在 HttpAsyncClient 的 IO 线程上，不要阻塞）。
+ * 典型用途：归还准入许可、记录首字节延迟与成功率。
+ */
+public interface UpstreamObserver {
+
+    /**
+     * 本次请求新建了连接（收到响应头时回调，复用 keep-alive 连接时不会发生）。
+     *
+     * @param nanos 从申请连接到 TCP 连上的耗时
+     */
+    default void onConnect(long nanos) {
+    }
+
+    /**
+     * 收到第一段响应体。
+     */
+    default void onFirstByte() {
+    }
+
+    /**
+     * 每段原始响应体（与写给客户端的字节相同，边界不保证对齐 SSE 事件）。
+     */
+    default void onChunk(byte[] chunk) {
+    }
+
+    /**
+     * 为 true 时即使客户端全部断开也继续读完上游（例如需要在服务端保存完整回答）。
+     */
+    default boolean outlivesClients() {
+        return false;
+    }
+
+    /**
+     * 上游结束：正常完成、失败或因客户端全部离开而取消。
+     *
+     * @param status  上游状态码，未收到响应头时为 0
+     * @param failure 失败原因，成功或取消时为 null
+     */
+    void onFinish(int status, Exception failure);
+}
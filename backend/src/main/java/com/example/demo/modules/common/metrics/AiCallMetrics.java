@@ -0,0 +1,407 @@
+package com.example.demo.modules.common.metrics;
+
+import com.example.demo.modules.common.http.SseDataReader;
+import com.example.demo.modules.common.http.UpstreamAbort;
+import com.example.demo.modules.common.http.UpstreamObserver;
+import com.example.demo.modules.common.routing.ConfiguredModels;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 每次上游 AI 调用的指标，按 endpoint + model 分组：
+ * 建连耗时、首字节耗时、总耗时、生成速度（tokens/s）、请求/响应字节数、状态码、prompt/completion tokens。
+ *
+ * 同步调用（RestTemplate）用 {@link #start} 拿到 {@link Call}，建连与首字节时间由连接池的 socket 工厂和
+ * RestTemplate 拦截器通过当前线程上的 Call 补记；流式调用用 {@link #observeStream} 包一层观察者，
+ * 建连时间由非阻塞连接池（{@link TimedNHttpClientConnectionManager}）经请求上下文转交，只含 TCP 连接。
+ * 所有计数都是 LongAdder，记录路径无锁。未配置的模型归入 model="other"（见 {@link ConfiguredModels}）。
+ */
+@Component
+public class AiCallMetrics {
+
+    private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+    private static final double[] SECONDS_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300};
+    private static final double[] RATE_BOUNDS = {1, 2, 5, 10, 20, 30, 50, 75, 100, 150, 200, 500};
+
+    private final ConcurrentHashMap<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    /**
+     * 多步生成流程的分阶段耗时，key 为 Prometheus 标签串
+     */
+    private final ConcurrentHashMap<String, Histogram> stages = new ConcurrentHashMap<>();
+    /**
+     * 多步流程中分支走向的计数（如表格修复走本地还是走模型），key 为 Prometheus 标签串
+     */
+    private final ConcurrentHashMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConfiguredModels configuredModels;
+
+    public AiCallMetrics(ConfiguredModels configuredModels) {
+        this.configuredModels = configuredModels;
+    }
+
+    /**
+     * 开始一次同步调用（在拿到准入许可之后调用，排队时间不计入）。必须 close。
+     */
+    public Call start(String endpoint, String model) {
+        Call call = new Call(seriesOf(endpoint, model));
+        CURRENT.set(call);
+        return call;
+    }
+
+    /**
+     * 包装流式调用的观察者：首个数据块记为首 token，解析 SSE 中的 usage（没有则按 delta 块数估算）。
+     */
+    public UpstreamObserver observeStream(String endpoint, String model, long requestBytes, UpstreamObserver delegate) {
+        return new StreamCall(seriesOf(endpoint, model), requestBytes, delegate);
+    }
+
+    /**
+     * 连接池新建连接（含 TLS 握手）时回调；复用 keep-alive 连接时不会发生。
+     */
+    static void onConnect(long nanos) {
+        Call call = CURRENT.get();
+        if (call != null) {
+            call.connectNanos += nanos;
+        }
+    }
+
+    /**
+     * 响应头到达（RestTemplate 拦截器中 execute 返回时）。
+     */
+    static void onResponseHeaders(long requestBytes) {
+        Call call = CURRENT.get();
+        if (call != null) {
+            call.requestBytes = requestBytes;
+            if (call.firstByteNanos < 0) {
+                call.firstByteNanos = System.nanoTime() - call.startNanos;
+            }
+        }
+    }
+
+    /**
+     * 从 chat/completions 的 JSON 响应里取 usage；解析失败时返回 null 字段。
+     */
+    public void recordUsage(Call call, String responseBody) {
+        if (responseBody == null) {
+            return;
+        }
+        try {
+            JsonNode usage = objectMapper.readTree(responseBody).path("usage");
+            call.usage(longOrNull(usage.path("prompt_tokens")), longOrNull(usage.path("completion_tokens")));
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 记录多步流程（如模板教案：标题识别 / 初稿 / 修复）中某一阶段的耗时。
+     */
+    public void recordStage(String pipeline, String stage, long nanos) {
+        String labels = "pipeline=\"" + escape(pipeline) + "\",stage=\"" + escape(stage) + "\"";
+        stages.computeIfAbsent(labels, k -> new Histogram(SECONDS_BOUNDS)).observe(nanos / 1_000_000_000d);
+    }
+
+    /**
+     * 记录多步流程中某一步的走向，例如 recordOutcome("lessonplan", "strict_table", "local")。
+     */
+    public void recordOutcome(String pipeline, String step, String outcome) {
+        String labels = "pipeline=\"" + escape(pipeline) + "\",step=\"" + escape(step) + "\",outcome=\"" + escape(outcome) + "\"";
+        outcomes.computeIfAbsent(labels, k -> new LongAdder()).increment();
+    }
+
+    public String scrape() {
+        List<Series> all = new ArrayList<>(series.values());
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "ai_upstream_requests_total", "counter", "Upstream AI calls by status");
+        for (Series s : all) {
+            for (Map.Entry<String, LongAdder> e : s.statuses.entrySet()) {
+                out.append("ai_upstream_requests_total{").append(s.labels).append(",status=\"").append(escape(e.getKey())).append("\"} ")
+                        .append(e.getValue().sum()).append('\n');
+            }
+        }
+        histogram(out, all, "ai_upstream_connect_seconds", "New connection setup time (sync: TCP + TLS, stream: TCP only), pooled reuse not counted", s -> s.connect);
+        histogram(out, all, "ai_upstream_first_byte_seconds", "Time to response headers (sync) or first token chunk (stream)", s -> s.firstByte);
+        histogram(out, all, "ai_upstream_duration_seconds", "Total upstream call duration", s -> s.duration);
+        histogram(out, all, "ai_upstream_tokens_per_second", "Completion tokens per second of generation time", s -> s.tokensPerSecond);
+        counter(out, all, "ai_upstream_request_bytes_total", "Request payload bytes", s -> s.requestBytes);
+        counter(out, all, "ai_upstream_response_bytes_total", "Response payload bytes", s -> s.responseBytes);
+        counter(out, all, "ai_upstream_prompt_tokens_total", "Prompt tokens reported by usage", s -> s.promptTokens);
+        counter(out, all, "ai_upstream_completion_tokens_total", "Completion tokens (usage, or delta chunks for streams without usage)", s -> s.completionTokens);
+        header(out, "ai_pipeline_stage_seconds", "histogram", "Per-stage wall time of multi-call generation pipelines");
+        for (Map.Entry<String, Histogram> e : stages.entrySet()) {
+            e.getValue().writeTo(out, "ai_pipeline_stage_seconds", e.getKey());
+        }
+        header(out, "ai_pipeline_outcomes_total", "counter", "Which branch each step of a generation pipeline took");
+        for (Map.Entry<String, LongAdder> e : outcomes.entrySet()) {
+            out.append("ai_pipeline_outcomes_total{").append(e.getKey()).append("} ").append(e.getValue().sum()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private Series seriesOf(String endpoint, String model) {
+        // model 来自客户端请求体，未配置的一律记为 other，避免每个新字符串都多出一组直方图
+        SeriesKey key = new SeriesKey(endpoint, configuredModels.labelOf(model));
+        return series.computeIfAbsent(key, Series::new);
+    }
+
+    private static Long longOrNull(JsonNode node) {
+        return node.isNumber() ? node.asLong() : null;
+    }
+
+    private interface HistogramOf {
+        Histogram of(Series s);
+    }
+
+    private interface CounterOf {
+        LongAdder of(Series s);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, List<Series> all, String name, String help, HistogramOf f) {
+        header(out, name, "histogram", help);
+        for (Series s : all) {
+            Histogram h = f.of(s);
+            if (h.count() > 0) {
+                h.writeTo(out, name, s.labels);
+            }
+        }
+    }
+
+    private static void counter(StringBuilder out, List<Series> all, String name, String help, CounterOf f) {
+        header(out, name, "counter", help);
+        for (Series s : all) {
+            out.append(name).append('{').append(s.labels).append("} ").append(f.of(s).sum()).append('\n');
+        }
+    }
+
+    private static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000d;
+    }
+
+    /**
+     * 一次同步调用。非线程安全：只在发起调用的线程上使用。
+     */
+    public static final class Call implements AutoCloseable {
+
+        private final Series series;
+        private final long startNanos = System.nanoTime();
+        private long connectNanos;
+        private long firstByteNanos = -1;
+        private long requestBytes;
+        private long responseBytes;
+        private String status = "error";
+        private Long promptTokens;
+        private Long completionTokens;
+        private boolean closed;
+
+        private Call(Series series) {
+            this.series = series;
+        }
+
+        public void status(int code) {
+            this.status = String.valueOf(code);
+        }
+
+        public void responseBytes(long bytes) {
+            this.responseBytes = Math.max(0L, bytes);
+        }
+
+        public void usage(Long prompt, Long completion) {
+            this.promptTokens = prompt;
+            this.completionTokens = completion;
+        }
+
+        /**
+         * 状态码字符串；没有拿到响应时为 "error"，被路由层中止（对冲输掉）时为 "cancelled"
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (CURRENT.get() == this) {
+                CURRENT.remove();
+            }
+            if ("error".equals(status) && UpstreamAbort.currentAborted()) {
+                status = "cancelled";
+            }
+            long total = System.nanoTime() - startNanos;
+            // 非流式响应头要等生成结束才到，生成速度只能按总耗时算
+            series.record(status, connectNanos, firstByteNanos, total, total,
+                    requestBytes, responseBytes, promptTokens, completionTokens);
+        }
+    }
+
+    private final class StreamCall implements UpstreamObserver {
+
+        private final Series series;
+        private final UpstreamObserver delegate;
+        private final long startNanos = System.nanoTime();
+        private final long requestBytes;
+        private final SseDataReader reader = new SseDataReader(this::onData);
+        private long connectNanos;
+        private long firstByteNanos = -1;
+        private long responseBytes;
+        private long deltaChunks;
+        private Long promptTokens;
+        private Long completionTokens;
+
+        StreamCall(Series series, long requestBytes, UpstreamObserver delegate) {
+            this.series = series;
+            this.requestBytes = requestBytes;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onConnect(long nanos) {
+            connectNanos = nanos;
+            delegate.onConnect(nanos);
+        }
+
+        @Override
+        public void onFirstByte() {
+            firstByteNanos = System.nanoTime() - startNanos;
+            delegate.onFirstByte();
+        }
+
+        @Override
+        public void onChunk(byte[] chunk) {
+            responseBytes += chunk.length;
+            reader.feed(chunk);
+            delegate.onChunk(chunk);
+        }
+
+        @Override
+        public boolean outlivesClients() {
+            return delegate.outlivesClients();
+        }
+
+        @Override
+        public void onFinish(int status, Exception failure) {
+            try {
+                reader.flush();
+                long total = System.nanoTime() - startNanos;
+                long generation = firstByteNanos >= 0 ? total - firstByteNanos : total;
+                Long completion = completionTokens != null ? completionTokens : (deltaChunks > 0 ? deltaChunks : null);
+                series.record(failure != null || status == 0 ? "error" : String.valueOf(status), connectNanos, firstByteNanos, total,
+                        generation, requestBytes, responseBytes, promptTokens, completion);
+            } finally {
+                delegate.onFinish(status, failure);
+            }
+        }
+
+        private void onData(String data) {
+            // 只有末尾的 usage 块才需要完整解析；普通 delta 块按出现次数近似 token 数
+            if (!data.contains("\"usage\"")) {
+                deltaChunks++;
+                return;
+            }
+            try {
+                JsonNode usage = objectMapper.readTree(data).path("usage");
+                if (usage.isObject()) {
+                    promptTokens = longOrNull(usage.path("prompt_tokens"));
+                    completionTokens = longOrNull(usage.path("completion_tokens"));
+                } else {
+                    deltaChunks++;
+                }
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static final class SeriesKey {
+        final String endpoint;
+        final String model;
+
+        SeriesKey(String endpoint, String model) {
+            this.endpoint = endpoint;
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey k = (SeriesKey) o;
+            return endpoint.equals(k.endpoint) && model.equals(k.model);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, model);
+        }
+    }
+
+    private static final class Series {
+
+        final String labels;
+        final ConcurrentHashMap<String, LongAdder> statuses = new ConcurrentHashMap<>();
+        final Histogram connect = new Histogram(SECONDS_BOUNDS);
+        final Histogram firstByte = new Histogram(SECONDS_BOUNDS);
+        final Histogram duration = new Histogram(SECONDS_BOUNDS);
+        final Histogram tokensPerSecond = new Histogram(RATE_BOUNDS);
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+
+        Series(SeriesKey key) {
+            this.labels = "endpoint=\"" + escape(key.endpoint) + "\",model=\"" + escape(key.model) + "\"";
+        }
+
+        void record(String status, long connectNanos, long firstByteNanos, long totalNanos, long generationNanos,
+                    long reqBytes, long respBytes, Long prompt, Long completion) {
+            statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+            if (connectNanos > 0) {
+                connect.observe(seconds(connectNanos));
+            }
+            if (firstByteNanos >= 0) {
+                firstByte.observe(seconds(firstByteNanos));
+            }
+            duration.observe(seconds(totalNanos));
+            requestBytes.add(reqBytes);
+            responseBytes.add(respBytes);
+            if (prompt != null) {
+                promptTokens.add(prompt);
+            }
+            if (completion != null) {
+                completionTokens.add(completion);
+                if (completion > 0 && generationNanos > 0) {
+                    tokensPerSecond.observe(completion / seconds(generationNanos));
+                }
+            }
+        }
+    }
+}
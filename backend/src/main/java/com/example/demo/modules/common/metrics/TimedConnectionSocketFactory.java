@@ -0,0 +1,38 @@
+package com.example.demo.modules.common.metrics;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * 给连接池的 socket 工厂计时：新建连接（TCP 连接 + TLS 握手）的耗时记到当前线程正在进行的 {@link AiCallMetrics.Call}。
+ * https 等分层工厂用 {@link TimedLayeredConnectionSocketFactory}。
+ */
+public class TimedConnectionSocketFactory implements ConnectionSocketFactory {
+
+    private final ConnectionSocketFactory delegate;
+
+    public TimedConnectionSocketFactory(ConnectionSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                InetSocketAddress localAddress, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        } finally {
+            AiCallMetrics.onConnect(System.nanoTime() - start);
+        }
+    }
+}
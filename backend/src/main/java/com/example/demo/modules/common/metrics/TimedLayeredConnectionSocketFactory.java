@@ -0,0 +1,30 @@
+package com.example.demo.modules.common.metrics;
+
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * {@link TimedConnectionSocketFactory} 的分层版本（https）：经代理隧道建立 TLS 时的握手耗时也一并计入。
+ */
+public class TimedLayeredConnectionSocketFactory extends TimedConnectionSocketFactory implements LayeredConnectionSocketFactory {
+
+    private final LayeredConnectionSocketFactory delegate;
+
+    public TimedLayeredConnectionSocketFactory(LayeredConnectionSocketFactory delegate) {
+        super(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.createLayeredSocket(socket, target, port, context);
+        } finally {
+            AiCallMetrics.onConnect(System.nanoTime() - start);
+        }
+    }
+}
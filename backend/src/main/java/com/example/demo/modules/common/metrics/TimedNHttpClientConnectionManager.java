@@ -0,0 +1,117 @@
+package com.example.demo.modules.common.metrics;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 给非阻塞客户端的连接池计时：新建连接的耗时（从申请连接到 TCP 连上）先挂在连接自己的上下文上，
+ * 客户端为这条连接建立路由时（只有新连接才会）再转到本次请求的上下文，流式调用用 {@link #connectNanos} 取出。
+ * TLS 握手在 IO reactor 里和发请求连在一起进行，计入首字节耗时而不是这里。
+ */
+public class TimedNHttpClientConnectionManager implements NHttpClientConnectionManager {
+
+    private static final String CONNECT_NANOS = TimedNHttpClientConnectionManager.class.getName() + ".connectNanos";
+
+    private final NHttpClientConnectionManager delegate;
+
+    public TimedNHttpClientConnectionManager(NHttpClientConnectionManager delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 本次请求新建连接的耗时；复用 keep-alive 连接时为 0。
+     */
+    public static long connectNanos(HttpContext context) {
+        Object nanos = context == null ? null : context.getAttribute(CONNECT_NANOS);
+        return nanos instanceof Long ? (Long) nanos : 0L;
+    }
+
+    @Override
+    public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state, long connectTimeout,
+                                                           long leaseTimeout, TimeUnit tunit,
+                                                           FutureCallback<NHttpClientConnection> callback) {
+        long start = System.nanoTime();
+        return delegate.requestConnection(route, state, connectTimeout, leaseTimeout, tunit, new FutureCallback<NHttpClientConnection>() {
+            @Override
+            public void completed(NHttpClientConnection conn) {
+                if (!delegate.isRouteComplete(conn)) {
+                    conn.getContext().setAttribute(CONNECT_NANOS, System.nanoTime() - start);
+                }
+                if (callback != null) {
+                    callback.completed(conn);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void startRoute(NHttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        Object nanos = conn.getContext().removeAttribute(CONNECT_NANOS);
+        if (nanos != null) {
+            context.setAttribute(CONNECT_NANOS, nanos);
+        }
+        delegate.startRoute(conn, route, context);
+    }
+
+    @Override
+    public void releaseConnection(NHttpClientConnection conn, Object newState, long validDuration, TimeUnit tunit) {
+        delegate.releaseConnection(conn, newState, validDuration, tunit);
+    }
+
+    @Override
+    public void upgrade(NHttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(NHttpClientConnection conn, HttpRoute route, HttpContext context) {
+        delegate.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public boolean isRouteComplete(NHttpClientConnection conn) {
+        return delegate.isRouteComplete(conn);
+    }
+
+    @Override
+    public void closeIdleConnections(long idleTime, TimeUnit tunit) {
+        delegate.closeIdleConnections(idleTime, tunit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void execute(IOEventDispatch eventDispatch) throws IOException {
+        delegate.execute(eventDispatch);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        delegate.shutdown();
+    }
+}
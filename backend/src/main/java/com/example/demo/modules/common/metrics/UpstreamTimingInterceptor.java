@@ -0,0 +1,21 @@
+package com.example.demo.modules.common.metrics;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * RestTemplate 拦截器：execute 返回即响应头已到，记为首字节时间，同时记下请求体大小。
+ */
+public class UpstreamTimingInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        ClientHttpResponse response = execution.execute(request, body);
+        AiCallMetrics.onResponseHeaders(body.length);
+        return response;
+    }
+}
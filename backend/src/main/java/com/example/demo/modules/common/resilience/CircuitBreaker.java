@@ -0,0 +1,257 @@
+package com.example.demo.modules.common.resilience;
+
+import com.example.demo.modules.common.http.UpstreamAbort;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 单个上游的熔断器（CLOSED / OPEN / HALF_OPEN）：
+ * - CLOSED：最近 windowSize 次调用里失败率达到阈值（且调用数不少于 minCalls）即打开；
+ * - OPEN：直接拒绝，openMs 之后进入 HALF_OPEN；
+ * - HALF_OPEN：最多放行 halfOpenCalls 个试探调用，全部成功则关闭，任一失败重新打开。
+ *
+ * 只有"服务不可用"类错误计为失败（连接失败/超时/5xx）；4xx 说明服务还活着，计为成功。
+ * 被 {@link UpstreamAbort} 中止的调用（对冲输掉的一路）不计入统计。
+ * 每次状态切换换一代；调用结果只计入放行它的那一代，CLOSED 时放行、HALF_OPEN 时才返回的调用不算试探。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openMs;
+    private final int halfOpenCalls;
+
+    private State state = State.CLOSED;
+    private final boolean[] failed;
+    private int count;
+    private int pos;
+    private int failures;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+    private long generation;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    CircuitBreaker(String name, int windowSize, int minCalls, double failureRateThreshold, long openMs, int halfOpenCalls) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, Math.min(minCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMs = Math.max(0L, openMs);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.failed = new boolean[this.windowSize];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 在熔断保护下执行一次调用；打开状态直接抛 {@link CircuitOpenException}。
+     */
+    public <T> T execute(Supplier<T> work) {
+        Permit permit = acquirePermission();
+        try {
+            T result = work.get();
+            permit.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (UpstreamAbort.currentAborted()) {
+                // 对冲 / 故障切换中输掉而被中止的调用，不说明上游有问题
+                permit.release();
+            } else if (isFailure(e)) {
+                permit.onFailure();
+            } else {
+                permit.onSuccess();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 申请一次调用许可；之后必须调用许可的 {@link Permit#onSuccess()}、{@link Permit#onFailure()}
+     * 或 {@link Permit#release()} 之一。
+     */
+    public synchronized Permit acquirePermission() {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN && now - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            generation++;
+            halfOpenInFlight = 0;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenInFlight >= halfOpenCalls)) {
+            rejected.incrementAndGet();
+            throw new CircuitOpenException(name, retryAfterSeconds(now));
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight++;
+        }
+        return new Permit(generation);
+    }
+
+    /**
+     * 一次调用许可，记住放行时的代；结果只报告一次，重复报告忽略。
+     */
+    public final class Permit {
+
+        private final long generation;
+        private boolean reported;
+
+        private Permit(long generation) {
+            this.generation = generation;
+        }
+
+        public void onSuccess() {
+            synchronized (CircuitBreaker.this) {
+                if (report()) {
+                    succeeded();
+                }
+            }
+        }
+
+        public void onFailure() {
+            synchronized (CircuitBreaker.this) {
+                if (report()) {
+                    failed();
+                }
+            }
+        }
+
+        /**
+         * 调用没有真正到达上游（如被本地准入拒绝、被客户端取消），不计入统计，只归还半开试探名额。
+         */
+        public void release() {
+            synchronized (CircuitBreaker.this) {
+                if (report() && state == State.HALF_OPEN) {
+                    halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+                }
+            }
+        }
+
+        /**
+         * @return 结果是否计入：未报告过，且放行后熔断器没有切换过状态
+         */
+        private boolean report() {
+            if (reported) {
+                return false;
+            }
+            reported = true;
+            if (generation != CircuitBreaker.this.generation) {
+                stale.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void succeeded() {
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+            if (++halfOpenSuccesses >= halfOpenCalls) {
+                state = State.CLOSED;
+                generation++;
+                resetWindow();
+            }
+            return;
+        }
+        record(false);
+    }
+
+    private void failed() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (count >= minCalls && (double) failures / count >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * 是否会放行调用（只读，不占用半开试探名额）。
+     */
+    public synchronized boolean isCallPermitted() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() - openedAt >= openMs;
+        }
+        return state == State.CLOSED || halfOpenInFlight < halfOpenCalls;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public static boolean isFailure(Throwable e) {
+        return e instanceof ResourceAccessException || e instanceof HttpServerErrorException;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        synchronized (this) {
+            m.put("state", state.name());
+            m.put("windowCalls", count);
+            m.put("failureRate", count == 0 ? 0.0 : (double) failures / count);
+            if (state == State.OPEN) {
+                m.put("retryAfterSeconds", retryAfterSeconds(System.currentTimeMillis()));
+            }
+        }
+        m.put("timesOpened", opened.get());
+        m.put("rejected", rejected.get());
+        m.put("staleOutcomes", stale.get());
+        return m;
+    }
+
+    private void record(boolean failure) {
+        if (count == windowSize) {
+            if (failed[pos]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        failed[pos] = failure;
+        if (failure) {
+            failures++;
+        }
+        pos = (pos + 1) % windowSize;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = System.currentTimeMillis();
+        opened.incrementAndGet();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        count = 0;
+        pos = 0;
+        failures = 0;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+        Arrays.fill(failed, false);
+    }
+
+    private long retryAfterSeconds(long now) {
+        long remainingMs = Math.max(0L, openMs - (now - openedAt));
+        return Math.max(1L, (remainingMs + 999) / 1000);
+    }
+}
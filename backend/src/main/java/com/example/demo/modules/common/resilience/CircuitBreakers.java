@@ -0,0 +1,66 @@
+package com.example.demo.modules.common.resilience;
+
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按上游名称（ark / python）管理熔断器。
+ *
+ * 配置（未配置的上游使用 default）：
+ * upstream.breaker.&lt;名称&gt;.windowSize / minCalls / failureRateThreshold / openMs / halfOpenCalls
+ */
+@Component
+public class CircuitBreakers {
+
+    public static final String ARK = "ark";
+    public static final String PYTHON = "python";
+
+    private final Environment env;
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(Environment env) {
+        this.env = env;
+    }
+
+    public CircuitBreaker get(String name) {
+        return breakers.computeIfAbsent(name, this::create);
+    }
+
+    public boolean isAnyOpen() {
+        for (CircuitBreaker b : breakers.values()) {
+            if (b.getState() != CircuitBreaker.State.CLOSED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        // 固定列出已知上游，未被调用过的也显示为 CLOSED
+        get(ARK);
+        get(PYTHON);
+        for (Map.Entry<String, CircuitBreaker> e : breakers.entrySet()) {
+            m.put(e.getKey(), e.getValue().snapshot());
+        }
+        return m;
+    }
+
+    private CircuitBreaker create(String name) {
+        return new CircuitBreaker(name,
+                setting(name, "windowSize", Integer.class, 20),
+                setting(name, "minCalls", Integer.class, 10),
+                setting(name, "failureRateThreshold", Double.class, 0.5),
+                setting(name, "openMs", Long.class, 30000L),
+                setting(name, "halfOpenCalls", Integer.class, 3));
+    }
+
+    private <T> T setting(String name, String key, Class<T> type, T fallback) {
+        T def = env.getProperty("upstream.breaker.default." + key, type, fallback);
+        return env.getProperty("upstream.breaker." + name + "." + key, type, def);
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.demo.modules.common.resilience;
+
+/**
+ * 上游熔断器处于打开状态，调用被直接拒绝（不再等待 TCP 超时），对外表现为 503 + Retry-After。
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final String upstream;
+    private final long retryAfterSeconds;
+
+    public CircuitOpenException(String upstream, long retryAfterSeconds) {
+        super("上游服务 " + upstream + " 暂不可用（熔断中）");
+        this.upstream = upstream;
+        this.retryAfterSeconds = Math.max(1L, retryAfterSeconds);
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
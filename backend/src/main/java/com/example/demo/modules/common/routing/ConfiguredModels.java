@@ -0,0 +1,80 @@
+package com.example.demo.modules.common.routing;
+
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 配置里出现过的模型 ID：默认/思考/视觉模型、教案模型、路由备选以及单独配置了准入参数的模型。
+ *
+ * 请求体里的 model 由客户端决定，按模型分组的指标、准入 gate 和路由健康度如果直接用它做 key，
+ * 每个新字符串都会永久多出一组状态。未配置的模型统一归到 {@link #OTHER}（准入则用 default 配额）。
+ */
+@Component
+public class ConfiguredModels {
+
+    public static final String OTHER = "other";
+
+    private static final String[] MODEL_PROPERTIES = {
+            "ark.model", "ark.defaultModel", "ark.thinkingModel", "ark.visionModel",
+            "lessonplan.ark.model", "lessonplan.ark.visionModel"
+    };
+    private static final String ALTERNATES_PREFIX = "ai.routing.alternates.";
+    private static final String ADMISSION_PREFIX = "ai.admission.model.";
+
+    private final Set<String> models;
+
+    public ConfiguredModels(Environment env) {
+        Set<String> m = new HashSet<>();
+        for (String key : MODEL_PROPERTIES) {
+            add(m, env.getProperty(key));
+        }
+        if (env instanceof ConfigurableEnvironment) {
+            for (PropertySource<?> source : ((ConfigurableEnvironment) env).getPropertySources()) {
+                if (!(source instanceof EnumerablePropertySource)) {
+                    continue;
+                }
+                for (String key : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+                    if (key.startsWith(ALTERNATES_PREFIX)) {
+                        add(m, key.substring(ALTERNATES_PREFIX.length()));
+                        for (String alt : env.getProperty(key, "").split(",")) {
+                            add(m, alt);
+                        }
+                    } else if (key.startsWith(ADMISSION_PREFIX)) {
+                        // ai.admission.model.<模型ID>.<参数>，模型 ID 里可能带点
+                        String rest = key.substring(ADMISSION_PREFIX.length());
+                        int dot = rest.lastIndexOf('.');
+                        if (dot > 0) {
+                            add(m, rest.substring(0, dot));
+                        }
+                    }
+                }
+            }
+        }
+        this.models = Collections.unmodifiableSet(m);
+    }
+
+    public boolean contains(String model) {
+        return model != null && models.contains(model.trim());
+    }
+
+    /**
+     * 用作指标标签 / 健康度 key 的模型名：已配置的原样返回，其余为 {@link #OTHER}。
+     */
+    public String labelOf(String model) {
+        return contains(model) ? model.trim() : OTHER;
+    }
+
+    private static void add(Set<String> models, String model) {
+        if (StringUtils.hasText(model)) {
+            models.add(model.trim());
+        }
+    }
+}
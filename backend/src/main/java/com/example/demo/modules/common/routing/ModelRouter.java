@@ -0,0 +1,396 @@
+package com.example.demo.modules.common.routing;
+
+import com.example.demo.modules.common.admission.AdmissionRejectedException;
+import com.example.demo.modules.common.http.UpstreamAbort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按延迟与错误率选择模型：
+ * - 每个模型记录最近 N 次成功调用的耗时（p50/p95/p99）和最近 N 次调用结果；
+ * - 错误率超过阈值时在冷却期内跳过该模型，自动切到备选模型（failover）；
+ * - 主模型超过自身 p95 仍未返回时，向备选模型发出一份对冲请求（hedge），谁先成功用谁，另一份中止（见 UpstreamAbort）。
+ *
+ * 备选模型配置：ai.routing.alternates.&lt;模型ID&gt;=备选1,备选2；未配置备选的模型照常直连。
+ */
+@Component
+public class ModelRouter {
+
+    /**
+     * 一次针对具体模型的调用。
+     */
+    public interface ModelCall<T> {
+        T call(String model) throws Exception;
+    }
+
+    /**
+     * 调用结果以及实际使用的模型。
+     */
+    public static final class Routed<T> {
+
+        private final String model;
+        private final T value;
+        private final boolean hedged;
+
+        Routed(String model, T value, boolean hedged) {
+            this.model = model;
+            this.value = value;
+            this.hedged = hedged;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public boolean isHedged() {
+            return hedged;
+        }
+    }
+
+    @Value("${ai.routing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.routing.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.routing.hedge.minDelayMs:1000}")
+    private long hedgeMinDelayMs;
+
+    @Value("${ai.routing.window:200}")
+    private int window;
+
+    @Value("${ai.routing.minSamples:20}")
+    private int minSamples;
+
+    @Value("${ai.routing.errorRateThreshold:0.5}")
+    private double errorRateThreshold;
+
+    @Value("${ai.routing.cooldownMs:30000}")
+    private long cooldownMs;
+
+    private final Environment env;
+    private final ConfiguredModels configuredModels;
+    private final ConcurrentHashMap<String, ModelHealth> health = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final AtomicLong cancelled = new AtomicLong();
+
+    public ModelRouter(Environment env, ConfiguredModels configuredModels) {
+        this.env = env;
+        this.configuredModels = configuredModels;
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "model-router-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 候选模型：主模型在前，备选按配置顺序；处于冷却期的模型挪到最后。
+     */
+    public List<String> candidates(String primary) {
+        List<String> all = new ArrayList<>();
+        all.add(primary);
+        if (enabled) {
+            String configured = env.getProperty("ai.routing.alternates." + primary, "");
+            for (String alt : configured.split(",")) {
+                String m = alt.trim();
+                if (!m.isEmpty() && !all.contains(m)) {
+                    all.add(m);
+                }
+            }
+        }
+        List<String> healthy = new ArrayList<>();
+        List<String> cooling = new ArrayList<>();
+        for (String m : all) {
+            (healthOf(m).isHealthy() ? healthy : cooling).add(m);
+        }
+        healthy.addAll(cooling);
+        return healthy;
+    }
+
+    /**
+     * 只选模型不代发请求（用于流式调用，只做 failover）。
+     */
+    public String select(String primary) {
+        String chosen = candidates(primary).get(0);
+        if (!chosen.equals(primary)) {
+            healthOf(primary).failovers.incrementAndGet();
+        }
+        return chosen;
+    }
+
+    public void recordSuccess(String model, long latencyMs) {
+        healthOf(model).record(true, latencyMs);
+    }
+
+    public void recordFailure(String model) {
+        healthOf(model).record(false, -1L);
+    }
+
+    /**
+     * 按路由策略执行调用：先走首选模型；失败立即切到下一个候选；超过 p95 未返回则对冲一份到下一个候选。
+     */
+    public <T> Routed<T> call(String primary, ModelCall<T> work) throws Exception {
+        List<String> candidates = candidates(primary);
+        if (!candidates.get(0).equals(primary)) {
+            healthOf(primary).failovers.incrementAndGet();
+        }
+        if (candidates.size() == 1) {
+            String only = candidates.get(0);
+            return new Routed<>(only, attempt(only, work), false);
+        }
+
+        ExecutorCompletionService<T> ecs = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, String> running = new HashMap<>();
+        Map<Future<T>, UpstreamAbort> scopes = new HashMap<>();
+        int next = 0;
+        String first = candidates.get(next++);
+        submit(ecs, running, scopes, first, work);
+
+        long hedgeDelayMs = hedgeEnabled ? healthOf(first).hedgeDelayMs(minSamples, hedgeMinDelayMs) : -1L;
+        long hedgeAt = hedgeDelayMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs) : Long.MAX_VALUE;
+        boolean hedged = false;
+        Exception last = null;
+
+        try {
+            while (!running.isEmpty()) {
+                Future<T> done;
+                if (hedgeAt != Long.MAX_VALUE && next < candidates.size()) {
+                    done = ecs.poll(Math.max(0L, hedgeAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        String alt = candidates.get(next++);
+                        healthOf(first).hedges.incrementAndGet();
+                        submit(ecs, running, scopes, alt, work);
+                        hedged = true;
+                        hedgeAt = Long.MAX_VALUE;
+                        continue;
+                    }
+                } else {
+                    done = ecs.take();
+                }
+
+                String model = running.remove(done);
+                scopes.remove(done);
+                try {
+                    T value = done.get();
+                    if (hedged) {
+                        healthOf(model).hedgeWins.incrementAndGet();
+                    }
+                    return new Routed<>(model, value, hedged);
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (!isRetryable(cause)) {
+                        throw cause;
+                    }
+                    last = cause;
+                    if (next < candidates.size()) {
+                        String alt = candidates.get(next++);
+                        healthOf(model).failovers.incrementAndGet();
+                        submit(ecs, running, scopes, alt, work);
+                    }
+                } catch (CancellationException ignored) {
+                }
+            }
+        } finally {
+            // 中断只能叫醒在准入排队里等的尝试；已发出的请求要直接中止，才能立即释放准入名额和连接
+            for (Future<T> f : running.keySet()) {
+                f.cancel(true);
+                scopes.get(f).abort();
+                cancelled.incrementAndGet();
+            }
+        }
+        throw last != null ? last : new IllegalStateException("没有可用的模型");
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Map.Entry<String, ModelHealth> e : health.entrySet()) {
+            m.put(e.getKey(), e.getValue().stats());
+        }
+        m.put("cancelledAttempts", cancelled.get());
+        return m;
+    }
+
+    private <T> void submit(ExecutorCompletionService<T> ecs, Map<Future<T>, String> running,
+                            Map<Future<T>, UpstreamAbort> scopes, String model, ModelCall<T> work) {
+        UpstreamAbort scope = new UpstreamAbort();
+        Future<T> f = ecs.submit(() -> scope.run(() -> attempt(model, work, scope)));
+        running.put(f, model);
+        scopes.put(f, scope);
+    }
+
+    private <T> T attempt(String model, ModelCall<T> work) throws Exception {
+        return attempt(model, work, null);
+    }
+
+    private <T> T attempt(String model, ModelCall<T> work, UpstreamAbort scope) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T value = work.call(model);
+            recordSuccess(model, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return value;
+        } catch (Exception e) {
+            // 被取消的尝试（连接被中止）不算模型故障
+            if (isModelFault(e) && (scope == null || !scope.isAborted())) {
+                recordFailure(model);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 换个模型可能成功的错误：上游 5xx / 429 / 超时 / 本地准入拒绝。其它 4xx 是请求本身的问题，换模型也没用。
+     */
+    private static boolean isRetryable(Exception e) {
+        return e instanceof AdmissionRejectedException || isModelFault(e);
+    }
+
+    /**
+     * 计入模型错误率的错误（准入拒绝是本地排队，不算模型故障）。
+     */
+    private static boolean isModelFault(Exception e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof HttpStatusCodeException) {
+            int status = ((HttpStatusCodeException) e).getRawStatusCode();
+            return status >= 500 || status == 429;
+        }
+        return false;
+    }
+
+    /**
+     * 未配置的模型共用一份 other 健康度，map 不随客户端传入的 model 增长。
+     */
+    private ModelHealth healthOf(String model) {
+        return health.computeIfAbsent(configuredModels.labelOf(model), k -> new ModelHealth(Math.max(10, window)));
+    }
+
+    private final class ModelHealth {
+
+        private final long[] latencies;
+        private int latencyCount;
+        private int latencyPos;
+
+        private final boolean[] outcomes;
+        private int outcomeCount;
+        private int outcomePos;
+        private int failuresInWindow;
+
+        private volatile long coolingUntil;
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong hedges = new AtomicLong();
+        private final AtomicLong hedgeWins = new AtomicLong();
+        private final AtomicLong failovers = new AtomicLong();
+
+        ModelHealth(int size) {
+            this.latencies = new long[size];
+            this.outcomes = new boolean[size];
+        }
+
+        boolean isHealthy() {
+            return System.currentTimeMillis() >= coolingUntil;
+        }
+
+        synchronized void record(boolean ok, long latencyMs) {
+            calls.incrementAndGet();
+            if (ok) {
+                latencies[latencyPos] = latencyMs;
+                latencyPos = (latencyPos + 1) % latencies.length;
+                latencyCount = Math.min(latencyCount + 1, latencies.length);
+            } else {
+                failures.incrementAndGet();
+            }
+
+            if (outcomeCount == outcomes.length && !outcomes[outcomePos]) {
+                failuresInWindow--;
+            }
+            outcomes[outcomePos] = ok;
+            outcomePos = (outcomePos + 1) % outcomes.length;
+            outcomeCount = Math.min(outcomeCount + 1, outcomes.length);
+            if (!ok) {
+                failuresInWindow++;
+            }
+
+            if (!ok && outcomeCount >= minSamples && (double) failuresInWindow / outcomeCount >= errorRateThreshold) {
+                // 进入冷却并清空结果窗口：冷却结束后重新积累样本，错误仍多则再次冷却
+                coolingUntil = System.currentTimeMillis() + cooldownMs;
+                Arrays.fill(outcomes, false);
+                outcomeCount = 0;
+                outcomePos = 0;
+                failuresInWindow = 0;
+            }
+        }
+
+        /**
+         * 对冲等待时间 = 最近 p95（样本不足时不对冲）。
+         */
+        synchronized long hedgeDelayMs(int minSamples, long floorMs) {
+            if (latencyCount < minSamples) {
+                return -1L;
+            }
+            return Math.max(floorMs, percentile(0.95));
+        }
+
+        synchronized long percentile(double p) {
+            if (latencyCount == 0) {
+                return 0L;
+            }
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            synchronized (this) {
+                m.put("samples", latencyCount);
+                m.put("p50Ms", percentile(0.50));
+                m.put("p95Ms", percentile(0.95));
+                m.put("p99Ms", percentile(0.99));
+                m.put("windowErrorRate", outcomeCount == 0 ? 0.0 : (double) failuresInWindow / outcomeCount);
+            }
+            m.put("healthy", isHealthy());
+            m.put("calls", calls.get());
+            m.put("failures", failures.get());
+            m.put("hedges", hedges.get());
+            m.put("hedgeWins", hedgeWins.get());
+            m.put("failovers", failovers.get());
+            return m;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.demo.modules.common.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.security.MessageDigest;
+
+/**
+ * 规范化 JSON 哈希：map 按 key 排序后序列化再取 SHA-256，
+ * 用于缓存 key、请求合并 key 等“内容相同即相同”的场景。
+ */
+public final class CanonicalJson {
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private CanonicalJson() {
+    }
+
+    /**
+     * @return 64 位十六进制哈希；序列化失败时返回 null
+     */
+    public static String sha256(Object value) {
+        try {
+            return sha256Hex(CANONICAL_MAPPER.writeValueAsBytes(value));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static String sha256Hex(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package com.example.demo.modules.lessonplan.controller;
 
+import com.example.demo.modules.lessonplan.dto.LessonPlanBatchRequest;
 import com.example.demo.modules.lessonplan.dto.LessonPlanRequest;
 import com.example.demo.modules.lessonplan.dto.LessonPlanHistoryDetail;
 import com.example.demo.modules.lessonplan.dto.LessonPlanHistoryItem;
+import com.example.demo.modules.lessonplan.dto.LessonPlanSectionRequest;
+import com.example.demo.modules.lessonplan.dto.LessonPlanTemplateInfo;
 import com.example.demo.modules.lessonplan.entity.LessonPlanRecord;
 import com.example.demo.modules.lessonplan.repository.LessonPlanRecordRepository;
 import com.example.demo.modules.lessonplan.service.GeminiService;
+import com.example.demo.modules.lessonplan.service.LessonPlanBatchService;
+import com.example.demo.modules.lessonplan.service.LessonPlanJobService;
+import com.example.demo.modules.lessonplan.service.LessonPlanTimeline;
+import com.example.demo.modules.lessonplan.service.TemplateImageProcessor;
+import com.example.demo.modules.lessonplan.service.TemplateRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
@@ -15,11 +27,22 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
@@ -33,33 +56,235 @@ public class LessonPlanController {
 
     private final GeminiService geminiService;
     private final LessonPlanRecordRepository lessonPlanRecordRepository;
+    private final TemplateRegistry templateRegistry;
+    private final LessonPlanJobService jobService;
+    private final TemplateImageProcessor templateImageProcessor;
+    private final LessonPlanBatchService batchService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public LessonPlanController(GeminiService geminiService, LessonPlanRecordRepository lessonPlanRecordRepository) {
+    public LessonPlanController(GeminiService geminiService, LessonPlanRecordRepository lessonPlanRecordRepository,
+                                TemplateRegistry templateRegistry, LessonPlanJobService jobService,
+                                TemplateImageProcessor templateImageProcessor, LessonPlanBatchService batchService) {
         this.geminiService = geminiService;
         this.lessonPlanRecordRepository = lessonPlanRecordRepository;
+        this.templateRegistry = templateRegistry;
+        this.jobService = jobService;
+        this.templateImageProcessor = templateImageProcessor;
+        this.batchService = batchService;
     }
 
+    /**
+     * 参照模板可以传 templateImage（首次，会自动登记并在响应里返回 templateId），也可以只传已登记的 templateId。
+     */
     @PostMapping("/lesson-plan")
     public ResponseEntity<Map<String, Object>> generate(@Valid @RequestBody LessonPlanRequest request) {
-        String result = geminiService.generateLessonPlan(request);
-
-        LessonPlanRecord record = new LessonPlanRecord();
-        record.setSubject(request.getSubject());
-        record.setGradeLevel(request.getGradeLevel());
-        record.setTopic(request.getTopic());
-        record.setDuration(request.getDuration());
-        record.setObjectives(request.getObjectives());
-        record.setAdditionalNotes(request.getAdditionalNotes());
-        record.setHasTemplate(request.getTemplateImage() != null && !request.getTemplateImage().trim().isEmpty());
-        record.setContentHtml(result);
-        LessonPlanRecord saved = lessonPlanRecordRepository.save(record);
+        ResponseEntity<Map<String, Object>> templateError = resolveTemplate(request);
+        if (templateError != null) {
+            return templateError;
+        }
+        return generateAndSave(request);
+    }
+
+    /**
+     * multipart 版本：request 部分为与 JSON 接口相同的参数，模板图片以二进制 templateFile 上传（落临时文件），
+     * 服务端缩放并重新编码后再登记和调用模型，不在 JSON 里搬运 base64。
+     */
+    @PostMapping(value = "/lesson-plan", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> generateMultipart(@Valid @RequestPart("request") LessonPlanRequest request,
+                                                                 @RequestPart(value = "templateFile", required = false) MultipartFile templateFile) throws IOException {
+        if (templateFile != null && !templateFile.isEmpty()) {
+            try (InputStream in = templateFile.getInputStream()) {
+                LessonPlanTemplateInfo tpl = templateRegistry.registerImage(templateImageProcessor.downscale(in), MediaType.IMAGE_JPEG_VALUE);
+                request.setTemplateId(tpl.getId());
+                request.setTemplateImage(null);
+            } catch (IllegalArgumentException ex) {
+                return error(HttpStatus.BAD_REQUEST, ex.getMessage());
+            }
+        }
+        ResponseEntity<Map<String, Object>> templateError = resolveTemplate(request);
+        if (templateError != null) {
+            return templateError;
+        }
+        return generateAndSave(request);
+    }
+
+    private ResponseEntity<Map<String, Object>> generateAndSave(LessonPlanRequest request) {
+        LessonPlanTimeline timeline = new LessonPlanTimeline();
+        String result = geminiService.generateLessonPlan(request, timeline);
+        LessonPlanRecord saved = jobService.saveDone(request, result, timeline);
 
         Map<String, Object> resp = new HashMap<>();
         resp.put("data", result);
         resp.put("id", saved.getId());
+        if (saved.getStatus() == LessonPlanRecord.Status.DEGRADED) {
+            resp.put("degraded", true);
+        }
+        if (request.getTemplateId() != null) {
+            resp.put("templateId", request.getTemplateId());
+        }
         return ResponseEntity.ok(resp);
     }
 
+    /**
+     * 流式生成教案（SSE）：data: {"delta": "..."} 为逐段规整好的 HTML 片段；
+     * 结束时 event: done 带 {"id", "html"}（已保存的最终教案），失败时 event: error。
+     * 模板参数与 /lesson-plan 相同，模板错误仍以普通 JSON 响应返回。
+     */
+    @PostMapping(value = "/lesson-plan/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void stream(@Valid @RequestBody LessonPlanRequest request,
+                       HttpServletRequest httpRequest,
+                       HttpServletResponse httpResponse) throws IOException {
+        ResponseEntity<Map<String, Object>> templateError = resolveTemplate(request);
+        if (templateError != null) {
+            httpResponse.setStatus(templateError.getStatusCodeValue());
+            httpResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            httpResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            httpResponse.getOutputStream().write(objectMapper.writeValueAsBytes(templateError.getBody()));
+            return;
+        }
+        geminiService.streamLessonPlan(request, httpRequest, httpResponse, (html, timeline) -> jobService.saveDone(request, html, timeline).getId());
+    }
+
+    /**
+     * 批量生成（一个单元 / 一学期）：共享学科、年级与模板，按课题各生成一份，逐行返回 NDJSON 进度：
+     * {"event":"started","items":[{"index","topic","id"}...]} -> {"event":"item","status":"running|done|degraded|failed",...}
+     * -> {"event":"finished","done","degraded","failed"}。degraded 表示 Ark 不可用，该份是本地教案框架。每份结果按 id 从 /lesson-plan/jobs/{id} 或历史记录获取。
+     */
+    @PostMapping(value = "/lesson-plan/batch", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> batch(@Valid @RequestBody LessonPlanBatchRequest batch) {
+        List<String> topics = new ArrayList<>();
+        for (String topic : batch.getTopics()) {
+            if (topic != null && !topic.trim().isEmpty()) {
+                topics.add(topic.trim());
+            }
+        }
+        if (topics.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "topics 不能为空");
+        }
+        if (topics.size() > batchService.getMaxTopics()) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "单批最多 " + batchService.getMaxTopics() + " 个课题");
+        }
+        LessonPlanRequest base = batch.toRequest(null);
+        ResponseEntity<Map<String, Object>> templateError = resolveTemplate(base);
+        if (templateError != null) {
+            throw new ResponseStatusException(templateError.getStatusCode(), String.valueOf(templateError.getBody().get("error")));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .body(batchService.start(base, topics, batch.getParallelism()));
+    }
+
+    /**
+     * 异步提交：立即返回 202 和任务 ID，生成在后台进行。
+     * 带 Idempotency-Key 时重试不会重复生成，返回 200 和同一个任务；同一个 key 用于不同参数返回 422。
+     */
+    @PostMapping("/lesson-plan/jobs")
+    public ResponseEntity<Map<String, Object>> submitJob(@Valid @RequestBody LessonPlanRequest request,
+                                                         @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        ResponseEntity<Map<String, Object>> templateError = resolveTemplate(request);
+        if (templateError != null) {
+            return templateError;
+        }
+        LessonPlanJobService.Submission submission = jobService.submit(request, idempotencyKey);
+        Long id = submission.getRecord().getId();
+        Map<String, Object> resp = jobService.view(submission.getRecord());
+        resp.put("statusUrl", "/api/lesson-plan/jobs/" + id);
+        resp.put("eventsUrl", "/api/lesson-plan/jobs/" + id + "/events");
+        return ResponseEntity.status(submission.isCreated() ? HttpStatus.ACCEPTED : HttpStatus.OK)
+                .header(HttpHeaders.LOCATION, "/api/lesson-plan/jobs/" + id)
+                .body(resp);
+    }
+
+    @GetMapping("/lesson-plan/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> job(@PathVariable("id") Long id) {
+        LessonPlanRecord record = jobService.find(id);
+        if (record == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(jobService.view(record));
+    }
+
+    /**
+     * 订阅任务状态（SSE）：每次状态变化推送 event: status，到 done / failed 后结束。
+     */
+    @GetMapping(value = "/lesson-plan/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> jobEvents(@PathVariable("id") Long id) {
+        SseEmitter emitter = jobService.subscribe(id);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 只登记模板（不生成教案），返回 templateId；同一张图片重复上传得到同一个 ID。
+     */
+    @PostMapping("/lesson-plan/templates")
+    public ResponseEntity<Map<String, Object>> registerTemplate(@RequestBody Map<String, Object> body) {
+        Object image = body.get("templateImage");
+        if (image == null || String.valueOf(image).trim().isEmpty()) {
+            return error(HttpStatus.BAD_REQUEST, "templateImage 不能为空");
+        }
+        try {
+            return ResponseEntity.ok(templateSummary(templateRegistry.register(String.valueOf(image))));
+        } catch (IllegalArgumentException ex) {
+            return error(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+    }
+
+    @GetMapping("/lesson-plan/templates/{id}")
+    public ResponseEntity<Map<String, Object>> template(@PathVariable("id") String id) {
+        LessonPlanTemplateInfo tpl = templateRegistry.find(id);
+        if (tpl == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> resp = templateSummary(tpl);
+        resp.put("skeletonHtml", tpl.getSkeletonHtml());
+        return ResponseEntity.ok(resp);
+    }
+
+    private ResponseEntity<Map<String, Object>> resolveTemplate(LessonPlanRequest request) {
+        String templateId = request.getTemplateId() == null ? null : request.getTemplateId().trim();
+        try {
+            if (templateId != null && !templateId.isEmpty()) {
+                LessonPlanTemplateInfo tpl = templateRegistry.use(templateId);
+                if (tpl == null) {
+                    return error(HttpStatus.NOT_FOUND, "模板不存在，请重新上传 templateImage");
+                }
+                // 只往下传 ID，图片到拼上游请求体时再读；排队的任务和批量复制出的请求都不持有图片
+                request.setTemplateId(tpl.getId());
+                request.setTemplateImage(null);
+            } else if (request.getTemplateImage() != null && !request.getTemplateImage().trim().isEmpty()) {
+                String id = templateRegistry.register(request.getTemplateImage()).getId();
+                templateRegistry.recordUse(id);
+                request.setTemplateId(id);
+            } else {
+                request.setTemplateId(null);
+            }
+        } catch (IllegalArgumentException ex) {
+            return error(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        return null;
+    }
+
+    private Map<String, Object> templateSummary(LessonPlanTemplateInfo tpl) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("templateId", tpl.getId());
+        resp.put("mimeType", tpl.getMimeType());
+        resp.put("byteSize", tpl.getByteSize());
+        resp.put("useCount", tpl.getUseCount());
+        resp.put("headings", templateRegistry.headingsOf(tpl));
+        return resp;
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("error", message);
+        return ResponseEntity.status(status).body(resp);
+    }
+
     @GetMapping("/lesson-plans")
     public ResponseEntity<List<LessonPlanHistoryItem>> list(@RequestParam(name = "limit", defaultValue = "20") int limit) {
         int safeLimit = Math.max(1, Math.min(100, limit));
@@ -76,6 +301,7 @@ public class LessonPlanController {
             item.setGradeLevel(r.getGradeLevel());
             item.setTopic(r.getTopic());
             item.setHasTemplate(r.isHasTemplate());
+            item.setStatus(r.getStatus().name().toLowerCase());
             items.add(item);
         }
         return ResponseEntity.ok(items);
@@ -89,6 +315,56 @@ public class LessonPlanController {
         }
         LessonPlanRecord r = found.get();
 
+        LessonPlanHistoryDetail detail = new LessonPlanHistoryDetail();
+        detail.setId(r.getId());
+        detail.setCreatedAt(r.getCreatedAt());
+        detail.setRequest(toRequest(r));
+        detail.setData(r.getContentHtml());
+
+        return ResponseEntity.ok(detail);
+    }
+
+    /**
+     * 局部重写：只把 heading 对应的部分发给模型重写，结果原位替换后保存，其余内容不变。
+     * 已完成（含 DEGRADED）的教案都可以重写。返回 {"id", "heading", "sectionHtml", "data"}；
+     * 记录或标题不存在 404，教案未完成 / 生成失败或期间被改动过 409。
+     */
+    @PostMapping("/lesson-plans/{id}/sections/regenerate")
+    public ResponseEntity<Map<String, Object>> regenerateSection(@PathVariable("id") Long id,
+                                                                 @Valid @RequestBody LessonPlanSectionRequest body) {
+        Optional<LessonPlanRecord> found = lessonPlanRecordRepository.findById(id);
+        if (!found.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        LessonPlanRecord r = found.get();
+        // DEGRADED 的教案已经生成完，正是需要逐段重写的那些；只拦还没结束和失败（没有正文）的记录
+        if (r.getStatus() == null || !r.getStatus().isTerminal()) {
+            return error(HttpStatus.CONFLICT, "教案尚未生成完成");
+        }
+        if (r.getStatus() == LessonPlanRecord.Status.FAILED || r.getContentHtml() == null || r.getContentHtml().trim().isEmpty()) {
+            return error(HttpStatus.CONFLICT, "教案生成失败，没有可重写的内容");
+        }
+        String html = r.getContentHtml();
+        long version = r.getContentVersion() == null ? 0L : r.getContentVersion();
+        GeminiService.SectionRewrite rewrite = geminiService.regenerateSection(toRequest(r), html, body.getHeading(), body.getInstruction());
+
+        // 模型调用期间记录可能已被另一次重写保存：按读取时的正文版本条件更新，不覆盖别人的修改
+        if (lessonPlanRecordRepository.replaceContent(id, version, version + 1, rewrite.getHtml(), System.currentTimeMillis()) == 0) {
+            if (!lessonPlanRecordRepository.existsById(id)) {
+                return ResponseEntity.notFound().build();
+            }
+            return error(HttpStatus.CONFLICT, "教案已被修改，请刷新后重试");
+        }
+
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("id", id);
+        resp.put("heading", body.getHeading());
+        resp.put("sectionHtml", rewrite.getSectionHtml());
+        resp.put("data", rewrite.getHtml());
+        return ResponseEntity.ok(resp);
+    }
+
+    private static LessonPlanRequest toRequest(LessonPlanRecord r) {
         LessonPlanRequest req = new LessonPlanRequest();
         req.setSubject(r.getSubject());
         req.setGradeLevel(r.getGradeLevel());
@@ -97,14 +373,8 @@ public class LessonPlanController {
         req.setObjectives(r.getObjectives());
         req.setAdditionalNotes(r.getAdditionalNotes());
         req.setTemplateImage(null);
-
-        LessonPlanHistoryDetail detail = new LessonPlanHistoryDetail();
-        detail.setId(r.getId());
-        detail.setCreatedAt(r.getCreatedAt());
-        detail.setRequest(req);
-        detail.setData(r.getContentHtml());
-
-        return ResponseEntity.ok(detail);
+        req.setTemplateId(r.getTemplateId());
+        return req;
     }
 
     @DeleteMapping("/lesson-plans/{id}")
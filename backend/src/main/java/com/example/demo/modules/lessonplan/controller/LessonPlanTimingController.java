@@ -0,0 +1,44 @@
+package com.example.demo.modules.lessonplan.controller;
+
+import com.example.demo.modules.lessonplan.entity.LessonPlanRecord;
+import com.example.demo.modules.lessonplan.repository.LessonPlanRecordRepository;
+import com.example.demo.modules.lessonplan.service.LessonPlanTimingStats;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 内部运维接口：教案生成的分阶段耗时（单条记录的时间线，以及最近 N 条的分位数汇总）。
+ */
+@RestController
+@RequestMapping("/api/internal/lesson-plan")
+public class LessonPlanTimingController {
+
+    private final LessonPlanTimingStats timingStats;
+    private final LessonPlanRecordRepository lessonPlanRecordRepository;
+
+    public LessonPlanTimingController(LessonPlanTimingStats timingStats, LessonPlanRecordRepository lessonPlanRecordRepository) {
+        this.timingStats = timingStats;
+        this.lessonPlanRecordRepository = lessonPlanRecordRepository;
+    }
+
+    @GetMapping("/timings")
+    public ResponseEntity<Map<String, Object>> timings(@RequestParam(name = "limit", defaultValue = "500") int limit) {
+        return ResponseEntity.ok(timingStats.summary(Math.max(1, Math.min(5000, limit))));
+    }
+
+    @GetMapping(value = "/{id}/timeline", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> timeline(@PathVariable("id") Long id) {
+        LessonPlanRecord record = lessonPlanRecordRepository.findById(id).orElse(null);
+        if (record == null || record.getTimelineJson() == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(record.getTimelineJson());
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.demo.modules.lessonplan.dto;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * 批量生成：同一学科、年级、模板下的一组课题（如一个单元 / 一学期），每个课题生成一份教案。
+ */
+public class LessonPlanBatchRequest {
+
+    @NotBlank
+    private String subject;
+
+    @NotBlank
+    private String gradeLevel;
+
+    @NotEmpty
+    private List<String> topics;
+
+    private String duration;
+
+    private String objectives;
+
+    private String additionalNotes;
+
+    private String templateImage;
+
+    private String templateId;
+
+    /**
+     * 同时生成的份数；不传时用默认值，并且不超过模型的并发配额
+     */
+    private Integer parallelism;
+
+    /**
+     * 按课题展开成单份请求（共享其余参数）。
+     */
+    public LessonPlanRequest toRequest(String topic) {
+        LessonPlanRequest req = new LessonPlanRequest();
+        req.setSubject(subject);
+        req.setGradeLevel(gradeLevel);
+        req.setTopic(topic);
+        req.setDuration(duration);
+        req.setObjectives(objectives);
+        req.setAdditionalNotes(additionalNotes);
+        req.setTemplateImage(templateImage);
+        req.setTemplateId(templateId);
+        return req;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getGradeLevel() {
+        return gradeLevel;
+    }
+
+    public void setGradeLevel(String gradeLevel) {
+        this.gradeLevel = gradeLevel;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public void setTopics(List<String> topics) {
+        this.topics = topics;
+    }
+
+    public String getDuration() {
+        return duration;
+    }
+
+    public void setDuration(String duration) {
+        this.duration = duration;
+    }
+
+    public String getObjectives() {
+        return objectives;
+    }
+
+    public void setObjectives(String objectives) {
+        this.objectives = objectives;
+    }
+
+    public String getAdditionalNotes() {
+        return additionalNotes;
+    }
+
+    public void setAdditionalNotes(String additionalNotes) {
+        this.additionalNotes = additionalNotes;
+    }
+
+    public String getTemplateImage() {
+        return templateImage;
+    }
+
+    public void setTemplateImage(String templateImage) {
+        this.templateImage = templateImage;
+    }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+}
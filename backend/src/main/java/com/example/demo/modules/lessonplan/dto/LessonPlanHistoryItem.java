@@ -8,6 +8,10 @@ public class LessonPlanHistoryItem {
     private String gradeLevel;
     private String topic;
     private boolean hasTemplate;
+    /**
+     * queued / running / done / failed
+     */
+    private String status;
 
     public Long getId() {
         return id;
@@ -56,4 +60,12 @@ public class LessonPlanHistoryItem {
     public void setHasTemplate(boolean hasTemplate) {
         this.hasTemplate = hasTemplate;
     }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
 }
@@ -21,6 +21,11 @@ public class LessonPlanRequest {
 
     private String templateImage;
 
+    /**
+     * 已登记模板的 ID（图片 SHA-256），传入后可省略 templateImage
+     */
+    private String templateId;
+
     public String getSubject() {
         return subject;
     }
@@ -76,4 +81,12 @@ public class LessonPlanRequest {
     public void setTemplateImage(String templateImage) {
         this.templateImage = templateImage;
     }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
 }
@@ -0,0 +1,33 @@
+package com.example.demo.modules.lessonplan.dto;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * 局部重写：按标题（如“教学过程”）只重写已保存教案中的一个部分。
+ */
+public class LessonPlanSectionRequest {
+
+    @NotBlank
+    private String heading;
+
+    /**
+     * 教师对这一部分的修改要求，可为空（按原要求重新生成）
+     */
+    private String instruction;
+
+    public String getHeading() {
+        return heading;
+    }
+
+    public void setHeading(String heading) {
+        this.heading = heading;
+    }
+
+    public String getInstruction() {
+        return instruction;
+    }
+
+    public void setInstruction(String instruction) {
+        this.instruction = instruction;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.demo.modules.lessonplan.dto;
+
+/**
+ * 模板的元数据投影：不含图片 imageDataUrl（可能有几 MB），查标题、骨架、使用次数时只读这些列。
+ */
+public interface LessonPlanTemplateInfo {
+
+    String getId();
+
+    String getMimeType();
+
+    long getByteSize();
+
+    long getUseCount();
+
+    long getLastUsedAt();
+
+    String getHeadingsJson();
+
+    String getSkeletonHtml();
+}
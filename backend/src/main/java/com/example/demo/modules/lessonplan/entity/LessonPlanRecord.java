@@ -2,17 +2,33 @@ package com.example.demo.modules.lessonplan.entity;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Lob;
 import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 
 @Entity
 @Table(name = "lesson_plan_record")
 public class LessonPlanRecord {
 
+    /**
+     * 生成状态。同步接口直接写入 DONE；异步任务依次经过 QUEUED -> RUNNING -> DONE / DEGRADED / FAILED。
+     * DEGRADED：Ark 不可用（熔断 / 5xx / 未配置）时返回的本地教案框架，内容照常保存但不是模型生成的。
+     * 旧数据没有这一列，按 DONE 处理。
+     */
+    public enum Status {
+        QUEUED, RUNNING, DONE, DEGRADED, FAILED;
+
+        public boolean isTerminal() {
+            return this == DONE || this == DEGRADED || this == FAILED;
+        }
+    }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -40,15 +56,56 @@ public class LessonPlanRecord {
     @Column(nullable = false)
     private boolean hasTemplate;
 
+    @Column(length = 64)
+    private String templateId;
+
     @Lob
     @Column(nullable = false)
     private String contentHtml;
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Status status;
+
+    @Column(length = 1000)
+    private String errorMessage;
+
+    /**
+     * 客户端提交异步任务时带的 Idempotency-Key；重试同一个 key 返回同一条记录
+     */
+    @Column(length = 128, unique = true)
+    private String idempotencyKey;
+
+    /**
+     * 提交参数的摘要，用于识别同一个 key 被用在了不同的请求上
+     */
+    @Column(length = 64)
+    private String requestHash;
+
+    private Long updatedAt;
+
+    /**
+     * 生成时间线 JSON：走的路线、总耗时、各阶段耗时 / 模型 / 上游字节数 / 重试（见 LessonPlanTimeline）
+     */
+    @Lob
+    private String timelineJson;
+
+    /**
+     * 正文版本：每次局部重写保存时加一（条件更新，见 LessonPlanRecordRepository#replaceContent）；旧数据为空，按 0 处理
+     */
+    private Long contentVersion;
+
     @PrePersist
     public void prePersist() {
         if (createdAt == 0L) {
             createdAt = System.currentTimeMillis();
         }
+        updatedAt = System.currentTimeMillis();
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        updatedAt = System.currentTimeMillis();
     }
 
     public Long getId() {
@@ -130,4 +187,68 @@ public class LessonPlanRecord {
     public void setContentHtml(String contentHtml) {
         this.contentHtml = contentHtml;
     }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    public Status getStatus() {
+        return status == null ? Status.DONE : status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public String getTimelineJson() {
+        return timelineJson;
+    }
+
+    public void setTimelineJson(String timelineJson) {
+        this.timelineJson = timelineJson;
+    }
+
+    public Long getContentVersion() {
+        return contentVersion;
+    }
+
+    public void setContentVersion(Long contentVersion) {
+        this.contentVersion = contentVersion;
+    }
 }
@@ -0,0 +1,134 @@
+package com.example.demo.modules.lessonplan.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+
+/**
+ * 教案参照模板：以图片解码后字节的 SHA-256 为主键，同一张图片只存一份，
+ * 并缓存识别出的大标题与表格骨架，重复使用时不再调用视觉模型识别标题。
+ */
+@Entity
+@Table(name = "lesson_plan_template")
+public class LessonPlanTemplate {
+
+    @Id
+    @Column(length = 64)
+    private String id;
+
+    @Column(nullable = false)
+    private long createdAt;
+
+    @Column(nullable = false)
+    private long lastUsedAt;
+
+    @Column(nullable = false)
+    private long useCount;
+
+    private String mimeType;
+
+    @Column(nullable = false)
+    private long byteSize;
+
+    @Lob
+    @Column(nullable = false)
+    private String imageDataUrl;
+
+    /**
+     * JSON 字符串数组；null 表示还没识别过
+     */
+    @Lob
+    private String headingsJson;
+
+    /**
+     * 首次生成成功的表格去掉正文后的结构（行列、合并单元格、标题文字）
+     */
+    @Lob
+    private String skeletonHtml;
+
+    @PrePersist
+    public void prePersist() {
+        long now = System.currentTimeMillis();
+        if (createdAt == 0L) {
+            createdAt = now;
+        }
+        if (lastUsedAt == 0L) {
+            lastUsedAt = now;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    public void setLastUsedAt(long lastUsedAt) {
+        this.lastUsedAt = lastUsedAt;
+    }
+
+    public long getUseCount() {
+        return useCount;
+    }
+
+    public void setUseCount(long useCount) {
+        this.useCount = useCount;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public void setByteSize(long byteSize) {
+        this.byteSize = byteSize;
+    }
+
+    public String getImageDataUrl() {
+        return imageDataUrl;
+    }
+
+    public void setImageDataUrl(String imageDataUrl) {
+        this.imageDataUrl = imageDataUrl;
+    }
+
+    public String getHeadingsJson() {
+        return headingsJson;
+    }
+
+    public void setHeadingsJson(String headingsJson) {
+        this.headingsJson = headingsJson;
+    }
+
+    public String getSkeletonHtml() {
+        return skeletonHtml;
+    }
+
+    public void setSkeletonHtml(String skeletonHtml) {
+        this.skeletonHtml = skeletonHtml;
+    }
+}
@@ -1,7 +1,38 @@
 package com.example.demo.modules.lessonplan.repository;
 
 import com.example.demo.modules.lessonplan.entity.LessonPlanRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface LessonPlanRecordRepository extends JpaRepository<LessonPlanRecord, Long> {
+
+    Optional<LessonPlanRecord> findByIdempotencyKey(String idempotencyKey);
+
+    List<LessonPlanRecord> findByStatusIn(Collection<LessonPlanRecord.Status> statuses);
+
+    /**
+     * 最近生成的时间线（只取这一列，不加载教案正文）
+     */
+    @Query("select r.timelineJson from LessonPlanRecord r where r.timelineJson is not null order by r.id desc")
+    List<String> findRecentTimelines(Pageable pageable);
+
+    /**
+     * 正文版本仍是 expectedVersion 时替换正文并把版本加一；读取与写入之间被别人改过时不更新。
+     *
+     * @return 更新的行数，0 表示版本已变（或记录已删除）
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update LessonPlanRecord r set r.contentHtml = :html, r.contentVersion = :nextVersion, r.updatedAt = :now"
+            + " where r.id = :id and coalesce(r.contentVersion, 0L) = :expectedVersion")
+    int replaceContent(@Param("id") Long id, @Param("expectedVersion") Long expectedVersion,
+                       @Param("nextVersion") Long nextVersion, @Param("html") String html, @Param("now") Long now);
 }
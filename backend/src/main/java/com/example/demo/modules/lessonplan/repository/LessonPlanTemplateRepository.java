@@ -0,0 +1,50 @@
+package com.example.demo.modules.lessonplan.repository;
+
+import com.example.demo.modules.lessonplan.dto.LessonPlanTemplateInfo;
+import com.example.demo.modules.lessonplan.entity.LessonPlanTemplate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+public interface LessonPlanTemplateRepository extends JpaRepository<LessonPlanTemplate, String> {
+
+    /**
+     * 累加使用次数（不加载图片）
+     */
+    @Transactional
+    @Modifying
+    @Query("update LessonPlanTemplate t set t.useCount = t.useCount + :uses,"
+            + " t.lastUsedAt = case when t.lastUsedAt < :lastUsedAt then :lastUsedAt else t.lastUsedAt end where t.id = :id")
+    int addUses(@Param("id") String id, @Param("uses") long uses, @Param("lastUsedAt") long lastUsedAt);
+
+    /**
+     * 只查元数据，不加载图片
+     */
+    @Query("select t.id as id, t.mimeType as mimeType, t.byteSize as byteSize, t.useCount as useCount,"
+            + " t.lastUsedAt as lastUsedAt, t.headingsJson as headingsJson, t.skeletonHtml as skeletonHtml"
+            + " from LessonPlanTemplate t where t.id = :id")
+    Optional<LessonPlanTemplateInfo> findInfo(@Param("id") String id);
+
+    @Query("select t.imageDataUrl from LessonPlanTemplate t where t.id = :id")
+    Optional<String> findImageDataUrl(@Param("id") String id);
+
+    /**
+     * 只在还没识别过时写入标题（只改这一列，不覆盖并发写回的使用次数）
+     */
+    @Transactional
+    @Modifying
+    @Query("update LessonPlanTemplate t set t.headingsJson = :headingsJson where t.id = :id and t.headingsJson is null")
+    int rememberHeadings(@Param("id") String id, @Param("headingsJson") String headingsJson);
+
+    /**
+     * 只在还没有骨架时写入
+     */
+    @Transactional
+    @Modifying
+    @Query("update LessonPlanTemplate t set t.skeletonHtml = :skeletonHtml where t.id = :id and t.skeletonHtml is null")
+    int rememberSkeleton(@Param("id") String id, @Param("skeletonHtml") String skeletonHtml);
+}
@@ -1,24 +1,54 @@
 package com.example.demo.modules.lessonplan.service;
 
+import com.example.demo.modules.common.admission.AdmissionRejectedException;
+import com.example.demo.modules.common.admission.ModelAdmission;
+import com.example.demo.modules.common.concurrent.SingleFlight;
+import com.example.demo.modules.common.http.AsyncStreamProxy;
+import com.example.demo.modules.common.http.UpstreamObserver;
+import com.example.demo.modules.common.metrics.AiCallMetrics;
+import com.example.demo.modules.common.resilience.CircuitBreaker;
+import com.example.demo.modules.common.resilience.CircuitBreakers;
+import com.example.demo.modules.common.resilience.CircuitOpenException;
+import com.example.demo.modules.common.routing.ModelRouter;
+import com.example.demo.modules.common.util.CanonicalJson;
 import com.example.demo.modules.lessonplan.dto.LessonPlanRequest;
+import com.example.demo.modules.lessonplan.dto.LessonPlanTemplateInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 @Service
 public class GeminiService {
@@ -42,6 +72,22 @@ public class GeminiService {
             "  3) 分区用 <h2>：教学目标、重难点、教学准备、教学过程、评价与作业、板书设计（可选）\n" +
             "  4) 适度使用浅灰背景分区块（inline style）提升观感。";
 
+    /**
+     * 模板骨架超过这个长度就不放进提示词（太长反而稀释指令）
+     */
+    private static final int MAX_SKELETON_PROMPT_CHARS = 20000;
+
+    private static final String SECTION_INSTRUCTION =
+            "你是一名资深教研员，负责修改教案中的某一个部分。\n" +
+            "- 只输出被要求重写的那一部分的【纯 HTML 片段】，不要 Markdown，不要代码块包裹，不要解释。\n" +
+            "- 不要输出教案的其他部分，也不要输出 <html>/<body>。\n" +
+            "- 样式使用 inline CSS；表格单元格统一 border:1px solid #000; padding:8px 12px;";
+
+    /**
+     * 局部重写时附带的上文 / 下文纯文本长度
+     */
+    private static final int SECTION_CONTEXT_CHARS = 400;
+
     @Value("${lessonplan.ark.apiKey:}")
     private String apiKey;
 
@@ -60,39 +106,438 @@ public class GeminiService {
     @Value("${lessonplan.ark.baseUrl:https://ark.cn-beijing.volces.com}")
     private String baseUrl;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    /**
+     * 模板教案：标题识别与初稿并行发起，初稿标题不符时才带标题进入修复（否则三次调用串行）
+     */
+    @Value("${lessonplan.ark.pipelined:true}")
+    private boolean pipelined;
+
+    @Value("${lessonplan.ark.headingsWaitMs:60000}")
+    private long headingsWaitMs;
+
+    /**
+     * 并行的标题识别任务；实际并发仍受按模型的准入限制约束
+     */
+    private final ExecutorService headingsExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "lessonplan-headings");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 流式教案结束后的规整与保存，不占上游 IO 线程
+     */
+    private final ExecutorService streamPersistExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lessonplan-stream-persister");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final RestTemplate restTemplate;
+
+    /**
+     * 相同 payload 的并发调用（如全班同时打开同一份共享教案）只请求一次 Ark
+     */
+    private final SingleFlight<String, String> inflight = new SingleFlight<>();
+
+    private final ModelAdmission admission;
+
+    private final ModelRouter modelRouter;
+
+    private final AiCallMetrics aiCallMetrics;
+
+    private final CircuitBreaker arkBreaker;
+
+    private final TemplateRegistry templateRegistry;
+
+    private final AsyncStreamProxy asyncStreamProxy;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public GeminiService(@Qualifier("arkRestTemplate") RestTemplate restTemplate,
+                         ModelAdmission admission,
+                         ModelRouter modelRouter,
+                         AiCallMetrics aiCallMetrics,
+                         CircuitBreakers circuitBreakers,
+                         TemplateRegistry templateRegistry,
+                         AsyncStreamProxy asyncStreamProxy) {
+        this.restTemplate = restTemplate;
+        this.admission = admission;
+        this.modelRouter = modelRouter;
+        this.aiCallMetrics = aiCallMetrics;
+        this.arkBreaker = circuitBreakers.get(CircuitBreakers.ARK);
+        this.templateRegistry = templateRegistry;
+        this.asyncStreamProxy = asyncStreamProxy;
+    }
 
+    /**
+     * Ark 不可用（熔断打开 / 连接失败 / 5xx）时降级为本地教案框架，不让请求线程挂在超时上。
+     */
     public String generateLessonPlan(LessonPlanRequest req) {
+        return generateLessonPlan(req, null);
+    }
+
+    /**
+     * @param timeline 不为 null 时记录各阶段耗时、模型与重试（结束时已 finish）
+     */
+    public String generateLessonPlan(LessonPlanRequest req, LessonPlanTimeline timeline) {
+        try (LessonPlanTimeline.Scope ignored = LessonPlanTimeline.open(timeline)) {
+            if (!StringUtils.hasText(apiKey)) {
+                path(timeline, "mock");
+                return mockLessonPlan(req, "【本地模式】未配置 ark.apiKey，返回模拟教案");
+            }
+            if (!arkBreaker.isCallPermitted()) {
+                path(timeline, "degraded");
+                return degradedLessonPlan(req);
+            }
+            try {
+                return generateWithArk(req, timeline);
+            } catch (CircuitOpenException | ResourceAccessException | HttpServerErrorException ex) {
+                path(timeline, "degraded");
+                return degradedLessonPlan(req);
+            }
+        } finally {
+            if (timeline != null) {
+                timeline.finish();
+            }
+        }
+    }
+
+    private static void path(LessonPlanTimeline timeline, String path) {
+        if (timeline != null) {
+            timeline.path(path);
+        }
+    }
+
+    /**
+     * 这份请求实际会用到的模型（带模板时为视觉模型），用于按模型配额确定批量并发。
+     */
+    public String generationModel(LessonPlanRequest req) {
+        if (hasTemplate(req) && StringUtils.hasText(visionModel)) {
+            return visionModel;
+        }
+        return model;
+    }
+
+    /**
+     * 批量生成前先识别一次模板标题并登记，之后同一模板的各条生成都直接复用，不再各自调用视觉模型。
+     * 没有模板、已识别过或识别失败时返回已知标题（可能为 null），失败不影响后续按单条流程生成。
+     */
+    public List<String> prepareTemplate(LessonPlanRequest req) {
+        if (!StringUtils.hasText(apiKey) || !hasTemplate(req) || !strictTemplate || !strictHeadings) {
+            return null;
+        }
+        List<String> known = templateRegistry.headingsOf(templateRegistry.find(req.getTemplateId()));
+        if (known != null) {
+            return known;
+        }
+        try {
+            return timed("headings", () -> extractAndRememberHeadings(req, templateImageOf(req), generationModel(req)));
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 只重写已保存教案中的一个分区：定位标题对应的片段，把片段原文和前后文节选发给模型，
+     * 返回的片段规整后原位替换，其余部分逐字不变（提示词与输出都只有一个分区的长度）。
+     *
+     * @param req         原教案的生成参数（用于提示词中的学科/年级/主题）
+     * @param html        当前保存的教案 HTML
+     * @param instruction 教师的修改要求，可为空
+     * @throws ResponseStatusException 找不到标题（404）、未配置 Ark（503）、模型返回无法替换（502）
+     */
+    public SectionRewrite regenerateSection(LessonPlanRequest req, String html, String heading, String instruction) {
+        LessonPlanSections.Section section = LessonPlanSections.locate(html, heading);
+        if (section == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "教案中找不到标题：" + heading);
+        }
         if (!StringUtils.hasText(apiKey)) {
-            return mockLessonPlan(req);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "未配置 ark.apiKey，无法局部重写");
+        }
+        String prompt = buildSectionPrompt(req, html, section, heading, instruction);
+        String raw;
+        try {
+            raw = timed("section", () -> callArkChatCompletions(prompt, model, SECTION_INSTRUCTION));
+        } catch (RestClientException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "AI 服务暂时不可用，请稍后重试");
+        }
+        String fragment = sectionFragment(raw, section, heading);
+        if (fragment == null) {
+            aiCallMetrics.recordOutcome("lessonplan", "section", "rejected");
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "模型返回的内容无法替换该部分，请重试");
+        }
+        aiCallMetrics.recordOutcome("lessonplan", "section", "spliced");
+        String spliced = html.substring(0, section.start) + fragment + html.substring(section.end);
+        return new SectionRewrite(fragment, spliced);
+    }
+
+    private String buildSectionPrompt(LessonPlanRequest req, String html, LessonPlanSections.Section section,
+                                      String heading, String instruction) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("请只重写下面这份教案中“").append(heading.trim()).append("”这一部分。\n");
+        sb.append("学科：").append(req.getSubject()).append("\n");
+        sb.append("年级：").append(req.getGradeLevel()).append("\n");
+        sb.append("主题：").append(req.getTopic()).append("\n");
+        if (StringUtils.hasText(req.getDuration())) {
+            sb.append("时长：").append(req.getDuration()).append("\n");
+        }
+        if (StringUtils.hasText(instruction)) {
+            sb.append("修改要求：").append(instruction.trim()).append("\n");
+        }
+        sb.append("\n【上文节选（不要改写）】\n").append(LessonPlanSections.textBefore(html, section, SECTION_CONTEXT_CHARS));
+        sb.append("\n\n【下文节选（不要改写）】\n").append(LessonPlanSections.textAfter(html, section, SECTION_CONTEXT_CHARS));
+        sb.append("\n\n【需要重写的部分（原 HTML）】\n").append(html, section.start, section.end);
+        sb.append("\n\n【输出要求】\n");
+        if (section.tableRows) {
+            sb.append("- 只返回替换后的若干 <tr>...</tr>，不要 <table>、不要说明文字。\n");
+            sb.append("- 保留标题单元格“").append(heading.trim()).append("”原字不改，列数与合并单元格与原 HTML 一致。\n");
+        } else {
+            sb.append("- 只返回标题下方的正文 HTML，不要重复标题本身，不要使用同级或更高级的标题标签。\n");
+        }
+        sb.append("- 与上下文衔接，不要重复上下文中已有的内容。\n");
+        return sb.toString();
+    }
+
+    /**
+     * 规整模型返回的片段；表格行模式下只截取完整的 &lt;tr&gt;，且必须仍带着原标题。
+     *
+     * @return 无法安全替换时返回 null
+     */
+    private static String sectionFragment(String raw, LessonPlanSections.Section section, String heading) {
+        String fragment = LessonPlanHtml.normalizeFragment(raw).trim();
+        if (!section.tableRows) {
+            return fragment.replaceAll("<[^>]+>", "").trim().isEmpty() ? null : fragment;
+        }
+        int first = LessonPlanHtml.indexOfIgnoreCase(fragment, "<tr", 0, fragment.length());
+        int last = fragment.toLowerCase().lastIndexOf("</tr>");
+        if (first < 0 || last < first) {
+            return null;
+        }
+        fragment = fragment.substring(first, last + "</tr>".length());
+        if (LessonPlanHtml.indexOfIgnoreCase(fragment, "<table", 0, fragment.length()) >= 0
+                || LessonPlanSections.locate(fragment, heading) == null) {
+            return null;
+        }
+        return fragment;
+    }
+
+    public static final class SectionRewrite {
+
+        private final String sectionHtml;
+        private final String html;
+
+        SectionRewrite(String sectionHtml, String html) {
+            this.sectionHtml = sectionHtml;
+            this.html = html;
         }
 
+        public String getSectionHtml() {
+            return sectionHtml;
+        }
+
+        public String getHtml() {
+            return html;
+        }
+    }
+
+    /**
+     * 流式生成：模型增量边到边写给浏览器（去代码块、补表格边框在流上逐段完成），上游正常结束后
+     * 通过 persist（最终 HTML, 时间线）保存最终教案并以 event: done 返回记录 ID；时间线走 stream 路线，
+     * 唯一的阶段记下模型、字节数、首 token 与总耗时。模板教案只用已登记的标题/骨架，
+     * 流式模式下不做标题识别与表格修复（二者都要等完整输出）。
+     * Ark 未配置或熔断打开时直接以同样的事件格式返回本地教案框架。
+     */
+    public void streamLessonPlan(LessonPlanRequest req, HttpServletRequest request, HttpServletResponse response,
+                                 BiFunction<String, LessonPlanTimeline, Long> persist) throws IOException {
+        if (!StringUtils.hasText(apiKey)) {
+            writeLocalStream(response, mockLessonPlan(req, "【本地模式】未配置 ark.apiKey，返回模拟教案"), "mock", persist);
+            return;
+        }
+        if (!arkBreaker.isCallPermitted()) {
+            writeLocalStream(response, degradedLessonPlan(req), "degraded", persist);
+            return;
+        }
+        LessonPlanTimeline timeline = new LessonPlanTimeline();
+        timeline.path("stream");
+
         String prompt = buildPrompt(req);
+        Object userContent = prompt;
+        String modelToUse = model;
+        boolean withTemplate = hasTemplate(req);
+        if (withTemplate) {
+            modelToUse = StringUtils.hasText(visionModel) ? visionModel : model;
+            LessonPlanTemplateInfo template = templateRegistry.find(req.getTemplateId());
+            List<String> knownHeadings = strictTemplate && strictHeadings ? templateRegistry.headingsOf(template) : null;
+            if (knownHeadings != null) {
+                prompt = appendStrictHeadings(prompt, knownHeadings);
+                if (template.getSkeletonHtml() != null) {
+                    prompt = appendSkeleton(prompt, template.getSkeletonHtml());
+                }
+            }
+            userContent = buildMultimodalUserContent(prompt, templateImageOf(req));
+        }
 
-        if (StringUtils.hasText(req.getTemplateImage())) {
+        String modelToRoute = modelToUse;
+        String modelName = modelRouter.select(modelToRoute);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", modelName);
+        payload.put("messages", chatMessages(userContent, SYSTEM_INSTRUCTION));
+        payload.put("stream", true);
+        byte[] jsonBytes = objectMapper.writeValueAsBytes(payload);
+        response.setHeader("X-AI-Model", modelName);
+
+        asyncStreamProxy.proxy(request, baseUrl + "/api/v3/chat/completions", apiKey, jsonBytes, null, () -> {
+            // 熔断打开时不排队；排队不占请求线程
+            arkBreaker.acquirePermission().release();
+            return admission.acquireAsync(modelName);
+        }, permit -> {
+            CircuitBreaker.Permit breakerPermit = arkBreaker.acquirePermission();
+            long start = System.nanoTime();
+            // 阶段从拿到许可、发出请求时开始，之前的排队时间体现在阶段的 startMs 上
+            LessonPlanTimeline.Stage stage = timeline.detachedStage("stream");
+            UpstreamObserver observer = new UpstreamObserver() {
+                private long firstTokenMs = -1;
+                private long responseBytes;
+
+                @Override
+                public boolean outlivesClients() {
+                    // 标签页中途关闭也要读完并保存教案
+                    return true;
+                }
+
+                @Override
+                public void onFirstByte() {
+                    firstTokenMs = (System.nanoTime() - start) / 1_000_000;
+                }
+
+                @Override
+                public void onChunk(byte[] chunk) {
+                    responseBytes += chunk.length;
+                }
+
+                @Override
+                public void onFinish(int status, Exception failure) {
+                    // 先于保存回调（见 StreamBroadcast.onEnd），保存时时间线已完整
+                    stage.endStream(modelName, failure != null || status == 0 ? "error" : String.valueOf(status),
+                            jsonBytes.length, responseBytes, firstTokenMs, modelName.equals(modelToRoute) ? null : modelToRoute);
+                    timeline.finish();
+                    permit.close();
+                    if (failure != null || status == 0 || status >= 500 || status == 429) {
+                        modelRouter.recordFailure(modelName);
+                    } else if (status < 300) {
+                        modelRouter.recordSuccess(modelName, (System.nanoTime() - start) / 1_000_000);
+                        aiCallMetrics.recordStage("lessonplan_stream", "total", System.nanoTime() - start);
+                    }
+                    if (failure != null || status >= 500) {
+                        breakerPermit.onFailure();
+                    } else if (status == 0) {
+                        breakerPermit.release();
+                    } else {
+                        breakerPermit.onSuccess();
+                    }
+                }
+            };
+            return aiCallMetrics.observeStream("lessonplan_stream", modelName, jsonBytes.length, observer);
+        }, new LessonPlanStreamTransformer(objectMapper, withTemplate && strictTemplate,
+                html -> persist.apply(html, timeline), streamPersistExecutor));
+    }
+
+    /**
+     * 不经过 Ark 的教案（本地 / 降级）按流式接口的事件格式一次写完；保存时带上走的路线（记录为 DEGRADED）。
+     */
+    private void writeLocalStream(HttpServletResponse response, String html, String path,
+                                  BiFunction<String, LessonPlanTimeline, Long> persist) throws IOException {
+        LessonPlanTimeline timeline = new LessonPlanTimeline();
+        timeline.path(path);
+        timeline.finish();
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("delta", html);
+        Map<String, Object> done = new LinkedHashMap<>();
+        done.put("id", persist.apply(html, timeline));
+        done.put("html", html);
+        done.put("degraded", true);
+
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        String body = "data: " + objectMapper.writeValueAsString(delta) + "\n\n"
+                + "event: done\ndata: " + objectMapper.writeValueAsString(done) + "\n\n";
+        response.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+        response.flushBuffer();
+    }
+
+    private String generateWithArk(LessonPlanRequest req, LessonPlanTimeline timeline) {
+        String prompt = buildPrompt(req);
+
+        if (hasTemplate(req)) {
+            path(timeline, "vision");
             String modelToUse = StringUtils.hasText(visionModel) ? visionModel : model;
+            long start = System.nanoTime();
+            // 已登记过的模板直接复用识别好的标题与骨架，不再调用视觉模型识别
+            LessonPlanTemplateInfo template = templateRegistry.find(req.getTemplateId());
+            List<String> knownHeadings = strictTemplate && strictHeadings ? templateRegistry.headingsOf(template) : null;
+            boolean speculative = knownHeadings == null && pipelined && strictTemplate && strictHeadings;
+            String templateImage = templateImageOf(req);
 
             List<String> headings = Collections.emptyList();
-            if (strictTemplate && strictHeadings) {
-                headings = extractHeadingsFromTemplate(req.getTemplateImage(), modelToUse);
+            Future<List<String>> pendingHeadings = null;
+            if (knownHeadings != null) {
+                headings = knownHeadings;
+            } else if (speculative) {
+                String headingModel = modelToUse;
+                pendingHeadings = CompletableFuture.supplyAsync(LessonPlanTimeline.bind(
+                        () -> timed("headings", () -> extractAndRememberHeadings(req, templateImage, headingModel))),
+                        headingsExecutor);
+            } else if (strictTemplate && strictHeadings) {
+                String headingModel = modelToUse;
+                headings = timed("headings", () -> extractAndRememberHeadings(req, templateImage, headingModel));
             }
 
             String promptWithHeadings = appendStrictHeadings(prompt, headings);
+            if (knownHeadings != null && template.getSkeletonHtml() != null) {
+                promptWithHeadings = appendSkeleton(promptWithHeadings, template.getSkeletonHtml());
+            }
             try {
-                String raw = callArkChatCompletions(buildMultimodalUserContent(promptWithHeadings, req.getTemplateImage()), modelToUse);
-                if (strictTemplate) {
-                    return enforceStrictTable(raw, req, modelToUse, headings);
+                String draftPrompt = promptWithHeadings;
+                String draftModel = modelToUse;
+                String raw = timed("draft", () -> callArkVision(draftPrompt, templateImage, req.getTemplateId(), draftModel, SYSTEM_INSTRUCTION));
+                String html;
+                if (speculative) {
+                    headings = awaitHeadings(pendingHeadings);
+                    html = alignWithHeadings(raw, req, modelToUse, headings);
+                } else if (strictTemplate) {
+                    html = enforceStrictTable(raw, req, modelToUse, headings);
+                } else {
+                    html = LessonPlanHtml.sanitize(raw);
+                }
+                if (strictTemplate && (template == null || template.getSkeletonHtml() == null)
+                        && headings != null && !headings.isEmpty() && containsHeadingsInOrder(html, headings)) {
+                    templateRegistry.rememberSkeleton(req.getTemplateId(), html, headings);
+                }
+                aiCallMetrics.recordStage("lessonplan", "total", System.nanoTime() - start);
+                return html;
+            } catch (AdmissionRejectedException | CircuitOpenException ex) {
+                // 模型繁忙 / Ark 熔断时不再重试，直接交给上层（429 或降级）
+                if (pendingHeadings != null) {
+                    pendingHeadings.cancel(true);
                 }
-                return sanitizeHtml(raw);
+                throw ex;
             } catch (Exception ex) {
+                if (speculative) {
+                    // 草稿已失败，不再为标题等满 headingsWaitMs：已经识别好就用，否则放弃
+                    headings = headingsIfDone(pendingHeadings);
+                    promptWithHeadings = appendStrictHeadings(prompt, headings);
+                }
                 String fallbackPrompt = promptWithHeadings + "\n\n【说明】图片输入可能不可用（模型不支持视觉/模型ID配置错误/图片过大等）。请在无法识别图片时，仍尽力用规范的教案表格样式输出。";
+                path(timeline, "vision_fallback");
 
                 String raw;
                 try {
-                    raw = callArkChatCompletions(fallbackPrompt, modelToUse);
+                    String fallbackModel = modelToUse;
+                    raw = timed("fallback", () -> callArkChatCompletions(fallbackPrompt, fallbackModel));
                 } catch (Exception ex2) {
                     if (!modelToUse.equals(model)) {
-                        raw = callArkChatCompletions(fallbackPrompt, model);
+                        raw = timed("fallback_text_model", () -> callArkChatCompletions(fallbackPrompt, model));
                         modelToUse = model;
                     } else {
                         throw ex2;
@@ -102,11 +547,29 @@ public class GeminiService {
                 if (strictTemplate) {
                     return enforceStrictTable(raw, req, modelToUse, headings);
                 }
-                return sanitizeHtml(raw);
+                return LessonPlanHtml.sanitize(raw);
             }
         }
 
-        return sanitizeHtml(callArkChatCompletions(prompt, model));
+        path(timeline, "text");
+        return LessonPlanHtml.sanitize(timed("text", () -> callArkChatCompletions(prompt, model)));
+    }
+
+    /**
+     * 请求是否带参照模板：图片原文或已登记的模板 ID。
+     */
+    private static boolean hasTemplate(LessonPlanRequest req) {
+        return StringUtils.hasText(req.getTemplateImage()) || StringUtils.hasText(req.getTemplateId());
+    }
+
+    /**
+     * 模板图片的 data URL：请求里带了原文就直接用，只传了 ID 时到要拼上游请求体时才从模板表读取。
+     */
+    private String templateImageOf(LessonPlanRequest req) {
+        if (StringUtils.hasText(req.getTemplateImage())) {
+            return req.getTemplateImage();
+        }
+        return templateRegistry.imageOf(req.getTemplateId());
     }
 
     private Object buildMultimodalUserContent(String prompt, String imageDataUrl) {
@@ -129,8 +592,79 @@ public class GeminiService {
     }
 
     private String callArkChatCompletions(Object userContent, String modelToUse, String systemInstruction) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", modelToUse);
+        payload.put("messages", chatMessages(userContent, systemInstruction));
+        return callArk(payload, CanonicalJson.sha256(payload), modelToUse);
+    }
+
+    /**
+     * 带模板图片的调用。合并 key 用模板 ID（即图片字节的 SHA-256，见 {@link TemplateRegistry}）代替图片本身，
+     * 不必为了合并把几 MB 的 base64 再序列化、哈希一遍；没有 ID 的图片才退回按整个请求体计算。
+     */
+    private String callArkVision(String prompt, String imageDataUrl, String templateId, String modelToUse, String systemInstruction) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", modelToUse);
+        payload.put("messages", chatMessages(buildMultimodalUserContent(prompt, imageDataUrl), systemInstruction));
+        String flightKey = StringUtils.hasText(templateId)
+                ? CanonicalJson.sha256(Arrays.asList(modelToUse, systemInstruction, prompt, "template:" + templateId))
+                : CanonicalJson.sha256(payload);
+        return callArk(payload, flightKey, modelToUse);
+    }
+
+    private String callArk(Map<String, Object> payload, String flightKey, String modelToUse) {
         String url = baseUrl + "/api/v3/chat/completions";
 
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Authorization", "Bearer " + apiKey);
+        // 路由层的尝试在它自己的线程上执行，当前阶段在这里取出
+        LessonPlanTimeline.Stage stage = LessonPlanTimeline.currentStage();
+
+        try {
+            // 合并按请求方指定的模型计算；路由层可能故障切换或对冲到备选模型
+            return inflight.execute(flightKey, () ->
+                    modelRouter.call(modelToUse, m -> {
+                        Map<String, Object> attempt = new HashMap<>(payload);
+                        attempt.put("model", m);
+                        try (ModelAdmission.Permit permit = admission.acquire(m);
+                             AiCallMetrics.Call call = aiCallMetrics.start("lessonplan", m);
+                             LessonPlanTimeline.Attempt timing = LessonPlanTimeline.attempt(stage, m, call)) {
+                            ResponseEntity<byte[]> response;
+                            try {
+                                response = arkBreaker.execute(
+                                        () -> restTemplate.postForEntity(url, new HttpEntity<>(attempt, headers), byte[].class));
+                            } catch (HttpStatusCodeException e) {
+                                call.status(e.getRawStatusCode());
+                                throw e;
+                            }
+                            call.status(response.getStatusCodeValue());
+                            byte[] raw = response.getBody();
+                            // 分块 / gzip 响应没有 Content-Length，按实际收到的正文计
+                            long length = response.getHeaders().getContentLength();
+                            call.responseBytes(length >= 0 ? length : (raw == null ? 0 : raw.length));
+                            Object body = raw == null || raw.length == 0 ? null : objectMapper.readValue(raw, Object.class);
+                            if (body instanceof Map && ((Map) body).get("usage") instanceof Map) {
+                                Map usage = (Map) ((Map) body).get("usage");
+                                call.usage(asLong(usage.get("prompt_tokens")), asLong(usage.get("completion_tokens")));
+                            }
+                            if (body == null) {
+                                return "";
+                            }
+                            if (!(body instanceof Map)) {
+                                return String.valueOf(body);
+                            }
+                            return extractContentFromChatCompletion((Map) body);
+                        }
+                    }).getValue());
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RestClientException(ex.getMessage(), ex);
+        }
+    }
+
+    private static List<Map<String, Object>> chatMessages(Object userContent, String systemInstruction) {
         Map<String, Object> sysMsg = new HashMap<>();
         sysMsg.put("role", "system");
         sysMsg.put("content", systemInstruction);
@@ -139,50 +673,53 @@ public class GeminiService {
         userMsg.put("role", "user");
         userMsg.put("content", userContent);
 
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("model", modelToUse);
-        payload.put("messages", Arrays.asList(sysMsg, userMsg));
+        return Arrays.asList(sysMsg, userMsg);
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + apiKey);
+    private static Long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
+    public Map<String, Object> inflightStats() {
+        return inflight.stats();
+    }
 
-        ResponseEntity<Map> response = restTemplate.postForEntity(url, entity, Map.class);
-        Object body = response.getBody();
-        if (body == null) {
-            return "";
-        }
-        if (!(body instanceof Map)) {
-            return String.valueOf(body);
+    private String enforceStrictTable(String raw, LessonPlanRequest req, String modelToUse, List<String> headings) {
+        LessonPlanHtml.Normalized draft = LessonPlanHtml.normalize(raw);
+        if (StringUtils.hasText(draft.table)) {
+            aiCallMetrics.recordOutcome("lessonplan", "strict_table", "clean");
+            return draft.table;
         }
-        return extractContentFromChatCompletion((Map) body);
+        return repairTable(draft.html, req, modelToUse, headings);
     }
 
-    private String sanitizeHtml(String raw) {
-        if (raw == null) {
-            return "";
+    /**
+     * 并行模式的收尾：初稿已是单个表格且按顺序包含识别出的标题时直接使用，否则先本地修复，仍不符再带标题重写。
+     */
+    private String alignWithHeadings(String raw, LessonPlanRequest req, String modelToUse, List<String> headings) {
+        LessonPlanHtml.Normalized draft = LessonPlanHtml.normalize(raw);
+        if (StringUtils.hasText(draft.table) && containsHeadingsInOrder(draft.table, headings)) {
+            aiCallMetrics.recordOutcome("lessonplan", "strict_table", "clean");
+            return draft.table;
         }
-        String cleaned = raw.trim();
-        if (cleaned.startsWith("```")) {
-            cleaned = cleaned.replaceFirst("^```[a-zA-Z]*\\n?", "");
-            cleaned = cleaned.replaceAll("```$", "");
-            cleaned = cleaned.trim();
-        }
-        if (cleaned.toLowerCase().contains("<table")) {
-            return ensureInlineTableBorders(cleaned);
-        }
-        return cleaned;
+        return repairTable(draft.html, req, modelToUse, headings);
     }
 
-    private String enforceStrictTable(String raw, LessonPlanRequest req, String modelToUse, List<String> headings) {
-        String cleaned = sanitizeHtml(raw);
-        String extracted = tryExtractTable(cleaned);
-        if (StringUtils.hasText(extracted)) {
-            return ensureInlineTableBorders(extracted);
-        }
+    /**
+     * 先在本地补齐表格结构（去掉外层包裹与说明文字、闭合 tr/td），结果按顺序包含锁定标题就直接用；
+     * 本地修不好（没有表格 / 标题缺失或被改写）才带全文请求模型重写。
+     */
+    private String repairTable(String cleaned, LessonPlanRequest req, String modelToUse, List<String> headings) {
+        String local = timed("local_repair", () -> LessonPlanTableRepair.repair(cleaned));
+        if (local != null && containsHeadingsInOrder(local, headings)) {
+            aiCallMetrics.recordOutcome("lessonplan", "strict_table", "local");
+            return local;
+        }
+        aiCallMetrics.recordOutcome("lessonplan", "strict_table", "llm");
+        return timed("repair", () -> repairStrictTable(cleaned, req, modelToUse, headings));
+    }
 
+    private String repairStrictTable(String cleaned, LessonPlanRequest req, String modelToUse, List<String> headings) {
         StringBuilder fix = new StringBuilder();
         fix.append("你刚才的输出不符合要求。请严格按以下要求重写，并只返回最终 HTML：\n");
         fix.append("- 只允许返回一个 <table>...</table>，不能包含 <div>、<p>、<html>、说明文字。\n");
@@ -207,108 +744,23 @@ public class GeminiService {
         if (StringUtils.hasText(req.getAdditionalNotes())) {
             fix.append("补充要求：").append(req.getAdditionalNotes()).append("\n");
         }
-        fix.append("\n【你上一次的输出（有问题）】\n");
+        fix.append("\n【你上一次的输出（有问题，可能缺少或改写了标题）】\n");
         fix.append(cleaned);
 
         String repaired;
         try {
-            if (StringUtils.hasText(req.getTemplateImage())) {
-                repaired = callArkChatCompletions(buildMultimodalUserContent(fix.toString(), req.getTemplateImage()), modelToUse);
+            if (hasTemplate(req)) {
+                repaired = callArkVision(fix.toString(), templateImageOf(req), req.getTemplateId(), modelToUse, SYSTEM_INSTRUCTION);
             } else {
                 repaired = callArkChatCompletions(fix.toString(), modelToUse);
             }
-        } catch (RestClientException ex) {
+        } catch (RestClientException | CircuitOpenException ex) {
             return cleaned;
         }
 
-        repaired = sanitizeHtml(repaired);
-        String repairedExtracted = tryExtractTable(repaired);
-        if (StringUtils.hasText(repairedExtracted)) {
-            return ensureInlineTableBorders(repairedExtracted);
-        }
-        if (repaired != null && repaired.toLowerCase().contains("<table")) {
-            return ensureInlineTableBorders(repaired);
-        }
-        return repaired;
-    }
-
-    private String ensureInlineTableBorders(String html) {
-        String s = html;
-        s = ensureTagHasStyle(s, "table", "border-collapse:collapse;border:1px solid #000;");
-        s = ensureTagHasStyle(s, "th", "border:1px solid #000;padding:8px 12px;vertical-align:top;");
-        s = ensureTagHasStyle(s, "td", "border:1px solid #000;padding:8px 12px;vertical-align:top;");
-        return s;
-    }
-
-    private String ensureTagHasStyle(String html, String tag, String requiredStyle) {
-        Pattern openTag = Pattern.compile("<" + tag + "(\\s[^>]*)?>", Pattern.CASE_INSENSITIVE);
-        Matcher m = openTag.matcher(html);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String full = m.group(0);
-            String attrs = m.group(1);
-            String replaced = full;
-            if (attrs == null) {
-                replaced = "<" + tag + " style=\"" + requiredStyle + "\">";
-            } else {
-                replaced = applyRequiredStyle(tag, attrs, requiredStyle);
-            }
-            m.appendReplacement(sb, Matcher.quoteReplacement(replaced));
-        }
-        m.appendTail(sb);
-        return sb.toString();
-    }
-
-    private String applyRequiredStyle(String tag, String attrsWithLeadingSpace, String requiredStyle) {
-        String attrs = attrsWithLeadingSpace;
-        String lower = attrs.toLowerCase();
-        String required = requiredStyle;
-
-        Pattern styleDq = Pattern.compile("style\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
-        Matcher mdq = styleDq.matcher(attrs);
-        if (mdq.find()) {
-            String existing = mdq.group(1);
-            String existingLower = existing.toLowerCase();
-            String extra = "";
-            for (String part : required.split(";")) {
-                String p = part.trim();
-                if (!p.isEmpty()) {
-                    String key = p.split(":")[0].trim();
-                    if (!existingLower.contains(key)) {
-                        extra += (existing.endsWith(";") || existing.isEmpty()) ? p + ";" : ";" + p + ";";
-                    }
-                }
-            }
-            String newStyle = existing + extra;
-            String newAttrs = mdq.replaceFirst("style=\"" + Matcher.quoteReplacement(newStyle) + "\"");
-            return "<" + tag + newAttrs + ">";
-        }
-
-        Pattern styleSq = Pattern.compile("style\\s*=\\s*'([^']*)'", Pattern.CASE_INSENSITIVE);
-        Matcher msq = styleSq.matcher(attrs);
-        if (msq.find()) {
-            String existing = msq.group(1);
-            String existingLower = existing.toLowerCase();
-            String extra = "";
-            for (String part : required.split(";")) {
-                String p = part.trim();
-                if (!p.isEmpty()) {
-                    String key = p.split(":")[0].trim();
-                    if (!existingLower.contains(key)) {
-                        extra += (existing.endsWith(";") || existing.isEmpty()) ? p + ";" : ";" + p + ";";
-                    }
-                }
-            }
-            String newStyle = existing + extra;
-            String newAttrs = msq.replaceFirst("style='" + Matcher.quoteReplacement(newStyle) + "'");
-            return "<" + tag + newAttrs + ">";
-        }
-
-        if (lower.contains("style=")) {
-            return "<" + tag + attrs + ">";
-        }
-
-        return "<" + tag + attrs + " style=\"" + required + "\">";
+        // 规整时已补齐样式，截不出完整表格就返回规整后的全文
+        LessonPlanHtml.Normalized fixed = LessonPlanHtml.normalize(repaired);
+        return StringUtils.hasText(fixed.table) ? fixed.table : fixed.html;
     }
 
     private String appendStrictHeadings(String prompt, List<String> headings) {
@@ -324,7 +776,20 @@ public class GeminiService {
         return sb.toString();
     }
 
-    private List<String> extractHeadingsFromTemplate(String imageDataUrl, String modelToUse) {
+    private String appendSkeleton(String prompt, String skeletonHtml) {
+        if (skeletonHtml.length() > MAX_SKELETON_PROMPT_CHARS) {
+            return prompt;
+        }
+        return prompt + "\n\n【表格骨架】\n以下是该参照模板已确认的表格结构（行列、合并单元格、大标题），请保持结构不变，只填写各单元格内容：\n" + skeletonHtml;
+    }
+
+    private List<String> extractAndRememberHeadings(LessonPlanRequest req, String templateImage, String modelToUse) {
+        List<String> headings = extractHeadingsFromTemplate(templateImage, req.getTemplateId(), modelToUse);
+        templateRegistry.rememberHeadings(req.getTemplateId(), headings);
+        return headings;
+    }
+
+    private List<String> extractHeadingsFromTemplate(String imageDataUrl, String templateId, String modelToUse) {
         String headingSystem = "你是一个文档表格结构与版式识别助手。";
 
         String headingPrompt = "请从用户提供的教案表格图片中识别【大标题/板块标题】（例如：教学目标、教学分析、教学重难点等）。\n" +
@@ -334,13 +799,80 @@ public class GeminiService {
                 "3) 按从上到下出现的顺序输出\n";
 
         try {
-            String raw = callArkChatCompletions(buildMultimodalUserContent(headingPrompt, imageDataUrl), modelToUse, headingSystem);
+            String raw = callArkVision(headingPrompt, imageDataUrl, templateId, modelToUse, headingSystem);
             return parseJsonStringArray(raw);
         } catch (Exception ex) {
             return Collections.emptyList();
         }
     }
 
+    private List<String> awaitHeadings(Future<List<String>> pending) {
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return pending.get(headingsWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            pending.cancel(true);
+            return Collections.emptyList();
+        } catch (Exception ex) {
+            pending.cancel(true);
+            return Collections.emptyList();
+        }
+    }
+
+    private static List<String> headingsIfDone(Future<List<String>> pending) {
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+        if (!pending.isDone()) {
+            pending.cancel(true);
+            return Collections.emptyList();
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (Exception ex) {
+            return Collections.emptyList();
+        }
+    }
+
+    private boolean containsHeadingsInOrder(String html, List<String> headings) {
+        if (headings == null || headings.isEmpty()) {
+            return true;
+        }
+        String text = html.replaceAll("<[^>]+>", "").replace("&nbsp;", " ").replaceAll("\\s+", "");
+        int from = 0;
+        for (String heading : headings) {
+            int idx = text.indexOf(heading.replaceAll("\\s+", ""), from);
+            if (idx < 0) {
+                return false;
+            }
+            from = idx + 1;
+        }
+        return true;
+    }
+
+    private <T> T timed(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        LessonPlanTimeline.Stage entry = LessonPlanTimeline.enter(stage);
+        try {
+            return work.get();
+        } finally {
+            LessonPlanTimeline.exit(entry);
+            aiCallMetrics.recordStage("lessonplan", stage, System.nanoTime() - start);
+        }
+    }
+
+    @PreDestroy
+    public void shutdownExecutors() {
+        headingsExecutor.shutdownNow();
+        streamPersistExecutor.shutdown();
+    }
+
     private List<String> parseJsonStringArray(String raw) {
         if (!StringUtils.hasText(raw)) {
             return Collections.emptyList();
@@ -367,30 +899,6 @@ public class GeminiService {
         return Arrays.asList(set.toArray(new String[0]));
     }
 
-    private String tryExtractTable(String html) {
-        if (!StringUtils.hasText(html)) {
-            return "";
-        }
-        int start = indexOfIgnoreCase(html, "<table");
-        int end = lastIndexOfIgnoreCase(html, "</table>");
-        if (start >= 0 && end >= 0 && end > start) {
-            return html.substring(start, end + "</table>".length()).trim();
-        }
-        String trimmed = html.trim();
-        if (trimmed.toLowerCase().startsWith("<table") && trimmed.toLowerCase().endsWith("</table>")) {
-            return trimmed;
-        }
-        return "";
-    }
-
-    private int indexOfIgnoreCase(String s, String sub) {
-        return s.toLowerCase().indexOf(sub.toLowerCase());
-    }
-
-    private int lastIndexOfIgnoreCase(String s, String sub) {
-        return s.toLowerCase().lastIndexOf(sub.toLowerCase());
-    }
-
     private String extractContentFromChatCompletion(Map body) {
         Object choicesObj = body.get("choices");
         if (!(choicesObj instanceof List)) {
@@ -437,7 +945,7 @@ public class GeminiService {
         sb.append("- 必须输出纯 HTML，不要 Markdown。\n");
         sb.append("- 结构清晰、排版美观、适合打印与导出 Word。\n");
 
-        if (StringUtils.hasText(req.getTemplateImage())) {
+        if (hasTemplate(req)) {
             sb.append("\n【参照格式】用户上传了教案表格图片，请尽可能复刻该表格结构并填充内容。\n");
             sb.append("- 表格必须是 <table>，且 table/th/td 统一 border:1px solid #000; border-collapse:collapse;\n");
             sb.append("- 合并单元格（rowspan/colspan）尽量与参照一致。\n");
@@ -447,9 +955,13 @@ public class GeminiService {
         return sb.toString();
     }
 
-    private String mockLessonPlan(LessonPlanRequest req) {
+    private String degradedLessonPlan(LessonPlanRequest req) {
+        return mockLessonPlan(req, "【降级模式】AI 服务暂时不可用，先返回基础教案框架，请稍后重新生成");
+    }
+
+    private String mockLessonPlan(LessonPlanRequest req, String banner) {
         String duration = StringUtils.hasText(req.getDuration()) ? req.getDuration() : "45分钟";
-        return "【本地模式】未配置 ark.apiKey，返回模拟教案\n" +
+        return banner + "\n" +
                 "年级：" + req.getGradeLevel() + "\n" +
                 "学科：" + req.getSubject() + "\n" +
                 "主题：" + req.getTopic() + "\n" +
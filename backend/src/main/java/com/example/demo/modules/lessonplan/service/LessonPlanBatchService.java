@@ -0,0 +1,325 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.common.admission.ModelAdmission;
+import com.example.demo.modules.lessonplan.dto.LessonPlanRequest;
+import com.example.demo.modules.lessonplan.entity.LessonPlanRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量生成教案（一个单元 / 一学期的多个课题）：
+ * - 所有课题先登记为排队中的 {@link LessonPlanRecord}，第一行进度就带上全部记录 ID；
+ * - 模板标题只识别一次，之后每份生成都复用；
+ * - 最多 parallelism 份同时生成；所有批次合计对同一个模型也最多 min(maxParallelism, 模型并发配额) 份，
+ *   多个批次并发时排队等名额，不去占满准入队列；名额到手才提交到执行线程，排队期间不占线程；
+ * - 每份开始 / 完成各输出一行 NDJSON（done / degraded / failed），最后输出汇总。
+ * 客户端中途断开时剩余课题仍会生成完（记录已登记，可按 ID 取结果）。
+ */
+@Service
+public class LessonPlanBatchService {
+
+    private final GeminiService geminiService;
+    private final LessonPlanJobService jobService;
+    private final ModelAdmission admission;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 固定大小的执行线程；提交到这里的生成都已拿到模型名额，排在线程队列里的也只是持有名额的条目
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 各模型在所有批次间共享的生成名额
+     */
+    private final ConcurrentHashMap<String, ModelSlots> modelSlots = new ConcurrentHashMap<>();
+
+    @Value("${lessonplan.batch.maxTopics:50}")
+    private int maxTopics;
+
+    @Value("${lessonplan.batch.defaultParallelism:3}")
+    private int defaultParallelism;
+
+    @Value("${lessonplan.batch.maxParallelism:8}")
+    private int maxParallelism;
+
+    @Value("${lessonplan.batch.timeoutMs:3600000}")
+    private long timeoutMs;
+
+    public LessonPlanBatchService(GeminiService geminiService, LessonPlanJobService jobService, ModelAdmission admission,
+                                  @Value("${lessonplan.batch.workers:8}") int workers) {
+        this.geminiService = geminiService;
+        this.jobService = jobService;
+        this.admission = admission;
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "lessonplan-batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getMaxTopics() {
+        return maxTopics;
+    }
+
+    /**
+     * @param base   共享参数（模板已解析），topic 字段不使用
+     * @param topics 已去空白的课题列表
+     */
+    public ResponseBodyEmitter start(LessonPlanRequest base, List<String> topics, Integer requestedParallelism) {
+        int parallelism = requestedParallelism == null ? defaultParallelism : requestedParallelism;
+        String model = geminiService.generationModel(base);
+        int cap = Math.max(1, Math.min(maxParallelism, admission.maxConcurrent(model)));
+        parallelism = Math.max(1, Math.min(parallelism, Math.min(cap, topics.size())));
+        ModelSlots slots = modelSlots.computeIfAbsent(model, k -> new ModelSlots(cap));
+
+        List<Item> items = new ArrayList<>(topics.size());
+        for (String topic : topics) {
+            LessonPlanRequest req = copyWithTopic(base, topic);
+            items.add(new Item(topic, req, jobService.saveQueued(req, null, null).getId()));
+        }
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMs);
+        Run run = new Run(base, items, parallelism, slots, emitter);
+        executor.execute(run::begin);
+        return emitter;
+    }
+
+    private static LessonPlanRequest copyWithTopic(LessonPlanRequest base, String topic) {
+        LessonPlanRequest req = new LessonPlanRequest();
+        req.setSubject(base.getSubject());
+        req.setGradeLevel(base.getGradeLevel());
+        req.setTopic(topic);
+        req.setDuration(base.getDuration());
+        req.setObjectives(base.getObjectives());
+        req.setAdditionalNotes(base.getAdditionalNotes());
+        req.setTemplateImage(base.getTemplateImage());
+        req.setTemplateId(base.getTemplateId());
+        return req;
+    }
+
+    /**
+     * 非阻塞的计数名额：没有空闲名额时把回调放进先来先服务的队列，由归还名额的一方直接交给队首。
+     */
+    private static final class ModelSlots {
+
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private int available;
+
+        ModelSlots(int permits) {
+            this.available = permits;
+        }
+
+        void acquire(Runnable onGranted) {
+            synchronized (this) {
+                if (available == 0) {
+                    waiting.add(onGranted);
+                    return;
+                }
+                available--;
+            }
+            onGranted.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+            }
+            next.run();
+        }
+    }
+
+    private static final class Item {
+
+        final String topic;
+        final LessonPlanRequest request;
+        final Long id;
+
+        Item(String topic, LessonPlanRequest request, Long id) {
+            this.topic = topic;
+            this.request = request;
+            this.id = id;
+        }
+    }
+
+    private final class Run {
+
+        private final LessonPlanRequest base;
+        private final List<Item> items;
+        private final int parallelism;
+        private final ModelSlots slots;
+        private final ResponseBodyEmitter emitter;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger degraded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean disconnected = new AtomicBoolean();
+        private final long startedAt = System.currentTimeMillis();
+
+        Run(LessonPlanRequest base, List<Item> items, int parallelism, ModelSlots slots, ResponseBodyEmitter emitter) {
+            this.base = base;
+            this.items = items;
+            this.parallelism = parallelism;
+            this.slots = slots;
+            this.emitter = emitter;
+            this.remaining = new AtomicInteger(items.size());
+            emitter.onTimeout(() -> disconnected.set(true));
+            emitter.onError(e -> disconnected.set(true));
+        }
+
+        void begin() {
+            Map<String, Object> started = line("started");
+            started.put("total", items.size());
+            started.put("parallelism", parallelism);
+            if (base.getTemplateId() != null) {
+                started.put("templateId", base.getTemplateId());
+            }
+            List<Map<String, Object>> ids = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("index", i);
+                m.put("topic", items.get(i).topic);
+                m.put("id", items.get(i).id);
+                ids.add(m);
+            }
+            started.put("items", ids);
+            send(started);
+
+            List<String> headings = geminiService.prepareTemplate(base);
+            if (headings != null && !headings.isEmpty()) {
+                Map<String, Object> template = line("template");
+                template.put("headings", headings);
+                send(template);
+            }
+            for (int i = 0; i < parallelism; i++) {
+                launchNext();
+            }
+        }
+
+        private void launchNext() {
+            int index = next.getAndIncrement();
+            if (index >= items.size()) {
+                return;
+            }
+            // 先拿模型名额再提交，等名额时不占线程
+            slots.acquire(() -> {
+                try {
+                    executor.execute(() -> runItem(index));
+                } catch (RejectedExecutionException e) {
+                    // 只在关闭时发生
+                    slots.release();
+                }
+            });
+        }
+
+        private void runItem(int index) {
+            Item item = items.get(index);
+            // 出错（如保存记录失败）也要输出这一份的结果并推进批次，否则汇总永远不会输出
+            try {
+                send(run(index, item));
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                Map<String, Object> result = itemLine(index, item, "failed");
+                result.put("error", e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+                send(result);
+            } finally {
+                slots.release();
+                if (remaining.decrementAndGet() == 0) {
+                    finish();
+                } else {
+                    launchNext();
+                }
+            }
+        }
+
+        private Map<String, Object> run(int index, Item item) {
+            send(itemLine(index, item, "running"));
+            LessonPlanRecord record = jobService.execute(item.id, item.request);
+            Map<String, Object> result;
+            if (record != null && record.getStatus() == LessonPlanRecord.Status.DONE) {
+                done.incrementAndGet();
+                result = itemLine(index, item, "done");
+            } else if (record != null && record.getStatus() == LessonPlanRecord.Status.DEGRADED) {
+                degraded.incrementAndGet();
+                result = itemLine(index, item, "degraded");
+                result.put("error", record.getErrorMessage());
+            } else {
+                failed.incrementAndGet();
+                result = itemLine(index, item, "failed");
+                result.put("error", record == null ? "记录已删除" : record.getErrorMessage());
+            }
+            return result;
+        }
+
+        private void finish() {
+            Map<String, Object> summary = line("finished");
+            summary.put("done", done.get());
+            summary.put("degraded", degraded.get());
+            summary.put("failed", failed.get());
+            summary.put("elapsedMs", System.currentTimeMillis() - startedAt);
+            send(summary);
+            if (!disconnected.get()) {
+                emitter.complete();
+            }
+        }
+
+        private Map<String, Object> line(String event) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("event", event);
+            return m;
+        }
+
+        private Map<String, Object> itemLine(int index, Item item, String status) {
+            Map<String, Object> m = line("item");
+            m.put("index", index);
+            m.put("topic", item.topic);
+            m.put("id", item.id);
+            m.put("status", status);
+            return m;
+        }
+
+        private void send(Map<String, Object> line) {
+            if (disconnected.get()) {
+                return;
+            }
+            try {
+                synchronized (emitter) {
+                    emitter.send(objectMapper.writeValueAsString(line) + "\n", MediaType.TEXT_PLAIN);
+                }
+            } catch (Exception e) {
+                // 客户端断开：不再推送进度，剩余课题继续生成
+                disconnected.set(true);
+            }
+        }
+    }
+}
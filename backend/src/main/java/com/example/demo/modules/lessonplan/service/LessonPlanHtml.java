@@ -0,0 +1,398 @@
+package com.example.demo.modules.lessonplan.service;
+
+/**
+ * 模型输出的 HTML 规整：去掉 ``` 代码块包裹、给 table/th/td 补齐内联边框样式、截取最外层表格。
+ *
+ * 一次线性扫描完成，不做整篇 toLowerCase，也不走正则；大小写不敏感的比较都用 regionMatches。
+ * 输出与原先的正则实现一致：无属性的标签改写为小写标签名 + style，已有 style 的只追加缺失的属性，
+ * 有 style= 但不是引号形式的保持原样。
+ */
+final class LessonPlanHtml {
+
+    private static final String TABLE_STYLE = "border-collapse:collapse;border:1px solid #000;";
+    private static final String CELL_STYLE = "border:1px solid #000;padding:8px 12px;vertical-align:top;";
+
+    private static final String[] TAGS = {"table", "th", "td"};
+    private static final String[] STYLES = {TABLE_STYLE, CELL_STYLE, CELL_STYLE};
+    private static final String[][] STYLE_PARTS = {parts(TABLE_STYLE), parts(CELL_STYLE), parts(CELL_STYLE)};
+    private static final String[][] STYLE_KEYS = {keys(STYLE_PARTS[0]), keys(STYLE_PARTS[1]), keys(STYLE_PARTS[2])};
+
+    private static final String OPEN_TABLE = "<table";
+    private static final String CLOSE_TABLE = "</table>";
+
+    private LessonPlanHtml() {
+    }
+
+    /**
+     * 规整结果：html 为去掉代码块并补齐样式后的全文，table 为其中最外层的表格（没有则为空串）。
+     */
+    static final class Normalized {
+
+        final String html;
+        final String table;
+
+        private Normalized(String html, String table) {
+            this.html = html;
+            this.table = table;
+        }
+    }
+
+    static String sanitize(String raw) {
+        return normalize(raw).html;
+    }
+
+    static Normalized normalize(String raw) {
+        if (raw == null) {
+            return new Normalized("", "");
+        }
+        int[] bounds = stripFences(raw);
+        int from = bounds[0];
+        int to = bounds[1];
+        if (indexOfIgnoreCase(raw, OPEN_TABLE, from, to) < 0) {
+            return new Normalized(raw.substring(from, to), "");
+        }
+
+        StringBuilder out = new StringBuilder((to - from) + 256);
+        int[] marks = {-1, -1};
+        styleRange(raw, from, to, out, marks);
+        int firstTable = marks[0];
+        int lastTableEnd = marks[1];
+
+        String html = out.toString();
+        String table = "";
+        if (firstTable >= 0 && lastTableEnd > firstTable) {
+            table = html.substring(firstTable, lastTableEnd).trim();
+        }
+        return new Normalized(html, table);
+    }
+
+    /**
+     * 规整一个 HTML 片段（如局部重写返回的若干 &lt;tr&gt;）：去掉代码块包裹，片段里没有 &lt;table&gt; 也给 th/td 补样式。
+     */
+    static String normalizeFragment(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        int[] bounds = stripFences(raw);
+        StringBuilder out = new StringBuilder((bounds[1] - bounds[0]) + 256);
+        styleRange(raw, bounds[0], bounds[1], out, null);
+        return out.toString();
+    }
+
+    /**
+     * 复制 s[from, to) 到 out 并给其中的 table/th/td 开始标签补齐样式。
+     * marks 不为 null 时记录输出中第一个 &lt;table 的位置与最后一个 &lt;/table&gt; 的结束位置。
+     */
+    private static void styleRange(String s, int from, int to, StringBuilder out, int[] marks) {
+        int i = from;
+        while (i < to) {
+            int lt = s.indexOf('<', i);
+            if (lt < 0 || lt >= to) {
+                out.append(s, i, to);
+                break;
+            }
+            out.append(s, i, lt);
+            if (marks != null && marks[0] < 0 && lt + OPEN_TABLE.length() <= to
+                    && s.regionMatches(true, lt, OPEN_TABLE, 0, OPEN_TABLE.length())) {
+                marks[0] = out.length();
+            }
+            if (lt + CLOSE_TABLE.length() <= to && s.regionMatches(true, lt, CLOSE_TABLE, 0, CLOSE_TABLE.length())) {
+                out.append(s, lt, lt + CLOSE_TABLE.length());
+                if (marks != null) {
+                    marks[1] = out.length();
+                }
+                i = lt + CLOSE_TABLE.length();
+                continue;
+            }
+            int next = styleTag(s, lt, to, out);
+            if (next < 0) {
+                out.append('<');
+                i = lt + 1;
+            } else {
+                i = next;
+            }
+        }
+    }
+
+    /**
+     * 流式版本：按模型增量逐段喂入，返回可以立即写给浏览器的规整片段。
+     * 未闭合的标签和结尾可能是 ``` 的字符会先留着，等后续数据或 {@link #finish()} 再输出；
+     * 开头的 ```lang 直接丢弃。流式阶段不判断全文是否含表格，遇到 table/th/td 就补样式。非线程安全。
+     */
+    static final class Incremental {
+
+        private final StringBuilder full = new StringBuilder(8192);
+        private final StringBuilder pending = new StringBuilder(256);
+        private boolean started;
+        private boolean fenced;
+
+        String feed(String delta) {
+            full.append(delta);
+            pending.append(delta);
+            if (!started && !skipLeading()) {
+                return "";
+            }
+            int stable = stableEnd();
+            if (stable <= 0) {
+                return "";
+            }
+            String chunk = pending.substring(0, stable);
+            pending.delete(0, stable);
+            StringBuilder out = new StringBuilder(chunk.length() + 64);
+            styleRange(chunk, 0, chunk.length(), out, null);
+            return out.toString();
+        }
+
+        String finish() {
+            if (!started) {
+                skipLeading();
+                started = true;
+            }
+            int to = pending.length();
+            while (to > 0 && pending.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            if (fenced && to >= 3 && "```".equals(pending.substring(to - 3, to))) {
+                to -= 3;
+                while (to > 0 && pending.charAt(to - 1) <= ' ') {
+                    to--;
+                }
+            }
+            String chunk = pending.substring(0, to);
+            pending.setLength(0);
+            StringBuilder out = new StringBuilder(chunk.length() + 64);
+            styleRange(chunk, 0, chunk.length(), out, null);
+            return out.toString();
+        }
+
+        /**
+         * 模型输出的完整原文（用于结束后按非流式规则重新规整并保存）。
+         */
+        String fullText() {
+            return full.toString();
+        }
+
+        /**
+         * 去掉开头空白与 ```lang 行；还判断不了（数据太少）时返回 false。
+         */
+        private boolean skipLeading() {
+            int i = 0;
+            while (i < pending.length() && pending.charAt(i) <= ' ') {
+                i++;
+            }
+            if (pending.length() - i < 3) {
+                return false;
+            }
+            if ("```".equals(pending.substring(i, i + 3))) {
+                int j = i + 3;
+                while (j < pending.length() && isAsciiLetter(pending.charAt(j))) {
+                    j++;
+                }
+                if (j == pending.length()) {
+                    return false;
+                }
+                if (pending.charAt(j) == '\n') {
+                    j++;
+                }
+                fenced = true;
+                i = j;
+            }
+            pending.delete(0, i);
+            started = true;
+            return true;
+        }
+
+        /**
+         * 可以安全输出的长度：不含未闭合的标签，也不含结尾的空白/反引号。
+         */
+        private int stableEnd() {
+            int end = pending.length();
+            int lt = pending.lastIndexOf("<");
+            if (lt >= 0 && pending.indexOf(">", lt) < 0) {
+                end = lt;
+            }
+            while (end > 0 && (pending.charAt(end - 1) == '`' || pending.charAt(end - 1) <= ' ')) {
+                end--;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * 与原先 trim -> 去掉开头 ```lang 与结尾 ``` -> trim 等价，只计算边界不复制字符串。
+     */
+    private static int[] stripFences(String s) {
+        int from = 0;
+        int to = s.length();
+        while (from < to && s.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (s.startsWith("```", from)) {
+            from += 3;
+            while (from < to && isAsciiLetter(s.charAt(from))) {
+                from++;
+            }
+            if (from < to && s.charAt(from) == '\n') {
+                from++;
+            }
+            if (to - from >= 3 && s.startsWith("```", to - 3)) {
+                to -= 3;
+            }
+            while (from < to && s.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && s.charAt(to - 1) <= ' ') {
+                to--;
+            }
+        }
+        return new int[]{from, to};
+    }
+
+    /**
+     * lt 处是 table/th/td 的开始标签时写出补齐样式后的标签并返回标签结束后的位置，否则返回 -1。
+     */
+    private static int styleTag(String s, int lt, int to, StringBuilder out) {
+        for (int t = 0; t < TAGS.length; t++) {
+            String tag = TAGS[t];
+            int nameEnd = lt + 1 + tag.length();
+            if (nameEnd >= to || !s.regionMatches(true, lt + 1, tag, 0, tag.length())) {
+                continue;
+            }
+            char c = s.charAt(nameEnd);
+            if (c == '>') {
+                out.append('<').append(tag).append(" style=\"").append(STYLES[t]).append("\">");
+                return nameEnd + 1;
+            }
+            if (!isRegexSpace(c)) {
+                return -1;
+            }
+            int gt = s.indexOf('>', nameEnd);
+            if (gt < 0 || gt >= to) {
+                return -1;
+            }
+            appendStyledTag(s, nameEnd, gt, t, out);
+            return gt + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * attrs 为 s[attrsFrom, attrsTo)（以空白开头）。先找双引号 style，再找单引号 style，都取最左边的一处。
+     */
+    private static void appendStyledTag(String s, int attrsFrom, int attrsTo, int t, StringBuilder out) {
+        String tag = TAGS[t];
+        int[] style = findQuotedStyle(s, attrsFrom, attrsTo, '"');
+        char quote = '"';
+        if (style == null) {
+            style = findQuotedStyle(s, attrsFrom, attrsTo, '\'');
+            quote = '\'';
+        }
+        out.append('<').append(tag);
+        if (style != null) {
+            int valueFrom = style[1];
+            int valueTo = style[2];
+            out.append(s, attrsFrom, style[0]).append("style=").append(quote).append(s, valueFrom, valueTo);
+            // 与原实现一致：是否补分号只看原有 style 的结尾
+            boolean endsWithSemicolon = valueTo == valueFrom || s.charAt(valueTo - 1) == ';';
+            for (int k = 0; k < STYLE_PARTS[t].length; k++) {
+                if (!containsIgnoreCase(s, valueFrom, valueTo, STYLE_KEYS[t][k])) {
+                    if (endsWithSemicolon) {
+                        out.append(STYLE_PARTS[t][k]).append(';');
+                    } else {
+                        out.append(';').append(STYLE_PARTS[t][k]).append(';');
+                    }
+                }
+            }
+            out.append(quote).append(s, style[3], attrsTo).append('>');
+            return;
+        }
+        out.append(s, attrsFrom, attrsTo);
+        if (indexOfIgnoreCase(s, "style=", attrsFrom, attrsTo) < 0) {
+            out.append(" style=\"").append(STYLES[t]).append('"');
+        }
+        out.append('>');
+    }
+
+    /**
+     * 查找 style\s*=\s*"..."：返回 {匹配起点, 值起点, 值终点, 匹配终点}，没有则返回 null。
+     */
+    private static int[] findQuotedStyle(String s, int from, int to, char quote) {
+        int i = from;
+        while (true) {
+            int at = indexOfIgnoreCase(s, "style", i, to);
+            if (at < 0) {
+                return null;
+            }
+            int p = at + 5;
+            while (p < to && isRegexSpace(s.charAt(p))) {
+                p++;
+            }
+            if (p < to && s.charAt(p) == '=') {
+                p++;
+                while (p < to && isRegexSpace(s.charAt(p))) {
+                    p++;
+                }
+                if (p < to && s.charAt(p) == quote) {
+                    int close = s.indexOf(quote, p + 1);
+                    if (close >= 0 && close < to) {
+                        return new int[]{at, p + 1, close, close + 1};
+                    }
+                }
+            }
+            i = at + 1;
+        }
+    }
+
+    static int indexOfIgnoreCase(String s, String sub, int from, int to) {
+        int last = to - sub.length();
+        char first = sub.charAt(0);
+        for (int i = from; i <= last; i++) {
+            char c = s.charAt(i);
+            if ((c == first || Character.toLowerCase(c) == first) && s.regionMatches(true, i, sub, 0, sub.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean containsIgnoreCase(String s, int from, int to, String sub) {
+        return indexOfIgnoreCase(s, sub, from, to) >= 0;
+    }
+
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static String[] parts(String style) {
+        String[] raw = style.split(";");
+        int n = 0;
+        for (String p : raw) {
+            if (!p.trim().isEmpty()) {
+                n++;
+            }
+        }
+        String[] result = new String[n];
+        int i = 0;
+        for (String p : raw) {
+            if (!p.trim().isEmpty()) {
+                result[i++] = p.trim();
+            }
+        }
+        return result;
+    }
+
+    private static String[] keys(String[] parts) {
+        String[] result = new String[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = parts[i].split(":")[0].trim();
+        }
+        return result;
+    }
+}
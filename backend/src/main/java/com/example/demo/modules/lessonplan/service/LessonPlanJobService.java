@@ -0,0 +1,388 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.common.util.CanonicalJson;
+import com.example.demo.modules.lessonplan.dto.LessonPlanRequest;
+import com.example.demo.modules.lessonplan.entity.LessonPlanRecord;
+import com.example.demo.modules.lessonplan.repository.LessonPlanRecordRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步教案任务：提交后立即返回记录 ID，生成在有界线程池里进行，状态（queued/running/done/degraded/failed）写在
+ * {@link LessonPlanRecord} 上。客户端轮询 ID 或订阅 SSE 拿结果；带 Idempotency-Key 的重复提交返回同一条记录。
+ */
+@Service
+public class LessonPlanJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(LessonPlanJobService.class);
+
+    private final GeminiService geminiService;
+    private final LessonPlanRecordRepository repository;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 各任务的 SSE 订阅者。推送在锁外进行（一个慢客户端不拖住其他任务）；订阅先登记再读状态，
+     * 不会错过登记之后的变化，读到的旧状态由 {@link Subscriber} 丢弃
+     */
+    private final ConcurrentHashMap<Long, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    @Value("${lessonplan.jobs.sseTimeoutMs:600000}")
+    private long sseTimeoutMs;
+
+    public LessonPlanJobService(GeminiService geminiService,
+                                LessonPlanRecordRepository repository,
+                                @Value("${lessonplan.jobs.workers:4}") int workers,
+                                @Value("${lessonplan.jobs.queueCapacity:100}") int queueCapacity) {
+        this.geminiService = geminiService;
+        this.repository = repository;
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "lessonplan-job-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 上次运行时没做完的任务已经随进程丢失，标记为失败，避免客户端一直轮询。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedJobs() {
+        List<LessonPlanRecord> stale = repository.findByStatusIn(
+                Arrays.asList(LessonPlanRecord.Status.QUEUED, LessonPlanRecord.Status.RUNNING));
+        for (LessonPlanRecord record : stale) {
+            record.setStatus(LessonPlanRecord.Status.FAILED);
+            record.setErrorMessage("服务重启，任务已中断，请重新提交");
+        }
+        if (!stale.isEmpty()) {
+            repository.saveAll(stale);
+            log.warn("标记 {} 个中断的教案任务为失败", stale.size());
+        }
+    }
+
+    /**
+     * 同步生成完成后直接保存为 DONE（降级结果为 DEGRADED）。
+     */
+    public LessonPlanRecord saveDone(LessonPlanRequest request, String html) {
+        return saveDone(request, html, null);
+    }
+
+    public LessonPlanRecord saveDone(LessonPlanRequest request, String html, LessonPlanTimeline timeline) {
+        LessonPlanRecord record = newRecord(request);
+        complete(record, html, timeline);
+        record.setTimelineJson(timeline == null ? null : timeline.toJson());
+        return repository.save(record);
+    }
+
+    /**
+     * 提交异步任务（request 的模板应已解析好）。
+     *
+     * @param idempotencyKey 可为空；同一个 key 再次提交时不再生成，直接返回已有记录
+     * @return 已有记录时 created 为 false
+     * @throws ResponseStatusException key 已用于不同参数（422），或任务队列已满（429）
+     */
+    public Submission submit(LessonPlanRequest request, String idempotencyKey) {
+        String key = StringUtils.hasText(idempotencyKey) ? idempotencyKey.trim() : null;
+        String requestHash = CanonicalJson.sha256(fingerprint(request));
+        if (key != null) {
+            Optional<LessonPlanRecord> existing = repository.findByIdempotencyKey(key);
+            if (existing.isPresent()) {
+                return replay(existing.get(), requestHash);
+            }
+        }
+
+        LessonPlanRecord saved;
+        try {
+            saved = saveQueued(request, key, requestHash);
+        } catch (DataIntegrityViolationException ex) {
+            // 同一个 key 的并发重试，另一方已写入
+            LessonPlanRecord winner = key == null ? null : repository.findByIdempotencyKey(key).orElse(null);
+            if (winner == null) {
+                throw ex;
+            }
+            return replay(winner, requestHash);
+        }
+
+        Long id = saved.getId();
+        try {
+            executor.execute(() -> execute(id, request));
+        } catch (RejectedExecutionException ex) {
+            // 不留下永远排队的记录，客户端可以用同一个 key 稍后重试
+            repository.deleteById(id);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "教案任务排队已满，请稍后重试");
+        }
+        return new Submission(saved, true);
+    }
+
+    public LessonPlanRecord find(Long id) {
+        return repository.findById(id).orElse(null);
+    }
+
+    /**
+     * 订阅任务状态：立即推送一次当前状态，之后每次变化推送 event: status，到终态后结束。
+     *
+     * @return 任务不存在时返回 null
+     */
+    public SseEmitter subscribe(Long id) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        Subscriber subscriber = new Subscriber(emitter);
+        subscribers.compute(id, (k, list) -> {
+            CopyOnWriteArrayList<Subscriber> l = list == null ? new CopyOnWriteArrayList<>() : list;
+            l.add(subscriber);
+            return l;
+        });
+        Runnable remove = () -> unsubscribe(id, subscriber);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        LessonPlanRecord record = find(id);
+        if (record == null) {
+            remove.run();
+            return null;
+        }
+        subscriber.push(record);
+        if (record.getStatus().isTerminal()) {
+            remove.run();
+        }
+        return emitter;
+    }
+
+    private void unsubscribe(Long id, Subscriber subscriber) {
+        subscribers.computeIfPresent(id, (k, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public Map<String, Object> view(LessonPlanRecord record) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", record.getId());
+        m.put("status", record.getStatus().name().toLowerCase());
+        m.put("createdAt", record.getCreatedAt());
+        m.put("updatedAt", record.getUpdatedAt());
+        if (record.getTemplateId() != null) {
+            m.put("templateId", record.getTemplateId());
+        }
+        if (record.getStatus() == LessonPlanRecord.Status.DONE) {
+            m.put("data", record.getContentHtml());
+        } else if (record.getStatus() == LessonPlanRecord.Status.DEGRADED) {
+            m.put("data", record.getContentHtml());
+            m.put("error", record.getErrorMessage());
+        } else if (record.getStatus() == LessonPlanRecord.Status.FAILED) {
+            m.put("error", record.getErrorMessage());
+        }
+        return m;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("active", executor.getActiveCount());
+        m.put("queued", executor.getQueue().size());
+        m.put("completed", executor.getCompletedTaskCount());
+        return m;
+    }
+
+    /**
+     * 先登记一条排队中的记录（批量任务一次登记全部条目，客户端立刻拿到所有 ID）。
+     */
+    LessonPlanRecord saveQueued(LessonPlanRequest request, String idempotencyKey, String requestHash) {
+        LessonPlanRecord record = newRecord(request);
+        record.setStatus(LessonPlanRecord.Status.QUEUED);
+        record.setContentHtml("");
+        record.setIdempotencyKey(idempotencyKey);
+        record.setRequestHash(requestHash);
+        return repository.save(record);
+    }
+
+    /**
+     * 在当前线程上执行排队中的任务，状态变化会推送给订阅者。
+     *
+     * @return 终态记录；记录已被删除时返回 null
+     */
+    LessonPlanRecord execute(Long id, LessonPlanRequest request) {
+        LessonPlanRecord record = repository.findById(id).orElse(null);
+        if (record == null) {
+            return null;
+        }
+        record.setStatus(LessonPlanRecord.Status.RUNNING);
+        record = transition(record);
+        LessonPlanTimeline timeline = new LessonPlanTimeline();
+        try {
+            complete(record, geminiService.generateLessonPlan(request, timeline), timeline);
+        } catch (Exception ex) {
+            log.warn("教案任务 {} 失败: {}", id, ex.getMessage());
+            record.setStatus(LessonPlanRecord.Status.FAILED);
+            record.setErrorMessage(truncate(ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage()));
+        }
+        // 失败的任务也保存时间线，便于看出卡在哪一步
+        record.setTimelineJson(timeline.toJson());
+        return transition(record);
+    }
+
+    /**
+     * 生成结束：走了降级 / 模拟路线时记为 DEGRADED 并写明原因，否则为 DONE。
+     */
+    private static void complete(LessonPlanRecord record, String html, LessonPlanTimeline timeline) {
+        record.setContentHtml(html);
+        if (timeline != null && timeline.isFallback()) {
+            record.setStatus(LessonPlanRecord.Status.DEGRADED);
+            record.setErrorMessage("mock".equals(timeline.getPath())
+                    ? "未配置 ark.apiKey，内容为模拟教案"
+                    : "AI 服务暂时不可用，内容为本地教案框架，请稍后重新生成");
+        } else {
+            record.setStatus(LessonPlanRecord.Status.DONE);
+        }
+    }
+
+    /**
+     * 保存新状态并推送给订阅者。
+     */
+    private LessonPlanRecord transition(LessonPlanRecord record) {
+        LessonPlanRecord saved = repository.save(record);
+        List<Subscriber> list = saved.getStatus().isTerminal()
+                ? subscribers.remove(saved.getId())
+                : subscribers.get(saved.getId());
+        if (list != null) {
+            for (Subscriber subscriber : list) {
+                subscriber.push(saved);
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * 状态在生命周期里的先后：订阅时读到的状态可能和已推送过的相同或更旧，这些不再推送
+     */
+    private static int rank(LessonPlanRecord.Status status) {
+        if (status.isTerminal()) {
+            return 2;
+        }
+        return status == LessonPlanRecord.Status.RUNNING ? 1 : 0;
+    }
+
+    /**
+     * 一个 SSE 订阅。同一订阅的推送串行，只锁自己；终态推送后结束。
+     */
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        private int lastRank = -1;
+        private long lastUpdatedAt = -1;
+        private boolean closed;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized void push(LessonPlanRecord record) {
+            int rank = rank(record.getStatus());
+            long updatedAt = record.getUpdatedAt() == null ? 0 : record.getUpdatedAt();
+            if (closed || rank < lastRank || (rank == lastRank && updatedAt <= lastUpdatedAt)) {
+                return;
+            }
+            lastRank = rank;
+            lastUpdatedAt = updatedAt;
+            try {
+                emitter.send(SseEmitter.event().name("status").data(view(record)));
+            } catch (IOException | IllegalStateException ex) {
+                closed = true;
+                emitter.completeWithError(ex);
+                return;
+            }
+            if (rank == 2) {
+                closed = true;
+                emitter.complete();
+            }
+        }
+    }
+
+    private Submission replay(LessonPlanRecord existing, String requestHash) {
+        if (existing.getRequestHash() != null && !existing.getRequestHash().equals(requestHash)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key 已用于另一份不同的教案请求");
+        }
+        return new Submission(existing, false);
+    }
+
+    private static LessonPlanRecord newRecord(LessonPlanRequest request) {
+        LessonPlanRecord record = new LessonPlanRecord();
+        record.setSubject(request.getSubject());
+        record.setGradeLevel(request.getGradeLevel());
+        record.setTopic(request.getTopic());
+        record.setDuration(request.getDuration());
+        record.setObjectives(request.getObjectives());
+        record.setAdditionalNotes(request.getAdditionalNotes());
+        record.setHasTemplate(request.getTemplateId() != null
+                || request.getTemplateImage() != null && !request.getTemplateImage().trim().isEmpty());
+        record.setTemplateId(request.getTemplateId());
+        return record;
+    }
+
+    /**
+     * 参与幂等比对的请求参数（模板按 ID 比较，不比较图片原文）。
+     */
+    private static Map<String, Object> fingerprint(LessonPlanRequest request) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("subject", request.getSubject());
+        m.put("gradeLevel", request.getGradeLevel());
+        m.put("topic", request.getTopic());
+        m.put("duration", request.getDuration());
+        m.put("objectives", request.getObjectives());
+        m.put("additionalNotes", request.getAdditionalNotes());
+        m.put("templateId", request.getTemplateId());
+        return m;
+    }
+
+    private static String truncate(String s) {
+        return s.length() <= 1000 ? s : s.substring(0, 1000);
+    }
+
+    public static final class Submission {
+
+        private final LessonPlanRecord record;
+        private final boolean created;
+
+        Submission(LessonPlanRecord record, boolean created) {
+            this.record = record;
+            this.created = created;
+        }
+
+        public LessonPlanRecord getRecord() {
+            return record;
+        }
+
+        public boolean isCreated() {
+            return created;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.demo.modules.lessonplan.service;
+
+/**
+ * 在已保存的教案 HTML 里按标题定位一个分区，供局部重写后原位替换。支持两种版式：
+ * - 标题标签（&lt;h2&gt;教学过程&lt;/h2&gt;）：分区为标题之后、下一个同级或更高级标题之前的内容（不越出所在容器）；
+ * - 表格（参照模板）：标题所在的行；标题单独占一行时，连同其后的内容行，直到下一个单格标题行或表格结束。
+ *
+ * 标题比较忽略空白，允许带编号/冒号等少量前后缀（如“三、教学过程：”）。
+ */
+final class LessonPlanSections {
+
+    /**
+     * 标题文字之外允许的前后缀长度
+     */
+    private static final int HEADING_SLACK = 8;
+
+    private LessonPlanSections() {
+    }
+
+    static final class Section {
+
+        final int start;
+        final int end;
+        /**
+         * true 表示片段是若干完整的 &lt;tr&gt;，重写结果也必须是表格行
+         */
+        final boolean tableRows;
+
+        private Section(int start, int end, boolean tableRows) {
+            this.start = start;
+            this.end = end;
+            this.tableRows = tableRows;
+        }
+    }
+
+    /**
+     * @return 找不到标题时返回 null
+     */
+    static Section locate(String html, String heading) {
+        String key = squeeze(heading);
+        if (html == null || key.isEmpty()) {
+            return null;
+        }
+        Section byTag = locateHeadingTag(html, key);
+        return byTag != null ? byTag : locateRows(html, key);
+    }
+
+    /**
+     * 分区之前 / 之后的纯文本节选（靠近分区的一端），用作重写时的上下文。
+     */
+    static String textBefore(String html, Section section, int maxChars) {
+        String text = plainText(html, 0, section.start);
+        return text.length() <= maxChars ? text : "…" + text.substring(text.length() - maxChars);
+    }
+
+    static String textAfter(String html, Section section, int maxChars) {
+        String text = plainText(html, section.end, html.length());
+        return text.length() <= maxChars ? text : text.substring(0, maxChars) + "…";
+    }
+
+    private static Section locateHeadingTag(String html, String key) {
+        int i = 0;
+        while (true) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0 || lt + 3 >= html.length()) {
+                return null;
+            }
+            int level = headingLevel(html, lt);
+            i = lt + 1;
+            if (level == 0) {
+                continue;
+            }
+            int gt = html.indexOf('>', lt);
+            int close = gt < 0 ? -1 : LessonPlanHtml.indexOfIgnoreCase(html, "</h" + level, gt, html.length());
+            if (close < 0) {
+                return null;
+            }
+            int closeEnd = html.indexOf('>', close);
+            if (closeEnd < 0) {
+                return null;
+            }
+            if (matches(key, plainText(html, gt + 1, close))) {
+                int start = closeEnd + 1;
+                return new Section(start, sectionEnd(html, start, level), false);
+            }
+            i = closeEnd + 1;
+        }
+    }
+
+    /**
+     * 从 from 开始，遇到同级或更高级标题、或所在容器的结束标签时停下。
+     */
+    private static int sectionEnd(String html, int from, int level) {
+        int depth = 0;
+        int i = from;
+        while (true) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0) {
+                return html.length();
+            }
+            if (html.startsWith("<!--", lt)) {
+                int end = html.indexOf("-->", lt + 4);
+                i = end < 0 ? html.length() : end + 3;
+                continue;
+            }
+            int gt = html.indexOf('>', lt);
+            if (gt < 0) {
+                return html.length();
+            }
+            if (lt + 1 < gt && html.charAt(lt + 1) == '/') {
+                if (depth == 0) {
+                    return lt;
+                }
+                depth--;
+            } else {
+                int h = headingLevel(html, lt);
+                if (h > 0 && h <= level && depth == 0) {
+                    return lt;
+                }
+                if (html.charAt(gt - 1) != '/' && !isVoid(html, lt + 1, gt)) {
+                    depth++;
+                }
+            }
+            i = gt + 1;
+        }
+    }
+
+    private static Section locateRows(String html, String key) {
+        int i = 0;
+        while (true) {
+            int cell = nextCell(html, i);
+            if (cell < 0) {
+                return null;
+            }
+            int gt = html.indexOf('>', cell);
+            if (gt < 0) {
+                return null;
+            }
+            int cellEnd = cellContentEnd(html, gt + 1);
+            i = gt + 1;
+            if (!matches(key, plainText(html, gt + 1, cellEnd))) {
+                continue;
+            }
+            int rowStart = lastIndexOfTag(html, "<tr", cell);
+            int rowEnd = LessonPlanHtml.indexOfIgnoreCase(html, "</tr>", cell, html.length());
+            if (rowStart < 0 || rowEnd < 0) {
+                return null;
+            }
+            rowEnd += "</tr>".length();
+            if (countCells(html, rowStart, rowEnd) == 1) {
+                // 标题独占一行：内容在下面的行里，直到下一个单格标题行
+                while (true) {
+                    int next = LessonPlanHtml.indexOfIgnoreCase(html, "<tr", rowEnd, html.length());
+                    int tableEnd = LessonPlanHtml.indexOfIgnoreCase(html, "</table", rowEnd, html.length());
+                    if (next < 0 || (tableEnd >= 0 && tableEnd < next)) {
+                        break;
+                    }
+                    int nextEnd = LessonPlanHtml.indexOfIgnoreCase(html, "</tr>", next, html.length());
+                    if (nextEnd < 0 || countCells(html, next, nextEnd) <= 1) {
+                        break;
+                    }
+                    rowEnd = nextEnd + "</tr>".length();
+                }
+            }
+            return new Section(rowStart, rowEnd, true);
+        }
+    }
+
+    private static int nextCell(String html, int from) {
+        int td = indexOfTag(html, "<td", from);
+        int th = indexOfTag(html, "<th", from);
+        if (td < 0) {
+            return th;
+        }
+        return th < 0 ? td : Math.min(td, th);
+    }
+
+    private static int cellContentEnd(String html, int from) {
+        int end = html.length();
+        for (String stop : new String[]{"</td", "</th", "<td", "<th", "</tr"}) {
+            int at = LessonPlanHtml.indexOfIgnoreCase(html, stop, from, end);
+            if (at >= 0) {
+                end = at;
+            }
+        }
+        return end;
+    }
+
+    private static int countCells(String html, int from, int to) {
+        int n = 0;
+        int i = from;
+        while (true) {
+            int cell = nextCell(html, i);
+            if (cell < 0 || cell >= to) {
+                return n;
+            }
+            n++;
+            i = cell + 3;
+        }
+    }
+
+    /**
+     * 查找开始标签（名字后面必须是空白、'&gt;' 或 '/'，避免 &lt;th 匹配到 &lt;thead）。
+     */
+    private static int indexOfTag(String html, String open, int from) {
+        int i = from;
+        while (true) {
+            int at = LessonPlanHtml.indexOfIgnoreCase(html, open, i, html.length());
+            if (at < 0 || isTagBoundary(html, at + open.length())) {
+                return at;
+            }
+            i = at + 1;
+        }
+    }
+
+    private static int lastIndexOfTag(String html, String open, int before) {
+        for (int i = before - open.length(); i >= 0; i--) {
+            if (html.regionMatches(true, i, open, 0, open.length()) && isTagBoundary(html, i + open.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTagBoundary(String html, int at) {
+        if (at >= html.length()) {
+            return false;
+        }
+        char c = html.charAt(at);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    /**
+     * lt 处是 &lt;h1&gt;..&lt;h6&gt; 开始标签时返回级别，否则返回 0。
+     */
+    private static int headingLevel(String html, int lt) {
+        if (lt + 3 >= html.length()) {
+            return 0;
+        }
+        char h = html.charAt(lt + 1);
+        char d = html.charAt(lt + 2);
+        if ((h != 'h' && h != 'H') || d < '1' || d > '6' || !isTagBoundary(html, lt + 3)) {
+            return 0;
+        }
+        return d - '0';
+    }
+
+    private static boolean isVoid(String html, int from, int to) {
+        int end = from;
+        while (end < to && Character.isLetterOrDigit(html.charAt(end))) {
+            end++;
+        }
+        switch (html.substring(from, end).toLowerCase()) {
+            case "br":
+            case "img":
+            case "hr":
+            case "col":
+            case "input":
+            case "meta":
+            case "link":
+            case "wbr":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean matches(String key, String text) {
+        String t = squeeze(text);
+        return t.contains(key) && t.length() <= key.length() + HEADING_SLACK;
+    }
+
+    /**
+     * 去掉标签、合并空白后的纯文本。
+     */
+    private static String plainText(String html, int from, int to) {
+        StringBuilder sb = new StringBuilder(Math.max(0, to - from));
+        boolean inTag = false;
+        boolean space = false;
+        for (int i = from; i < to; i++) {
+            char c = html.charAt(i);
+            if (inTag) {
+                inTag = c != '>';
+                continue;
+            }
+            if (c == '<') {
+                inTag = true;
+                space = sb.length() > 0;
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == '　') {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString().replace("&nbsp;", " ");
+    }
+
+    private static String squeeze(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isWhitespace(c) && c != '　') {
+                sb.append(c);
+            }
+        }
+        return sb.toString().replace("&nbsp;", "");
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.common.http.SseDataReader;
+import com.example.demo.modules.common.http.StreamTransformer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * 把 Ark 的 chat/completions SSE 改写成给浏览器的教案流：
+ * - 每段 delta.content 经 {@link LessonPlanHtml.Incremental} 去代码块、补表格边框后输出 {"delta": "..."}；
+ * - 上游正常结束时在 persistExecutor 上按非流式的规则规整全文、交给 persist 保存，保存完成后再输出
+ *   event: done（带记录 ID 与最终 HTML），写库不占上游 IO 线程；
+ * - 上游失败 / 被取消时输出 event: error，不保存半截教案。
+ */
+class LessonPlanStreamTransformer implements StreamTransformer {
+
+    private static final Logger log = LoggerFactory.getLogger(LessonPlanStreamTransformer.class);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ObjectMapper objectMapper;
+    private final boolean tableOnly;
+    private final Function<String, Long> persist;
+    private final Executor persistExecutor;
+    private final LessonPlanHtml.Incremental html = new LessonPlanHtml.Incremental();
+    private final SseDataReader reader = new SseDataReader(this::onData);
+    private final StringBuilder out = new StringBuilder(256);
+
+    /**
+     * @param tableOnly 严格模板模式：最终结果只保留表格（与非流式接口一致）
+     * @param persist         保存最终 HTML 并返回记录 ID
+     * @param persistExecutor 执行规整与 persist 的线程池
+     */
+    LessonPlanStreamTransformer(ObjectMapper objectMapper, boolean tableOnly, Function<String, Long> persist,
+                                Executor persistExecutor) {
+        this.objectMapper = objectMapper;
+        this.tableOnly = tableOnly;
+        this.persist = persist;
+        this.persistExecutor = persistExecutor;
+    }
+
+    @Override
+    public byte[] onChunk(byte[] chunk) {
+        reader.feed(chunk);
+        return drain();
+    }
+
+    @Override
+    public CompletionStage<byte[]> onEnd(Exception failure) {
+        reader.flush();
+        appendDelta(html.finish());
+        if (failure != null) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("message", "生成中断：" + failure.getMessage());
+            appendEvent("error", error);
+            return CompletableFuture.completedFuture(drain());
+        }
+        try {
+            return CompletableFuture.supplyAsync(this::complete, persistExecutor);
+        } catch (RejectedExecutionException e) {
+            // 正在停机
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("message", "保存教案失败");
+            appendEvent("error", error);
+            return CompletableFuture.completedFuture(drain());
+        }
+    }
+
+    private byte[] complete() {
+        LessonPlanHtml.Normalized normalized = LessonPlanHtml.normalize(html.fullText());
+        String result = tableOnly && !normalized.table.isEmpty() ? normalized.table : normalized.html;
+        try {
+            Map<String, Object> done = new LinkedHashMap<>();
+            done.put("id", persist.apply(result));
+            done.put("html", result);
+            appendEvent("done", done);
+        } catch (RuntimeException e) {
+            log.warn("保存流式教案失败: {}", e.getMessage());
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("message", "保存教案失败");
+            error.put("html", result);
+            appendEvent("error", error);
+        }
+        return drain();
+    }
+
+    private void onData(String data) {
+        try {
+            JsonNode content = objectMapper.readTree(data).path("choices").path(0).path("delta").path("content");
+            if (content.isTextual()) {
+                appendDelta(html.feed(content.asText()));
+            }
+        } catch (Exception ignored) {
+            // 非 JSON 的 data 行（如上游错误提示）不计入教案
+        }
+    }
+
+    private void appendDelta(String fragment) {
+        if (fragment.isEmpty()) {
+            return;
+        }
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("delta", fragment);
+        appendEvent(null, delta);
+    }
+
+    private void appendEvent(String event, Map<String, Object> data) {
+        if (event != null) {
+            out.append("event: ").append(event).append('\n');
+        }
+        try {
+            out.append("data: ").append(objectMapper.writeValueAsString(data)).append("\n\n");
+        } catch (Exception e) {
+            out.append("data: {}\n\n");
+        }
+    }
+
+    private byte[] drain() {
+        if (out.length() == 0) {
+            return EMPTY;
+        }
+        byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+        out.setLength(0);
+        return bytes;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.demo.modules.lessonplan.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 本地修复模型输出的表格结构，处理最常见的几类机械性错误，省掉一次带全文的模型修复调用：
+ * - 表格外包了 &lt;div&gt; / &lt;html&gt;，或表格前后有说明文字：只保留第一个顶层表格；
+ * - &lt;tr&gt; / &lt;td&gt; / &lt;th&gt; 未闭合、缺少 &lt;/table&gt;：按 HTML 的隐式闭合规则补齐；
+ * - 单元格直接挂在 &lt;table&gt; 下：补上 &lt;tr&gt;；行与行之间游离的标签和文字丢弃。
+ *
+ * 只做结构修补，不改单元格内容；标题是否齐全由调用方校验。
+ */
+final class LessonPlanTableRepair {
+
+    private static final Set<String> SECTIONS = new HashSet<>(Arrays.asList("thead", "tbody", "tfoot"));
+    private static final Set<String> CELLS = new HashSet<>(Arrays.asList("td", "th"));
+    private static final Set<String> VOID = new HashSet<>(Arrays.asList(
+            "br", "img", "hr", "col", "input", "meta", "link", "wbr", "area", "source"));
+
+    private final String s;
+    private final StringBuilder out;
+    /**
+     * 当前打开的元素（从外到内），嵌套表格也在同一个栈里
+     */
+    private final List<String> open = new ArrayList<>();
+    private int cells;
+    /**
+     * 被并入当前表格的多余 &lt;table&gt; 个数，它们的 &lt;/table&gt; 不闭合当前表格
+     */
+    private int merged;
+
+    private LessonPlanTableRepair(String s) {
+        this.s = s;
+        this.out = new StringBuilder(s.length() + 64);
+    }
+
+    /**
+     * @return 修好的单个表格；找不到表格或表格里没有单元格时返回 null
+     */
+    static String repair(String html) {
+        if (html == null) {
+            return null;
+        }
+        return new LessonPlanTableRepair(html).run();
+    }
+
+    private String run() {
+        int start = LessonPlanHtml.indexOfIgnoreCase(s, "<table", 0, s.length());
+        if (start < 0) {
+            return null;
+        }
+        int i = start;
+        while (i < s.length()) {
+            int lt = s.indexOf('<', i);
+            if (lt < 0) {
+                text(i, s.length());
+                break;
+            }
+            text(i, lt);
+            if (s.startsWith("<!--", lt)) {
+                int end = s.indexOf("-->", lt + 4);
+                i = end < 0 ? s.length() : end + 3;
+                continue;
+            }
+            int gt = tagEnd(lt);
+            if (gt < 0) {
+                // 截断在标签中间：丢掉残缺的标签
+                break;
+            }
+            boolean closing = lt + 1 < gt && s.charAt(lt + 1) == '/';
+            String name = tagName(closing ? lt + 2 : lt + 1, gt);
+            if (name.isEmpty()) {
+                text(lt, gt + 1);
+            } else if (closing) {
+                closeTag(name);
+            } else {
+                openTag(name, lt, gt + 1, s.charAt(gt - 1) == '/');
+            }
+            i = gt + 1;
+            if (open.isEmpty()) {
+                // 第一个顶层表格结束，后面的说明文字不要
+                break;
+            }
+        }
+        closeTo(0);
+        return cells == 0 ? null : out.toString();
+    }
+
+    private void openTag(String name, int from, int to, boolean selfClosing) {
+        if ("table".equals(name)) {
+            if (open.isEmpty() || inCell()) {
+                emitOpen(name, from, to);
+                return;
+            }
+            // 行之间又出现 <table>（模型把一个表拆成了几段）：忽略，后面的行并入当前表格
+            merged++;
+            return;
+        }
+        if ("tr".equals(name)) {
+            closeWhileNot("table", "thead", "tbody", "tfoot");
+            emitOpen(name, from, to);
+            return;
+        }
+        if (CELLS.contains(name)) {
+            closeWhileNot("tr", "table", "thead", "tbody", "tfoot");
+            if (!"tr".equals(top())) {
+                out.append("<tr>");
+                open.add("tr");
+            }
+            emitOpen(name, from, to);
+            cells++;
+            return;
+        }
+        if (SECTIONS.contains(name) || "caption".equals(name) || "colgroup".equals(name)) {
+            closeWhileNot("table");
+            emitOpen(name, from, to);
+            return;
+        }
+        if (!inCell() && !"caption".equals(top())) {
+            // 行与行之间游离的 <div>/<p> 等
+            return;
+        }
+        out.append(s, from, to);
+        if (!selfClosing && !VOID.contains(name)) {
+            open.add(name);
+        }
+    }
+
+    private void closeTag(String name) {
+        if ("table".equals(name) && merged > 0 && !inCell()) {
+            merged--;
+            closeWhileNot("table");
+            return;
+        }
+        int tableAt = open.lastIndexOf("table");
+        int at = open.lastIndexOf(name);
+        if (at < 0 || at < tableAt && !"table".equals(name)) {
+            // 没有对应的开始标签（或属于外层表格）：丢弃
+            return;
+        }
+        if (!"table".equals(name) && !CELLS.contains(name) && !"tr".equals(name) && !SECTIONS.contains(name)) {
+            // 单元格内的普通元素不能越过单元格闭合
+            int cellAt = Math.max(open.lastIndexOf("td"), open.lastIndexOf("th"));
+            if (at < cellAt) {
+                return;
+            }
+        }
+        closeTo(at);
+    }
+
+    private void text(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        if (inCell() || "caption".equals(top())) {
+            out.append(s, from, to);
+            return;
+        }
+        // 单元格外只保留空白（缩进换行），丢弃游离的说明文字
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) > ' ') {
+                return;
+            }
+        }
+        if (!open.isEmpty()) {
+            out.append(s, from, to);
+        }
+    }
+
+    private void emitOpen(String name, int from, int to) {
+        out.append(s, from, to);
+        open.add(name);
+    }
+
+    /**
+     * 从栈顶依次闭合，直到栈顶是给定元素之一（或遇到表格边界）。
+     */
+    private void closeWhileNot(String... names) {
+        List<String> stop = Arrays.asList(names);
+        while (!open.isEmpty() && !stop.contains(top()) && !"table".equals(top())) {
+            closeTo(open.size() - 1);
+        }
+    }
+
+    /**
+     * 闭合栈中 depth 及以上的所有元素。
+     */
+    private void closeTo(int depth) {
+        while (open.size() > depth) {
+            out.append("</").append(open.remove(open.size() - 1)).append('>');
+        }
+    }
+
+    private boolean inCell() {
+        int cellAt = Math.max(open.lastIndexOf("td"), open.lastIndexOf("th"));
+        return cellAt >= 0 && cellAt > open.lastIndexOf("table");
+    }
+
+    private String top() {
+        return open.isEmpty() ? null : open.get(open.size() - 1);
+    }
+
+    /**
+     * lt 处标签的 '&gt;' 位置（跳过引号内的内容），没有则返回 -1。
+     */
+    private int tagEnd(int lt) {
+        char quote = 0;
+        for (int i = lt + 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String tagName(int from, int to) {
+        int end = from;
+        while (end < to && Character.isLetterOrDigit(s.charAt(end))) {
+            end++;
+        }
+        return s.substring(from, end).toLowerCase();
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.common.metrics.AiCallMetrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 一次教案生成的分阶段时间线（标题识别 / 初稿 / 文本回退 / 本地修复 / 模型修复 ...），随记录一起保存，
+ * 用来回答“这一份为什么慢”。每个阶段记录起止、模型、上游请求/响应字节数，以及路由层的每次尝试（重试、故障切换、对冲）。
+ *
+ * 与 {@link AiCallMetrics} 的 Call 一样挂在当前线程上：生成入口用 {@link #open} 绑定，阶段由 GeminiService 的
+ * timed 包装开启；转到其他线程执行的阶段（并行的标题识别）用 {@link #bind} 带过去。
+ * 路由层的尝试在它自己的线程池上执行，所以阶段在发起调用前取出，显式传给 {@link #attempt}。
+ * 流式生成没有调用线程可挂，用 {@link #detachedStage} 开阶段，由上游观察者记下那一次流式请求。
+ */
+public final class LessonPlanTimeline {
+
+    private static final ThreadLocal<LessonPlanTimeline> ACTIVE = new ThreadLocal<>();
+    private static final ThreadLocal<Stage> CURRENT_STAGE = new ThreadLocal<>();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final long startNanos = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<>();
+    private volatile String path;
+    private volatile long totalMs = -1;
+
+    /**
+     * 生成走的路线：text / vision / vision_fallback / stream / degraded / mock
+     */
+    public void path(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 走了降级或模拟路线：结果是本地教案框架，不是模型生成的
+     */
+    public boolean isFallback() {
+        return "degraded".equals(path) || "mock".equals(path);
+    }
+
+    /**
+     * 生成结束（成功或失败）时调用一次，记下总耗时。
+     */
+    public void finish() {
+        if (totalMs < 0) {
+            totalMs = millisSince(startNanos);
+        }
+    }
+
+    public String toJson() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("path", path);
+        m.put("totalMs", totalMs < 0 ? millisSince(startNanos) : totalMs);
+        List<Map<String, Object>> list = new ArrayList<>();
+        synchronized (stages) {
+            for (Stage s : stages) {
+                list.add(s.toMap());
+            }
+        }
+        m.put("stages", list);
+        try {
+            return MAPPER.writeValueAsString(m);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 在当前线程上绑定时间线，timeline 为 null 时什么都不做。用 try-with-resources 关闭。
+     */
+    static Scope open(LessonPlanTimeline timeline) {
+        LessonPlanTimeline previous = ACTIVE.get();
+        Stage previousStage = CURRENT_STAGE.get();
+        if (timeline != null) {
+            ACTIVE.set(timeline);
+            CURRENT_STAGE.remove();
+        }
+        return () -> {
+            if (timeline != null) {
+                restore(previous, previousStage);
+            }
+        };
+    }
+
+    /**
+     * 让 work 在其他线程上执行时仍记到当前时间线上。
+     */
+    static <T> Supplier<T> bind(Supplier<T> work) {
+        LessonPlanTimeline timeline = ACTIVE.get();
+        if (timeline == null) {
+            return work;
+        }
+        return () -> {
+            try (Scope ignored = open(timeline)) {
+                return work.get();
+            }
+        };
+    }
+
+    /**
+     * 开始一个阶段；当前线程没有时间线时返回 null。
+     */
+    static Stage enter(String name) {
+        LessonPlanTimeline timeline = ACTIVE.get();
+        if (timeline == null) {
+            return null;
+        }
+        Stage stage = new Stage(name, millisSince(timeline.startNanos), CURRENT_STAGE.get());
+        synchronized (timeline.stages) {
+            timeline.stages.add(stage);
+        }
+        CURRENT_STAGE.set(stage);
+        return stage;
+    }
+
+    static void exit(Stage stage) {
+        if (stage == null) {
+            return;
+        }
+        stage.ms = millisSince(stage.startNanos);
+        if (stage.parent == null) {
+            CURRENT_STAGE.remove();
+        } else {
+            CURRENT_STAGE.set(stage.parent);
+        }
+    }
+
+    /**
+     * 开始一个不挂在线程上的阶段（流式生成的上游事件在 IO 线程上回调），由调用方 {@link Stage#end} 结束。
+     */
+    Stage detachedStage(String name) {
+        Stage stage = new Stage(name, millisSince(startNanos), null);
+        synchronized (stages) {
+            stages.add(stage);
+        }
+        return stage;
+    }
+
+    static Stage currentStage() {
+        return CURRENT_STAGE.get();
+    }
+
+    /**
+     * 记录阶段内的一次上游尝试，在 Call 之后打开、之前关闭（关闭时读取 Call 上的状态与字节数）。
+     * stage 为 null 时返回 null，可直接放进 try-with-resources。
+     */
+    static Attempt attempt(Stage stage, String model, AiCallMetrics.Call call) {
+        return stage == null ? null : new Attempt(stage, model, call);
+    }
+
+    private static void restore(LessonPlanTimeline previous, Stage previousStage) {
+        if (previous == null) {
+            ACTIVE.remove();
+        } else {
+            ACTIVE.set(previous);
+        }
+        if (previousStage == null) {
+            CURRENT_STAGE.remove();
+        } else {
+            CURRENT_STAGE.set(previousStage);
+        }
+    }
+
+    private static long millisSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1_000_000L;
+    }
+
+    interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static final class Stage {
+
+        private final String name;
+        private final long offsetMs;
+        private final long startNanos = System.nanoTime();
+        private final Stage parent;
+        private final List<Map<String, Object>> attempts = new ArrayList<>();
+        private volatile long ms = -1;
+
+        private Stage(String name, long offsetMs, Stage parent) {
+            this.name = name;
+            this.offsetMs = offsetMs;
+            this.parent = parent;
+        }
+
+        /**
+         * 记下一次流式请求并结束阶段。
+         *
+         * @param firstTokenMs  首个数据块到达的耗时，没有收到时为 -1
+         * @param failoverFrom  请求方指定的模型在冷却中、改用 model 时为原模型，否则为 null
+         */
+        void endStream(String model, String status, long requestBytes, long responseBytes, long firstTokenMs,
+                       String failoverFrom) {
+            Map<String, Object> a = new LinkedHashMap<>();
+            a.put("model", model);
+            a.put("ms", millisSince(startNanos));
+            a.put("status", status);
+            a.put("ok", status.startsWith("2"));
+            a.put("requestBytes", requestBytes);
+            a.put("responseBytes", responseBytes);
+            if (firstTokenMs >= 0) {
+                a.put("firstTokenMs", firstTokenMs);
+            }
+            if (failoverFrom != null) {
+                a.put("failoverFrom", failoverFrom);
+            }
+            synchronized (attempts) {
+                attempts.add(a);
+            }
+            end();
+        }
+
+        void end() {
+            if (ms < 0) {
+                ms = millisSince(startNanos);
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("stage", name);
+            m.put("startMs", offsetMs);
+            m.put("ms", ms < 0 ? millisSince(startNanos) : ms);
+            synchronized (attempts) {
+                long requestBytes = 0;
+                long responseBytes = 0;
+                String model = null;
+                for (Map<String, Object> a : attempts) {
+                    requestBytes += (Long) a.get("requestBytes");
+                    responseBytes += (Long) a.get("responseBytes");
+                    if (model == null || Boolean.TRUE.equals(a.get("ok"))) {
+                        model = (String) a.get("model");
+                    }
+                }
+                if (!attempts.isEmpty()) {
+                    m.put("model", model);
+                    m.put("requestBytes", requestBytes);
+                    m.put("responseBytes", responseBytes);
+                    m.put("retries", attempts.size() - 1);
+                    m.put("attempts", new ArrayList<>(attempts));
+                }
+            }
+            return m;
+        }
+    }
+
+    static final class Attempt implements AutoCloseable {
+
+        private final Stage stage;
+        private final String model;
+        private final AiCallMetrics.Call call;
+        private final long startNanos = System.nanoTime();
+
+        private Attempt(Stage stage, String model, AiCallMetrics.Call call) {
+            this.stage = stage;
+            this.model = model;
+            this.call = call;
+        }
+
+        @Override
+        public void close() {
+            Map<String, Object> a = new LinkedHashMap<>();
+            a.put("model", model);
+            a.put("ms", millisSince(startNanos));
+            a.put("status", call.getStatus());
+            a.put("ok", call.getStatus().startsWith("2"));
+            a.put("requestBytes", call.getRequestBytes());
+            a.put("responseBytes", call.getResponseBytes());
+            synchronized (stage.attempts) {
+                stage.attempts.add(a);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.lessonplan.repository.LessonPlanRecordRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 把最近 N 条记录上保存的生成时间线汇总成分位数：总耗时按路线（text / vision / vision_fallback ...）分组，
+ * 阶段耗时按阶段分组，并给出各路线、各阶段占全部生成时间的比例，用来判断生产上的延迟主要花在哪条路径上。
+ */
+@Service
+public class LessonPlanTimingStats {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final LessonPlanRecordRepository repository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LessonPlanTimingStats(LessonPlanRecordRepository repository) {
+        this.repository = repository;
+    }
+
+    public Map<String, Object> summary(int limit) {
+        List<String> timelines = repository.findRecentTimelines(PageRequest.of(0, limit));
+        List<Long> totals = new ArrayList<>();
+        Map<String, List<Long>> byPath = new TreeMap<>();
+        Map<String, List<Long>> byStage = new TreeMap<>();
+        Map<String, long[]> stageRetries = new TreeMap<>();
+        long grandTotal = 0;
+        for (String json : timelines) {
+            JsonNode t;
+            try {
+                t = objectMapper.readTree(json);
+            } catch (Exception ex) {
+                continue;
+            }
+            long total = t.path("totalMs").asLong();
+            totals.add(total);
+            grandTotal += total;
+            byPath.computeIfAbsent(t.path("path").asText("unknown"), k -> new ArrayList<>()).add(total);
+            for (JsonNode stage : t.path("stages")) {
+                String name = stage.path("stage").asText();
+                byStage.computeIfAbsent(name, k -> new ArrayList<>()).add(stage.path("ms").asLong());
+                long[] retries = stageRetries.computeIfAbsent(name, k -> new long[2]);
+                int r = stage.path("retries").asInt(0);
+                retries[0] += r;
+                retries[1] += r > 0 ? 1 : 0;
+            }
+        }
+
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("samples", totals.size());
+        resp.put("totalMs", distribution(totals));
+
+        Map<String, Object> paths = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Long>> e : byPath.entrySet()) {
+            Map<String, Object> m = distribution(e.getValue());
+            m.put("share", share(sum(e.getValue()), grandTotal));
+            paths.put(e.getKey(), m);
+        }
+        resp.put("paths", paths);
+
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Long>> e : byStage.entrySet()) {
+            Map<String, Object> m = distribution(e.getValue());
+            m.put("share", share(sum(e.getValue()), grandTotal));
+            long[] retries = stageRetries.get(e.getKey());
+            m.put("retries", retries[0]);
+            m.put("retried", retries[1]);
+            stages.put(e.getKey(), m);
+        }
+        resp.put("stages", stages);
+        return resp;
+    }
+
+    /**
+     * count / p50 / p90 / p99 / max（最近秩法）
+     */
+    private static Map<String, Object> distribution(List<Long> values) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", values.size());
+        if (values.isEmpty()) {
+            return m;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        for (double q : QUANTILES) {
+            int rank = (int) Math.ceil(q * sorted.size());
+            m.put("p" + Math.round(q * 100), sorted.get(Math.max(0, rank - 1)));
+        }
+        m.put("max", sorted.get(sorted.size() - 1));
+        return m;
+    }
+
+    private static long sum(List<Long> values) {
+        long s = 0;
+        for (long v : values) {
+            s += v;
+        }
+        return s;
+    }
+
+    private static double share(long part, long total) {
+        return total == 0 ? 0.0 : Math.round(part * 1000.0 / total) / 1000.0;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.demo.modules.lessonplan.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * 把上传的模板图片缩成视觉模型够用的尺寸再编码为 JPEG。
+ * 解码时按缩放比例隔行采样，不把原图完整解码进堆；只有缩小后的字节才会进入上游请求。
+ */
+@Component
+public class TemplateImageProcessor {
+
+    /**
+     * 每轮压缩仍超出大小上限时，尺寸与质量的缩减比例
+     */
+    private static final double SHRINK_STEP = 0.8;
+
+    @Value("${lessonplan.template.maxEdgePx:1600}")
+    private int maxEdgePx;
+
+    @Value("${lessonplan.template.maxBytes:1048576}")
+    private int maxBytes;
+
+    @Value("${lessonplan.template.jpegQuality:0.85}")
+    private float jpegQuality;
+
+    /**
+     * @return 缩放并重新编码后的 JPEG 字节
+     * @throws IllegalArgumentException 不是可识别的图片
+     */
+    public byte[] downscale(InputStream in) throws IOException {
+        BufferedImage image = readSubsampled(in);
+        int edge = Math.min(maxEdgePx, Math.max(image.getWidth(), image.getHeight()));
+        float quality = jpegQuality;
+        while (true) {
+            byte[] jpeg = encodeJpeg(resize(image, edge), quality);
+            if (jpeg.length <= maxBytes || edge <= 256) {
+                return jpeg;
+            }
+            edge = (int) (edge * SHRINK_STEP);
+            quality = Math.max(0.5f, quality * (float) SHRINK_STEP);
+        }
+    }
+
+    private BufferedImage readSubsampled(InputStream in) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("无法识别的模板图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                // 只做整数倍采样，剩下的比例由 resize 平滑缩放
+                int step = Math.max(1, longest / maxEdgePx);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage resize(BufferedImage src, int maxEdge) {
+        int longest = Math.max(src.getWidth(), src.getHeight());
+        double scale = longest <= maxEdge ? 1.0 : (double) maxEdge / longest;
+        int w = Math.max(1, (int) Math.round(src.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * scale));
+        // JPEG 不支持透明通道：统一画到白底 RGB 上
+        BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = dst.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return dst;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
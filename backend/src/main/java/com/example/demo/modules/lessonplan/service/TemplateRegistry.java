@@ -0,0 +1,246 @@
+package com.example.demo.modules.lessonplan.service;
+
+import com.example.demo.modules.common.util.CanonicalJson;
+import com.example.demo.modules.lessonplan.dto.LessonPlanTemplateInfo;
+import com.example.demo.modules.lessonplan.entity.LessonPlanTemplate;
+import com.example.demo.modules.lessonplan.repository.LessonPlanTemplateRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 参照模板登记表：按图片内容寻址（解码后字节的 SHA-256），同一张图只存一份。
+ * 客户端首次上传后拿到 templateId，之后只传 ID；识别出的标题与表格骨架随模板保存，重复使用时跳过视觉识别。
+ * 使用次数先在内存里累计，定时批量写回（每次生成不再整行保存模板）；标题与骨架按列单独写入，
+ * 查询走不含图片的 {@link LessonPlanTemplateInfo} 投影。
+ */
+@Service
+public class TemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateRegistry.class);
+
+    private static final Pattern DATA_URL = Pattern.compile("^data:([^;,]+)?(;[^,]*)?,(.*)$", Pattern.DOTALL);
+
+    private final LessonPlanTemplateRepository repository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 还没写回的使用次数与最后使用时间：id -> {次数, 时间}
+     */
+    private final ConcurrentHashMap<String, long[]> pendingUses = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "template-use-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${lessonplan.template.useFlushMs:30000}")
+    private long useFlushMs;
+
+    public TemplateRegistry(LessonPlanTemplateRepository repository) {
+        this.repository = repository;
+    }
+
+    @PostConstruct
+    public void start() {
+        long delay = Math.max(1000L, useFlushMs);
+        flusher.scheduleWithFixedDelay(this::flushUses, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushUses();
+    }
+
+    /**
+     * 登记模板图片（已存在直接返回），返回模板。不计使用次数，由调用方在真正生成时 {@link #recordUse}。
+     *
+     * @throws IllegalArgumentException 图片不是合法的 base64 data URL
+     */
+    public LessonPlanTemplateInfo register(String imageDataUrl) {
+        String trimmed = imageDataUrl.trim();
+        Matcher m = DATA_URL.matcher(trimmed);
+        byte[] bytes;
+        String mimeType = null;
+        if (m.matches() && m.group(2) != null && m.group(2).contains("base64")) {
+            mimeType = m.group(1);
+            try {
+                bytes = Base64.getMimeDecoder().decode(m.group(3));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("templateImage 不是合法的 base64 图片");
+            }
+        } else {
+            // 非 data URL（如图片链接）按原文寻址
+            bytes = trimmed.getBytes(StandardCharsets.UTF_8);
+        }
+        return register(bytes, mimeType, trimmed);
+    }
+
+    /**
+     * 登记已解码的图片字节（如 multipart 上传并缩放后的图片），不必先拼成 data URL 再解析。
+     */
+    public LessonPlanTemplateInfo registerImage(byte[] bytes, String mimeType) {
+        return register(bytes, mimeType, "data:" + mimeType + ";base64," + Base64.getEncoder().encodeToString(bytes));
+    }
+
+    private LessonPlanTemplateInfo register(byte[] bytes, String mimeType, String imageDataUrl) {
+        String id = CanonicalJson.sha256Hex(bytes);
+
+        LessonPlanTemplateInfo existing = repository.findInfo(id).orElse(null);
+        if (existing != null) {
+            return existing;
+        }
+        LessonPlanTemplate tpl = new LessonPlanTemplate();
+        tpl.setId(id);
+        tpl.setMimeType(mimeType);
+        tpl.setByteSize(bytes.length);
+        tpl.setImageDataUrl(imageDataUrl);
+        try {
+            repository.save(tpl);
+        } catch (DataIntegrityViolationException ex) {
+            // 并发登记同一张图片，另一方已写入
+            return repository.findInfo(id).orElseThrow(() -> ex);
+        }
+        return repository.findInfo(id).orElseThrow(IllegalStateException::new);
+    }
+
+    /**
+     * 按 ID 取模板并记一次使用；不存在时返回 null。
+     */
+    public LessonPlanTemplateInfo use(String id) {
+        LessonPlanTemplateInfo tpl = repository.findInfo(id).orElse(null);
+        if (tpl != null) {
+            recordUse(tpl.getId());
+        }
+        return tpl;
+    }
+
+    /**
+     * 记一次使用（内存累计，定时写回）。
+     */
+    public void recordUse(String id) {
+        long now = System.currentTimeMillis();
+        pendingUses.compute(id, (k, v) -> v == null ? new long[]{1, now} : new long[]{v[0] + 1, Math.max(v[1], now)});
+    }
+
+    private void flushUses() {
+        for (String id : pendingUses.keySet()) {
+            long[] uses = pendingUses.remove(id);
+            if (uses == null) {
+                continue;
+            }
+            try {
+                repository.addUses(id, uses[0], uses[1]);
+            } catch (RuntimeException e) {
+                log.warn("写回模板使用次数失败 id={}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    public LessonPlanTemplateInfo find(String id) {
+        if (!StringUtils.hasText(id)) {
+            return null;
+        }
+        return repository.findInfo(id).orElse(null);
+    }
+
+    /**
+     * 模板图片的 data URL；只在真正要发给上游时读取。
+     */
+    public String imageOf(String id) {
+        return repository.findImageDataUrl(id).orElse(null);
+    }
+
+    /**
+     * 已识别的标题；还没识别过返回 null（识别结果为空列表时也视为未识别，下次再试）。
+     */
+    public List<String> headingsOf(LessonPlanTemplateInfo tpl) {
+        if (tpl == null || !StringUtils.hasText(tpl.getHeadingsJson())) {
+            return null;
+        }
+        try {
+            List<String> headings = objectMapper.readValue(tpl.getHeadingsJson(), new TypeReference<List<String>>() {
+            });
+            return headings.isEmpty() ? null : headings;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    public void rememberHeadings(String id, List<String> headings) {
+        if (!StringUtils.hasText(id) || headings == null || headings.isEmpty()) {
+            return;
+        }
+        try {
+            repository.rememberHeadings(id, objectMapper.writeValueAsString(headings));
+        } catch (Exception ex) {
+            log.warn("保存模板标题失败 id={}: {}", id, ex.getMessage());
+        }
+    }
+
+    /**
+     * 首次生成成功后保存表格骨架：保留全部标签（行列与合并单元格）和标题文字，清空其它单元格内容。
+     * 调用方只在标题已识别、且表格按顺序包含这些标题时调用，不把不合格的表格固化成以后每次的骨架。
+     */
+    public void rememberSkeleton(String id, String tableHtml, List<String> headings) {
+        if (!StringUtils.hasText(id) || tableHtml == null || !tableHtml.regionMatches(true, 0, "<table", 0, 6)
+                || headings == null || headings.isEmpty()) {
+            return;
+        }
+        repository.rememberSkeleton(id, toSkeleton(tableHtml, headings));
+    }
+
+    /**
+     * 逐段扫描标签之间的文字（"&gt;文字&lt;"），不是标题的清空；只在文字是非空白时才截取出来比对。
+     */
+    private static String toSkeleton(String tableHtml, List<String> headings) {
+        int n = tableHtml.length();
+        StringBuilder sb = new StringBuilder(n);
+        int copied = 0;
+        int gt = tableHtml.indexOf('>');
+        while (gt >= 0) {
+            int lt = tableHtml.indexOf('<', gt + 1);
+            if (lt < 0) {
+                break;
+            }
+            int from = gt + 1;
+            int to = lt;
+            while (from < to && tableHtml.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && tableHtml.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            if (from < to && !headings.contains(tableHtml.substring(from, to))) {
+                sb.append(tableHtml, copied, gt + 1);
+                copied = lt;
+            }
+            gt = tableHtml.indexOf('>', lt + 1);
+        }
+        sb.append(tableHtml, copied, n);
+        return sb.toString();
+    }
+}
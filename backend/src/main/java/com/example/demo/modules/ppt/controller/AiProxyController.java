@@ -1,25 +1,59 @@
 package com.example.demo.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.demo.modules.common.admission.AdmissionRejectedException;
+import com.example.demo.modules.common.admission.ModelAdmission;
+import com.example.demo.modules.common.concurrent.SingleFlight;
+import com.example.demo.modules.common.http.AsyncStreamProxy;
+import com.example.demo.modules.common.http.UpstreamObserver;
+import com.example.demo.modules.common.metrics.AiCallMetrics;
+import com.example.demo.modules.common.resilience.CircuitBreaker;
+import com.example.demo.modules.common.resilience.CircuitBreakers;
+import com.example.demo.modules.common.resilience.CircuitOpenException;
+import com.example.demo.modules.common.routing.ModelRouter;
+import com.example.demo.modules.common.util.CanonicalJson;
+import com.example.demo.service.ChatCompletionCache;
+import com.example.demo.service.ChatStreamPersister;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @RequestMapping("/api/ai")
 public class AiProxyController {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
+    private final AsyncStreamProxy asyncStreamProxy;
+    private final ChatCompletionCache completionCache;
+    private final ModelAdmission admission;
+    private final ModelRouter modelRouter;
+    private final ChatStreamPersister chatStreamPersister;
+    private final AiCallMetrics aiCallMetrics;
+    private final CircuitBreaker arkBreaker;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SingleFlight<String, ResponseEntity<String>> inflight = new SingleFlight<>();
 
     @Value("${ark.baseUrl}")
     private String arkBaseUrl;
@@ -30,8 +64,107 @@ public class AiProxyController {
     @Value("${ark.defaultModel}")
     private String defaultModel;
 
+    @Value("${ai.singleFlight.enabled:true}")
+    private boolean singleFlightEnabled;
+
+    @Value("${ai.batch.maxItems:100}")
+    private int batchMaxItems;
+
+    @Value("${ai.batch.defaultParallelism:4}")
+    private int batchDefaultParallelism;
+
+    @Value("${ai.batch.maxParallelism:16}")
+    private int batchMaxParallelism;
+
+    @Value("${ai.batch.timeoutMs:1800000}")
+    private long batchTimeoutMs;
+
+    /**
+     * 批量条目的执行线程，最多 ai.batch.workers 个；每批开始前先占用 parallelism 个名额（batchLanes），
+     * 名额不足直接 429，因此同时在跑的条目不会超过线程数，条目在准入排队时阻塞的线程也有上限
+     */
+    private final ThreadPoolExecutor batchExecutor;
+    private final Semaphore batchLanes;
+
+    public AiProxyController(@Qualifier("arkRestTemplate") RestTemplate restTemplate,
+                             AsyncStreamProxy asyncStreamProxy,
+                             ChatCompletionCache completionCache,
+                             ModelAdmission admission,
+                             ModelRouter modelRouter,
+                             ChatStreamPersister chatStreamPersister,
+                             AiCallMetrics aiCallMetrics,
+                             CircuitBreakers circuitBreakers,
+                             @Value("${ai.batch.workers:32}") int batchWorkers) {
+        this.restTemplate = restTemplate;
+        this.asyncStreamProxy = asyncStreamProxy;
+        this.completionCache = completionCache;
+        this.admission = admission;
+        this.modelRouter = modelRouter;
+        this.chatStreamPersister = chatStreamPersister;
+        this.aiCallMetrics = aiCallMetrics;
+        this.arkBreaker = circuitBreakers.get(CircuitBreakers.ARK);
+        AtomicInteger seq = new AtomicInteger();
+        this.batchExecutor = new ThreadPoolExecutor(batchWorkers, batchWorkers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(batchWorkers), r -> {
+            Thread t = new Thread(r, "ai-batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchExecutor.allowCoreThreadTimeOut(true);
+        this.batchLanes = new Semaphore(batchWorkers);
+    }
+
+    /**
+     * 非流式调用。确定性请求（temperature 为 0、n 不大于 1）相同 payload 命中缓存时直接返回；并发的相同请求只调用一次上游，其余等待共享结果。
+     * 请求头 X-AI-Cache: bypass（或 Cache-Control: no-cache）可跳过缓存与合并。
+     * 模型由 {@link ModelRouter} 路由（故障切换 / 慢请求对冲），实际使用的模型见响应头 X-AI-Model。
+     * Ark 熔断打开时直接返回 503 + Retry-After，不占用线程等待超时。
+     */
     @PostMapping("/chat/completions")
-    public ResponseEntity<String> chatCompletions(@RequestBody Map<String, Object> body) {
+    public ResponseEntity<String> chatCompletions(@RequestBody Map<String, Object> body,
+                                                  @RequestHeader(value = "X-AI-Cache", required = false) String cacheMode,
+                                                  @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) throws Exception {
+        return complete(body, isCacheBypass(cacheMode, cacheControl));
+    }
+
+    /**
+     * 批量非流式调用：一次提交多个 payload，最多 parallelism 个同时进行，每完成一个就以一行 NDJSON 返回：
+     * {"index":0,"status":200,"model":"...","cache":"MISS","body":{...}}，失败的条目带 error 字段，不影响其它条目。
+     * 请求体：{"requests":[payload, ...], "parallelism":4}；每个条目同样走缓存、合并、准入与模型路由。
+     */
+    @PostMapping(value = "/chat/completions/batch", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> chatCompletionsBatch(@RequestBody Map<String, Object> body,
+                                                                    @RequestHeader(value = "X-AI-Cache", required = false) String cacheMode,
+                                                                    @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+        Object requests = body.get("requests");
+        if (!(requests instanceof List) || ((List<?>) requests).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "requests 必须是非空数组");
+        }
+        List<?> items = (List<?>) requests;
+        if (items.size() > batchMaxItems) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "单批最多 " + batchMaxItems + " 条");
+        }
+        int parallelism = batchDefaultParallelism;
+        Object p = body.get("parallelism");
+        if (p instanceof Number) {
+            parallelism = ((Number) p).intValue();
+        }
+        parallelism = Math.max(1, Math.min(parallelism, Math.min(batchMaxParallelism, items.size())));
+
+        if (!batchLanes.tryAcquire(parallelism)) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "批量任务繁忙，请稍后重试");
+        }
+        boolean bypass = isCacheBypass(cacheMode, cacheControl);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(batchTimeoutMs);
+        new BatchRun(items, bypass, emitter).start(parallelism);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+
+    private ResponseEntity<String> complete(Map<String, Object> body, boolean bypass) throws Exception {
         Map<String, Object> payload = new LinkedHashMap<>(body);
 
         Object model = payload.get("model");
@@ -39,99 +172,314 @@ public class AiProxyController {
             payload.put("model", defaultModel);
         }
 
+        String modelName = String.valueOf(payload.get("model"));
+        boolean useCache = completionCache.isEnabled() && !bypass && completionCache.isCacheable(payload);
+        String cacheKey = useCache || (singleFlightEnabled && !bypass) ? completionCache.keyOf(payload) : null;
+        if (useCache) {
+            String cached = completionCache.get(cacheKey);
+            if (cached != null) {
+                // 缓存里只有请求方指定模型的回答
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-AI-Cache", "HIT")
+                        .header("X-AI-Model", modelName)
+                        .body(cached);
+            }
+        } else if (bypass) {
+            completionCache.recordBypass();
+        } else if (completionCache.isEnabled()) {
+            completionCache.recordUncacheable();
+        }
+
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(arkApiKey);
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-
         String url = arkBaseUrl.replaceAll("/+$", "") + "/chat/completions";
-        ResponseEntity<String> resp = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+        String flightKey = singleFlightEnabled && !bypass ? cacheKey : null;
+        final boolean store = useCache;
+        final String storeKey = cacheKey;
+        ResponseEntity<String> resp = inflight.execute(flightKey, () -> {
+            try {
+                ModelRouter.Routed<ResponseEntity<String>> routed = modelRouter.call(modelName, m -> {
+                    Map<String, Object> attempt = new LinkedHashMap<>(payload);
+                    attempt.put("model", m);
+                    try (ModelAdmission.Permit permit = admission.acquire(m);
+                         AiCallMetrics.Call call = aiCallMetrics.start("ai_chat", m)) {
+                        try {
+                            ResponseEntity<String> r = arkBreaker.execute(
+                                    () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(attempt, headers), String.class));
+                            call.status(r.getStatusCodeValue());
+                            long length = r.getHeaders().getContentLength();
+                            call.responseBytes(length >= 0 ? length : (r.getBody() == null ? 0 : r.getBody().length()));
+                            aiCallMetrics.recordUsage(call, r.getBody());
+                            return r;
+                        } catch (HttpStatusCodeException e) {
+                            call.status(e.getRawStatusCode());
+                            throw e;
+                        }
+                    }
+                });
+                ResponseEntity<String> r = routed.getValue();
+                // 只缓存请求方指定模型的回答，切换到备选模型的结果不占用该 key
+                if (store && r.getStatusCode().is2xxSuccessful() && modelName.equals(routed.getModel())) {
+                    completionCache.put(storeKey, r.getBody());
+                }
+                return ResponseEntity.status(r.getStatusCode())
+                        .header("X-AI-Model", routed.getModel())
+                        .body(r.getBody());
+            } catch (HttpStatusCodeException e) {
+                // 上游 4xx/5xx（尤其是 429）原样透传状态码与 Retry-After，而不是变成 500
+                ResponseEntity.BodyBuilder builder = ResponseEntity.status(e.getRawStatusCode());
+                String retryAfter = e.getResponseHeaders() == null ? null : e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+                if (retryAfter != null) {
+                    builder.header(HttpHeaders.RETRY_AFTER, retryAfter);
+                }
+                return builder.body(e.getResponseBodyAsString());
+            }
+        });
 
+        String servedBy = resp.getHeaders().getFirst("X-AI-Model");
         return ResponseEntity
                 .status(resp.getStatusCode())
                 .contentType(MediaType.APPLICATION_JSON)
+                .header("X-AI-Cache", useCache ? "MISS" : "BYPASS")
+                .header("X-AI-Model", servedBy != null ? servedBy : modelName)
                 .body(resp.getBody());
     }
 
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        return ResponseEntity.ok(completionCache.stats());
+    }
+
+    @GetMapping("/inflight/stats")
+    public ResponseEntity<Map<String, Object>> inflightStats() {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("completions", inflight.stats());
+        resp.put("streams", asyncStreamProxy.stats());
+        resp.put("persisted", chatStreamPersister.stats());
+        return ResponseEntity.ok(resp);
+    }
+
+    @GetMapping("/routing/stats")
+    public ResponseEntity<Map<String, Object>> routingStats() {
+        return ResponseEntity.ok(modelRouter.stats());
+    }
+
+    @PreDestroy
+    public void shutdownBatchExecutor() {
+        batchExecutor.shutdownNow();
+    }
+
+    @DeleteMapping("/cache")
+    public ResponseEntity<Void> clearCache() {
+        completionCache.clear();
+        return ResponseEntity.ok().build();
+    }
+
+    private static boolean isCacheBypass(String cacheMode, String cacheControl) {
+        if (cacheMode != null && ("bypass".equalsIgnoreCase(cacheMode.trim()) || "off".equalsIgnoreCase(cacheMode.trim()))) {
+            return true;
+        }
+        if (cacheControl == null) {
+            return false;
+        }
+        String cc = cacheControl.toLowerCase();
+        return cc.contains("no-cache") || cc.contains("no-store");
+    }
+
+    /**
+     * SSE 流式代理：异步模式，请求线程立即释放；上游数据到达即转发，慢客户端会反压上游读取。
+     * 相同 payload 的并发流共享一次上游请求，后加入者先回放已生成的前缀。
+     * 流式只做故障切换（冷却中的模型换成备选），不做对冲：两路流同时生成会让客户端看到两份不同的输出。
+     * 带 lessonId（查询参数或请求体字段）时，服务端边转发边拼接回答，结束后直接保存为该课件的 bot 消息，
+     * 即使客户端中途断开也会读完上游并保存。
+     */
     @PostMapping(value = "/chat/completions/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public ResponseEntity<StreamingResponseBody> chatCompletionsStream(@RequestBody Map<String, Object> body) {
+    public void chatCompletionsStream(@RequestBody Map<String, Object> body,
+                                      @RequestHeader(value = "X-AI-Cache", required = false) String cacheMode,
+                                      @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl,
+                                      @RequestParam(value = "lessonId", required = false) Long lessonIdParam,
+                                      HttpServletRequest request,
+                                      HttpServletResponse response) throws IOException {
         Map<String, Object> payload = new LinkedHashMap<>(body);
+        // lessonId 只给服务端用，不发给上游
+        Object lessonIdField = payload.remove("lessonId");
+        Long lessonId = lessonIdParam != null ? lessonIdParam : toLong(lessonIdField);
 
         Object model = payload.get("model");
         if (model == null || String.valueOf(model).trim().isEmpty()) {
             payload.put("model", defaultModel);
         }
+        String modelName = modelRouter.select(String.valueOf(payload.get("model")));
+        payload.put("model", modelName);
         payload.put("stream", true);
+        response.setHeader("X-AI-Model", modelName);
 
         String url = arkBaseUrl.replaceAll("/+$", "") + "/chat/completions";
 
         try {
-            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(0);
-            conn.setRequestProperty("Authorization", "Bearer " + arkApiKey);
-            conn.setRequestProperty("Content-Type", "application/json");
-
-            byte[] jsonBytes = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsBytes(payload);
-            conn.getOutputStream().write(jsonBytes);
-            conn.getOutputStream().flush();
-
-            int code = conn.getResponseCode();
-            if (code < 200 || code >= 300) {
-                InputStream err = conn.getErrorStream();
-                String errText = err == null ? ("HTTP Error: " + code) : readAll(err);
-                StreamingResponseBody errorBody = out -> out.write(errText.getBytes(StandardCharsets.UTF_8));
-                return ResponseEntity.status(code).contentType(MediaType.APPLICATION_JSON).body(errorBody);
-            }
-
-            StreamingResponseBody stream = outputStream -> {
-                InputStream in = null;
-                BufferedReader reader = null;
-                try {
-                    in = conn.getInputStream();
-                    reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        outputStream.write((line + "\n").getBytes(StandardCharsets.UTF_8));
-                        outputStream.flush();
-                    }
-                } finally {
-                    try {
-                        if (reader != null) reader.close();
-                    } catch (Exception ignored) {
-                    }
-                    try {
-                        if (in != null) in.close();
-                    } catch (Exception ignored) {
+            byte[] jsonBytes = objectMapper.writeValueAsBytes(payload);
+            // 要落库的流只与同一课件的相同请求合并，保证每个课件各自保存一条回答
+            String coalesceKey = singleFlightEnabled && !isCacheBypass(cacheMode, cacheControl)
+                    ? CanonicalJson.sha256(lessonId == null ? payload : Arrays.asList(payload, lessonId))
+                    : null;
+            asyncStreamProxy.proxy(request, url, arkApiKey, jsonBytes, coalesceKey, () -> {
+                // 熔断打开时在排队之前就拒绝；排队不占请求线程，队满或等待超过期限才 429
+                arkBreaker.acquirePermission().release();
+                return admission.acquireAsync(modelName);
+            }, permit -> {
+                CircuitBreaker.Permit breakerPermit = arkBreaker.acquirePermission();
+                UpstreamObserver observer = (status, failure) -> {
+                    permit.close();
+                    if (failure != null || status == 0 || status >= 500 || status == 429) {
+                        modelRouter.recordFailure(modelName);
                     }
-                    try {
-                        conn.disconnect();
-                    } catch (Exception ignored) {
+                    if (failure != null || status >= 500) {
+                        breakerPermit.onFailure();
+                    } else if (status == 0) {
+                        breakerPermit.release();
+                    } else {
+                        breakerPermit.onSuccess();
                     }
+                };
+                if (lessonId != null) {
+                    observer = chatStreamPersister.tee(lessonId, observer);
                 }
-            };
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setCacheControl(CacheControl.noCache());
-            headers.set("X-Accel-Buffering", "no");
-            headers.setContentType(MediaType.TEXT_EVENT_STREAM);
-            return new ResponseEntity<>(stream, headers, HttpStatus.OK);
+                return aiCallMetrics.observeStream("ai_chat_stream", modelName, jsonBytes.length, observer);
+            });
         } catch (Exception e) {
-            StreamingResponseBody errorBody = out -> out.write(("Stream proxy error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
-            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).contentType(MediaType.TEXT_PLAIN).body(errorBody);
+            if (request.isAsyncStarted()) {
+                throw e;
+            }
+            response.setStatus(HttpStatus.BAD_GATEWAY.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8");
+            response.getOutputStream().write(("Stream proxy error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
         }
     }
 
-    private static String readAll(InputStream in) throws Exception {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line).append('\n');
+    private static Long toLong(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 一次批量调用：滑动窗口式提交，任一条目完成就写出一行并补上下一个，直到全部完成或客户端断开。
+     * 每条窗口（lane）占一个 batchLanes 名额，没有下一个条目可跑时归还。
+     */
+    private final class BatchRun {
+
+        private final List<?> items;
+        private final boolean bypass;
+        private final ResponseBodyEmitter emitter;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        BatchRun(List<?> items, boolean bypass, ResponseBodyEmitter emitter) {
+            this.items = items;
+            this.bypass = bypass;
+            this.emitter = emitter;
+            this.remaining = new AtomicInteger(items.size());
+            emitter.onTimeout(() -> aborted.set(true));
+            emitter.onError(e -> aborted.set(true));
+        }
+
+        void start(int parallelism) {
+            for (int i = 0; i < parallelism; i++) {
+                launchNext();
+            }
+        }
+
+        private void launchNext() {
+            if (aborted.get()) {
+                batchLanes.release();
+                return;
+            }
+            int index = next.getAndIncrement();
+            if (index >= items.size()) {
+                batchLanes.release();
+                return;
+            }
+            try {
+                batchExecutor.execute(() -> runLane(index));
+            } catch (RejectedExecutionException e) {
+                // 只在关闭时发生：名额保证了在跑的条目不超过线程数
+                batchLanes.release();
+                aborted.set(true);
+                finish();
+            }
+        }
+
+        private void runLane(int index) {
+            String line = runItem(index, items.get(index));
+            try {
+                synchronized (emitter) {
+                    if (!aborted.get()) {
+                        emitter.send(line + "\n", MediaType.TEXT_PLAIN);
+                    }
+                }
+            } catch (Exception e) {
+                aborted.set(true);
+            }
+            if (remaining.decrementAndGet() == 0 || aborted.get()) {
+                finish();
+            }
+            launchNext();
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                emitter.complete();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private String runItem(int index, Object item) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("index", index);
+            try {
+                if (!(item instanceof Map)) {
+                    throw new IllegalArgumentException("条目必须是 JSON 对象");
+                }
+                ResponseEntity<String> resp = complete((Map<String, Object>) item, bypass);
+                line.put("status", resp.getStatusCodeValue());
+                line.put("model", resp.getHeaders().getFirst("X-AI-Model"));
+                line.put("cache", resp.getHeaders().getFirst("X-AI-Cache"));
+                String raw = resp.getBody();
+                if (resp.getStatusCode().is2xxSuccessful()) {
+                    line.put("body", raw == null ? null : objectMapper.readTree(raw));
+                } else {
+                    line.put("error", raw);
+                }
+            } catch (AdmissionRejectedException e) {
+                line.put("status", HttpStatus.TOO_MANY_REQUESTS.value());
+                line.put("error", e.getMessage());
+                line.put("retryAfterSeconds", e.getRetryAfterSeconds());
+            } catch (CircuitOpenException e) {
+                line.put("status", HttpStatus.SERVICE_UNAVAILABLE.value());
+                line.put("error", e.getMessage());
+                line.put("retryAfterSeconds", e.getRetryAfterSeconds());
+            } catch (IllegalArgumentException e) {
+                line.put("status", HttpStatus.BAD_REQUEST.value());
+                line.put("error", e.getMessage());
+            } catch (Exception e) {
+                line.put("status", HttpStatus.BAD_GATEWAY.value());
+                line.put("error", e.getMessage());
+            }
+            try {
+                return objectMapper.writeValueAsString(line);
+            } catch (Exception e) {
+                return "{\"index\":" + index + ",\"status\":500,\"error\":\"serialize failed\"}";
+            }
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package com.example.demo.controller;
 
+import com.example.demo.modules.common.resilience.CircuitBreakers;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,11 +13,22 @@ import java.util.Map;
 @RequestMapping("/api")
 public class HealthController {
 
+    private final CircuitBreakers circuitBreakers;
+
+    public HealthController(CircuitBreakers circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    /**
+     * 任一上游熔断未关闭时报告 DEGRADED（后端本身仍可用，AI/资源接口走降级结果）
+     */
     @GetMapping("/health")
-    public ResponseEntity<Map<String, String>> health() {
-        Map<String, String> response = new HashMap<>();
-        response.put("status", "UP");
-        response.put("message", "Backend is running");
+    public ResponseEntity<Map<String, Object>> health() {
+        Map<String, Object> response = new HashMap<>();
+        boolean degraded = circuitBreakers.isAnyOpen();
+        response.put("status", degraded ? "DEGRADED" : "UP");
+        response.put("message", degraded ? "Backend is running, some upstreams are unavailable" : "Backend is running");
+        response.put("upstreams", circuitBreakers.snapshot());
         return ResponseEntity.ok(response);
     }
 }
\ No newline at end of file
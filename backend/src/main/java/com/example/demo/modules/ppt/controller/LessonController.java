@@ -1,11 +1,20 @@
 package com.example.demo.controller;
 
 import com.example.demo.dto.FrontendMessage;
+import com.example.demo.dto.LessonSummary;
+import com.example.demo.dto.PatchLessonRequest;
 import com.example.demo.dto.SyncLessonRequest;
+import com.example.demo.dto.UpdateSlideRequest;
 import com.example.demo.model.ChatMessage;
 import com.example.demo.model.Lesson;
 import com.example.demo.repository.ChatMessageRepository;
 import com.example.demo.repository.LessonRepository;
+import com.example.demo.service.JsonPatch;
+import com.example.demo.service.LessonPatchService;
+import com.example.demo.service.LessonSlideStore;
+import com.example.demo.service.LessonWriteBehind;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.MediaType;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -13,6 +22,7 @@ import org.springframework.web.bind.annotation.*;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -22,12 +32,22 @@ import java.util.*;
 @RequestMapping("/api/lessons")
 public class LessonController {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int DEFAULT_SLIDE_RANGE = 20;
+    private static final int MAX_SLIDE_RANGE = 200;
+
     private final LessonRepository lessonRepository;
     private final ChatMessageRepository chatMessageRepository;
+    private final LessonPatchService lessonPatchService;
+    private final LessonWriteBehind lessonWriteBehind;
 
-    public LessonController(LessonRepository lessonRepository, ChatMessageRepository chatMessageRepository) {
+    public LessonController(LessonRepository lessonRepository, ChatMessageRepository chatMessageRepository,
+                            LessonPatchService lessonPatchService, LessonWriteBehind lessonWriteBehind) {
         this.lessonRepository = lessonRepository;
         this.chatMessageRepository = chatMessageRepository;
+        this.lessonPatchService = lessonPatchService;
+        this.lessonWriteBehind = lessonWriteBehind;
     }
 
     private static Map<String, Object> toErrorBody(String path, Exception e) {
@@ -46,18 +66,52 @@ public class LessonController {
         return resp;
     }
 
+    /**
+     * 课件列表（按 lastModified 倒序，数据库排序，只查摘要列）。
+     * 不带参数时返回全部；带 limit 时按键集分页，响应里的 nextCursor 原样作为下一页的 cursor，没有下一页时不返回。
+     * 写回缓冲里还没落库的课件按缓冲里的标题和修改时间参与排序（盖掉库里那一行），不为列表先落库。
+     */
     @GetMapping
-    public ResponseEntity<Map<String, Object>> listLessons() {
+    public ResponseEntity<Map<String, Object>> listLessons(@RequestParam(name = "limit", required = false) Integer limit,
+                                                           @RequestParam(name = "cursor", required = false) String cursor) {
         try {
-            List<Lesson> lessons = lessonRepository.findAll();
-            lessons.sort((a, b) -> {
-                Long am = a.getLastModified() == null ? 0L : a.getLastModified();
-                Long bm = b.getLastModified() == null ? 0L : b.getLastModified();
-                return Long.compare(bm, am);
-            });
+            long[] after = null;
+            if (cursor != null && !cursor.trim().isEmpty()) {
+                after = parseCursor(cursor.trim());
+                if (after == null) {
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("message", "cursor 无效"));
+                }
+            }
+            // 先取缓冲再查库：这之间落库的课件两边的值相同
+            LessonSummary from = after == null ? null : cursorOf(after);
+            List<LessonSummary> lessons = new ArrayList<>();
+            Set<Long> buffered = new HashSet<>();
+            for (LessonSummary p : lessonWriteBehind.pending()) {
+                buffered.add(p.getId());
+                if (from == null || SUMMARY_ORDER.compare(p, from) > 0) {
+                    lessons.add(p);
+                }
+            }
+            boolean paged = limit != null || after != null;
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+            // 多取一行判断是否还有下一页；库里被缓冲盖掉的行不算，再多取这么多行
+            Pageable page = paged ? PageRequest.of(0, pageSize + 1 + buffered.size()) : Pageable.unpaged();
+            for (LessonSummary l : after == null
+                    ? lessonRepository.findSummaries(page)
+                    : lessonRepository.findSummariesAfter(after[0], after[1], page)) {
+                if (!buffered.contains(l.getId())) {
+                    lessons.add(l);
+                }
+            }
+            lessons.sort(SUMMARY_ORDER);
+
+            boolean hasMore = paged && lessons.size() > pageSize;
+            if (hasMore) {
+                lessons = lessons.subList(0, pageSize);
+            }
 
             List<Map<String, Object>> out = new ArrayList<>();
-            for (Lesson l : lessons) {
+            for (LessonSummary l : lessons) {
                 Map<String, Object> item = new LinkedHashMap<>();
                 item.put("id", String.valueOf(l.getId()));
                 item.put("title", l.getTitle() == null ? "未命名课件" : l.getTitle());
@@ -67,12 +121,52 @@ public class LessonController {
 
             Map<String, Object> resp = new LinkedHashMap<>();
             resp.put("lessons", out);
+            if (hasMore) {
+                LessonSummary last = lessons.get(lessons.size() - 1);
+                resp.put("nextCursor", (last.getLastModified() == null ? 0L : last.getLastModified()) + ":" + last.getId());
+            }
             return ResponseEntity.ok(resp);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(toErrorBody("/api/lessons", e));
         }
     }
 
+    /**
+     * 与 findSummaries 相同的顺序：(lastModified, id) 倒序；lastModified 为空按 0 处理，与游标一致（启动时已把库里的空值填成 0）
+     */
+    private static final Comparator<LessonSummary> SUMMARY_ORDER = Comparator
+            .comparing((LessonSummary l) -> l.getLastModified() == null ? 0L : l.getLastModified())
+            .thenComparing(LessonSummary::getId)
+            .reversed();
+
+    private static LessonSummary cursorOf(long[] after) {
+        return new LessonSummary() {
+            @Override
+            public Long getId() { return after[1]; }
+
+            @Override
+            public String getTitle() { return null; }
+
+            @Override
+            public Long getLastModified() { return after[0]; }
+        };
+    }
+
+    /**
+     * 游标格式 "lastModified:id"；格式不对返回 null。
+     */
+    private static long[] parseCursor(String cursor) {
+        int sep = cursor.indexOf(':');
+        if (sep <= 0) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(cursor.substring(0, sep)), Long.parseLong(cursor.substring(sep + 1))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, Object>> createLesson() {
         try {
@@ -86,7 +180,7 @@ public class LessonController {
             lesson.setMarkdownContent("");
             lesson.setVersion(1L);
             lesson.setLastModified(now);
-            lessonRepository.save(lesson);
+            lessonWriteBehind.stage(lesson, null);
 
             Map<String, Object> resp = new LinkedHashMap<>();
             resp.put("id", String.valueOf(lesson.getId()));
@@ -104,26 +198,30 @@ public class LessonController {
             chatMessageRepository.deleteByLessonId(id);
         } catch (Exception ignored) {
         }
-        lessonRepository.deleteById(id);
+        lessonWriteBehind.delete(id);
         return ResponseEntity.ok().build();
     }
 
     @PutMapping(value = "/{id}/title", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<?> renameLesson(@PathVariable("id") Long id, @RequestBody Map<String, Object> body) {
         try {
-            Lesson lesson = lessonRepository.findById(id).orElse(null);
-            if (lesson == null) return ResponseEntity.notFound().build();
-
             Object titleObj = body == null ? null : body.get("title");
             String title = titleObj == null ? null : String.valueOf(titleObj).trim();
-            if (title == null || title.isEmpty()) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-            }
 
-            lesson.setTitle(title);
-            lesson.setLastModified(System.currentTimeMillis());
-            lessonRepository.save(lesson);
-            return ResponseEntity.ok().build();
+            // 重命名不改版本号（编辑器手里的版本仍然有效），lastModified 变新；与同步并发时按最新状态重试
+            while (true) {
+                Lesson lesson = lessonWriteBehind.find(id);
+                if (lesson == null) return ResponseEntity.notFound().build();
+                if (title == null || title.isEmpty()) {
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+                }
+
+                lesson.setTitle(title);
+                lesson.setLastModified(System.currentTimeMillis());
+                if (lessonWriteBehind.stage(lesson, lesson.getVersion())) {
+                    return ResponseEntity.ok().build();
+                }
+            }
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(toErrorBody("/api/lessons/" + id + "/title", e));
         }
@@ -132,7 +230,8 @@ public class LessonController {
     @GetMapping("/{id}")
     public ResponseEntity<Map<String, Object>> getLesson(@PathVariable("id") Long id) {
         try {
-            Lesson lesson = lessonRepository.findById(id).orElseGet(() -> {
+            Lesson lesson = lessonWriteBehind.find(id);
+            if (lesson == null) {
                 Lesson l = new Lesson();
                 l.setId(id);
                 l.setTitle("未命名课件");
@@ -140,8 +239,8 @@ public class LessonController {
                 l.setMarkdownContent("");
                 l.setVersion(1L);
                 l.setLastModified(System.currentTimeMillis());
-                return lessonRepository.save(l);
-            });
+                lesson = lessonWriteBehind.stage(l, null) ? l : lessonWriteBehind.find(id);
+            }
 
             List<ChatMessage> history = chatMessageRepository.findByLessonIdOrderByIdAsc(id);
             List<FrontendMessage> frontendHistory = new ArrayList<>();
@@ -175,7 +274,7 @@ public class LessonController {
     public ResponseEntity<Map<String, Object>> syncLesson(@PathVariable("id") Long id,
                                                          @RequestBody SyncLessonRequest req) {
         try {
-            Lesson lesson = lessonRepository.findById(id).orElse(null);
+            Lesson lesson = lessonWriteBehind.find(id);
 
             String derivedTitle = null;
             try {
@@ -193,7 +292,9 @@ public class LessonController {
                 created.setMarkdownContent(req.getMarkdownContent());
                 created.setVersion(1L);
                 created.setLastModified(System.currentTimeMillis());
-                lessonRepository.save(created);
+                if (!lessonWriteBehind.stage(created, null)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("message", "CONFLICT"));
+                }
 
                 Map<String, Object> ok = new HashMap<>();
                 ok.put("version", created.getVersion());
@@ -201,7 +302,8 @@ public class LessonController {
             }
 
             Long clientVersion = req.getVersion() == null ? 0L : req.getVersion();
-            Long serverVersion = lesson.getVersion() == null ? 0L : lesson.getVersion();
+            Long storedVersion = lesson.getVersion();
+            Long serverVersion = storedVersion == null ? 0L : storedVersion;
             if (!Objects.equals(clientVersion, serverVersion)) {
                 return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("message", "CONFLICT"));
             }
@@ -213,7 +315,9 @@ public class LessonController {
             }
             lesson.setVersion(serverVersion + 1);
             lesson.setLastModified(System.currentTimeMillis());
-            lessonRepository.save(lesson);
+            if (!lessonWriteBehind.stage(lesson, storedVersion)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("message", "CONFLICT"));
+            }
 
             Map<String, Object> ok = new HashMap<>();
             ok.put("version", lesson.getVersion());
@@ -223,6 +327,90 @@ public class LessonController {
         }
     }
 
+    /**
+     * 增量同步：body 为 {baseVersion, patch: [JSON Patch...], markdownContent?}，成功返回 {version}。
+     * 版本不一致 409（带服务端当前 version），补丁与文档对不上 422，课件不存在 404；这三种情况客户端都退回整份 /sync。
+     */
+    @PostMapping(value = "/{id}/patch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> patchLesson(@PathVariable("id") Long id,
+                                                          @RequestBody PatchLessonRequest req) {
+        try {
+            return toPatchResponse(lessonPatchService.apply(id, req));
+        } catch (JsonPatch.PatchException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(Collections.singletonMap("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(toErrorBody("/api/lessons/" + id + "/patch", e));
+        }
+    }
+
+    /**
+     * 按页读取：{id, title, version, total, offset, deck: 课件头（主题等，不含 slides）, slides: [第 offset 页起最多 limit 页]}。
+     * 只查这一段的 t_lesson_slide 行，大课件打开时先取首屏、其余按需加载。
+     */
+    @GetMapping("/{id}/slides")
+    public ResponseEntity<Map<String, Object>> getSlides(@PathVariable("id") Long id,
+                                                         @RequestParam(name = "offset", defaultValue = "0") int offset,
+                                                         @RequestParam(name = "limit", defaultValue = "20") int limit) {
+        try {
+            int size = limit <= 0 ? DEFAULT_SLIDE_RANGE : Math.min(MAX_SLIDE_RANGE, limit);
+            LessonSlideStore.SlideRange range = lessonWriteBehind.slides(id, Math.max(0, offset), size);
+            if (range == null) {
+                return ResponseEntity.notFound().build();
+            }
+            List<RawValue> slides = new ArrayList<>();
+            for (String slide : range.getSlides()) {
+                slides.add(new RawValue(slide));
+            }
+            Map<String, Object> resp = new LinkedHashMap<>();
+            resp.put("id", String.valueOf(id));
+            resp.put("title", range.getTitle());
+            resp.put("version", range.getVersion());
+            resp.put("total", range.getTotal());
+            resp.put("offset", range.getOffset());
+            resp.put("deck", range.getDeck());
+            resp.put("slides", slides);
+            return ResponseEntity.ok(resp);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(toErrorBody("/api/lessons/" + id + "/slides", e));
+        }
+    }
+
+    /**
+     * 单页更新：body 为 {baseVersion, slide}，替换第 index 页，成功返回 {version}；错误码同 /patch（下标越界 422）。
+     */
+    @PutMapping(value = "/{id}/slides/{index}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> updateSlide(@PathVariable("id") Long id,
+                                                           @PathVariable("index") int index,
+                                                           @RequestBody UpdateSlideRequest req) {
+        try {
+            return toPatchResponse(lessonPatchService.replaceSlide(id, index, req.getBaseVersion(), req.getSlide()));
+        } catch (JsonPatch.PatchException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(Collections.singletonMap("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(toErrorBody("/api/lessons/" + id + "/slides/" + index, e));
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> toPatchResponse(LessonPatchService.Result result) {
+        Map<String, Object> resp = new HashMap<>();
+        switch (result.getStatus()) {
+            case NOT_FOUND:
+                return ResponseEntity.notFound().build();
+            case CONFLICT:
+                resp.put("message", "CONFLICT");
+                resp.put("version", result.getVersion());
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(resp);
+            default:
+                resp.put("version", result.getVersion());
+                return ResponseEntity.ok(resp);
+        }
+    }
+
+    @GetMapping("/write-behind/stats")
+    public ResponseEntity<Map<String, Object>> writeBehindStats() {
+        return ResponseEntity.ok(lessonWriteBehind.stats());
+    }
+
     @PostMapping("/{id}/chat")
     public ResponseEntity<?> saveChat(@PathVariable("id") Long id,
                                         @RequestBody FrontendMessage msg) {
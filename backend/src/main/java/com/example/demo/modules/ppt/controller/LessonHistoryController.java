@@ -0,0 +1,116 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.LessonRevisionInfo;
+import com.example.demo.model.Lesson;
+import com.example.demo.service.LessonHistory;
+import com.example.demo.service.LessonWriteBehind;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 课件历史版本：列出、查看某个版本、把课件恢复到某个版本（恢复本身产生一个新版本，之前的版本仍可恢复）。
+ */
+@RestController
+@RequestMapping("/api/lessons")
+public class LessonHistoryController {
+
+    private static final int MAX_LIST = 500;
+
+    private final LessonHistory lessonHistory;
+    private final LessonWriteBehind lessonWriteBehind;
+
+    public LessonHistoryController(LessonHistory lessonHistory, LessonWriteBehind lessonWriteBehind) {
+        this.lessonHistory = lessonHistory;
+        this.lessonWriteBehind = lessonWriteBehind;
+    }
+
+    @GetMapping("/{id}/versions")
+    public ResponseEntity<Map<String, Object>> listVersions(@PathVariable("id") Long id,
+                                                            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (LessonRevisionInfo r : lessonHistory.list(id, Math.max(1, Math.min(MAX_LIST, limit)))) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("version", r.getVersion());
+            item.put("createdAt", r.getCreatedAt());
+            item.put("snapshot", r.getSnapshot());
+            item.put("bytes", r.getBytes());
+            versions.add(item);
+        }
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("id", String.valueOf(id));
+        resp.put("versions", versions);
+        return ResponseEntity.ok(resp);
+    }
+
+    @GetMapping("/{id}/versions/{version}")
+    public ResponseEntity<Map<String, Object>> getVersion(@PathVariable("id") Long id, @PathVariable("version") Long version) {
+        Lesson lesson = lessonHistory.load(id, version);
+        if (lesson == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("id", String.valueOf(id));
+        resp.put("version", version);
+        resp.put("title", lesson.getTitle());
+        resp.put("slidesData", lesson.getSlidesData());
+        resp.put("markdownContent", lesson.getMarkdownContent());
+        return ResponseEntity.ok(resp);
+    }
+
+    /**
+     * body 可带 {baseVersion}：与当前版本不一致时 409，避免覆盖别处刚做的修改；不带则恢复到最新版本之上。
+     * 成功返回 {version: 新版本号, restoredFrom}。
+     */
+    @PostMapping("/{id}/versions/{version}/restore")
+    public ResponseEntity<Map<String, Object>> restoreVersion(@PathVariable("id") Long id,
+                                                              @PathVariable("version") Long version,
+                                                              @RequestBody(required = false) Map<String, Object> body) {
+        Lesson restored = lessonHistory.load(id, version);
+        if (restored == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Object base = body == null ? null : body.get("baseVersion");
+        Long baseVersion = base instanceof Number ? ((Number) base).longValue() : null;
+        while (true) {
+            Lesson current = lessonWriteBehind.find(id);
+            if (current == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (baseVersion != null && !Objects.equals(baseVersion, current.getVersion())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("message", "CONFLICT"));
+            }
+            Lesson next = new Lesson();
+            next.setId(id);
+            next.setTitle(restored.getTitle());
+            next.setSlidesData(restored.getSlidesData());
+            next.setMarkdownContent(restored.getMarkdownContent());
+            next.setVersion((current.getVersion() == null ? 0L : current.getVersion()) + 1);
+            next.setLastModified(System.currentTimeMillis());
+            if (lessonWriteBehind.stage(next, current.getVersion())) {
+                Map<String, Object> resp = new LinkedHashMap<>();
+                resp.put("version", next.getVersion());
+                resp.put("restoredFrom", version);
+                return ResponseEntity.ok(resp);
+            }
+        }
+    }
+
+    @GetMapping("/history/stats")
+    public ResponseEntity<Map<String, Object>> historyStats() {
+        return ResponseEntity.ok(lessonHistory.stats());
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.demo.dto;
+
+/**
+ * 历史版本列表用的投影：不加载 content。
+ */
+public interface LessonRevisionInfo {
+
+    Long getVersion();
+
+    Long getCreatedAt();
+
+    Boolean getSnapshot();
+
+    Integer getDepth();
+
+    Integer getBytes();
+}
@@ -0,0 +1,11 @@
+package com.example.demo.dto;
+
+/**
+ * 写回时比对用的投影：只查每页的 position 和 hash，不加载 content。
+ */
+public interface LessonSlideHash {
+
+    Integer getPosition();
+
+    String getHash();
+}
@@ -0,0 +1,13 @@
+package com.example.demo.dto;
+
+/**
+ * 课件列表用的摘要投影：只查 id / title / lastModified 三列，不加载 slidesData 与 markdownContent。
+ */
+public interface LessonSummary {
+
+    Long getId();
+
+    String getTitle();
+
+    Long getLastModified();
+}
@@ -0,0 +1,24 @@
+package com.example.demo.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * 增量同步：对 baseVersion 那一版 slidesData 的 JSON Patch（RFC 6902）。
+ * markdownContent 为 null 表示没有变化，不写这一列。
+ */
+public class PatchLessonRequest {
+    private Long baseVersion;
+    private JsonNode patch;
+    private String markdownContent;
+
+    public PatchLessonRequest() {}
+
+    public Long getBaseVersion() { return baseVersion; }
+    public void setBaseVersion(Long baseVersion) { this.baseVersion = baseVersion; }
+
+    public JsonNode getPatch() { return patch; }
+    public void setPatch(JsonNode patch) { this.patch = patch; }
+
+    public String getMarkdownContent() { return markdownContent; }
+    public void setMarkdownContent(String markdownContent) { this.markdownContent = markdownContent; }
+}
@@ -0,0 +1,19 @@
+package com.example.demo.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * 单页更新：用 slide 替换 baseVersion 那一版的第 index 页。
+ */
+public class UpdateSlideRequest {
+    private Long baseVersion;
+    private JsonNode slide;
+
+    public UpdateSlideRequest() {}
+
+    public Long getBaseVersion() { return baseVersion; }
+    public void setBaseVersion(Long baseVersion) { this.baseVersion = baseVersion; }
+
+    public JsonNode getSlide() { return slide; }
+    public void setSlide(JsonNode slide) { this.slide = slide; }
+}
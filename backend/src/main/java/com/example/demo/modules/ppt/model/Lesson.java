@@ -1,12 +1,16 @@
 package com.example.demo.model;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.Table;
 
 @Entity
-@Table(name = "t_lesson")
+@DynamicUpdate // 只 UPDATE 变化的列：增量同步没改 markdown 时不重写那一列 LOB
+@Table(name = "t_lesson", indexes = @Index(name = "idx_lesson_last_modified", columnList = "lastModified, id"))
 public class Lesson {
 
     @Id
@@ -16,9 +20,15 @@ public class Lesson {
 
     private Long lastModified;
 
+    /**
+     * slideCount 为空（未迁移的旧格式）或为 -1（拆不了页）时是整份课件 JSON；否则是去掉幻灯片后的课件头
+     * （"slides" 为空数组），幻灯片逐页存在 t_lesson_slide（见 LessonSlideStore）
+     */
     @Lob
     private String slidesData;
 
+    private Integer slideCount;
+
     @Lob
     private String markdownContent;
 
@@ -41,6 +51,9 @@ public class Lesson {
     public String getMarkdownContent() { return markdownContent; }
     public void setMarkdownContent(String markdownContent) { this.markdownContent = markdownContent; }
 
+    public Integer getSlideCount() { return slideCount; }
+    public void setSlideCount(Integer slideCount) { this.slideCount = slideCount; }
+
     public Long getVersion() { return version; }
     public void setVersion(Long version) { this.version = version; }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package com.example.demo.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 课件的一个历史版本。snapshot 为 true 时 content 是整份文档 {title, markdownContent, deck | deckText}，
+ * 否则是相对同一课件上一个历史版本（按 version）的 JSON Patch。depth 是距最近一个快照的增量个数。
+ */
+@Entity
+@Table(name = "t_lesson_revision",
+        uniqueConstraints = @UniqueConstraint(name = "uk_lesson_revision_version", columnNames = {"lessonId", "version"}),
+        indexes = @Index(name = "idx_lesson_revision_created", columnList = "createdAt"))
+public class LessonRevision {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long lessonId;
+
+    @Column(nullable = false)
+    private Long version;
+
+    @Column(nullable = false)
+    private Long createdAt;
+
+    @Column(nullable = false)
+    private Boolean snapshot;
+
+    @Column(nullable = false)
+    private Integer depth;
+
+    /**
+     * content 的字节数（UTF-8）
+     */
+    @Column(nullable = false)
+    private Integer bytes;
+
+    @Lob
+    private String content;
+
+    public LessonRevision() {}
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getLessonId() { return lessonId; }
+    public void setLessonId(Long lessonId) { this.lessonId = lessonId; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+
+    public Long getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Long createdAt) { this.createdAt = createdAt; }
+
+    public Boolean getSnapshot() { return snapshot; }
+    public void setSnapshot(Boolean snapshot) { this.snapshot = snapshot; }
+
+    public Integer getDepth() { return depth; }
+    public void setDepth(Integer depth) { this.depth = depth; }
+
+    public Integer getBytes() { return bytes; }
+    public void setBytes(Integer bytes) { this.bytes = bytes; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+}
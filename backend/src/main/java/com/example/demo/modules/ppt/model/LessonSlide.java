@@ -0,0 +1,64 @@
+package com.example.demo.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 课件的一页幻灯片，按 (lessonId, position) 定位；整份课件的其余字段（标题、主题等）留在 Lesson.slidesData 里。
+ */
+@Entity
+@Table(name = "t_lesson_slide",
+        uniqueConstraints = @UniqueConstraint(name = "uk_lesson_slide_position", columnNames = {"lessonId", "position"}))
+public class LessonSlide {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long lessonId;
+
+    @Column(nullable = false)
+    private Integer position;
+
+    /**
+     * 前端幻灯片的 id 字段，仅用于排查
+     */
+    @Column(length = 64)
+    private String slideId;
+
+    /**
+     * content 的 SHA-256，写回时据此只更新内容变了的页
+     */
+    @Column(length = 64, nullable = false)
+    private String hash;
+
+    @Lob
+    private String content;
+
+    public LessonSlide() {}
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getLessonId() { return lessonId; }
+    public void setLessonId(Long lessonId) { this.lessonId = lessonId; }
+
+    public Integer getPosition() { return position; }
+    public void setPosition(Integer position) { this.position = position; }
+
+    public String getSlideId() { return slideId; }
+    public void setSlideId(String slideId) { this.slideId = slideId; }
+
+    public String getHash() { return hash; }
+    public void setHash(String hash) { this.hash = hash; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+}
@@ -1,7 +1,42 @@
 package com.example.demo.repository;
 
+import com.example.demo.dto.LessonSummary;
 import com.example.demo.model.Lesson;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 public interface LessonRepository extends JpaRepository<Lesson, Long> {
-}
\ No newline at end of file
+
+    /**
+     * 按 (lastModified, id) 倒序的课件摘要，走 idx_lesson_last_modified；Pageable.unpaged() 返回全部。
+     */
+    @Query("select l.id as id, l.title as title, l.lastModified as lastModified from Lesson l"
+            + " order by l.lastModified desc, l.id desc")
+    List<LessonSummary> findSummaries(Pageable pageable);
+
+    /**
+     * 键集分页：排在游标 (lastModified, id) 之后的下一页，不需要跳过前面的行。
+     */
+    @Query("select l.id as id, l.title as title, l.lastModified as lastModified from Lesson l"
+            + " where l.lastModified < :lastModified or (l.lastModified = :lastModified and l.id < :id)"
+            + " order by l.lastModified desc, l.id desc")
+    List<LessonSummary> findSummariesAfter(@Param("lastModified") Long lastModified, @Param("id") Long id, Pageable pageable);
+
+    /**
+     * 还没检查过的旧格式课件（slideCount 为空），按 id 升序分批迁移；拆不了的会标成整份存储，不会再被选中。
+     */
+    @Query("select l.id from Lesson l where l.slideCount is null and l.id > :after order by l.id")
+    List<Long> findUnsplitIds(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * 只改 slideCount，不重写 slidesData 那一列 LOB。
+     */
+    @Modifying
+    @Query("update Lesson l set l.slideCount = :slideCount where l.id = :id")
+    int updateSlideCount(@Param("id") Long id, @Param("slideCount") Integer slideCount);
+}
@@ -0,0 +1,65 @@
+package com.example.demo.repository;
+
+import com.example.demo.dto.LessonRevisionInfo;
+import com.example.demo.model.LessonRevision;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface LessonRevisionRepository extends JpaRepository<LessonRevision, Long> {
+
+    @Query("select r.version as version, r.createdAt as createdAt, r.snapshot as snapshot, r.depth as depth, r.bytes as bytes"
+            + " from LessonRevision r where r.lessonId = :lessonId order by r.version desc")
+    List<LessonRevisionInfo> findInfos(@Param("lessonId") Long lessonId, Pageable pageable);
+
+    /**
+     * 不晚于 version 的最近一个快照（取第一条）
+     */
+    @Query("select r from LessonRevision r where r.lessonId = :lessonId and r.snapshot = true and r.version <= :version"
+            + " order by r.version desc")
+    List<LessonRevision> findBaseSnapshot(@Param("lessonId") Long lessonId, @Param("version") Long version, Pageable pageable);
+
+    /**
+     * (after, upTo] 之间的历史版本，按 version 升序
+     */
+    @Query("select r from LessonRevision r where r.lessonId = :lessonId and r.version > :after and r.version <= :upTo"
+            + " order by r.version")
+    List<LessonRevision> findChain(@Param("lessonId") Long lessonId, @Param("after") Long after, @Param("upTo") Long upTo);
+
+    /**
+     * 早于 createdAt 的历史版本，按 version 升序（整理用）
+     */
+    @Query("select r from LessonRevision r where r.lessonId = :lessonId and r.createdAt < :createdAt order by r.version")
+    List<LessonRevision> findOlderThan(@Param("lessonId") Long lessonId, @Param("createdAt") Long createdAt);
+
+    @Query("select distinct r.lessonId from LessonRevision r where r.createdAt < :createdAt")
+    List<Long> findLessonIdsOlderThan(@Param("createdAt") Long createdAt);
+
+    @Query("select max(r.version) from LessonRevision r where r.lessonId = :lessonId")
+    Long findLatestVersion(@Param("lessonId") Long lessonId);
+
+    @Query("select r.depth from LessonRevision r where r.lessonId = :lessonId and r.version = :version")
+    Integer findDepth(@Param("lessonId") Long lessonId, @Param("version") Long version);
+
+    @Query("select r.snapshot, count(r), coalesce(sum(r.bytes), 0) from LessonRevision r group by r.snapshot")
+    List<Object[]> summarize();
+
+    @Modifying
+    @Query("delete from LessonRevision r where r.lessonId = :lessonId")
+    int deleteByLessonId(@Param("lessonId") Long lessonId);
+
+    @Modifying
+    @Query("delete from LessonRevision r where r.lessonId = :lessonId and r.version = :version")
+    int deleteVersion(@Param("lessonId") Long lessonId, @Param("version") Long version);
+
+    /**
+     * 课件已经删除但历史还在的（删除与整理并发时可能留下）
+     */
+    @Modifying
+    @Query("delete from LessonRevision r where not exists (select l.id from Lesson l where l.id = r.lessonId)")
+    int deleteOrphans();
+}
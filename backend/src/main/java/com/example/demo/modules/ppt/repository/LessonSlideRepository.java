@@ -0,0 +1,39 @@
+package com.example.demo.repository;
+
+import com.example.demo.dto.LessonSlideHash;
+import com.example.demo.model.LessonSlide;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface LessonSlideRepository extends JpaRepository<LessonSlide, Long> {
+
+    @Query("select s.position as position, s.hash as hash from LessonSlide s where s.lessonId = :lessonId")
+    List<LessonSlideHash> findHashes(@Param("lessonId") Long lessonId);
+
+    @Query("select s.content from LessonSlide s where s.lessonId = :lessonId order by s.position")
+    List<String> findContents(@Param("lessonId") Long lessonId);
+
+    /**
+     * 第 [from, to) 页的内容，按 position 升序
+     */
+    @Query("select s.content from LessonSlide s where s.lessonId = :lessonId and s.position >= :from and s.position < :to"
+            + " order by s.position")
+    List<String> findContentRange(@Param("lessonId") Long lessonId, @Param("from") int from, @Param("to") int to);
+
+    @Modifying
+    @Query("update LessonSlide s set s.content = :content, s.hash = :hash, s.slideId = :slideId"
+            + " where s.lessonId = :lessonId and s.position = :position")
+    int updateSlide(@Param("lessonId") Long lessonId, @Param("position") int position, @Param("slideId") String slideId,
+                    @Param("hash") String hash, @Param("content") String content);
+
+    /**
+     * 删除 position >= from 的页（from 为 0 时删除整份课件的页）
+     */
+    @Modifying
+    @Query("delete from LessonSlide s where s.lessonId = :lessonId and s.position >= :from")
+    int deleteFrom(@Param("lessonId") Long lessonId, @Param("from") int from);
+}
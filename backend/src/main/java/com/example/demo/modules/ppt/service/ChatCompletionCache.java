@@ -0,0 +1,198 @@
+package com.example.demo.service;
+
+import com.example.demo.modules.common.util.CanonicalJson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非流式 chat/completions 的响应缓存：
+ * - key 为规范化 payload（map 按 key 排序后序列化）的 SHA-256，model/messages/temperature 等任一字段不同都不会命中。
+ * - 默认只缓存确定性的请求（temperature 为 0 且 n 不大于 1）；采样请求每次都该得到新的回答，
+ *   ai.cache.sampled=true 时才一并缓存。
+ * - LRU + TTL 淘汰，同时限制条目数与总字节数；单条过大的响应不缓存。
+ * - 统计命中/未命中/淘汰次数，供 /api/ai/cache/stats 查看。
+ */
+@Service
+public class ChatCompletionCache {
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.ttlSeconds:600}")
+    private long ttlSeconds;
+
+    @Value("${ai.cache.maxEntries:1000}")
+    private int maxEntries;
+
+    @Value("${ai.cache.maxBytes:33554432}")
+    private long maxBytes;
+
+    @Value("${ai.cache.maxEntryBytes:1048576}")
+    private long maxEntryBytes;
+
+    @Value("${ai.cache.sampled:false}")
+    private boolean cacheSampled;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 该请求的回答能否缓存：temperature 未填（上游按默认温度采样）或大于 0、n 大于 1 时不缓存，除非开启 ai.cache.sampled。
+     */
+    public boolean isCacheable(Map<String, Object> payload) {
+        if (cacheSampled) {
+            return true;
+        }
+        Object temperature = payload.get("temperature");
+        Object n = payload.get("n");
+        boolean deterministic = temperature instanceof Number && ((Number) temperature).doubleValue() <= 0
+                && (n == null || n instanceof Number && ((Number) n).intValue() <= 1);
+        if (!deterministic) {
+            sampled.incrementAndGet();
+        }
+        return deterministic;
+    }
+
+    /**
+     * 计算 payload 的规范化哈希；序列化失败时返回 null（视为不可缓存）。
+     */
+    public String keyOf(Map<String, Object> payload) {
+        return CanonicalJson.sha256(payload);
+    }
+
+    public String get(String key) {
+        if (key == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.expiresAt > now) {
+                hits.incrementAndGet();
+                return e.body;
+            }
+            if (e != null) {
+                remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, String body) {
+        if (key == null || body == null) {
+            return;
+        }
+        long size = estimateBytes(key, body);
+        if (size > maxEntryBytes) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry(body, size, now + ttlSeconds * 1000L));
+            totalBytes += size;
+            evictIfNeeded(now);
+        }
+    }
+
+    /**
+     * 请求方通过请求头主动跳过了缓存。
+     */
+    public void recordBypass() {
+        bypasses.incrementAndGet();
+    }
+
+    /**
+     * 缓存开启、请求方也没有跳过，但这次请求的回答不可缓存（见 {@link #isCacheable}）。
+     */
+    public void recordUncacheable() {
+        uncacheable.incrementAndGet();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        synchronized (this) {
+            m.put("enabled", enabled);
+            m.put("entries", entries.size());
+            m.put("bytes", totalBytes);
+        }
+        m.put("maxEntries", maxEntries);
+        m.put("maxBytes", maxBytes);
+        m.put("ttlSeconds", ttlSeconds);
+        long h = hits.get();
+        long mi = misses.get();
+        m.put("hits", h);
+        m.put("misses", mi);
+        m.put("hitRatio", h + mi == 0 ? 0.0 : (double) h / (h + mi));
+        m.put("bypasses", bypasses.get());
+        m.put("uncacheable", uncacheable.get());
+        m.put("sampled", sampled.get());
+        m.put("cacheSampled", cacheSampled);
+        m.put("evictions", evictions.get());
+        m.put("expirations", expirations.get());
+        return m;
+    }
+
+    private void evictIfNeeded(long now) {
+        // 按访问顺序从最久未使用的开始淘汰，直到条目数与字节数都回到上限以内；过期条目在 get 时惰性清理
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > maxEntries || totalBytes > maxBytes)) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue().bytes;
+            if (eldest.getValue().expiresAt <= now) {
+                expirations.incrementAndGet();
+            } else {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            totalBytes -= old.bytes;
+        }
+    }
+
+    private static long estimateBytes(String key, String body) {
+        return body.getBytes(StandardCharsets.UTF_8).length + key.length() + 64L;
+    }
+
+    private static final class Entry {
+        final String body;
+        final long bytes;
+        final long expiresAt;
+
+        Entry(String body, long bytes, long expiresAt) {
+            this.body = body;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.demo.service;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.modules.common.http.SseDataReader;
+import com.example.demo.modules.common.http.UpstreamObserver;
+import com.example.demo.repository.ChatMessageRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式回答的服务端落库：边转发边从 SSE 增量里拼出 assistant 文本（只保留 delta.content，不缓存原始响应），
+ * 上游正常结束后异步写入一条 ChatMessage。
+ * 以 tool_calls 结束的轮次是前端工具循环的中间步骤，不落库；最终一轮没有文本时由前端自行保存兜底文案。前端不必再把整段回答 POST 回 /api/lessons/{id}/chat，
+ * 标签页中途关闭也不会丢失。
+ */
+@Service
+public class ChatStreamPersister {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatStreamPersister.class);
+
+    private static final String SENDER_BOT = "bot";
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-stream-persister");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ChatStreamPersister(ChatMessageRepository chatMessageRepository) {
+        this.chatMessageRepository = chatMessageRepository;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    /**
+     * 包装上游观察者：数据原样转交 delegate，同时拼接回答文本，结束时落库到 lessonId。
+     */
+    public UpstreamObserver tee(Long lessonId, UpstreamObserver delegate) {
+        return new Tee(lessonId, delegate);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("saved", saved.get());
+        m.put("skipped", skipped.get());
+        m.put("failed", failed.get());
+        return m;
+    }
+
+    private void persist(Long lessonId, String text) {
+        writer.execute(() -> {
+            try {
+                ChatMessage cm = new ChatMessage();
+                cm.setLessonId(lessonId);
+                cm.setSender(SENDER_BOT);
+                cm.setContent(text);
+                cm.setTimestamp(System.currentTimeMillis());
+                cm.setIsToolOutput(false);
+                chatMessageRepository.save(cm);
+                saved.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.warn("保存流式回答失败 lessonId={}: {}", lessonId, e.getMessage());
+            }
+        });
+    }
+
+    private final class Tee implements UpstreamObserver {
+
+        private final Long lessonId;
+        private final UpstreamObserver delegate;
+        private final StringBuilder text = new StringBuilder();
+        private boolean toolCallTurn;
+        private final SseDataReader reader = new SseDataReader(this::onData);
+
+        Tee(Long lessonId, UpstreamObserver delegate) {
+            this.lessonId = lessonId;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onConnect(long nanos) {
+            delegate.onConnect(nanos);
+        }
+
+        @Override
+        public void onFirstByte() {
+            delegate.onFirstByte();
+        }
+
+        @Override
+        public void onChunk(byte[] chunk) {
+            reader.feed(chunk);
+            delegate.onChunk(chunk);
+        }
+
+        @Override
+        public boolean outlivesClients() {
+            return true;
+        }
+
+        @Override
+        public void onFinish(int status, Exception failure) {
+            try {
+                delegate.onFinish(status, failure);
+            } finally {
+                reader.flush();
+                if (failure == null && status >= 200 && status < 300 && !toolCallTurn && text.length() > 0) {
+                    persist(lessonId, text.toString());
+                } else {
+                    skipped.incrementAndGet();
+                }
+            }
+        }
+
+        private void onData(String data) {
+            try {
+                JsonNode choice = objectMapper.readTree(data).path("choices").path(0);
+                JsonNode delta = choice.path("delta");
+                // 以 tool_calls 结束的是工具循环的中间轮，只保存最终回答
+                if (delta.path("tool_calls").size() > 0 || "tool_calls".equals(choice.path("finish_reason").asText())) {
+                    toolCallTurn = true;
+                }
+                JsonNode content = delta.path("content");
+                if (content.isTextual()) {
+                    text.append(content.asText());
+                }
+            } catch (Exception ignored) {
+                // 非 JSON 的 data 行（如上游错误提示）不计入回答
+            }
+        }
+    }
+}
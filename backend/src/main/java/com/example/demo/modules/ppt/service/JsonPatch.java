@@ -0,0 +1,278 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RFC 6902 JSON Patch（add / remove / replace / move / copy / test），直接作用在 Jackson 树上。
+ * 在副本上逐条执行，任何一条失败都抛 {@link PatchException}，原文档不受影响（整份补丁要么全部生效，要么都不生效）。
+ * {@link #diff} 反过来生成把一份文档变成另一份的补丁（只用 add / remove / replace）。
+ */
+public final class JsonPatch {
+
+    private JsonPatch() {
+    }
+
+    public static final class PatchException extends IllegalArgumentException {
+        public PatchException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return 打过补丁的新文档（document 本身不变）
+     */
+    public static JsonNode apply(JsonNode document, JsonNode patch) {
+        if (patch == null || !patch.isArray()) {
+            throw new PatchException("patch 必须是数组");
+        }
+        JsonNode doc = document.deepCopy();
+        for (int i = 0; i < patch.size(); i++) {
+            JsonNode op = patch.get(i);
+            String name = op.path("op").asText("");
+            String path = op.path("path").asText(null);
+            if (path == null) {
+                throw new PatchException("第 " + i + " 条缺少 path");
+            }
+            switch (name) {
+                case "add":
+                    doc = add(doc, path, value(op, i));
+                    break;
+                case "remove":
+                    doc = remove(doc, path);
+                    break;
+                case "replace":
+                    doc = replace(doc, path, value(op, i));
+                    break;
+                case "move": {
+                    String from = from(op, i);
+                    if (path.startsWith(from + "/")) {
+                        throw new PatchException("第 " + i + " 条不能把节点移动到它自己的子节点下");
+                    }
+                    JsonNode moved = get(doc, from);
+                    doc = add(remove(doc, from), path, moved);
+                    break;
+                }
+                case "copy":
+                    doc = add(doc, path, get(doc, from(op, i)).deepCopy());
+                    break;
+                case "test":
+                    if (!get(doc, path).equals(value(op, i))) {
+                        throw new PatchException("第 " + i + " 条 test 不成立：" + path);
+                    }
+                    break;
+                default:
+                    throw new PatchException("第 " + i + " 条 op 不支持：" + name);
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * 生成把 from 变成 to 的补丁。对象按字段递归；数组先去掉首尾相同的元素，中间部分按下标逐项比较，
+     * 多出的 add、少掉的 remove，这样在开头插入或删除一页只产生一条操作。
+     */
+    public static ArrayNode diff(JsonNode from, JsonNode to) {
+        ArrayNode ops = JsonNodeFactory.instance.arrayNode();
+        diff(from, to, "", ops);
+        return ops;
+    }
+
+    private static void diff(JsonNode a, JsonNode b, String path, ArrayNode ops) {
+        if (a.equals(b)) {
+            return;
+        }
+        if (a.isObject() && b.isObject()) {
+            Iterator<String> names = a.fieldNames();
+            while (names.hasNext()) {
+                String key = names.next();
+                String child = path + "/" + escape(key);
+                if (!b.has(key)) {
+                    ops.addObject().put("op", "remove").put("path", child);
+                } else {
+                    diff(a.get(key), b.get(key), child, ops);
+                }
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = b.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> f = fields.next();
+                if (!a.has(f.getKey())) {
+                    ops.addObject().put("op", "add").put("path", path + "/" + escape(f.getKey())).set("value", f.getValue());
+                }
+            }
+            return;
+        }
+        if (a.isArray() && b.isArray()) {
+            int n = a.size();
+            int m = b.size();
+            int prefix = 0;
+            while (prefix < n && prefix < m && a.get(prefix).equals(b.get(prefix))) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < n - prefix && suffix < m - prefix && a.get(n - 1 - suffix).equals(b.get(m - 1 - suffix))) {
+                suffix++;
+            }
+            int lenA = n - prefix - suffix;
+            int lenB = m - prefix - suffix;
+            int common = Math.min(lenA, lenB);
+            for (int i = 0; i < common; i++) {
+                diff(a.get(prefix + i), b.get(prefix + i), path + "/" + (prefix + i), ops);
+            }
+            for (int i = common; i < lenA; i++) {
+                ops.addObject().put("op", "remove").put("path", path + "/" + (prefix + common));
+            }
+            for (int i = common; i < lenB; i++) {
+                ops.addObject().put("op", "add").put("path", path + "/" + (prefix + i)).set("value", b.get(prefix + i));
+            }
+            return;
+        }
+        ops.addObject().put("op", "replace").put("path", path).set("value", b);
+    }
+
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static JsonNode value(JsonNode op, int i) {
+        if (!op.has("value")) {
+            throw new PatchException("第 " + i + " 条缺少 value");
+        }
+        return op.get("value").deepCopy();
+    }
+
+    private static String from(JsonNode op, int i) {
+        String from = op.path("from").asText(null);
+        if (from == null) {
+            throw new PatchException("第 " + i + " 条缺少 from");
+        }
+        return from;
+    }
+
+    private static JsonNode get(JsonNode doc, String path) {
+        JsonNode node = doc;
+        for (String token : tokens(path)) {
+            if (node.isObject()) {
+                node = node.get(token);
+            } else if (node.isArray()) {
+                int index = index(token, node.size() - 1);
+                node = node.get(index);
+            } else {
+                node = null;
+            }
+            if (node == null) {
+                throw new PatchException("路径不存在：" + path);
+            }
+        }
+        return node;
+    }
+
+    private static JsonNode add(JsonNode doc, String path, JsonNode value) {
+        List<String> tokens = tokens(path);
+        if (tokens.isEmpty()) {
+            return value;
+        }
+        JsonNode parent = get(doc, parentOf(path));
+        String last = tokens.get(tokens.size() - 1);
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            if ("-".equals(last)) {
+                array.add(value);
+            } else {
+                array.insert(index(last, array.size()), value);
+            }
+        } else {
+            throw new PatchException("父节点不是对象或数组：" + path);
+        }
+        return doc;
+    }
+
+    /**
+     * 对象成员原位替换（保持字段顺序），数组元素按下标替换。
+     */
+    private static JsonNode replace(JsonNode doc, String path, JsonNode value) {
+        if (path.isEmpty()) {
+            return value;
+        }
+        get(doc, path);
+        JsonNode parent = get(doc, parentOf(path));
+        List<String> tokens = tokens(path);
+        String last = tokens.get(tokens.size() - 1);
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else {
+            ((ArrayNode) parent).set(index(last, parent.size() - 1), value);
+        }
+        return doc;
+    }
+
+    private static JsonNode remove(JsonNode doc, String path) {
+        List<String> tokens = tokens(path);
+        if (tokens.isEmpty()) {
+            throw new PatchException("不能删除整个文档");
+        }
+        JsonNode parent = get(doc, parentOf(path));
+        String last = tokens.get(tokens.size() - 1);
+        if (parent.isObject()) {
+            if (((ObjectNode) parent).remove(last) == null) {
+                throw new PatchException("路径不存在：" + path);
+            }
+        } else if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            array.remove(index(last, array.size() - 1));
+        } else {
+            throw new PatchException("路径不存在：" + path);
+        }
+        return doc;
+    }
+
+    /**
+     * 数组下标，必须在 [0, max] 内且不带前导零。
+     */
+    private static int index(String token, int max) {
+        if (token.isEmpty() || token.length() > 9 || (token.length() > 1 && token.charAt(0) == '0')) {
+            throw new PatchException("数组下标无效：" + token);
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                throw new PatchException("数组下标无效：" + token);
+            }
+        }
+        int index = Integer.parseInt(token);
+        if (index > max) {
+            throw new PatchException("数组下标越界：" + token);
+        }
+        return index;
+    }
+
+    private static String parentOf(String path) {
+        return path.substring(0, path.lastIndexOf('/'));
+    }
+
+    /**
+     * RFC 6901 JSON Pointer："" 为整个文档，其余必须以 '/' 开头，~1 表示 '/'，~0 表示 '~'。
+     */
+    private static List<String> tokens(String path) {
+        List<String> tokens = new ArrayList<>();
+        if (path.isEmpty()) {
+            return tokens;
+        }
+        if (path.charAt(0) != '/') {
+            throw new PatchException("path 必须以 / 开头：" + path);
+        }
+        for (String raw : path.substring(1).split("/", -1)) {
+            tokens.add(raw.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+}
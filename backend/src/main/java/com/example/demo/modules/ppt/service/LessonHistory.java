@@ -0,0 +1,412 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.LessonRevisionInfo;
+import com.example.demo.model.Lesson;
+import com.example.demo.model.LessonRevision;
+import com.example.demo.repository.LessonRevisionRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 课件历史版本：每次落库（LessonSlideStore 写入）记一个版本。每 snapshotEvery 个版本存一份整份快照，
+ * 中间的版本只存相对上一个版本的 JSON Patch（增量比整份的一半还大时也直接存快照）。
+ * 恢复任意版本 = 最近的快照 + 至多 snapshotEvery - 1 个增量。
+ * <p>
+ * 写回缓冲在同一次落库前合并掉的中间版本不单独保留，历史粒度是一次落库（持续编辑时至少每 maxDelayMs 一次）。
+ * <p>
+ * 保留策略由后台整理线程执行：最近 retainDays 天的版本全部保留；更早的每天只留最后一个版本，
+ * 超过 dailyDays 天的删除（每个课件的最新版本总是保留）。删掉中间版本后，留下的版本按新的前一版本重新计算增量。
+ */
+@Service
+public class LessonHistory {
+
+    private static final Logger log = LoggerFactory.getLogger(LessonHistory.class);
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int BASE_CACHE_SIZE = 256;
+
+    private final LessonRevisionRepository revisionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final int snapshotEvery;
+    private final long retainMs;
+    private final long dailyMs;
+    private final long compactIntervalMs;
+
+    /**
+     * 每个课件最近记录的版本及其文档，下一个版本据此算增量，不必从快照重建
+     */
+    private final Map<Long, Base> lastDocs = new LinkedHashMap<Long, Base>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Base> eldest) {
+            return size() > BASE_CACHE_SIZE;
+        }
+    };
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lesson-history-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong compactedLessons = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastCompactAt;
+
+    public LessonHistory(LessonRevisionRepository revisionRepository,
+                         TransactionTemplate transactionTemplate,
+                         @Value("${lesson.history.enabled:true}") boolean enabled,
+                         @Value("${lesson.history.snapshotEvery:20}") int snapshotEvery,
+                         @Value("${lesson.history.retainDays:30}") int retainDays,
+                         @Value("${lesson.history.dailyDays:180}") int dailyDays,
+                         @Value("${lesson.history.compactIntervalMs:3600000}") long compactIntervalMs) {
+        this.revisionRepository = revisionRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.retainMs = Math.max(1, retainDays) * DAY_MS;
+        this.dailyMs = Math.max(this.retainMs, Math.max(1, dailyDays) * DAY_MS);
+        this.compactIntervalMs = compactIntervalMs;
+    }
+
+    private static final class Base {
+        final long version;
+        final JsonNode doc;
+
+        Base(long version, JsonNode doc) {
+            this.version = version;
+            this.doc = doc;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled && compactIntervalMs > 0) {
+            compactor.scheduleWithFixedDelay(this::compactQuietly,
+                    Math.min(60_000L, compactIntervalMs), compactIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compactor.shutdownNow();
+    }
+
+    /**
+     * 记录一个版本，在调用方（LessonSlideStore）的事务里执行；版本号比已记录的旧时忽略，与最新一条相同时替换它。
+     */
+    public void record(Long lessonId, Long version, String title, String slidesData, String markdownContent) {
+        if (!enabled || version == null) {
+            return;
+        }
+        Long latest = revisionRepository.findLatestVersion(lessonId);
+        if (latest != null && latest > version) {
+            return;
+        }
+        JsonNode doc = document(title, slidesData, markdownContent);
+        if (latest != null && latest.equals(version)) {
+            // 同一版本号的新状态（重命名不改版本号）：与已记录的相同就忽略，否则替换最新的这一条
+            if (doc.equals(baseDoc(lessonId, latest))) {
+                return;
+            }
+            revisionRepository.deleteVersion(lessonId, latest);
+            synchronized (lastDocs) {
+                lastDocs.remove(lessonId);
+            }
+            latest = revisionRepository.findLatestVersion(lessonId);
+        }
+        String content = write(doc);
+        boolean snapshot = true;
+        int depth = 0;
+        if (latest != null) {
+            Integer previousDepth = revisionRepository.findDepth(lessonId, latest);
+            if (previousDepth != null && previousDepth + 1 < snapshotEvery) {
+                JsonNode previous = baseDoc(lessonId, latest);
+                if (previous != null) {
+                    String delta = write(JsonPatch.diff(previous, doc));
+                    if (delta.length() * 2 < content.length()) {
+                        content = delta;
+                        snapshot = false;
+                        depth = previousDepth + 1;
+                    }
+                }
+            }
+        }
+
+        LessonRevision revision = new LessonRevision();
+        revision.setLessonId(lessonId);
+        revision.setVersion(version);
+        revision.setCreatedAt(System.currentTimeMillis());
+        fill(revision, content, snapshot, depth);
+        revisionRepository.save(revision);
+        synchronized (lastDocs) {
+            lastDocs.put(lessonId, new Base(version, doc));
+        }
+        recorded.incrementAndGet();
+        if (snapshot) {
+            snapshots.incrementAndGet();
+        }
+    }
+
+    public List<LessonRevisionInfo> list(Long lessonId, int limit) {
+        return revisionRepository.findInfos(lessonId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * 某个历史版本的内容（id / version / title / slidesData / markdownContent），没有记录返回 null
+     */
+    public Lesson load(Long lessonId, Long version) {
+        JsonNode doc = reconstruct(lessonId, version);
+        if (doc == null) {
+            return null;
+        }
+        Lesson lesson = new Lesson();
+        lesson.setId(lessonId);
+        lesson.setVersion(version);
+        lesson.setTitle(doc.path("title").asText(null));
+        lesson.setMarkdownContent(doc.path("markdownContent").asText(null));
+        lesson.setSlidesData(doc.has("deck") ? write(doc.get("deck")) : doc.path("deckText").asText(null));
+        return lesson;
+    }
+
+    /**
+     * 删除课件的全部历史，在调用方的事务里执行
+     */
+    public void delete(Long lessonId) {
+        revisionRepository.deleteByLessonId(lessonId);
+        synchronized (lastDocs) {
+            lastDocs.remove(lessonId);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("snapshotEvery", snapshotEvery);
+        for (Object[] row : revisionRepository.summarize()) {
+            Map<String, Object> part = new LinkedHashMap<>();
+            part.put("count", row[1]);
+            part.put("bytes", row[2]);
+            m.put(Boolean.TRUE.equals(row[0]) ? "snapshots" : "deltas", part);
+        }
+        m.put("recorded", recorded.get());
+        m.put("recordedSnapshots", snapshots.get());
+        m.put("compactedLessons", compactedLessons.get());
+        m.put("dropped", dropped.get());
+        m.put("lastCompactAt", lastCompactAt);
+        return m;
+    }
+
+    /**
+     * 按保留策略整理所有课件的旧版本，返回删除的版本数
+     */
+    public int compact() {
+        long now = System.currentTimeMillis();
+        long fullCutoff = now - retainMs;
+        long dailyCutoff = now - dailyMs;
+        int removed = 0;
+        Integer orphans = transactionTemplate.execute(status -> revisionRepository.deleteOrphans());
+        removed += orphans == null ? 0 : orphans;
+        for (Long lessonId : revisionRepository.findLessonIdsOlderThan(fullCutoff)) {
+            try {
+                Integer n = transactionTemplate.execute(status -> compactLesson(lessonId, fullCutoff, dailyCutoff));
+                if (n != null && n > 0) {
+                    removed += n;
+                    compactedLessons.incrementAndGet();
+                }
+            } catch (RuntimeException ex) {
+                log.warn("整理课件历史失败 lessonId={}: {}", lessonId, ex.getMessage());
+            }
+        }
+        dropped.addAndGet(removed);
+        lastCompactAt = now;
+        return removed;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException ex) {
+            log.warn("整理课件历史失败: {}", ex.getMessage());
+        }
+    }
+
+    private int compactLesson(Long lessonId, long fullCutoff, long dailyCutoff) {
+        List<LessonRevision> old = revisionRepository.findOlderThan(lessonId, fullCutoff);
+        if (old.size() < 2) {
+            return 0;
+        }
+        Long latest = revisionRepository.findLatestVersion(lessonId);
+        int last = old.size() - 1;
+        boolean[] keep = new boolean[old.size()];
+        boolean dropAny = false;
+        for (int i = 0; i < old.size(); i++) {
+            LessonRevision r = old.get(i);
+            if (i == last || r.getVersion().equals(latest)) {
+                keep[i] = true;
+            } else if (r.getCreatedAt() < dailyCutoff) {
+                keep[i] = false;
+            } else {
+                keep[i] = !day(r.getCreatedAt()).equals(day(old.get(i + 1).getCreatedAt()));
+            }
+            dropAny |= !keep[i];
+        }
+        if (!dropAny) {
+            return 0;
+        }
+
+        // 按版本顺序重建每个旧版本的文档，再对留下的版本重新计算增量
+        List<JsonNode> docs = new ArrayList<>(old.size());
+        JsonNode doc = null;
+        for (int i = 0; i < old.size(); i++) {
+            LessonRevision r = old.get(i);
+            if (Boolean.TRUE.equals(r.getSnapshot())) {
+                doc = read(r.getContent());
+            } else if (doc == null) {
+                doc = reconstruct(lessonId, r.getVersion());
+            } else {
+                doc = JsonPatch.apply(doc, read(r.getContent()));
+            }
+            if (doc == null) {
+                throw new IllegalStateException("无法重建版本 " + r.getVersion());
+            }
+            docs.add(doc);
+        }
+
+        JsonNode previous = null;
+        int depth = 0;
+        List<LessonRevision> drop = new ArrayList<>();
+        for (int i = 0; i < old.size(); i++) {
+            LessonRevision r = old.get(i);
+            if (!keep[i]) {
+                drop.add(r);
+                continue;
+            }
+            String full = write(docs.get(i));
+            // 最早的留存版本必须是快照；边界版本（之后是未整理的近期增量）也存快照，保证近期增量链长度不变
+            if (previous == null || i == last || depth + 1 >= snapshotEvery) {
+                fill(r, full, true, 0);
+                depth = 0;
+            } else {
+                String delta = write(JsonPatch.diff(previous, docs.get(i)));
+                if (delta.length() * 2 < full.length()) {
+                    depth++;
+                    fill(r, delta, false, depth);
+                } else {
+                    fill(r, full, true, 0);
+                    depth = 0;
+                }
+            }
+            previous = docs.get(i);
+        }
+        revisionRepository.deleteAll(drop);
+        return drop.size();
+    }
+
+    /**
+     * 某个版本的文档：最近的快照 + 之后的增量；该版本没有记录时返回 null
+     */
+    private JsonNode reconstruct(Long lessonId, Long version) {
+        List<LessonRevision> base = revisionRepository.findBaseSnapshot(lessonId, version, PageRequest.of(0, 1));
+        if (base.isEmpty()) {
+            return null;
+        }
+        LessonRevision snapshot = base.get(0);
+        JsonNode doc = read(snapshot.getContent());
+        Long at = snapshot.getVersion();
+        for (LessonRevision delta : revisionRepository.findChain(lessonId, snapshot.getVersion(), version)) {
+            doc = Boolean.TRUE.equals(delta.getSnapshot())
+                    ? read(delta.getContent())
+                    : JsonPatch.apply(doc, read(delta.getContent()));
+            at = delta.getVersion();
+        }
+        return at.equals(version) ? doc : null;
+    }
+
+    private JsonNode baseDoc(Long lessonId, Long version) {
+        synchronized (lastDocs) {
+            Base cached = lastDocs.get(lessonId);
+            if (cached != null && cached.version == version) {
+                return cached.doc;
+            }
+        }
+        return reconstruct(lessonId, version);
+    }
+
+    /**
+     * 历史版本的文档：slidesData 能解析成 JSON 时存为 deck（增量按字段计算），否则原样存为 deckText
+     */
+    private JsonNode document(String title, String slidesData, String markdownContent) {
+        ObjectNode doc = objectMapper.createObjectNode();
+        doc.put("title", title);
+        doc.put("markdownContent", markdownContent);
+        JsonNode deck = null;
+        if (slidesData != null) {
+            try {
+                deck = objectMapper.readTree(slidesData);
+            } catch (IOException ignored) {
+            }
+        }
+        if (deck != null && deck.isContainerNode()) {
+            doc.set("deck", deck);
+        } else {
+            doc.put("deckText", slidesData);
+        }
+        return doc;
+    }
+
+    private static void fill(LessonRevision revision, String content, boolean snapshot, int depth) {
+        revision.setContent(content);
+        revision.setSnapshot(snapshot);
+        revision.setDepth(depth);
+        revision.setBytes(content.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static LocalDate day(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private JsonNode read(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String write(JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
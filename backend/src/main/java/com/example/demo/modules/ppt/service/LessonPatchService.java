@@ -0,0 +1,102 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.PatchLessonRequest;
+import com.example.demo.model.Lesson;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+
+/**
+ * 课件增量同步：客户端只上传相对 baseVersion 的 JSON Patch，服务端校验版本、打补丁、版本号 +1。
+ * 补丁打在写回缓冲里的最新状态上，并以 baseVersion 为期望版本提交（见 LessonWriteBehind.stage），并发同步不会互相覆盖；
+ * 写回日志里记的也是这份补丁。
+ * 版本不一致时不打补丁，由客户端退回整份上传（/sync）。
+ * Lesson 开启了动态更新，markdownContent 没变时 UPDATE 里不带这一列。
+ */
+@Service
+public class LessonPatchService {
+
+    public enum Status { APPLIED, NOT_FOUND, CONFLICT }
+
+    public static final class Result {
+        private final Status status;
+        private final long version;
+
+        Result(Status status, long version) {
+            this.status = status;
+            this.version = version;
+        }
+
+        public Status getStatus() { return status; }
+
+        /**
+         * APPLIED 时为新版本号，CONFLICT 时为服务端当前版本号
+         */
+        public long getVersion() { return version; }
+    }
+
+    private final LessonWriteBehind lessonWriteBehind;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LessonPatchService(LessonWriteBehind lessonWriteBehind) {
+        this.lessonWriteBehind = lessonWriteBehind;
+    }
+
+    /**
+     * @throws JsonPatch.PatchException 补丁格式不对或与 baseVersion 的文档对不上（整份补丁不生效）
+     */
+    public Result apply(Long id, PatchLessonRequest req) throws IOException {
+        Lesson lesson = lessonWriteBehind.find(id);
+        if (lesson == null) {
+            return new Result(Status.NOT_FOUND, 0L);
+        }
+        Long storedVersion = lesson.getVersion();
+        long serverVersion = storedVersion == null ? 0L : storedVersion;
+        if (req.getBaseVersion() == null || req.getBaseVersion() != serverVersion) {
+            return new Result(Status.CONFLICT, serverVersion);
+        }
+
+        String baseSlidesData = lesson.getSlidesData();
+        if (req.getPatch() != null && req.getPatch().size() > 0) {
+            JsonNode doc = lesson.getSlidesData() == null ? objectMapper.createObjectNode() : objectMapper.readTree(lesson.getSlidesData());
+            JsonNode patched = JsonPatch.apply(doc, req.getPatch());
+            lesson.setSlidesData(objectMapper.writeValueAsString(patched));
+            String title = patched.path("title").asText(null);
+            if (title != null && !title.trim().isEmpty()) {
+                lesson.setTitle(title.trim());
+            }
+        }
+        if (req.getMarkdownContent() != null) {
+            lesson.setMarkdownContent(req.getMarkdownContent());
+        }
+        lesson.setVersion(serverVersion + 1);
+        lesson.setLastModified(System.currentTimeMillis());
+        if (!lessonWriteBehind.stage(lesson, storedVersion, baseSlidesData, req.getPatch())) {
+            Lesson current = lessonWriteBehind.find(id);
+            if (current == null) {
+                return new Result(Status.NOT_FOUND, 0L);
+            }
+            return new Result(Status.CONFLICT, current.getVersion() == null ? 0L : current.getVersion());
+        }
+        return new Result(Status.APPLIED, lesson.getVersion());
+    }
+
+    /**
+     * 单页更新：等价于对 /slides/{index} 的一条 replace；下标越界同样抛 {@link JsonPatch.PatchException}。
+     * 落库时只有这一页的 t_lesson_slide 行被改写（见 LessonSlideStore）。
+     */
+    public Result replaceSlide(Long id, int index, Long baseVersion, JsonNode slide) throws IOException {
+        if (slide == null || !slide.isObject()) {
+            throw new JsonPatch.PatchException("slide 必须是对象");
+        }
+        ArrayNode patch = objectMapper.createArrayNode();
+        patch.addObject().put("op", "replace").put("path", "/slides/" + index).set("value", slide);
+        PatchLessonRequest req = new PatchLessonRequest();
+        req.setBaseVersion(baseVersion);
+        req.setPatch(patch);
+        return apply(id, req);
+    }
+}
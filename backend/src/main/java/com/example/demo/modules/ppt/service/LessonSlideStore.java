@@ -0,0 +1,331 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.LessonSlideHash;
+import com.example.demo.model.Lesson;
+import com.example.demo.model.LessonSlide;
+import com.example.demo.modules.common.util.CanonicalJson;
+import com.example.demo.repository.LessonRepository;
+import com.example.demo.repository.LessonSlideRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 课件的逐页存储：Lesson 行只存课件头（标题、主题等，"slides" 为空数组）和页数，每页幻灯片一行 t_lesson_slide。
+ * 对外仍以整份课件 JSON 读写（load / save），读取时按页拼回；保存时只比对每页的 hash，只有内容变了的页才 UPDATE。
+ * 区间读取（loadRange）只查需要的那几页。
+ * <p>
+ * slidesData 不是带 slides 数组的 JSON 对象时整份存在 Lesson 行里（slideCount 为 {@link #WHOLE}）；
+ * 启动时把还没检查过的旧格式课件（slideCount 为空）逐个迁移成逐页存储，拆不了的只标成 WHOLE，下次启动不再处理。
+ * 每次写入同时在同一事务里记一个历史版本（见 LessonHistory）。
+ */
+@Service
+public class LessonSlideStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LessonSlideStore.class);
+
+    /**
+     * slideCount 的取值：整份存储，不拆页
+     */
+    static final int WHOLE = -1;
+
+    private static final int MIGRATION_BATCH = 100;
+    private static final int SLIDE_ID_MAX = 64;
+
+    private final LessonRepository lessonRepository;
+    private final LessonSlideRepository lessonSlideRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final LessonHistory lessonHistory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LessonSlideStore(LessonRepository lessonRepository, LessonSlideRepository lessonSlideRepository,
+                            TransactionTemplate transactionTemplate, LessonHistory lessonHistory) {
+        this.lessonRepository = lessonRepository;
+        this.lessonSlideRepository = lessonSlideRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.lessonHistory = lessonHistory;
+    }
+
+    /**
+     * 课件头 + 一段幻灯片（每页是原样的 JSON 文本）
+     */
+    public static final class SlideRange {
+        private final Long version;
+        private final String title;
+        private final int total;
+        private final int offset;
+        private final ObjectNode deck;
+        private final List<String> slides;
+
+        SlideRange(Long version, String title, int total, int offset, ObjectNode deck, List<String> slides) {
+            this.version = version;
+            this.title = title;
+            this.total = total;
+            this.offset = offset;
+            this.deck = deck;
+            this.slides = slides;
+        }
+
+        public Long getVersion() { return version; }
+        public String getTitle() { return title; }
+        public int getTotal() { return total; }
+        public int getOffset() { return offset; }
+
+        /**
+         * 课件头（不含 slides）
+         */
+        public ObjectNode getDeck() { return deck; }
+        public List<String> getSlides() { return slides; }
+    }
+
+    private static final class Split {
+        final String header;
+        final List<String> slides = new ArrayList<>();
+        final List<String> slideIds = new ArrayList<>();
+
+        Split(String header) {
+            this.header = header;
+        }
+    }
+
+    @PostConstruct
+    public void migrate() {
+        long after = Long.MIN_VALUE;
+        int migrated = 0;
+        while (true) {
+            List<Long> ids = lessonRepository.findUnsplitIds(after, PageRequest.of(0, MIGRATION_BATCH));
+            if (ids.isEmpty()) {
+                break;
+            }
+            for (Long id : ids) {
+                Boolean split = transactionTemplate.execute(status -> {
+                    Lesson row = lessonRepository.findById(id).orElse(null);
+                    if (row == null) {
+                        return false;
+                    }
+                    if (split(row.getSlidesData()) == null) {
+                        // 拆不了的不重写 LOB、不记历史版本，只做标记
+                        lessonRepository.updateSlideCount(id, WHOLE);
+                        return false;
+                    }
+                    return write(row);
+                });
+                if (Boolean.TRUE.equals(split)) {
+                    migrated++;
+                }
+            }
+            after = ids.get(ids.size() - 1);
+        }
+        if (migrated > 0) {
+            log.info("已将 {} 个课件迁移为逐页存储", migrated);
+        }
+    }
+
+    /**
+     * 整份课件（slidesData 为完整 JSON），不存在返回 null
+     */
+    public Lesson load(Long id) {
+        Lesson row = lessonRepository.findById(id).orElse(null);
+        if (row == null || !isSplit(row)) {
+            return row;
+        }
+        List<String> slides = lessonSlideRepository.findContents(id);
+        Lesson full = copyMeta(row);
+        full.setSlidesData(assemble(row.getSlidesData(), slides));
+        return full;
+    }
+
+    /**
+     * 第 [offset, offset + limit) 页，不存在返回 null
+     */
+    public SlideRange loadRange(Long id, int offset, int limit) {
+        Lesson row = lessonRepository.findById(id).orElse(null);
+        if (row == null) {
+            return null;
+        }
+        if (!isSplit(row)) {
+            return slice(row, offset, limit);
+        }
+        int total = row.getSlideCount();
+        int from = Math.min(offset, total);
+        int to = (int) Math.min((long) from + limit, total);
+        List<String> slides = from < to
+                ? lessonSlideRepository.findContentRange(id, from, to)
+                : Collections.<String>emptyList();
+        return new SlideRange(row.getVersion(), row.getTitle(), total, from, header(row.getSlidesData()), slides);
+    }
+
+    /**
+     * 从整份课件里截一段（写回缓冲里还没落库的课件、旧格式课件用）
+     */
+    public SlideRange slice(Lesson full, int offset, int limit) {
+        JsonNode doc = readOrNull(full.getSlidesData());
+        JsonNode slides = doc == null ? null : doc.get("slides");
+        if (slides == null || !slides.isArray()) {
+            return new SlideRange(full.getVersion(), full.getTitle(), 0, 0,
+                    doc != null && doc.isObject() ? (ObjectNode) doc : objectMapper.createObjectNode(),
+                    Collections.<String>emptyList());
+        }
+        int total = slides.size();
+        int from = Math.min(offset, total);
+        int to = (int) Math.min((long) from + limit, total);
+        List<String> out = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            out.add(writeString(slides.get(i)));
+        }
+        ObjectNode deck = (ObjectNode) doc;
+        deck.remove("slides");
+        return new SlideRange(full.getVersion(), full.getTitle(), total, from, deck, out);
+    }
+
+    /**
+     * 写入整份课件：课件头一行，幻灯片只写新增的和内容变了的页，多出来的页删掉。
+     */
+    public void save(Lesson full) {
+        transactionTemplate.execute(status -> write(full));
+    }
+
+    public void delete(Long id) {
+        transactionTemplate.execute(status -> {
+            lessonSlideRepository.deleteFrom(id, 0);
+            lessonHistory.delete(id);
+            if (lessonRepository.existsById(id)) {
+                lessonRepository.deleteById(id);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return 是否按逐页存储写入
+     */
+    private boolean write(Lesson full) {
+        Long id = full.getId();
+        lessonHistory.record(id, full.getVersion(), full.getTitle(), full.getSlidesData(), full.getMarkdownContent());
+        Lesson row = copyMeta(full);
+        Split split = split(full.getSlidesData());
+        if (split == null) {
+            row.setSlidesData(full.getSlidesData());
+            row.setSlideCount(WHOLE);
+            lessonSlideRepository.deleteFrom(id, 0);
+            lessonRepository.save(row);
+            return false;
+        }
+
+        Map<Integer, String> stored = new HashMap<>();
+        for (LessonSlideHash h : lessonSlideRepository.findHashes(id)) {
+            stored.put(h.getPosition(), h.getHash());
+        }
+        for (int i = 0; i < split.slides.size(); i++) {
+            String content = split.slides.get(i);
+            String hash = CanonicalJson.sha256Hex(content.getBytes(StandardCharsets.UTF_8));
+            String old = stored.get(i);
+            if (old == null) {
+                LessonSlide slide = new LessonSlide();
+                slide.setLessonId(id);
+                slide.setPosition(i);
+                slide.setSlideId(split.slideIds.get(i));
+                slide.setHash(hash);
+                slide.setContent(content);
+                lessonSlideRepository.save(slide);
+            } else if (!old.equals(hash)) {
+                lessonSlideRepository.updateSlide(id, i, split.slideIds.get(i), hash, content);
+            }
+        }
+        if (stored.size() > split.slides.size()) {
+            lessonSlideRepository.deleteFrom(id, split.slides.size());
+        }
+        row.setSlidesData(split.header);
+        row.setSlideCount(split.slides.size());
+        lessonRepository.save(row);
+        return true;
+    }
+
+    /**
+     * 拆成课件头（slides 原位置留空数组，拼回时字段顺序不变）和逐页 JSON；不是带 slides 数组的对象时返回 null
+     */
+    private Split split(String slidesData) {
+        JsonNode doc = readOrNull(slidesData);
+        if (doc == null || !doc.isObject() || !doc.path("slides").isArray()) {
+            return null;
+        }
+        JsonNode slides = doc.get("slides");
+        ((ObjectNode) doc).putArray("slides");
+        Split split = new Split(writeString(doc));
+        for (JsonNode slide : slides) {
+            split.slides.add(writeString(slide));
+            String slideId = slide.path("id").asText(null);
+            split.slideIds.add(slideId == null || slideId.length() > SLIDE_ID_MAX ? null : slideId);
+        }
+        return split;
+    }
+
+    private String assemble(String header, List<String> slides) {
+        JsonNode doc = readOrNull(header);
+        ObjectNode deck = doc != null && doc.isObject() ? (ObjectNode) doc : objectMapper.createObjectNode();
+        ArrayNode array = deck.putArray("slides");
+        for (String slide : slides) {
+            array.addRawValue(new RawValue(slide));
+        }
+        return writeString(deck);
+    }
+
+    private ObjectNode header(String header) {
+        JsonNode doc = readOrNull(header);
+        ObjectNode deck = doc != null && doc.isObject() ? (ObjectNode) doc : objectMapper.createObjectNode();
+        deck.remove("slides");
+        return deck;
+    }
+
+    private JsonNode readOrNull(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String writeString(JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isSplit(Lesson row) {
+        return row.getSlideCount() != null && row.getSlideCount() >= 0;
+    }
+
+    private static Lesson copyMeta(Lesson src) {
+        Lesson l = new Lesson();
+        l.setId(src.getId());
+        l.setTitle(src.getTitle());
+        l.setLastModified(src.getLastModified());
+        l.setMarkdownContent(src.getMarkdownContent());
+        l.setVersion(src.getVersion());
+        l.setSlidesData(src.getSlidesData());
+        l.setSlideCount(src.getSlideCount());
+        return l;
+    }
+}
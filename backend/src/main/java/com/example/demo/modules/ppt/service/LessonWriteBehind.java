@@ -0,0 +1,659 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.LessonSummary;
+import com.example.demo.model.Lesson;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 课件自动保存的写回缓冲：编辑器几乎每次改动都会同步一次，这里在内存里保留每个课件的最新状态，
+ * 版本校验和版本号 +1 在内存里完成并立即应答；课件停止编辑 idleMs 后（或距第一次未落库的修改超过 maxDelayMs）才写一次库，
+ * 中间的多次同步合并成一次 UPDATE。
+ * <p>
+ * 每次应答前先把这次同步追加到本地日志（一行一个 JSON，只记相对上一个状态的 JSON Patch，见 stageLine），
+ * 进程崩溃后启动时重放日志里比数据库新的状态；没有待落库的修改时日志被清空，日志过大时只把仍未落库的课件以整份状态重写一遍。
+ * 刚落库的状态在日志里再保留 journalRetainMs：H2 文件库的提交是延迟写盘的，落库后立刻崩溃仍可能丢，重放时按 (version, lastModified) 跳过已在库里的。
+ * 关闭 enabled 时仍走同样的版本校验，但每次直接写库、不写日志。
+ */
+@Service
+public class LessonWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(LessonWriteBehind.class);
+
+    private final LessonSlideStore lessonSlideStore;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final long idleMs;
+    private final long maxDelayMs;
+    private final long evictAfterMs;
+    private final long checkpointBytes;
+    private final long retainMs;
+    private final boolean fsync;
+    private final Path journalPath;
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 追加日志和重写日志互斥
+     */
+    private final Object journalLock = new Object();
+    /**
+     * 定时落库与关闭时的落库不并行执行
+     */
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lesson-write-behind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private OutputStream journal;
+    private long journalBytes;
+
+    private final AtomicLong staged = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong flushFailed = new AtomicLong();
+    private final AtomicLong journalFailed = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public LessonWriteBehind(LessonSlideStore lessonSlideStore,
+                             @Value("${lesson.writeBehind.enabled:true}") boolean enabled,
+                             @Value("${lesson.writeBehind.idleMs:2000}") long idleMs,
+                             @Value("${lesson.writeBehind.maxDelayMs:10000}") long maxDelayMs,
+                             @Value("${lesson.writeBehind.evictAfterMs:300000}") long evictAfterMs,
+                             @Value("${lesson.writeBehind.checkpointBytes:67108864}") long checkpointBytes,
+                             @Value("${lesson.writeBehind.journalRetainMs:5000}") long retainMs,
+                             @Value("${lesson.writeBehind.fsync:false}") boolean fsync,
+                             @Value("${lesson.writeBehind.journalPath:./backend/data/lesson-journal.ndjson}") String journalPath) {
+        this.lessonSlideStore = lessonSlideStore;
+        this.enabled = enabled;
+        this.idleMs = Math.max(0L, idleMs);
+        this.maxDelayMs = Math.max(this.idleMs, maxDelayMs);
+        this.evictAfterMs = Math.max(this.maxDelayMs, evictAfterMs);
+        this.checkpointBytes = checkpointBytes;
+        this.retainMs = Math.max(0L, retainMs);
+        this.fsync = fsync;
+        this.journalPath = Paths.get(journalPath);
+    }
+
+    private static final class Entry {
+        /**
+         * 最近一次确认的状态（不可变副本）；null 表示以数据库为准
+         */
+        volatile Lesson state;
+        /**
+         * state 还没写进数据库
+         */
+        volatile boolean dirty;
+        /**
+         * 已被淘汰或删除，持有这个 Entry 的线程要重新取
+         */
+        boolean removed;
+        long firstDirtyAt;
+        long lastWriteAt;
+        /**
+         * 最近一次落库的时间，此后 retainMs 内日志里仍保留这份状态
+         */
+        volatile long flushedAt;
+
+        boolean retained(long now, long retainMs) {
+            return dirty || now - flushedAt < retainMs;
+        }
+    }
+
+    private static final class Summary implements LessonSummary {
+        private final Long id;
+        private final String title;
+        private final Long lastModified;
+
+        Summary(Long id, String title, Long lastModified) {
+            this.id = id;
+            this.title = title;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public Long getId() { return id; }
+
+        @Override
+        public String getTitle() { return title; }
+
+        @Override
+        public Long getLastModified() { return lastModified; }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (enabled) {
+            Path dir = journalPath.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            replay();
+            // 重放写回的课件也要等 retainMs 后才从日志里去掉，由第一次 checkpoint 重写
+            journal = new FileOutputStream(journalPath.toFile(), true);
+            journalBytes = Files.size(journalPath);
+        }
+        long tick = Math.max(100L, Math.min(1000L, idleMs / 4));
+        flusher.scheduleWithFixedDelay(() -> flushDue(false), tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushDue(true);
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ignored) {
+                }
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * 课件当前状态：有缓冲时返回缓冲里的最新状态，否则读库。返回副本，调用方可以随意修改。
+     */
+    public Lesson find(Long id) {
+        Entry e = entries.get(id);
+        if (e != null) {
+            synchronized (e) {
+                if (!e.removed && e.state != null) {
+                    return copy(e.state);
+                }
+            }
+        }
+        return lessonSlideStore.load(id);
+    }
+
+    /**
+     * 第 [offset, offset + limit) 页：有缓冲时从缓冲里的最新状态截取，否则只查这几页。课件不存在返回 null。
+     */
+    public LessonSlideStore.SlideRange slides(Long id, int offset, int limit) {
+        Entry e = entries.get(id);
+        if (e != null) {
+            Lesson state = null;
+            synchronized (e) {
+                if (!e.removed) {
+                    state = e.state;
+                }
+            }
+            if (state != null) {
+                return lessonSlideStore.slice(state, offset, limit);
+            }
+        }
+        return lessonSlideStore.loadRange(id, offset, limit);
+    }
+
+    /**
+     * 当前版本等于 expectedVersion（课件不存在时为 null）才接受 next，否则返回 false、什么都不写。
+     * 返回 true 时 next 已经写进日志（或已直接落库），之后的 find 都能看到。
+     */
+    public boolean stage(Lesson next, Long expectedVersion) {
+        return stage(next, expectedVersion, null, null);
+    }
+
+    /**
+     * 同上；slidesPatch 是 next 的 slidesData 相对 baseSlidesData 的 JSON Patch（增量同步时客户端传来的），
+     * 当前状态的 slidesData 就是 baseSlidesData 时日志里直接记这份补丁，不必再算一遍差异。
+     */
+    public boolean stage(Lesson next, Long expectedVersion, String baseSlidesData, JsonNode slidesPatch) {
+        Long id = next.getId();
+        while (true) {
+            Entry e = entries.computeIfAbsent(id, k -> new Entry());
+            synchronized (e) {
+                if (e.removed) {
+                    continue;
+                }
+                if (e.state == null) {
+                    e.state = lessonSlideStore.load(id);
+                }
+                Long current = e.state == null ? null : e.state.getVersion();
+                if (!Objects.equals(current, expectedVersion)) {
+                    conflicts.incrementAndGet();
+                    return false;
+                }
+                Lesson snapshot = copy(next);
+                long now = System.currentTimeMillis();
+                Lesson previous = e.state;
+                // 同一课件的 lastModified 严格递增：重命名不改版本号，重放时靠 (version, lastModified) 判断日志里的状态是否比库里新
+                if (previous != null && previous.getLastModified() != null
+                        && (snapshot.getLastModified() == null || snapshot.getLastModified() <= previous.getLastModified())) {
+                    snapshot.setLastModified(previous.getLastModified() + 1);
+                }
+                boolean wasDirty = e.dirty;
+                // 先挂上新状态再写日志：并发的日志重写要么带上它，要么排在这行追加之前
+                e.state = snapshot;
+                e.dirty = true;
+                if (!enabled || !appendLine(stageLine(previous, snapshot, baseSlidesData, slidesPatch))) {
+                    try {
+                        lessonSlideStore.save(snapshot);
+                    } catch (RuntimeException ex) {
+                        e.state = previous;
+                        e.dirty = wasDirty;
+                        throw ex;
+                    }
+                    flushed.incrementAndGet();
+                    e.dirty = false;
+                } else if (!wasDirty) {
+                    e.firstDirtyAt = now;
+                }
+                e.lastWriteAt = now;
+                staged.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 删除课件：丢弃缓冲、记一条删除日志（重放时不会把它写回来）并立即删库。
+     */
+    public void delete(Long id) {
+        while (true) {
+            Entry e = entries.computeIfAbsent(id, k -> new Entry());
+            synchronized (e) {
+                if (e.removed) {
+                    continue;
+                }
+                e.removed = true;
+                e.state = null;
+                e.dirty = false;
+                entries.remove(id, e);
+                if (enabled) {
+                    ObjectNode line = objectMapper.createObjectNode();
+                    line.put("op", "delete");
+                    line.put("id", id);
+                    appendLine(line);
+                }
+                lessonSlideStore.delete(id);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 还没落库的课件的摘要（标题、修改时间），列表查询时盖在库里的摘要上，不必为了列表先落库。
+     */
+    public List<LessonSummary> pending() {
+        List<LessonSummary> out = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            Lesson state = e.state;
+            if (e.dirty && state != null) {
+                out.add(new Summary(state.getId(), state.getTitle(), state.getLastModified()));
+            }
+        }
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        int dirty = 0;
+        for (Entry e : entries.values()) {
+            if (e.dirty) {
+                dirty++;
+            }
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("buffered", entries.size());
+        m.put("dirty", dirty);
+        m.put("staged", staged.get());
+        m.put("conflicts", conflicts.get());
+        m.put("flushed", flushed.get());
+        m.put("flushFailed", flushFailed.get());
+        m.put("journalFailed", journalFailed.get());
+        m.put("replayed", replayed.get());
+        synchronized (journalLock) {
+            m.put("journalBytes", journalBytes);
+        }
+        return m;
+    }
+
+    private void flushDue(boolean force) {
+        synchronized (flushLock) {
+            long now = System.currentTimeMillis();
+            boolean pending = false;
+            for (Map.Entry<Long, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                synchronized (e) {
+                    if (e.removed) {
+                        continue;
+                    }
+                    if (e.dirty) {
+                        if (force || now - e.lastWriteAt >= idleMs || now - e.firstDirtyAt >= maxDelayMs) {
+                            try {
+                                lessonSlideStore.save(e.state);
+                                e.dirty = false;
+                                e.flushedAt = now;
+                                flushed.incrementAndGet();
+                            } catch (RuntimeException ex) {
+                                flushFailed.incrementAndGet();
+                                log.warn("课件写回失败 lessonId={}: {}", me.getKey(), ex.getMessage());
+                            }
+                        }
+                    }
+                    if (e.retained(now, retainMs)) {
+                        pending = true;
+                    } else if (now - e.lastWriteAt >= evictAfterMs) {
+                        e.removed = true;
+                        entries.remove(me.getKey(), e);
+                    }
+                }
+            }
+            if (enabled) {
+                boolean rewrite;
+                synchronized (journalLock) {
+                    rewrite = journalBytes > 0 && (!pending || journalBytes > checkpointBytes);
+                }
+                if (rewrite) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    /**
+     * 用仍未落库（或刚落库不久）的状态重写日志（没有就清空）。只读 volatile 字段、不拿 Entry 锁，避免与“Entry 锁 -> 日志锁”的追加顺序死锁。
+     */
+    private void checkpoint() {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+            try {
+                long bytes = 0L;
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    for (Entry e : entries.values()) {
+                        Lesson state = e.state;
+                        if (state != null && e.retained(now, retainMs)) {
+                            byte[] line = toLine(putLine(state));
+                            out.write(line);
+                            bytes += line.length;
+                        }
+                    }
+                }
+                journal.close();
+                Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journal = new FileOutputStream(journalPath.toFile(), true);
+                journalBytes = bytes;
+            } catch (IOException ex) {
+                journalFailed.incrementAndGet();
+                log.warn("重写课件日志失败: {}", ex.getMessage());
+                try {
+                    journal = new FileOutputStream(journalPath.toFile(), true);
+                } catch (IOException reopen) {
+                    journal = null;
+                    log.error("课件日志无法打开，之后的同步改为直接写库: {}", reopen.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次同步的日志行：与上一个状态相比只记 slidesData 的 JSON Patch 和变了的 markdownContent，
+     * 日志的写入量与改动大小成正比；没有上一个状态、slidesData 不是 JSON，或补丁不比整份小一半时记整份。
+     */
+    private ObjectNode stageLine(Lesson previous, Lesson next, String baseSlidesData, JsonNode slidesPatch) {
+        if (previous == null) {
+            return putLine(next);
+        }
+        JsonNode patch;
+        if (Objects.equals(previous.getSlidesData(), next.getSlidesData())) {
+            patch = objectMapper.createArrayNode();
+        } else if (slidesPatch != null && Objects.equals(previous.getSlidesData(), baseSlidesData)) {
+            patch = slidesPatch;
+        } else {
+            JsonNode from = readOrNull(previous.getSlidesData());
+            JsonNode to = readOrNull(next.getSlidesData());
+            if (from == null || to == null) {
+                return putLine(next);
+            }
+            patch = JsonPatch.diff(from, to);
+        }
+        String patchText;
+        try {
+            patchText = objectMapper.writeValueAsString(patch);
+        } catch (IOException ex) {
+            return putLine(next);
+        }
+        if (next.getSlidesData() != null && patchText.length() * 2L >= next.getSlidesData().length()) {
+            return putLine(next);
+        }
+        ObjectNode line = objectMapper.createObjectNode();
+        line.put("op", "patch");
+        line.put("id", next.getId());
+        line.put("version", next.getVersion());
+        line.put("title", next.getTitle());
+        line.put("lastModified", next.getLastModified());
+        line.put("baseVersion", previous.getVersion());
+        line.put("baseModified", previous.getLastModified());
+        line.putRawValue("patch", new RawValue(patchText));
+        if (!Objects.equals(previous.getMarkdownContent(), next.getMarkdownContent())) {
+            line.put("markdownContent", next.getMarkdownContent());
+        }
+        return line;
+    }
+
+    /**
+     * 写不进日志时返回 false，由调用方改为直接写库
+     */
+    private boolean appendLine(ObjectNode node) {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return false;
+            }
+            try {
+                byte[] line = toLine(node);
+                journal.write(line);
+                if (fsync) {
+                    ((FileOutputStream) journal).getFD().sync();
+                }
+                journalBytes += line.length;
+                return true;
+            } catch (IOException ex) {
+                journalFailed.incrementAndGet();
+                log.warn("写课件日志失败: {}", ex.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 启动时重放：按顺序回放日志，整份记录直接取用，增量记录打在同一课件的上一个状态上
+     * （日志里没有时以库里的为准：重写日志时没带上的课件都已落库），最后把比库里新的（见 newer）写回，删除记录再删一次。
+     * 进程在写一行的中途被杀时最后一行不完整，跳过即可（那次同步没有应答）。
+     * 增量的基准对不上时（日志损坏）跳过这一条，这个课件停在能还原出的最后一个状态。
+     */
+    private void replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        Map<Long, Lesson> states = new LinkedHashMap<>();
+        Map<Long, Lesson> storedStates = new HashMap<>();
+        Set<Long> deleted = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonNode node;
+                try {
+                    node = objectMapper.readTree(line);
+                } catch (IOException ex) {
+                    log.warn("跳过不完整的课件日志行: {}", ex.getMessage());
+                    continue;
+                }
+                Long id = node.path("id").asLong();
+                String op = node.path("op").asText();
+                if ("delete".equals(op)) {
+                    states.remove(id);
+                    deleted.add(id);
+                } else if ("put".equals(op)) {
+                    states.put(id, fromLine(node, node.path("slidesData").asText(null), node.path("markdownContent").asText(null)));
+                    deleted.remove(id);
+                } else if ("patch".equals(op) && !deleted.contains(id)) {
+                    Lesson base = states.containsKey(id)
+                            ? states.get(id)
+                            : storedStates.computeIfAbsent(id, lessonSlideStore::load);
+                    Lesson next = applyLine(base, node);
+                    if (next != null) {
+                        states.put(id, next);
+                    }
+                }
+            }
+        }
+        for (Long id : deleted) {
+            lessonSlideStore.delete(id);
+        }
+        for (Map.Entry<Long, Lesson> me : states.entrySet()) {
+            Long id = me.getKey();
+            Lesson lesson = me.getValue();
+            Lesson stored = storedStates.containsKey(id) ? storedStates.get(id) : lessonSlideStore.load(id);
+            if (newer(lesson.getVersion(), lesson.getLastModified(), stored)) {
+                lessonSlideStore.save(lesson);
+                replayed.incrementAndGet();
+                Entry e = new Entry();
+                e.state = lesson;
+                e.lastWriteAt = e.flushedAt = System.currentTimeMillis();
+                entries.put(id, e);
+            }
+        }
+        if (replayed.get() > 0) {
+            log.info("课件日志重放完成，写回 {} 个课件", replayed.get());
+        }
+    }
+
+    /**
+     * 把一条增量记录打在 base 上；base 已经不比这条旧（重写日志时已经带上了这次同步）或基准对不上时返回 null
+     */
+    private Lesson applyLine(Lesson base, JsonNode node) {
+        long version = node.path("version").asLong();
+        long lastModified = node.path("lastModified").asLong();
+        if (base == null || !newer(version, lastModified, base)) {
+            return null;
+        }
+        if (!Objects.equals(base.getVersion(), longOrNull(node.get("baseVersion")))
+                || !Objects.equals(base.getLastModified(), longOrNull(node.get("baseModified")))) {
+            log.warn("课件日志增量的基准对不上，跳过 lessonId={} version={}", base.getId(), version);
+            return null;
+        }
+        JsonNode patch = node.path("patch");
+        String slidesData = base.getSlidesData();
+        if (patch.size() > 0) {
+            try {
+                JsonNode doc = slidesData == null ? objectMapper.createObjectNode() : objectMapper.readTree(slidesData);
+                slidesData = objectMapper.writeValueAsString(JsonPatch.apply(doc, patch));
+            } catch (IOException | JsonPatch.PatchException ex) {
+                log.warn("课件日志增量无法应用，跳过 lessonId={} version={}: {}", base.getId(), version, ex.getMessage());
+                return null;
+            }
+        }
+        String markdown = node.has("markdownContent") ? node.get("markdownContent").asText(null) : base.getMarkdownContent();
+        return fromLine(node, slidesData, markdown);
+    }
+
+    private static Long longOrNull(JsonNode value) {
+        return value == null || value.isNull() ? null : value.asLong();
+    }
+
+    private static Lesson fromLine(JsonNode node, String slidesData, String markdownContent) {
+        Lesson lesson = new Lesson();
+        lesson.setId(node.path("id").asLong());
+        lesson.setTitle(node.path("title").asText(null));
+        lesson.setLastModified(node.path("lastModified").asLong());
+        lesson.setSlidesData(slidesData);
+        lesson.setMarkdownContent(markdownContent);
+        lesson.setVersion(node.path("version").asLong());
+        return lesson;
+    }
+
+    /**
+     * (version, lastModified) 比库里的新：版本号相同时（重命名）比较 lastModified
+     */
+    private static boolean newer(long version, long lastModified, Lesson stored) {
+        if (stored == null || stored.getVersion() == null || stored.getVersion() < version) {
+            return true;
+        }
+        return stored.getVersion() == version
+                && (stored.getLastModified() == null || stored.getLastModified() < lastModified);
+    }
+
+    private ObjectNode putLine(Lesson state) {
+        ObjectNode line = objectMapper.createObjectNode();
+        line.put("op", "put");
+        line.put("id", state.getId());
+        line.put("version", state.getVersion());
+        line.put("title", state.getTitle());
+        line.put("lastModified", state.getLastModified());
+        line.put("slidesData", state.getSlidesData());
+        line.put("markdownContent", state.getMarkdownContent());
+        return line;
+    }
+
+    private JsonNode readOrNull(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] toLine(ObjectNode node) throws IOException {
+        return (objectMapper.writeValueAsString(node) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Lesson copy(Lesson src) {
+        Lesson l = new Lesson();
+        l.setId(src.getId());
+        l.setTitle(src.getTitle());
+        l.setLastModified(src.getLastModified());
+        l.setSlidesData(src.getSlidesData());
+        l.setMarkdownContent(src.getMarkdownContent());
+        l.setVersion(src.getVersion());
+        return l;
+    }
+}
@@ -129,13 +129,15 @@ public class ResourceRecommendController {
     }
     
     /**
-     * 健康检查
+     * 健康检查（含 Python 服务熔断状态）
      */
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
         Map<String, Object> result = new HashMap<>();
-        result.put("status", "ok");
+        Map<String, Object> upstream = pythonResourceService.upstreamStatus();
+        result.put("status", "CLOSED".equals(upstream.get("state")) ? "ok" : "degraded");
         result.put("service", "resource-recommendation");
+        result.put("upstream", upstream);
         return ResponseEntity.ok(result);
     }
 }
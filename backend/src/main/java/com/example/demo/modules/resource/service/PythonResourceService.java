@@ -1,5 +1,9 @@
 package com.example.demo.modules.resource.service;
 
+import com.example.demo.modules.common.resilience.CircuitBreaker;
+import com.example.demo.modules.common.resilience.CircuitBreakers;
+import com.example.demo.modules.common.resilience.CircuitOpenException;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
@@ -8,42 +12,80 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.RestClientException;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Service
 public class PythonResourceService {
     
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
+    
+    /**
+     * Python 服务熔断器：打开期间所有调用立即返回错误，不再占着线程等超时
+     */
+    private final CircuitBreaker breaker;
     
     @Value("${python.service.url:http://localhost:5000}")
     private String pythonServiceUrl;
     
-    @Value("${python.service.timeout:30000}")
-    private int timeout;
+    @Value("${python.search.fallbackCache.maxEntries:200}")
+    private int searchCacheMaxEntries;
+    
+    @Value("${python.search.fallbackCache.maxAgeMs:86400000}")
+    private long searchCacheMaxAgeMs;
     
     /**
-     * 调用 Python 服务搜索教学资源
+     * 最近成功的搜索结果（LRU），只在 Python 服务不可用时作为降级结果返回
+     */
+    private final LinkedHashMap<String, CachedSearch> searchCache = new LinkedHashMap<String, CachedSearch>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSearch> eldest) {
+            return size() > searchCacheMaxEntries;
+        }
+    };
+    
+    /**
+     * 超时（python.service.timeout）由共享连接池的 pythonRestTemplate 统一生效
+     */
+    public PythonResourceService(@Qualifier("pythonRestTemplate") RestTemplate restTemplate,
+                                 CircuitBreakers circuitBreakers) {
+        this.restTemplate = restTemplate;
+        this.breaker = circuitBreakers.get(CircuitBreakers.PYTHON);
+    }
+    
+    /**
+     * 调用 Python 服务搜索教学资源；服务不可用时返回最近一次相同搜索的缓存结果（带 stale 标记）
      */
     public Map<String, Object> searchResources(String query, Integer limit, Integer page) {
         String url = pythonServiceUrl + "/api/v1/resources/search";
         
         // 构建查询参数
         String urlWithParams = url + "?query=" + query + "&limit=" + limit + "&page=" + page;
+        String cacheKey = query + "|" + limit + "|" + page;
         
         try {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             
             HttpEntity<Void> entity = new HttpEntity<>(headers);
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+            ResponseEntity<Map<String, Object>> response = breaker.execute(() -> restTemplate.exchange(
                 urlWithParams, 
                 HttpMethod.GET, 
                 entity, 
                 new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
+            ));
             
-            return response.getBody() != null ? response.getBody() : new HashMap<>();
+            Map<String, Object> body = response.getBody() != null ? response.getBody() : new HashMap<>();
+            rememberSearch(cacheKey, body);
+            return body;
+        } catch (CircuitOpenException e) {
+            Map<String, Object> cached = cachedSearch(cacheKey);
+            return cached != null ? cached : unavailable(e);
         } catch (RestClientException e) {
+            Map<String, Object> cached = cachedSearch(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
             error.put("status", "error");
@@ -66,9 +108,11 @@ public class PythonResourceService {
             
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.postForEntity(url, entity, Map.class);
+            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) breaker.execute(() -> restTemplate.postForEntity(url, entity, Map.class));
             
             return response.getBody() != null ? response.getBody() : new HashMap<>();
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -93,9 +137,11 @@ public class PythonResourceService {
             
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.postForEntity(url, entity, Map.class);
+            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) breaker.execute(() -> restTemplate.postForEntity(url, entity, Map.class));
             
             return response.getBody() != null ? response.getBody() : new HashMap<>();
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -115,12 +161,14 @@ public class PythonResourceService {
             headers.setContentType(MediaType.APPLICATION_JSON);
             
             HttpEntity<Void> entity = new HttpEntity<>(headers);
-            restTemplate.exchange(url, HttpMethod.DELETE, entity, Void.class);
+            breaker.execute(() -> restTemplate.exchange(url, HttpMethod.DELETE, entity, Void.class));
             
             Map<String, Object> result = new HashMap<>();
             result.put("status", "success");
             result.put("message", "取消收藏成功");
             return result;
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -141,9 +189,11 @@ public class PythonResourceService {
             
             HttpEntity<Void> entity = new HttpEntity<>(headers);
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.exchange(url, HttpMethod.GET, entity, Map.class);
+            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) breaker.execute(() -> restTemplate.exchange(url, HttpMethod.GET, entity, Map.class));
             
             return response.getBody() != null ? response.getBody() : new HashMap<>();
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -168,9 +218,11 @@ public class PythonResourceService {
             
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.postForEntity(url, entity, Map.class);
+            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) breaker.execute(() -> restTemplate.postForEntity(url, entity, Map.class));
             
             return response.getBody() != null ? response.getBody() : new HashMap<>();
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -190,12 +242,14 @@ public class PythonResourceService {
             headers.setContentType(MediaType.APPLICATION_JSON);
             
             HttpEntity<Void> entity = new HttpEntity<>(headers);
-            restTemplate.exchange(url, HttpMethod.DELETE, entity, Void.class);
+            breaker.execute(() -> restTemplate.exchange(url, HttpMethod.DELETE, entity, Void.class));
             
             Map<String, Object> result = new HashMap<>();
             result.put("status", "success");
             result.put("message", "取消收藏成功");
             return result;
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -216,9 +270,11 @@ public class PythonResourceService {
             
             HttpEntity<Void> entity = new HttpEntity<>(headers);
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.exchange(url, HttpMethod.GET, entity, Map.class);
+            ResponseEntity<Map<String, Object>> response = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) breaker.execute(() -> restTemplate.exchange(url, HttpMethod.GET, entity, Map.class));
             
             return response.getBody() != null ? response.getBody() : new HashMap<>();
+        } catch (CircuitOpenException e) {
+            return unavailable(e);
         } catch (RestClientException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "调用 Python 服务失败: " + e.getMessage());
@@ -226,5 +282,55 @@ public class PythonResourceService {
             return error;
         }
     }
+    
+    /**
+     * Python 服务熔断器状态
+     */
+    public Map<String, Object> upstreamStatus() {
+        return breaker.snapshot();
+    }
+    
+    private Map<String, Object> unavailable(CircuitOpenException e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", "Python 服务暂不可用，请稍后重试");
+        error.put("status", "error");
+        error.put("degraded", true);
+        error.put("retryAfterSeconds", e.getRetryAfterSeconds());
+        return error;
+    }
+    
+    private void rememberSearch(String key, Map<String, Object> body) {
+        if (searchCacheMaxEntries <= 0 || "error".equals(body.get("status"))) {
+            return;
+        }
+        synchronized (searchCache) {
+            searchCache.put(key, new CachedSearch(body, System.currentTimeMillis()));
+        }
+    }
+    
+    private Map<String, Object> cachedSearch(String key) {
+        CachedSearch hit;
+        synchronized (searchCache) {
+            hit = searchCache.get(key);
+        }
+        if (hit == null || System.currentTimeMillis() - hit.storedAt > searchCacheMaxAgeMs) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>(hit.body);
+        result.put("stale", true);
+        result.put("degraded", true);
+        result.put("cachedAt", hit.storedAt);
+        return result;
+    }
+    
+    private static final class CachedSearch {
+        
+        private final Map<String, Object> body;
+        private final long storedAt;
+        
+        CachedSearch(Map<String, Object> body, long storedAt) {
+            this.body = body;
+            this.storedAt = storedAt;
+        }
+    }
 }
-
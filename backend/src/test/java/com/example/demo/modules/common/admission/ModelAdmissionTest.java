@@ -0,0 +1,133 @@
+package com.example.demo.modules.common.admission;
+
+import com.example.demo.modules.common.routing.ConfiguredModels;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelAdmissionTest {
+
+    private ModelAdmission admission;
+
+    @AfterEach
+    void shutdown() {
+        if (admission != null) {
+            admission.shutdown();
+        }
+    }
+
+    @Test
+    void asyncCallersBeyondBurstWaitForTokensInsteadOfBeingRejected() throws Exception {
+        admission = admission(20, 5, 10, 50, 10_000);
+        List<CompletableFuture<ModelAdmission.Permit>> permits = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            permits.add(admission.acquireAsync("m"));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(permits.get(i).isDone(), "burst permit " + i + " should be immediate");
+        }
+        // 第 11 个要等一个令牌（约 200ms），而不是 429
+        CompletableFuture<ModelAdmission.Permit> eleventh = permits.get(10);
+        assertFalse(eleventh.isDone());
+        eleventh.get(2, TimeUnit.SECONDS).close();
+        permits.forEach(p -> p.join().close());
+    }
+
+    @Test
+    void asyncAndBlockingCallersShareOneFifoQueue() throws Exception {
+        admission = admission(1, 0, 1, 10, 10_000);
+        ModelAdmission.Permit held = admission.acquire("m");
+        CompletableFuture<ModelAdmission.Permit> first = admission.acquireAsync("m");
+        CompletableFuture<ModelAdmission.Permit> blocking = CompletableFuture.supplyAsync(() -> admission.acquire("m"));
+        awaitWaiting(2);
+        CompletableFuture<ModelAdmission.Permit> third = admission.acquireAsync("m");
+
+        held.close();
+        ModelAdmission.Permit p1 = first.get(1, TimeUnit.SECONDS);
+        assertFalse(blocking.isDone());
+        assertFalse(third.isDone());
+
+        p1.close();
+        ModelAdmission.Permit p2 = blocking.get(1, TimeUnit.SECONDS);
+        assertFalse(third.isDone());
+
+        p2.close();
+        third.get(1, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void rejectsWhenQueueIsFullOrDeadlinePasses() throws Exception {
+        admission = admission(1, 0, 1, 1, 100);
+        ModelAdmission.Permit held = admission.acquire("m");
+        CompletableFuture<ModelAdmission.Permit> queued = admission.acquireAsync("m");
+
+        ExecutionException full = assertThrows(ExecutionException.class, () -> admission.acquireAsync("m").get());
+        assertInstanceOf(AdmissionRejectedException.class, full.getCause());
+
+        ExecutionException timedOut = assertThrows(ExecutionException.class, () -> queued.get(2, TimeUnit.SECONDS));
+        assertInstanceOf(AdmissionRejectedException.class, timedOut.getCause());
+        held.close();
+    }
+
+    @Test
+    void cancelledWaiterLeavesTheQueue() throws Exception {
+        admission = admission(1, 0, 1, 1, 10_000);
+        ModelAdmission.Permit held = admission.acquire("m");
+        CompletableFuture<ModelAdmission.Permit> abandoned = admission.acquireAsync("m");
+        assertTrue(abandoned.cancel(false));
+        assertEquals(0, waiting());
+
+        CompletableFuture<ModelAdmission.Permit> next = admission.acquireAsync("m");
+        held.close();
+        next.get(1, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void unconfiguredModelsShareTheDefaultGate() throws Exception {
+        admission = admission(1, 0, 1, 10, 10_000);
+        ModelAdmission.Permit held = admission.acquire("client-made-up-1");
+        CompletableFuture<ModelAdmission.Permit> other = admission.acquireAsync("client-made-up-2");
+        assertFalse(other.isDone());
+        assertEquals(1, admission.stats().size());
+        assertTrue(admission.stats().containsKey("default"));
+
+        held.close();
+        other.get(1, TimeUnit.SECONDS).close();
+    }
+
+    private ModelAdmission admission(int maxConcurrent, double ratePerSecond, int burst, int maxQueue, long maxWaitMs) {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("ark.defaultModel", "m")
+                .withProperty("ai.admission.default.maxConcurrent", String.valueOf(maxConcurrent))
+                .withProperty("ai.admission.default.ratePerSecond", String.valueOf(ratePerSecond))
+                .withProperty("ai.admission.default.burst", String.valueOf(burst))
+                .withProperty("ai.admission.default.maxQueue", String.valueOf(maxQueue))
+                .withProperty("ai.admission.default.maxWaitMs", String.valueOf(maxWaitMs));
+        return new ModelAdmission(env, new ConfiguredModels(env));
+    }
+
+    @SuppressWarnings("unchecked")
+    private int waiting() {
+        return (Integer) ((java.util.Map<String, Object>) admission.stats().get("m")).get("waiting");
+    }
+
+    private void awaitWaiting(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (waiting() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, waiting());
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.demo.modules.common.http;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 非阻塞 SSE 代理的负载测试：假的 SSE 上游 + 并发客户端，Tomcat 只给 4 个工作线程。
+ * - 2000 路并发流（一个 NIO 客户端线程驱动）同时挂在上游上并全部正常完成（流不占请求线程）；
+ * - 客户端断开后上游请求被取消；
+ * - 客户端不读时上游被暂停，代理里积压的数据有界，客户端开始读后恢复。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=4",
+        "server.tomcat.threads.min-spare=1",
+        "server.tomcat.accept-count=4096",
+        "spring.datasource.url=jdbc:h2:mem:stream-load;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "lesson.writeBehind.enabled=false",
+        "ark.apiKey=test",
+        "ark.defaultModel=fake-model",
+        "ai.singleFlight.enabled=false",
+        "ai.admission.default.maxConcurrent=4000",
+        "ai.admission.default.ratePerSecond=100000",
+        "ai.admission.default.burst=4000",
+        "ai.admission.default.maxQueue=4000",
+        "upstream.stream.maxConnections=4000",
+        "upstream.stream.maxBufferedBytes=16384",
+        "upstream.stream.rcvBufBytes=16384",
+})
+class AsyncStreamProxyLoadTest {
+
+    private static final int STREAMS = 2000;
+    private static final int WORKER_THREADS = 4;
+    private static final int EVENTS = 20;
+
+    private static final FakeUpstream UPSTREAM = FakeUpstream.start();
+
+    @LocalServerPort
+    private int port;
+
+    /**
+     * 固定 Tomcat 一侧的 socket 发送缓冲，否则内核会把它自动增长到数 MB，掩盖代理自身的积压上限
+     */
+    @TestConfiguration
+    static class SmallSocketBuffers {
+        @Bean
+        WebServerFactoryCustomizer<TomcatServletWebServerFactory> smallSendBuffer() {
+            return factory -> factory.addConnectorCustomizers(connector -> connector.setProperty("socket.txBufSize", "16384"));
+        }
+    }
+
+    @DynamicPropertySource
+    static void upstream(DynamicPropertyRegistry registry) {
+        registry.add("ark.baseUrl", () -> "http://127.0.0.1:" + UPSTREAM.port());
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        UPSTREAM.stop();
+    }
+
+    @Test
+    void thousandsOfConcurrentStreamsOnFourWorkerThreads() throws Exception {
+        NioClients clients = NioClients.start(port, STREAMS, request("held", "1.0"));
+        try {
+            // 上游先发一条再挂住，直到全部流都已接通：此时所有流同时在途
+            assertTrue(await(() -> UPSTREAM.active.get() >= STREAMS, 180_000),
+                    "concurrent upstream streams: " + UPSTREAM.active.get() + ", clients done: " + clients.finished());
+            int peak = UPSTREAM.peakActive.get();
+            // 其它用例残留的流最多一两路
+            assertTrue(peak >= STREAMS && peak <= STREAMS + 2, "peak concurrent upstream streams: " + peak);
+            assertTrue(workerThreads() <= WORKER_THREADS, "tomcat worker threads: " + workerThreads());
+        } finally {
+            UPSTREAM.release.countDown();
+        }
+        assertTrue(clients.awaitAll(120_000), "streams still open: " + (STREAMS - clients.finished()));
+        for (int i = 0; i < STREAMS; i++) {
+            assertEquals(EVENTS, clients.events(i), "stream " + i);
+        }
+    }
+
+    @Test
+    void clientDisconnectCancelsUpstream() throws Exception {
+        int cancelledBefore = UPSTREAM.cancelled.get();
+        try (Socket socket = openStream("endless")) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null && !line.startsWith("data:")) {
+                // 跳过响应头
+            }
+            assertTrue(line != null, "no event received");
+        }
+        assertTrue(await(() -> UPSTREAM.cancelled.get() > cancelledBefore, 10_000), "upstream was not cancelled");
+    }
+
+    @Test
+    void slowReaderPausesUpstream() throws Exception {
+        long before = UPSTREAM.floodBytes.get();
+        try (Socket socket = openStream("flood")) {
+            // 客户端不读：上游写出的字节数应停在一个上限，而不是被代理无限读进内存
+            assertTrue(await(() -> UPSTREAM.floodBytes.get() - before > 0, 10_000), "flood did not start");
+            long plateau = awaitPlateau(UPSTREAM.floodBytes, 1000, 20_000);
+            assertTrue(plateau >= 0, "upstream kept writing while the client was not reading");
+            // 代理高水位 + 两段连接的内核 socket 缓冲（均固定为 16KB 量级）
+            assertTrue(plateau - before < 256L * 1024, "buffered too much: " + (plateau - before));
+
+            // 客户端开始读之后上游恢复
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[65536];
+            long read = 0;
+            long target = (plateau - before) + 1024 * 1024;
+            while (read < target) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            assertTrue(UPSTREAM.floodBytes.get() > plateau, "upstream did not resume after the client read");
+        }
+    }
+
+    private Socket openStream(String mode) throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        socket.setSoTimeout(30_000);
+        OutputStream out = socket.getOutputStream();
+        out.write(request(mode, "1.1"));
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * HTTP/1.0 时 Tomcat 不分块、写完即关连接，响应体就是连续的 SSE 字节
+     */
+    private byte[] request(String mode, String httpVersion) {
+        byte[] body = body(mode);
+        String head = "POST /api/ai/chat/completions/stream HTTP/" + httpVersion + "\r\n"
+                + "Host: 127.0.0.1:" + port + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] head8 = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] all = Arrays.copyOf(head8, head8.length + body.length);
+        System.arraycopy(body, 0, all, head8.length, body.length);
+        return all;
+    }
+
+    private static long workerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("http-nio-") && t.getName().contains("-exec-"))
+                .count();
+    }
+
+    private static byte[] body(String mode) {
+        return ("{\"messages\":[{\"role\":\"user\",\"content\":\"" + mode + "\"}]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean await(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return condition.getAsBoolean();
+    }
+
+    /**
+     * 等计数在 quietMs 内不再变化，返回稳定后的值；超时仍在增长返回 -1
+     */
+    private static long awaitPlateau(AtomicLong counter, long quietMs, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long last = counter.get();
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(quietMs);
+            long now = counter.get();
+            if (now == last) {
+                return now;
+            }
+            last = now;
+        }
+        return -1;
+    }
+
+    /**
+     * 单线程 NIO 客户端：同时打开 n 路流，读到连接关闭为止，之后统计每路收到的 SSE 事件数。
+     */
+    private static final class NioClients {
+
+        private final Selector selector;
+        private final ByteArrayOutputStream[] bodies;
+        private final AtomicInteger finished = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private NioClients(Selector selector, int n) {
+            this.selector = selector;
+            this.bodies = new ByteArrayOutputStream[n];
+        }
+
+        static NioClients start(int port, int n, byte[] request) throws IOException {
+            NioClients clients = new NioClients(Selector.open(), n);
+            for (int i = 0; i < n; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress("127.0.0.1", port));
+                clients.bodies[i] = new ByteArrayOutputStream();
+                channel.register(clients.selector, SelectionKey.OP_CONNECT, new Conn(i, ByteBuffer.wrap(request)));
+            }
+            Thread loop = new Thread(clients::run, "nio-clients");
+            loop.setDaemon(true);
+            loop.start();
+            return clients;
+        }
+
+        int finished() {
+            return finished.get();
+        }
+
+        boolean awaitAll(long timeoutMs) throws InterruptedException {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        int events(int i) {
+            String response = new String(bodies[i].toByteArray(), StandardCharsets.UTF_8);
+            if (!response.startsWith("HTTP/1.1 200") && !response.startsWith("HTTP/1.0 200")) {
+                return -1;
+            }
+            int events = 0;
+            for (String line : response.split("\n")) {
+                if (line.startsWith("data: {")) {
+                    events++;
+                }
+            }
+            return events;
+        }
+
+        private void run() {
+            ByteBuffer buf = ByteBuffer.allocate(16384);
+            try {
+                while (finished.get() < bodies.length) {
+                    selector.select(1000);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        Conn conn = (Conn) key.attachment();
+                        try {
+                            if (key.isConnectable() && channel.finishConnect()) {
+                                key.interestOps(SelectionKey.OP_WRITE);
+                            } else if (key.isWritable()) {
+                                channel.write(conn.request);
+                                if (!conn.request.hasRemaining()) {
+                                    key.interestOps(SelectionKey.OP_READ);
+                                }
+                            } else if (key.isReadable()) {
+                                buf.clear();
+                                int n = channel.read(buf);
+                                if (n < 0) {
+                                    close(key);
+                                } else {
+                                    bodies[conn.index].write(buf.array(), 0, n);
+                                }
+                            }
+                        } catch (IOException e) {
+                            close(key);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+            finished.incrementAndGet();
+        }
+
+        private static final class Conn {
+            final int index;
+            final ByteBuffer request;
+
+            Conn(int index, ByteBuffer request) {
+                this.index = index;
+                this.request = request;
+            }
+        }
+    }
+
+    /**
+     * 按请求内容选择行为的假 Ark（发送缓冲固定为 16KB）：
+     * held 先输出一条，等 release 放行后输出其余各条再结束；endless 每 20ms 一条直到写失败（对端已断开）；flood 尽快写大事件直到写失败。
+     */
+    private static final class FakeUpstream {
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peakActive = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final AtomicLong floodBytes = new AtomicLong();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        private final ServerSocket server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        private FakeUpstream(ServerSocket server) {
+            this.server = server;
+        }
+
+        /**
+         * 裸 socket 的最简 HTTP 服务（响应以关闭连接结束）：这样才能固定每个连接的发送缓冲
+         */
+        static FakeUpstream start() {
+            try {
+                ServerSocket server = new ServerSocket();
+                server.bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+                FakeUpstream upstream = new FakeUpstream(server);
+                upstream.executor.execute(upstream::acceptLoop);
+                return upstream;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        void stop() {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+            executor.shutdownNow();
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setSendBufferSize(16384);
+                    executor.execute(() -> handle(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (Socket s = socket) {
+                String request = readRequest(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+                out.write("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                stream(request, out);
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void stream(String request, OutputStream out) {
+            int now = active.incrementAndGet();
+            peakActive.accumulateAndGet(now, Math::max);
+            try {
+                if (request.contains("flood")) {
+                    byte[] event = event(new String(fill(8192), StandardCharsets.US_ASCII));
+                    while (true) {
+                        out.write(event);
+                        out.flush();
+                        floodBytes.addAndGet(event.length);
+                    }
+                }
+                boolean endless = request.contains("endless");
+                for (int i = 0; endless || i < EVENTS; i++) {
+                    out.write(event("token" + i));
+                    out.flush();
+                    if (i == 0 && !endless) {
+                        release.await(180, TimeUnit.SECONDS);
+                    }
+                    Thread.sleep(endless ? 20 : 5);
+                }
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                cancelled.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        private static byte[] event(String content) {
+            return ("data: {\"choices\":[{\"delta\":{\"content\":\"" + content + "\"}}]}\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static byte[] fill(int n) {
+            byte[] b = new byte[n];
+            Arrays.fill(b, (byte) 'x');
+            return b;
+        }
+
+        /**
+         * 读完请求头和 Content-Length 长度的请求体，返回整个请求文本
+         */
+        private static String readRequest(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            while (matched < 4) {
+                int c = in.read();
+                if (c < 0) {
+                    throw new IOException("request truncated");
+                }
+                head.write(c);
+                matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : (c == '\r' ? 1 : 0);
+            }
+            String headers = new String(head.toByteArray(), StandardCharsets.US_ASCII);
+            int length = 0;
+            for (String line : headers.split("\r\n")) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                }
+            }
+            byte[] body = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(body, read, length - read);
+                if (n < 0) {
+                    throw new IOException("body truncated");
+                }
+                read += n;
+            }
+            return headers + new String(body, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.demo.modules.common.resilience;
+
+import com.example.demo.modules.common.http.UpstreamAbort;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MS = 50;
+
+    @Test
+    void abortedHedgeLoserDoesNotReopenHalfOpenCircuit() throws Exception {
+        CircuitBreaker breaker = halfOpen();
+
+        UpstreamAbort loser = new UpstreamAbort();
+        assertThrows(ResourceAccessException.class, () -> loser.run(() -> breaker.execute(() -> {
+            loser.abort();
+            throw new ResourceAccessException("I/O error: Socket closed");
+        })));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // 名额已归还，真正的试探还能进来并关闭熔断
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void abortedCallsAreNotCountedWhileClosed() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("ark", 4, 2, 0.5, OPEN_MS, 1);
+        for (int i = 0; i < 4; i++) {
+            UpstreamAbort loser = new UpstreamAbort();
+            assertThrows(ResourceAccessException.class, () -> loser.run(() -> breaker.execute(() -> {
+                loser.abort();
+                throw new ResourceAccessException("I/O error: Socket closed");
+            })));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.snapshot().get("windowCalls"));
+    }
+
+    @Test
+    void realFailureInHalfOpenReopens() throws Exception {
+        CircuitBreaker breaker = halfOpen();
+        assertThrows(ResourceAccessException.class, () -> breaker.execute(() -> {
+            throw new ResourceAccessException("Read timed out");
+        }));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void callAdmittedWhileClosedIsNotCountedAsHalfOpenProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("ark", 4, 2, 0.5, OPEN_MS, 1);
+        CircuitBreaker.Permit slow = breaker.acquirePermission();
+        for (int i = 0; i < 2; i++) {
+            assertThrows(ResourceAccessException.class, () -> breaker.execute(() -> {
+                throw new ResourceAccessException("Connection refused");
+            }));
+        }
+        Thread.sleep(OPEN_MS + 20);
+        CircuitBreaker.Permit probe = breaker.acquirePermission();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // CLOSED 时放行的慢调用现在才成功：不能替试探关闭熔断
+        slow.onSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1L, breaker.snapshot().get("staleOutcomes"));
+
+        probe.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void staleFailureDoesNotReopenOrCount() throws Exception {
+        CircuitBreaker breaker = halfOpen();
+        CircuitBreaker.Permit probe = breaker.acquirePermission();
+        probe.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // 上一代（HALF_OPEN）的许可重复 / 迟到报告都被忽略
+        probe.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.snapshot().get("windowCalls"));
+    }
+
+    private static CircuitBreaker halfOpen() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("ark", 4, 2, 0.5, OPEN_MS, 1);
+        for (int i = 0; i < 2; i++) {
+            assertThrows(ResourceAccessException.class, () -> breaker.execute(() -> {
+                throw new ResourceAccessException("Connection refused");
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(OPEN_MS + 20);
+        return breaker;
+    }
+}
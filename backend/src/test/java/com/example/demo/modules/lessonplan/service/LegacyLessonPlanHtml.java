@@ -0,0 +1,135 @@
+package com.example.demo.modules.lessonplan.service;
+
+import org.springframework.util.StringUtils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 改成单次扫描之前 GeminiService 里的正则实现（sanitizeHtml / ensureInlineTableBorders / tryExtractTable），
+ * 原样保留，作为 {@link LessonPlanHtml} 的对照实现。
+ */
+final class LegacyLessonPlanHtml {
+
+    private LegacyLessonPlanHtml() {
+    }
+
+    static String sanitizeHtml(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        String cleaned = raw.trim();
+        if (cleaned.startsWith("```")) {
+            cleaned = cleaned.replaceFirst("^```[a-zA-Z]*\\n?", "");
+            cleaned = cleaned.replaceAll("```$", "");
+            cleaned = cleaned.trim();
+        }
+        if (cleaned.toLowerCase().contains("<table")) {
+            return ensureInlineTableBorders(cleaned);
+        }
+        return cleaned;
+    }
+
+    static String ensureInlineTableBorders(String html) {
+        String s = html;
+        s = ensureTagHasStyle(s, "table", "border-collapse:collapse;border:1px solid #000;");
+        s = ensureTagHasStyle(s, "th", "border:1px solid #000;padding:8px 12px;vertical-align:top;");
+        s = ensureTagHasStyle(s, "td", "border:1px solid #000;padding:8px 12px;vertical-align:top;");
+        return s;
+    }
+
+    private static String ensureTagHasStyle(String html, String tag, String requiredStyle) {
+        Pattern openTag = Pattern.compile("<" + tag + "(\\s[^>]*)?>", Pattern.CASE_INSENSITIVE);
+        Matcher m = openTag.matcher(html);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            String full = m.group(0);
+            String attrs = m.group(1);
+            String replaced = full;
+            if (attrs == null) {
+                replaced = "<" + tag + " style=\"" + requiredStyle + "\">";
+            } else {
+                replaced = applyRequiredStyle(tag, attrs, requiredStyle);
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(replaced));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String applyRequiredStyle(String tag, String attrsWithLeadingSpace, String requiredStyle) {
+        String attrs = attrsWithLeadingSpace;
+        String lower = attrs.toLowerCase();
+        String required = requiredStyle;
+
+        Pattern styleDq = Pattern.compile("style\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+        Matcher mdq = styleDq.matcher(attrs);
+        if (mdq.find()) {
+            String existing = mdq.group(1);
+            String existingLower = existing.toLowerCase();
+            String extra = "";
+            for (String part : required.split(";")) {
+                String p = part.trim();
+                if (!p.isEmpty()) {
+                    String key = p.split(":")[0].trim();
+                    if (!existingLower.contains(key)) {
+                        extra += (existing.endsWith(";") || existing.isEmpty()) ? p + ";" : ";" + p + ";";
+                    }
+                }
+            }
+            String newStyle = existing + extra;
+            String newAttrs = mdq.replaceFirst("style=\"" + Matcher.quoteReplacement(newStyle) + "\"");
+            return "<" + tag + newAttrs + ">";
+        }
+
+        Pattern styleSq = Pattern.compile("style\\s*=\\s*'([^']*)'", Pattern.CASE_INSENSITIVE);
+        Matcher msq = styleSq.matcher(attrs);
+        if (msq.find()) {
+            String existing = msq.group(1);
+            String existingLower = existing.toLowerCase();
+            String extra = "";
+            for (String part : required.split(";")) {
+                String p = part.trim();
+                if (!p.isEmpty()) {
+                    String key = p.split(":")[0].trim();
+                    if (!existingLower.contains(key)) {
+                        extra += (existing.endsWith(";") || existing.isEmpty()) ? p + ";" : ";" + p + ";";
+                    }
+                }
+            }
+            String newStyle = existing + extra;
+            String newAttrs = msq.replaceFirst("style='" + Matcher.quoteReplacement(newStyle) + "'");
+            return "<" + tag + newAttrs + ">";
+        }
+
+        if (lower.contains("style=")) {
+            return "<" + tag + attrs + ">";
+        }
+
+        return "<" + tag + attrs + " style=\"" + required + "\">";
+    }
+
+    static String tryExtractTable(String html) {
+        if (!StringUtils.hasText(html)) {
+            return "";
+        }
+        int start = html.toLowerCase().indexOf("<table");
+        int end = html.toLowerCase().lastIndexOf("</table>");
+        if (start >= 0 && end >= 0 && end > start) {
+            return html.substring(start, end + "</table>".length()).trim();
+        }
+        String trimmed = html.trim();
+        if (trimmed.toLowerCase().startsWith("<table") && trimmed.toLowerCase().endsWith("</table>")) {
+            return trimmed;
+        }
+        return "";
+    }
+
+    /**
+     * 原先严格模板模式下取表格的组合：先 sanitize，再截取表格并补样式
+     */
+    static String extractStyledTable(String raw) {
+        String extracted = tryExtractTable(sanitizeHtml(raw));
+        return StringUtils.hasText(extracted) ? ensureInlineTableBorders(extracted) : "";
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.demo.modules.lessonplan.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 以改写前的正则实现（{@link LegacyLessonPlanHtml}）为准，核对单次扫描的 {@link LessonPlanHtml}。
+ */
+class LessonPlanHtmlTest {
+
+    private static final String[] FIXTURES = {
+            "",
+            "   ",
+            "只有说明文字，没有表格",
+            "<p>段落</p>",
+            "<table><tr><th>教学目标</th><td>理解分数</td></tr></table>",
+            "```html\n<table><tr><td>a</td></tr></table>\n```",
+            "```\n<table><tr><td>a</td></tr></table>```",
+            "```HTML<table><tr><td>a</td></tr></table>",
+            "  <TABLE><TR><TH>A</TH><TD>b</TD></TR></TABLE>  ",
+            "<table border=\"1\"><tr><td colspan=\"2\" rowspan='3'>a</td></tr></table>",
+            "<table style=\"width:100%\"><tr><td style=\"padding:2px;\">a</td></tr></table>",
+            "<table style=\"\"><tr><td style=\"BORDER:2px solid red\">a</td></tr></table>",
+            "<table style='width:100%'><tr><th style='color:red;'>a</th></tr></table>",
+            "<table style=width:100%><tr><td style=color:red>a</td></tr></table>",
+            "<table STYLE = \"width:100%\"><tr><td Style='x'>a</td></tr></table>",
+            "<table><thead><tr><th>a</th></tr></thead><tbody><tr><td>b</td></tr></tbody></table>",
+            "<table\n  class=\"x\"\n><tr><td\tclass=\"y\">a</td></tr></table>",
+            "说明：\n<table><tr><td>a</td></tr></table>\n以上为教案。",
+            "<table><tr><td>1</td></tr></table><p>中间</p><table><tr><td>2</td></tr></table>",
+            "<table><tr><td><table><tr><td>嵌套</td></tr></table></td></tr></table>",
+            "<td>没有 table 的单元格</td>",
+            "</table><table><tr><td>a</td></tr>",
+            "<tablex><tdx>不是表格标签</tdx></tablex><table>",
+            "<table><tr><td>a < b</td><td>c > d</td></tr></table>",
+            "<table><tr><td data-x=\"a>b\">a</td></tr></table>",
+            "<table><tr><td>未闭合",
+            "<table",
+            "<table><tr><td style=\"border:1px solid #000;padding:8px 12px;vertical-align:top;\">a</td></tr></table>",
+    };
+
+    @Test
+    void fixturesMatchLegacy() {
+        for (String raw : FIXTURES) {
+            assertMatchesLegacy(raw);
+        }
+    }
+
+    @Test
+    void randomFragmentsMatchLegacy() {
+        String[] pieces = {
+                "<table>", "</table>", "<TABLE>", "<table class=\"t\">", "<table style=\"width:100%\">",
+                "<tr>", "</tr>", "<th>", "</th>", "<TH>", "<th style='color:red'>", "<thead>", "</thead>",
+                "<td>", "</td>", "<TD>", "<td colspan=\"2\">", "<td style=\"padding:1px\">", "<td style=x>",
+                "<td style=\"\">", "<td\nstyle=\"border:0;\">", "<p>", "</p>", "<br>", "<b>", "</b>",
+                "教学目标", "导入", " ", "\n", "a", "x > y", "```", "```html\n", "&nbsp;",
+        };
+        Random random = new Random(20261017L);
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(24);
+            for (int i = 0; i < len; i++) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertMatchesLegacy(sb.toString());
+        }
+    }
+
+    /**
+     * 有意的差异：table/th/td 标签内部又出现 '<' 的畸形输入。两者都把 "&lt;table &lt;td&gt;" 当作 table 标签补样式，
+     * 正则实现按标签逐遍处理，下一遍又把补过样式的 "&lt;td style=...&gt;" 当作 td 再补一次；单次扫描只处理一次。
+     */
+    @Test
+    void nestedLessThanInsideTagIsStyledOnce() {
+        String raw = "<table <td>><tr><td>a</td></tr></table>";
+        String rest = "><tr><td style=\"border:1px solid #000;padding:8px 12px;vertical-align:top;\">a</td></tr></table>";
+        assertEquals("<table <td style=\"border-collapse:collapse;border:1px solid #000;padding:8px 12px;vertical-align:top;\">"
+                + rest, LegacyLessonPlanHtml.sanitizeHtml(raw));
+        assertEquals("<table <td style=\"border-collapse:collapse;border:1px solid #000;\">" + rest,
+                LessonPlanHtml.sanitize(raw));
+    }
+
+    @Test
+    void incrementalMatchesWholeDocument() {
+        Random random = new Random(7L);
+        for (String raw : FIXTURES) {
+            if (!raw.toLowerCase().contains("<table")) {
+                continue;
+            }
+            LessonPlanHtml.Incremental html = new LessonPlanHtml.Incremental();
+            StringBuilder out = new StringBuilder();
+            int i = 0;
+            while (i < raw.length()) {
+                int end = Math.min(raw.length(), i + 1 + random.nextInt(6));
+                out.append(html.feed(raw.substring(i, end)));
+                i = end;
+            }
+            out.append(html.finish());
+            assertEquals(LessonPlanHtml.sanitize(raw), out.toString().trim(), raw);
+        }
+    }
+
+    private static void assertMatchesLegacy(String raw) {
+        LessonPlanHtml.Normalized normalized = LessonPlanHtml.normalize(raw);
+        assertEquals(LegacyLessonPlanHtml.sanitizeHtml(raw), normalized.html, raw);
+        assertEquals(LegacyLessonPlanHtml.extractStyledTable(raw), normalized.table, raw);
+    }
+}
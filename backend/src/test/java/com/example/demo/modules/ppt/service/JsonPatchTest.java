@@ -0,0 +1,262 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link JsonPatch}：随机课件上 apply(diff(a, b)) == b，以及 RFC 6902 / 6901 的边界情况。
+ */
+class JsonPatchTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    /**
+     * 字段名里带 '/' 和 '~'，diff 生成的路径必须正确转义
+     */
+    private static final String[] KEYS = {"title", "type", "content", "notes", "layout", "a/b", "m~n", "~1", "/"};
+
+    @Test
+    void diffThenApplyReproducesTarget() {
+        Random random = new Random(20241017L);
+        for (int i = 0; i < 2000; i++) {
+            JsonNode a = randomDeck(random);
+            JsonNode b = mutate(a, random);
+            JsonNode before = a.deepCopy();
+
+            ArrayNode patch = JsonPatch.diff(a, b);
+            assertEquals(b, JsonPatch.apply(a, patch), "case " + i + " patch " + patch);
+            assertEquals(before, a, "apply modified its input");
+            assertEquals(0, JsonPatch.diff(b, b).size());
+        }
+    }
+
+    @Test
+    void insertingASlideAtTheFrontIsOneOperation() {
+        JsonNode a = json("{\"slides\":[{\"title\":\"1\"},{\"title\":\"2\"},{\"title\":\"3\"}]}");
+        JsonNode b = json("{\"slides\":[{\"title\":\"0\"},{\"title\":\"1\"},{\"title\":\"2\"},{\"title\":\"3\"}]}");
+        ArrayNode patch = JsonPatch.diff(a, b);
+        assertEquals(json("[{\"op\":\"add\",\"path\":\"/slides/0\",\"value\":{\"title\":\"0\"}}]"), patch);
+        assertEquals(b, JsonPatch.apply(a, patch));
+    }
+
+    @Test
+    void moveWithinArrayAndBetweenObjects() {
+        JsonNode doc = json("{\"slides\":[\"A\",\"B\",\"C\"],\"meta\":{\"x\":1}}");
+        assertEquals(json("{\"slides\":[\"B\",\"C\",\"A\"],\"meta\":{\"x\":1}}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"move\",\"from\":\"/slides/0\",\"path\":\"/slides/2\"}]")));
+        assertEquals(json("{\"slides\":[\"C\",\"A\",\"B\"],\"meta\":{\"x\":1}}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"move\",\"from\":\"/slides/2\",\"path\":\"/slides/0\"}]")));
+        assertEquals(json("{\"slides\":[\"A\",\"B\",\"C\"],\"meta\":{},\"y\":1}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"move\",\"from\":\"/meta/x\",\"path\":\"/y\"}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"move\",\"from\":\"/meta\",\"path\":\"/meta/inner\"}]")));
+    }
+
+    @Test
+    void copyIsDeep() {
+        JsonNode doc = json("{\"slides\":[{\"title\":\"A\",\"content\":[\"x\"]}]}");
+        JsonNode patched = JsonPatch.apply(doc, json("[{\"op\":\"copy\",\"from\":\"/slides/0\",\"path\":\"/slides/-\"}]"));
+        assertEquals(json("{\"slides\":[{\"title\":\"A\",\"content\":[\"x\"]},{\"title\":\"A\",\"content\":[\"x\"]}]}"), patched);
+        assertNotSame(patched.get("slides").get(0), patched.get("slides").get(1));
+        assertNotSame(patched.get("slides").get(0).get("content"), patched.get("slides").get(1).get("content"));
+    }
+
+    @Test
+    void dashIndexOnlyAppends() {
+        JsonNode doc = json("{\"slides\":[1,2]}");
+        assertEquals(json("{\"slides\":[1,2,3]}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"add\",\"path\":\"/slides/-\",\"value\":3}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/slides/-\"}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"replace\",\"path\":\"/slides/-\",\"value\":0}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"copy\",\"from\":\"/slides/-\",\"path\":\"/slides/0\"}]")));
+    }
+
+    @Test
+    void arrayIndicesRejectLeadingZerosAndOutOfRange() {
+        JsonNode doc = json("{\"slides\":[1,2]}");
+        assertEquals(json("{\"slides\":[0,1,2]}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"add\",\"path\":\"/slides/0\",\"value\":0}]")));
+        assertEquals(json("{\"slides\":[1,2,3]}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"add\",\"path\":\"/slides/2\",\"value\":3}]")));
+        for (String path : new String[]{"/slides/01", "/slides/00", "/slides/3", "/slides/-1", "/slides/1e0", "/slides/"}) {
+            assertThrows(JsonPatch.PatchException.class,
+                    () -> JsonPatch.apply(doc, json("[{\"op\":\"add\",\"path\":\"" + path + "\",\"value\":0}]")), path);
+        }
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/slides/01\"}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/slides/2\"}]")));
+    }
+
+    @Test
+    void pointerEscapes() {
+        JsonNode doc = json("{\"a/b\":1,\"m~n\":2,\"~1\":3}");
+        assertEquals(json("{\"a/b\":10,\"m~n\":2,\"~1\":3}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"replace\",\"path\":\"/a~1b\",\"value\":10}]")));
+        assertEquals(json("{\"a/b\":1,\"~1\":3}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/m~0n\"}]")));
+        // ~01 解码为 "~1"，不是 "/"
+        assertEquals(json("{\"a/b\":1,\"m~n\":2}"),
+                JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/~01\"}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/a/b\"}]")));
+        assertThrows(JsonPatch.PatchException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"a~1b\"}]")));
+    }
+
+    @Test
+    void failedOperationLeavesInputUntouched() {
+        JsonNode doc = json("{\"title\":\"课件\",\"slides\":[{\"title\":\"1\"}]}");
+        JsonNode before = doc.deepCopy();
+        String[] patches = {
+                "[{\"op\":\"replace\",\"path\":\"/title\",\"value\":\"改\"},{\"op\":\"remove\",\"path\":\"/missing\"}]",
+                "[{\"op\":\"add\",\"path\":\"/slides/-\",\"value\":{}},{\"op\":\"test\",\"path\":\"/title\",\"value\":\"别的\"}]",
+                "[{\"op\":\"remove\",\"path\":\"/slides/0\"},{\"op\":\"replace\",\"path\":\"/slides/0/title\",\"value\":\"x\"}]",
+                "[{\"op\":\"add\",\"path\":\"/slides/0/title\",\"value\":\"x\"},{\"op\":\"bogus\",\"path\":\"/title\"}]",
+                "[{\"op\":\"remove\",\"path\":\"/title\"},{\"op\":\"add\",\"path\":\"/slides/0\"}]",
+                "[{\"op\":\"remove\",\"path\":\"\"}]",
+        };
+        for (String patch : patches) {
+            assertThrows(JsonPatch.PatchException.class, () -> JsonPatch.apply(doc, json(patch)), patch);
+            assertEquals(before, doc, patch);
+        }
+        assertTrue(JsonPatch.apply(doc, json("[{\"op\":\"test\",\"path\":\"/slides/0/title\",\"value\":\"1\"}]")).equals(before));
+    }
+
+    private static JsonNode randomDeck(Random random) {
+        ObjectNode deck = NODES.objectNode();
+        deck.put("title", "课件" + random.nextInt(5));
+        ArrayNode slides = deck.putArray("slides");
+        int n = random.nextInt(8);
+        for (int i = 0; i < n; i++) {
+            slides.add(randomSlide(random));
+        }
+        if (random.nextBoolean()) {
+            deck.set("theme", randomSlide(random));
+        }
+        return deck;
+    }
+
+    private static ObjectNode randomSlide(Random random) {
+        ObjectNode slide = NODES.objectNode();
+        int fields = 1 + random.nextInt(4);
+        for (int i = 0; i < fields; i++) {
+            slide.set(KEYS[random.nextInt(KEYS.length)], randomValue(random, 2));
+        }
+        return slide;
+    }
+
+    private static JsonNode randomValue(Random random, int depth) {
+        int kind = random.nextInt(depth > 0 ? 6 : 4);
+        switch (kind) {
+            case 0:
+                return NODES.textNode("文本" + random.nextInt(4));
+            case 1:
+                return NODES.numberNode(random.nextInt(3));
+            case 2:
+                return NODES.booleanNode(random.nextBoolean());
+            case 3:
+                return NODES.nullNode();
+            case 4: {
+                ArrayNode array = NODES.arrayNode();
+                int n = random.nextInt(4);
+                for (int i = 0; i < n; i++) {
+                    array.add(randomValue(random, depth - 1));
+                }
+                return array;
+            }
+            default: {
+                ObjectNode object = NODES.objectNode();
+                int n = random.nextInt(3);
+                for (int i = 0; i < n; i++) {
+                    object.set(KEYS[random.nextInt(KEYS.length)], randomValue(random, depth - 1));
+                }
+                return object;
+            }
+        }
+    }
+
+    /**
+     * 模拟编辑：插入 / 删除 / 调换页，改、删、加字段，偶尔整体换类型
+     */
+    private static JsonNode mutate(JsonNode original, Random random) {
+        ObjectNode deck = (ObjectNode) original.deepCopy();
+        ArrayNode slides = (ArrayNode) deck.get("slides");
+        int edits = random.nextInt(5);
+        for (int e = 0; e < edits; e++) {
+            int size = slides.size();
+            switch (random.nextInt(7)) {
+                case 0:
+                    slides.insert(random.nextInt(size + 1), randomSlide(random));
+                    break;
+                case 1:
+                    if (size > 0) {
+                        slides.remove(random.nextInt(size));
+                    }
+                    break;
+                case 2:
+                    if (size > 1) {
+                        int i = random.nextInt(size);
+                        int j = random.nextInt(size);
+                        JsonNode tmp = slides.get(i);
+                        slides.set(i, slides.get(j));
+                        slides.set(j, tmp);
+                    }
+                    break;
+                case 3:
+                    if (size > 0) {
+                        ObjectNode slide = (ObjectNode) slides.get(random.nextInt(size));
+                        slide.set(KEYS[random.nextInt(KEYS.length)], randomValue(random, 2));
+                    }
+                    break;
+                case 4:
+                    if (size > 0) {
+                        ObjectNode slide = (ObjectNode) slides.get(random.nextInt(size));
+                        List<String> names = new ArrayList<>();
+                        slide.fieldNames().forEachRemaining(names::add);
+                        if (!names.isEmpty()) {
+                            slide.remove(names.get(random.nextInt(names.size())));
+                        }
+                    }
+                    break;
+                case 5:
+                    deck.put("title", "课件" + random.nextInt(5));
+                    break;
+                default:
+                    if (deck.has("theme")) {
+                        deck.remove("theme");
+                    } else {
+                        deck.set("theme", randomValue(random, 2));
+                    }
+                    break;
+            }
+        }
+        return deck;
+    }
+
+    private static JsonNode json(String text) {
+        try {
+            return MAPPER.readTree(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.LessonRevisionInfo;
+import com.example.demo.model.Lesson;
+import com.example.demo.model.LessonRevision;
+import com.example.demo.repository.LessonRevisionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link LessonHistory} 整理：按天分布记录若干版本，compact() 之后每个留下的版本都能还原成原来的内容。
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:lesson-history;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "lesson.writeBehind.enabled=false",
+        "lesson.history.snapshotEvery=5",
+        "lesson.history.retainDays=30",
+        "lesson.history.dailyDays=180",
+        "lesson.history.compactIntervalMs=0",
+})
+class LessonHistoryTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /**
+     * 每个版本距今的天数，同一天记 3 个版本：超过 180 天的删除，30~180 天的每天留最后一个，近 30 天全留
+     */
+    private static final int[] DAYS_AGO = {200, 190, 150, 120, 100, 60, 45, 31, 20, 10, 5, 1, 0};
+    private static final int PER_DAY = 3;
+
+    @Autowired
+    private LessonHistory lessonHistory;
+
+    @Autowired
+    private LessonSlideStore lessonSlideStore;
+
+    @Autowired
+    private LessonRevisionRepository revisionRepository;
+
+    @Test
+    void compactKeepsEveryRemainingVersionReconstructible() throws IOException {
+        Random random = new Random(7L);
+        long lessonId = 9001L;
+        Map<Long, Lesson> originals = new HashMap<>();
+        Map<Long, Long> createdAt = new HashMap<>();
+
+        ObjectNode deck = MAPPER.createObjectNode();
+        deck.put("theme", "default");
+        ArrayNode slides = deck.putArray("slides");
+        for (int i = 0; i < 12; i++) {
+            slides.addObject().put("id", "s" + i).put("title", "第 " + i + " 页").put("content", "正文 " + i);
+        }
+
+        long version = 0;
+        for (int daysAgo : DAYS_AGO) {
+            for (int k = 0; k < PER_DAY; k++) {
+                version++;
+                edit(slides, random, version);
+                Lesson lesson = new Lesson();
+                lesson.setId(lessonId);
+                lesson.setVersion(version);
+                lesson.setLastModified(version);
+                lesson.setTitle(version % 7 == 0 ? "改名 " + version : "课件");
+                lesson.setMarkdownContent(version % 4 == 0 ? null : "# 大纲 " + (version / 4));
+                lesson.setSlidesData(MAPPER.writeValueAsString(deck));
+                lessonSlideStore.save(lesson);
+                originals.put(version, lesson);
+                createdAt.put(version, LocalDate.now().minusDays(daysAgo).atTime(9 + k, 0)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+        }
+        long latest = version;
+        backdate(lessonId, createdAt);
+
+        List<LessonRevisionInfo> before = lessonHistory.list(lessonId, 1000);
+        assertEquals(originals.size(), before.size());
+        assertTrue(before.stream().anyMatch(r -> !r.getSnapshot()), "expected delta revisions before compaction");
+
+        int removed = lessonHistory.compact();
+        assertTrue(removed > 0);
+
+        List<LessonRevisionInfo> kept = lessonHistory.list(lessonId, 1000);
+        assertEquals(originals.size() - removed, kept.size());
+        long now = System.currentTimeMillis();
+        Set<LocalDate> oldDays = new HashSet<>();
+        Set<Long> keptVersions = new HashSet<>();
+        for (LessonRevisionInfo info : kept) {
+            keptVersions.add(info.getVersion());
+            assertTrue(info.getDepth() < 5, "chain too long at version " + info.getVersion());
+            long age = now - info.getCreatedAt();
+            if (age >= 30 * DAY_MS) {
+                assertTrue(oldDays.add(Instant.ofEpochMilli(info.getCreatedAt()).atZone(ZoneId.systemDefault()).toLocalDate()),
+                        "more than one old version kept on the same day: " + info.getVersion());
+            }
+        }
+        assertTrue(keptVersions.contains(latest));
+        // 近 30 天的版本全部保留
+        for (Map.Entry<Long, Long> e : createdAt.entrySet()) {
+            if (now - e.getValue() < 30 * DAY_MS) {
+                assertTrue(keptVersions.contains(e.getKey()), "recent version dropped: " + e.getKey());
+            }
+        }
+        // 超过 180 天的只可能留下整理边界上的那一个（最早的留存快照之前全部删除）
+        assertFalse(keptVersions.contains(1L));
+
+        for (Long v : keptVersions) {
+            assertSameContent(originals.get(v), lessonHistory.load(lessonId, v));
+        }
+
+        // 再整理一次不再删除，内容不变
+        assertEquals(0, lessonHistory.compact());
+        for (Long v : keptVersions) {
+            assertSameContent(originals.get(v), lessonHistory.load(lessonId, v));
+        }
+    }
+
+    private void backdate(long lessonId, Map<Long, Long> createdAt) {
+        List<LessonRevision> revisions = new ArrayList<>();
+        for (LessonRevision r : revisionRepository.findAll()) {
+            if (r.getLessonId() == lessonId) {
+                r.setCreatedAt(createdAt.get(r.getVersion()));
+                revisions.add(r);
+            }
+        }
+        revisionRepository.saveAll(revisions);
+    }
+
+    /**
+     * 随机改一页、插入或删除一页
+     */
+    private static void edit(ArrayNode slides, Random random, long version) {
+        switch (random.nextInt(4)) {
+            case 0:
+                slides.insert(random.nextInt(slides.size() + 1),
+                        MAPPER.createObjectNode().put("id", "n" + version).put("title", "新页 " + version));
+                break;
+            case 1:
+                if (slides.size() > 3) {
+                    slides.remove(random.nextInt(slides.size()));
+                    break;
+                }
+                // fall through
+            default:
+                ((ObjectNode) slides.get(random.nextInt(slides.size()))).put("content", "版本 " + version + " 的正文");
+                break;
+        }
+    }
+
+    private static void assertSameContent(Lesson expected, Lesson actual) throws IOException {
+        assertNotNull(actual, "version " + expected.getVersion() + " cannot be loaded");
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getTitle(), actual.getTitle(), "title of version " + expected.getVersion());
+        assertEquals(expected.getMarkdownContent(), actual.getMarkdownContent(), "markdown of version " + expected.getVersion());
+        assertEquals(MAPPER.readTree(expected.getSlidesData()), MAPPER.readTree(actual.getSlidesData()),
+                "slides of version " + expected.getVersion());
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Lesson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link LessonWriteBehind} 启动重放：手写日志文件，重放到内存里的 {@link LessonSlideStore} 上，核对写回的状态。
+ */
+class LessonWriteBehindTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void patchWithoutEarlierJournalStateAppliesOntoStoredRow() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.put(lesson(1L, 3L, 100L, "课件", "{\"slides\":[{\"t\":\"a\"}]}"));
+        Path journal = journal(
+                patchLine(1L, 4L, 101L, "课件", 3L, 100L, "[{\"op\":\"replace\",\"path\":\"/slides/0/t\",\"value\":\"b\"}]"));
+
+        LessonWriteBehind wb = start(store, journal);
+        try {
+            Lesson saved = store.rows.get(1L);
+            assertEquals(4L, saved.getVersion());
+            assertEquals(101L, saved.getLastModified());
+            assertEquals("{\"slides\":[{\"t\":\"b\"}]}", saved.getSlidesData());
+            assertEquals(1L, wb.stats().get("replayed"));
+            assertEquals(4L, wb.find(1L).getVersion());
+        } finally {
+            wb.shutdown();
+        }
+    }
+
+    @Test
+    void patchWithMismatchedBaseIsSkipped() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.put(lesson(1L, 3L, 100L, "课件", "{\"slides\":[{\"t\":\"a\"}]}"));
+        store.put(lesson(2L, 1L, 100L, "另一个", "{\"slides\":[]}"));
+        Path journal = journal(
+                // 基准是库里没有的 v2：跳过，接在它后面的一条同样对不上
+                patchLine(1L, 4L, 101L, "课件", 2L, 90L, "[{\"op\":\"replace\",\"path\":\"/slides/0/t\",\"value\":\"b\"}]"),
+                patchLine(1L, 5L, 102L, "课件", 4L, 101L, "[{\"op\":\"replace\",\"path\":\"/slides/0/t\",\"value\":\"c\"}]"),
+                // 基准对得上但补丁打不上（路径不存在）：同样跳过
+                patchLine(2L, 2L, 101L, "另一个", 1L, 100L, "[{\"op\":\"remove\",\"path\":\"/slides/0\"}]"),
+                putLine(3L, 1L, 100L, "新课件", "{\"slides\":[{\"t\":\"x\"}]}"));
+
+        LessonWriteBehind wb = start(store, journal);
+        try {
+            assertEquals(3L, store.rows.get(1L).getVersion());
+            assertEquals("{\"slides\":[{\"t\":\"a\"}]}", store.rows.get(1L).getSlidesData());
+            assertEquals(1L, store.rows.get(2L).getVersion());
+            assertEquals(1L, store.rows.get(3L).getVersion());
+            assertEquals(1, store.saved.size());
+        } finally {
+            wb.shutdown();
+        }
+    }
+
+    /**
+     * stage 先挂上新状态再追加日志行，checkpoint 可能恰好在两者之间重写日志：
+     * 日志里先是重写出的整份 v5，再是同一次同步的增量（v4 -> v5），随后是下一次同步（v5 -> v6）。
+     */
+    @Test
+    void checkpointRacingStageThenPatch() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.put(lesson(1L, 3L, 100L, "课件", "{\"slides\":[{\"t\":\"a\"}]}"));
+        Path journal = journal(
+                putLine(1L, 5L, 105L, "课件", "{\"slides\":[{\"t\":\"v5\"}]}"),
+                patchLine(1L, 5L, 105L, "课件", 4L, 104L, "[{\"op\":\"replace\",\"path\":\"/slides/0/t\",\"value\":\"v5\"}]"),
+                patchLine(1L, 6L, 106L, "课件", 5L, 105L, "[{\"op\":\"add\",\"path\":\"/slides/-\",\"value\":{\"t\":\"v6\"}}]"));
+
+        LessonWriteBehind wb = start(store, journal);
+        try {
+            Lesson saved = store.rows.get(1L);
+            assertEquals(6L, saved.getVersion());
+            assertEquals(106L, saved.getLastModified());
+            assertEquals("{\"slides\":[{\"t\":\"v5\"},{\"t\":\"v6\"}]}", saved.getSlidesData());
+        } finally {
+            wb.shutdown();
+        }
+    }
+
+    /**
+     * 重命名不改版本号：版本相同时按 lastModified 决定日志里的状态是否比库里新
+     */
+    @Test
+    void renameOrderingUsesVersionThenLastModified() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.put(lesson(1L, 5L, 200L, "旧名", "{\"slides\":[]}"));
+        store.put(lesson(2L, 5L, 300L, "库里已是新名", "{\"slides\":[]}"));
+        store.put(lesson(3L, 6L, 100L, "库里版本更高", "{\"slides\":[]}"));
+        Path journal = journal(
+                patchLine(1L, 5L, 201L, "新名", 5L, 200L, "[]"),
+                putLine(2L, 5L, 250L, "日志里的旧名", "{\"slides\":[]}"),
+                putLine(3L, 5L, 500L, "日志里的旧版本", "{\"slides\":[]}"));
+
+        LessonWriteBehind wb = start(store, journal);
+        try {
+            assertEquals("新名", store.rows.get(1L).getTitle());
+            assertEquals(201L, store.rows.get(1L).getLastModified());
+            assertEquals("库里已是新名", store.rows.get(2L).getTitle());
+            assertEquals("库里版本更高", store.rows.get(3L).getTitle());
+            assertEquals(1, store.saved.size());
+        } finally {
+            wb.shutdown();
+        }
+    }
+
+    @Test
+    void deleteWinsAndTruncatedLastLineIsIgnored() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.put(lesson(1L, 1L, 100L, "课件", "{\"slides\":[]}"));
+        Path journal = journal(
+                putLine(1L, 2L, 101L, "课件", "{\"slides\":[{\"t\":\"a\"}]}"),
+                "{\"op\":\"delete\",\"id\":1}",
+                patchLine(1L, 3L, 102L, "课件", 2L, 101L, "[]"),
+                putLine(2L, 1L, 100L, "新课件", "{\"slides\":[]}"),
+                "{\"op\":\"put\",\"id\":3,\"version\":1,\"slid");
+
+        LessonWriteBehind wb = start(store, journal);
+        try {
+            assertNull(store.rows.get(1L));
+            assertTrue(store.deleted.contains(1L));
+            assertEquals("新课件", store.rows.get(2L).getTitle());
+            assertNull(store.rows.get(3L));
+        } finally {
+            wb.shutdown();
+        }
+    }
+
+    /**
+     * 经由 stage 写出的日志（整份 + 增量 + 重命名），进程没落库就退出，重放后得到最后确认的状态
+     */
+    @Test
+    void stagedJournalReplaysToLastAcknowledgedState() throws IOException {
+        Path journal = dir.resolve("journal.ndjson");
+        InMemoryStore store = new InMemoryStore();
+        LessonWriteBehind first = new LessonWriteBehind(store, true, 60_000, 60_000, 600_000,
+                64L * 1024 * 1024, 0, false, journal.toString());
+        first.start();
+
+        ObjectNode deck = MAPPER.createObjectNode();
+        deck.put("theme", "default");
+        for (int i = 0; i < 20; i++) {
+            deck.withArray("slides").addObject().put("title", "第 " + i + " 页").put("content", "这一页的正文内容 " + i);
+        }
+        Lesson v1 = lesson(7L, 1L, 1000L, "课件", MAPPER.writeValueAsString(deck));
+        assertTrue(first.stage(v1, null));
+        ((ObjectNode) deck.withArray("slides").get(3)).put("content", "改过的正文");
+        assertTrue(first.stage(lesson(7L, 2L, 1000L, "课件", MAPPER.writeValueAsString(deck)), 1L));
+        assertTrue(first.stage(lesson(7L, 2L, 1000L, "改名后的课件", MAPPER.writeValueAsString(deck)), 2L));
+        Lesson acknowledged = first.find(7L);
+
+        String written = new String(Files.readAllBytes(journal), StandardCharsets.UTF_8);
+        assertTrue(written.contains("\"op\":\"patch\""), written);
+        // 模拟崩溃：只留下日志，库里什么都没有
+        Path crashed = Files.copy(journal, dir.resolve("crashed.ndjson"));
+        first.shutdown();
+
+        InMemoryStore fresh = new InMemoryStore();
+        LessonWriteBehind second = new LessonWriteBehind(fresh, true, 60_000, 60_000, 600_000,
+                64L * 1024 * 1024, 0, false, crashed.toString());
+        second.start();
+        try {
+            Lesson replayed = fresh.rows.get(7L);
+            assertEquals(acknowledged.getVersion(), replayed.getVersion());
+            assertEquals(acknowledged.getLastModified(), replayed.getLastModified());
+            assertEquals("改名后的课件", replayed.getTitle());
+            assertEquals(MAPPER.readTree(acknowledged.getSlidesData()), MAPPER.readTree(replayed.getSlidesData()));
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    private LessonWriteBehind start(InMemoryStore store, Path journal) throws IOException {
+        LessonWriteBehind wb = new LessonWriteBehind(store, true, 60_000, 60_000, 600_000,
+                64L * 1024 * 1024, 60_000, false, journal.toString());
+        wb.start();
+        return wb;
+    }
+
+    private Path journal(String... lines) throws IOException {
+        Path path = dir.resolve("journal.ndjson");
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String putLine(Long id, long version, long lastModified, String title, String slidesData) throws IOException {
+        ObjectNode line = MAPPER.createObjectNode();
+        line.put("op", "put");
+        line.put("id", id);
+        line.put("version", version);
+        line.put("title", title);
+        line.put("lastModified", lastModified);
+        line.put("slidesData", slidesData);
+        line.putNull("markdownContent");
+        return MAPPER.writeValueAsString(line);
+    }
+
+    private static String patchLine(Long id, long version, long lastModified, String title,
+                                    long baseVersion, long baseModified, String patch) throws IOException {
+        ObjectNode line = MAPPER.createObjectNode();
+        line.put("op", "patch");
+        line.put("id", id);
+        line.put("version", version);
+        line.put("title", title);
+        line.put("lastModified", lastModified);
+        line.put("baseVersion", baseVersion);
+        line.put("baseModified", baseModified);
+        line.set("patch", MAPPER.readTree(patch));
+        return MAPPER.writeValueAsString(line);
+    }
+
+    private static Lesson lesson(Long id, Long version, Long lastModified, String title, String slidesData) {
+        Lesson l = new Lesson();
+        l.setId(id);
+        l.setVersion(version);
+        l.setLastModified(lastModified);
+        l.setTitle(title);
+        l.setSlidesData(slidesData);
+        return l;
+    }
+
+    private static Lesson copy(Lesson src) {
+        Lesson l = lesson(src.getId(), src.getVersion(), src.getLastModified(), src.getTitle(), src.getSlidesData());
+        l.setMarkdownContent(src.getMarkdownContent());
+        return l;
+    }
+
+    /**
+     * 代替数据库的课件存储：整份存在内存里，记录写回和删除
+     */
+    private static final class InMemoryStore extends LessonSlideStore {
+
+        final Map<Long, Lesson> rows = new HashMap<>();
+        final List<Lesson> saved = new ArrayList<>();
+        final List<Long> deleted = new ArrayList<>();
+
+        InMemoryStore() {
+            super(null, null, null, null);
+        }
+
+        void put(Lesson lesson) {
+            rows.put(lesson.getId(), copy(lesson));
+        }
+
+        @Override
+        public synchronized Lesson load(Long id) {
+            Lesson row = rows.get(id);
+            return row == null ? null : copy(row);
+        }
+
+        @Override
+        public synchronized void save(Lesson full) {
+            saved.add(copy(full));
+            rows.put(full.getId(), copy(full));
+        }
+
+        @Override
+        public synchronized void delete(Long id) {
+            deleted.add(id);
+            rows.remove(id);
+        }
+    }
+}
@@ -274,7 +274,9 @@ function PresentationEditor() {
         text, 
         selectedModel,
         markdown, 
-        (updatedMd) => handleMarkdownFromAI(updatedMd)
+        (updatedMd) => handleMarkdownFromAI(updatedMd),
+        undefined,
+        currentLessonId
       );
 
       const newBotMsg: Message = {
@@ -284,8 +286,8 @@ function PresentationEditor() {
         timestamp: Date.now(),
       };
       
+      // 回答已由流式接口在服务端保存，这里只更新本地列表
       setMessages((prev) => [...prev, newBotMsg]);
-      lessonService.saveMessage(currentLessonId, newBotMsg);
     } catch (e: any) {
         setMessages((prev) => [...prev, {
             id: Date.now().toString(),
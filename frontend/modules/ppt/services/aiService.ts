@@ -6,13 +6,15 @@ export const sendMessageToAI = async (
   model: AIModel,
   currentMarkdown: string,
   onMarkdownUpdate: (newMarkdown: string) => void,
-  onPartialAssistantMessage?: (text: string) => void
+  onPartialAssistantMessage?: (text: string) => void,
+  lessonId?: string
 ): Promise<string> => {
   return sendMessageToGemini(
     userMessage,
     currentMarkdown,
     onMarkdownUpdate,
     model,
-    onPartialAssistantMessage
+    onPartialAssistantMessage,
+    lessonId
   );
 };
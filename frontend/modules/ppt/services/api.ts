@@ -5,6 +5,7 @@ import { DEFAULT_THEME } from '../utils/presentationSync';
  * 课件 API 封装：
  * - 与后端 `/api/lessons` 交互：创建、获取、同步、重命名、删除、聊天。
  * - 处理版本冲突（409 CONFLICT），失败时支持离线模式写入 localStorage。
+ * - 同步优先只上传相对上次同步版本的 JSON Patch（/patch），没有基准或被拒绝时退回整份上传（/sync）。
  * - 提供本地缓存列表与数据的读写，保证断网/后端不可用时仍可编辑。
  */
 
@@ -86,6 +87,77 @@ const removeLocalLessonListItem = (id: string) => {
   saveLocalLessonList(list);
 };
 
+// --- Delta Sync Helpers ---
+
+type JsonPatchOp =
+  | { op: 'add' | 'replace'; path: string; value: any }
+  | { op: 'remove'; path: string };
+
+/** 每个课件最近一次成功同步到后端的内容，增量同步以它为基准计算补丁 */
+const syncedBase = new Map<string, { doc: any; markdown: string; version: number }>();
+
+const escapePointer = (key: string) => key.replace(/~/g, '~0').replace(/\//g, '~1');
+
+/**
+ * 生成把 a 变成 b 的 JSON Patch（RFC 6902）。数组按下标逐项比较，尾部多出的 add、少掉的从后往前 remove。
+ * a、b 都应是 JSON.parse 出来的纯数据（没有 undefined）。
+ */
+const diffJson = (a: any, b: any, path: string, ops: JsonPatchOp[]) => {
+  if (a === b) return;
+  const bothContainers =
+    a !== null && b !== null && typeof a === 'object' && typeof b === 'object' && Array.isArray(a) === Array.isArray(b);
+  if (!bothContainers) {
+    ops.push({ op: 'replace', path, value: b });
+    return;
+  }
+  if (Array.isArray(a)) {
+    const common = Math.min(a.length, b.length);
+    for (let i = 0; i < common; i++) diffJson(a[i], b[i], `${path}/${i}`, ops);
+    for (let i = common; i < b.length; i++) ops.push({ op: 'add', path: `${path}/-`, value: b[i] });
+    for (let i = a.length - 1; i >= b.length; i--) ops.push({ op: 'remove', path: `${path}/${i}` });
+    return;
+  }
+  for (const key of Object.keys(a)) {
+    const child = `${path}/${escapePointer(key)}`;
+    if (!(key in b)) ops.push({ op: 'remove', path: child });
+    else diffJson(a[key], b[key], child, ops);
+  }
+  for (const key of Object.keys(b)) {
+    if (!(key in a)) ops.push({ op: 'add', path: `${path}/${escapePointer(key)}`, value: b[key] });
+  }
+};
+
+/**
+ * 尝试增量同步：只上传相对上次同步版本的补丁。返回 null 表示应退回整份上传
+ * （没有基准、基准版本不一致、补丁不比整份小多少，或后端拒绝了补丁）。
+ */
+const trySyncPatch = async (lessonId: string, doc: any, markdown: string, version: number, fullSize: number) => {
+  const base = syncedBase.get(lessonId);
+  if (!base || base.version !== version) return null;
+
+  const ops: JsonPatchOp[] = [];
+  diffJson(base.doc, doc, '', ops);
+  const body = JSON.stringify({
+    baseVersion: base.version,
+    patch: ops,
+    markdownContent: markdown === base.markdown ? null : markdown
+  });
+  if (body.length * 2 > fullSize) return null;
+
+  const response = await fetch(`${API_BASE}/lessons/${lessonId}/patch`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json' },
+    body
+  });
+  if (!response.ok) {
+    // 409 / 422 / 404：基准已过期或补丁对不上，丢掉基准走整份上传
+    syncedBase.delete(lessonId);
+    return null;
+  }
+  const data = await response.json();
+  return data.version as number;
+};
+
 // --- API Service ---
 
 export const lessonService = {
@@ -231,31 +303,39 @@ export const lessonService = {
    */
   syncLesson: async (lesson: Presentation, markdown: string): Promise<SyncResponse> => {
     const lessonId = lesson.id || '1';
+    const slidesData = JSON.stringify(lesson);
     const payload = {
-      slidesData: JSON.stringify(lesson), 
+      slidesData,
       markdownContent: markdown,
       version: lesson.version || 0
     };
 
     try {
-      const response = await fetch(`${API_BASE}/lessons/${lessonId}/sync`, {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/json' },
-        body: JSON.stringify(payload)
-      });
+      const doc = JSON.parse(slidesData);
+      const body = JSON.stringify(payload);
+      let version = await trySyncPatch(lessonId, doc, markdown, payload.version, body.length);
 
-      if (!response.ok) {
-        if (response.status === 409) throw new Error("CONFLICT");
-        throw new Error(`HTTP Error: ${response.status}`);
+      if (version === null) {
+        const response = await fetch(`${API_BASE}/lessons/${lessonId}/sync`, {
+          method: 'POST',
+          headers: { 'Content-Type': 'application/json' },
+          body
+        });
+
+        if (!response.ok) {
+          if (response.status === 409) throw new Error("CONFLICT");
+          throw new Error(`HTTP Error: ${response.status}`);
+        }
+        version = (await response.json()).version as number;
       }
 
-      const data = await response.json();
+      syncedBase.set(lessonId, { doc, markdown, version });
       upsertLocalLessonListItem({
         id: lessonId,
         title: lesson.title || '未命名课件',
         lastModified: Date.now()
       });
-      return { version: data.version, offline: false };
+      return { version, offline: false };
 
     } catch (error: any) {
       if (error.message === "CONFLICT") throw error;
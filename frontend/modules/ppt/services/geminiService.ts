@@ -7,6 +7,8 @@ import type OpenAI from 'openai';
  * - 流式/非流式请求，解析增量响应与工具调用，调用 markdownTools 修改幻灯片。
  * - 工具集支持读取/更新/插入幻灯片、生成图表/图片，最终返回更新后的 Markdown。
  */
+import { lessonService } from './api';
+import { Sender } from '../types';
 import { splitSlides, joinSlides, updateSlideAtIndex, appendSlide, insertSlide, getSlideContent } from "../utils/markdownTools";
 
 const SYSTEM_INSTRUCTION = `
@@ -155,15 +157,22 @@ export const sendMessageToGemini = async (
   currentMarkdown: string,
   onMarkdownUpdate: (newMarkdown: string) => void,
   modelOverride?: string,
-  onPartialAssistantMessage?: (text: string) => void
+  onPartialAssistantMessage?: (text: string) => void,
+  lessonId?: string
 ): Promise<string> => {
   const model = modelOverride || import.meta.env.VITE_MODEL || 'kimi-k2-thinking-251104';
   const slideCount = splitSlides(currentMarkdown).length;
 
   const API_BASE = '/api';
 
+  // 带 lessonId 时由服务端在流结束后把回答存为该课件的 bot 消息，前端不再回传整段回答
+  const streamUrl = lessonId
+    ? `${API_BASE}/ai/chat/completions/stream?lessonId=${encodeURIComponent(lessonId)}`
+    : `${API_BASE}/ai/chat/completions/stream`;
+  let answeredWithoutStream = false;
+
   const createChatCompletionStream = async (payload: any) => {
-    const res = await fetch(`${API_BASE}/ai/chat/completions/stream`, {
+    const res = await fetch(streamUrl, {
       method: 'POST',
       headers: { 'Content-Type': 'application/json' },
       body: JSON.stringify({ ...payload, stream: true })
@@ -270,8 +279,11 @@ export const sendMessageToGemini = async (
 
   const createChatCompletion = async (payload: any) => {
     try {
-      return await createChatCompletionStream(payload);
+      const response = await createChatCompletionStream(payload);
+      answeredWithoutStream = false;
+      return response;
     } catch {
+      answeredWithoutStream = true;
       const res = await fetch(`${API_BASE}/ai/chat/completions`, {
         method: 'POST',
         headers: { 'Content-Type': 'application/json' },
@@ -376,6 +388,15 @@ export const sendMessageToGemini = async (
       turnCount++;
     } else {
       finalResponseText = message.content || "操作已完成。";
+      // 服务端只保存流式且有文本的最终回答；非流式回退或空回答（兜底文案）由前端保存
+      if (lessonId && (answeredWithoutStream || !message.content)) {
+        lessonService.saveMessage(lessonId, {
+          id: Date.now().toString(),
+          text: finalResponseText,
+          sender: Sender.BOT,
+          timestamp: Date.now(),
+        });
+      }
       break;
     }
   }